@@ -0,0 +1,105 @@
+package pharmacie.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pharmacie.service.AffectationFournisseurs;
+
+/**
+ * Choix des fournisseurs du réapprovisionnement (couverture d'ensemble gloutonne),
+ * sans BD : des médicaments en rupture répartis au hasard dans les catégories,
+ * chaque fournisseur fournit quelques catégories.
+ * - couverture : construction des bitsets (un par fournisseur) puis couverture
+ * - couvrir : la couverture seule
+ *
+ * mvn -Pbench test-compile exec:exec -Djmh.args="AffectationFournisseurs"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AffectationFournisseursBenchmark {
+    static final int CATEGORIES = 200;
+
+    @Param({ "1000", "30000" })
+    public int ruptures;
+
+    @Param({ "100", "500" })
+    public int fournisseurs;
+
+    // La catégorie de chaque médicament en rupture
+    int[] categories;
+    // Les fournisseurs de chaque catégorie (la table de routage)
+    int[][] routes;
+    BitSet[] couvertures;
+    double[] couts;
+
+    @Setup(Level.Trial)
+    public void generer() {
+        var hasard = new Random(42);
+        categories = new int[ruptures];
+        for (int i = 0; i < ruptures; i++) {
+            categories[i] = hasard.nextInt(CATEGORIES);
+        }
+        List<List<Integer>> parCategorie = new ArrayList<>();
+        for (int c = 0; c < CATEGORIES; c++) {
+            parCategorie.add(new ArrayList<>());
+        }
+        for (int f = 0; f < fournisseurs; f++) {
+            // De 1 à 10 catégories par fournisseur
+            int nombre = 1 + hasard.nextInt(10);
+            for (int k = 0; k < nombre; k++) {
+                parCategorie.get(hasard.nextInt(CATEGORIES)).add(f);
+            }
+        }
+        routes = new int[CATEGORIES][];
+        for (int c = 0; c < CATEGORIES; c++) {
+            routes[c] = parCategorie.get(c).stream().mapToInt(Integer::intValue).distinct().toArray();
+        }
+        couts = new double[fournisseurs];
+        Arrays.fill(couts, 1);
+        couvertures = bitsets();
+    }
+
+    @Benchmark
+    public Object couverture() {
+        return AffectationFournisseurs.couvrir(bitsets(), couts);
+    }
+
+    @Benchmark
+    public Object couvrir() {
+        return AffectationFournisseurs.couvrir(couvertures, couts);
+    }
+
+    private BitSet[] bitsets() {
+        var bitsets = new BitSet[fournisseurs];
+        for (int f = 0; f < fournisseurs; f++) {
+            bitsets[f] = new BitSet(ruptures);
+        }
+        for (int i = 0; i < ruptures; i++) {
+            for (int f : routes[categories[i]]) {
+                bitsets[f].set(i);
+            }
+        }
+        return bitsets;
+    }
+}
@@ -0,0 +1,106 @@
+package pharmacie.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import pharmacie.config.SurveillanceEpinglage;
+
+/**
+ * <pre>
+ * Charge HTTP : N clients simultanés envoient chacun quelques requêtes, on mesure
+ * le débit et la latence (médiane, 99e centile), avec les requêtes servies par
+ * les threads de Tomcat (plateforme, 200 au maximum) puis par des threads virtuels (profil "virtual").
+ * - wait : /api/simple/wait, un Thread.sleep d'une seconde (blocage sans ressource partagée)
+ * - commande : /api/services/commandes/1, lecture JDBC (limitée par le pool de connexions)
+ *
+ * mvn -Pbench test-compile exec:exec -Dbench.main=pharmacie.bench.ChargeHttp -Djmh.args="100 400 1000"
+ * (arguments : les nombres de clients simultanés)
+ * </pre>
+ */
+public final class ChargeHttp {
+    // Requêtes envoyées par chaque client
+    static final int REQUETES_PAR_CLIENT = 3;
+
+    private ChargeHttp() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] clients = args.length == 0 ? new int[] { 100, 400, 1000 }
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        System.out.printf("%-10s %-9s %8s %9s %10s %9s %9s %7s%n",
+                "threads", "endpoint", "clients", "requetes", "req/s", "p50 ms", "p99 ms", "erreurs");
+        for (boolean virtuels : new boolean[] { false, true }) {
+            try (var contexte = ContexteBench.demarrer(
+                    "spring.threads.virtual.enabled=" + virtuels,
+                    "spring.profiles.active=" + (virtuels ? "virtual" : "default"))) {
+                int port = ((ServletWebServerApplicationContext) contexte).getWebServer().getPort();
+                String mode = virtuels ? "virtuels" : "plateforme";
+                for (int n : clients) {
+                    mesurer(mode, "wait", "http://localhost:" + port + "/api/simple/wait?timeout=1", n);
+                    mesurer(mode, "commande", "http://localhost:" + port + "/api/services/commandes/1", n);
+                }
+                contexte.getBeanProvider(SurveillanceEpinglage.class).ifAvailable(s ->
+                        System.out.println("Threads virtuels épinglés : " + s.nombreEpinglages()));
+            }
+        }
+    }
+
+    private static void mesurer(String mode, String nom, String url, int clients) throws Exception {
+        var requete = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", "application/json, text/plain")
+                .timeout(Duration.ofMinutes(2))
+                .build();
+        // Les clients sont des threads virtuels : le générateur de charge n'est pas la limite
+        try (var executeur = Executors.newVirtualThreadPerTaskExecutor();
+                var http = HttpClient.newBuilder().executor(executeur).build()) {
+            long debut = System.nanoTime();
+            List<Future<long[]>> resultats = new ArrayList<>(clients);
+            for (int c = 0; c < clients; c++) {
+                resultats.add(executeur.submit(() -> {
+                    long[] latences = new long[REQUETES_PAR_CLIENT];
+                    for (int i = 0; i < REQUETES_PAR_CLIENT; i++) {
+                        long t0 = System.nanoTime();
+                        try {
+                            var reponse = http.send(requete, HttpResponse.BodyHandlers.discarding());
+                            latences[i] = reponse.statusCode() == 200 ? System.nanoTime() - t0 : -1;
+                        } catch (Exception e) {
+                            latences[i] = -1;
+                        }
+                    }
+                    return latences;
+                }));
+            }
+            long[] toutes = new long[clients * REQUETES_PAR_CLIENT];
+            int k = 0;
+            for (var r : resultats) {
+                for (long l : r.get()) {
+                    toutes[k++] = l;
+                }
+            }
+            double secondes = (System.nanoTime() - debut) / 1e9;
+            long erreurs = Arrays.stream(toutes).filter(l -> l < 0).count();
+            long[] reussies = Arrays.stream(toutes).filter(l -> l >= 0).sorted().toArray();
+            System.out.printf("%-10s %-9s %8d %9d %10.1f %9.1f %9.1f %7d%n",
+                    mode, nom, clients, toutes.length, toutes.length / secondes,
+                    centile(reussies, 0.50), centile(reussies, 0.99), erreurs);
+        }
+    }
+
+    // En millisecondes
+    private static double centile(long[] tries, double p) {
+        if (tries.length == 0) {
+            return Double.NaN;
+        }
+        return tries[Math.min(tries.length - 1, (int) Math.ceil(p * tries.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,141 @@
+package pharmacie.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pharmacie.service.CommandeService;
+import pharmacie.service.LectureCommandeService;
+
+/**
+ * <pre>
+ * Les traitements de CommandeService, sur H2 en mémoire avec le jeu de données synthétique (JeuDeDonnees).
+ * Pour mesurer avec 1 thread puis N threads, avec le profileur GC, et enregistrer les résultats en JSON :
+ * mvn -Pbench test-compile exec:exec -Dbench.main=pharmacie.bench.MesuresCommandeService -Djmh.args="1 8"
+ * Ou directement avec JMH :
+ * mvn -Pbench test-compile exec:exec -Djmh.args="CommandeServiceBenchmark -t 8 -prof gc -rf json"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class CommandeServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Application {
+        // Taille du jeu de données synthétique
+        @Param({ "1" })
+        public int echelle;
+
+        ConfigurableApplicationContext contexte;
+        CommandeService commandeService;
+        LectureCommandeService lectureService;
+        JeuDeDonnees jeu;
+
+        @Setup(Level.Trial)
+        public void demarrer() {
+            contexte = ContexteBench.demarrer();
+            commandeService = contexte.getBean(CommandeService.class);
+            lectureService = contexte.getBean(LectureCommandeService.class);
+            jeu = JeuDeDonnees.generer(contexte.getBean(JdbcTemplate.class), echelle);
+        }
+
+        @TearDown(Level.Trial)
+        public void arreter() {
+            contexte.close();
+        }
+
+        String dispensaireAuHasard() {
+            return jeu.dispensaire(1 + ThreadLocalRandom.current().nextInt(jeu.dispensaires));
+        }
+
+        int medicamentAuHasard() {
+            return jeu.medicament(ThreadLocalRandom.current().nextInt(jeu.medicaments));
+        }
+    }
+
+    // Chaque thread ajoute des lignes à sa propre commande, une nouvelle à chaque itération
+    // pour que la taille de la commande ne dépende pas de la durée de la mesure
+    @State(Scope.Thread)
+    public static class CommandeEnCours {
+        int numero;
+
+        @Setup(Level.Iteration)
+        public void creer(Application application) {
+            numero = application.commandeService.creerCommande(application.dispensaireAuHasard()).getNumero();
+        }
+    }
+
+    // Une ligne à supprimer, ajoutée avant chaque appel
+    @State(Scope.Thread)
+    public static class LigneASupprimer {
+        int id;
+
+        @Setup(Level.Invocation)
+        public void ajouter(Application application, CommandeEnCours commande) {
+            id = application.commandeService.ajouterLigne(commande.numero, application.medicamentAuHasard(), 1).getId();
+        }
+    }
+
+    // Une commande à expédier, créée avant chaque appel
+    @State(Scope.Thread)
+    public static class CommandeAExpedier {
+        int numero;
+
+        @Setup(Level.Invocation)
+        public void creer(Application application) {
+            numero = application.commandeService.creerCommande(application.dispensaireAuHasard()).getNumero();
+            int premier = ThreadLocalRandom.current().nextInt(application.jeu.medicaments - JeuDeDonnees.LIGNES_PAR_COMMANDE);
+            for (int i = 0; i < JeuDeDonnees.LIGNES_PAR_COMMANDE; i++) {
+                application.commandeService.ajouterLigne(numero, application.jeu.medicament(premier + i), 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object creerCommande(Application application) {
+        return application.commandeService.creerCommande(application.dispensaireAuHasard());
+    }
+
+    @Benchmark
+    public Object ajouterLigne(Application application, CommandeEnCours commande) {
+        return application.commandeService.ajouterLigne(commande.numero, application.medicamentAuHasard(), 1);
+    }
+
+    @Benchmark
+    public void supprimerLigne(Application application, LigneASupprimer ligne) {
+        application.commandeService.supprimerLigne(ligne.id);
+    }
+
+    @Benchmark
+    public Object enregistreExpedition(Application application, CommandeAExpedier commande) {
+        return application.commandeService.enregistreExpedition(commande.numero);
+    }
+
+    @Benchmark
+    public Object getCommandeEnCoursPourEntites(Application application) {
+        return application.commandeService.getCommandeEnCoursPour(JeuDeDonnees.PREMIER_DISPENSAIRE);
+    }
+
+    @Benchmark
+    public Object getCommandeEnCoursPourLecture(Application application) {
+        return application.lectureService.getCommandeEnCoursPour(JeuDeDonnees.PREMIER_DISPENSAIRE, null, 100);
+    }
+}
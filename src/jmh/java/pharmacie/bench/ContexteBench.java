@@ -0,0 +1,49 @@
+package pharmacie.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import pharmacie.WebApp;
+
+/**
+ * Démarre l'application sur une BD H2 en mémoire initialisée par data.sql,
+ * pour les mesures de performance. Le serveur web écoute sur un port libre.
+ */
+final class ContexteBench {
+
+    private ContexteBench() {
+    }
+
+    /**
+     * @param proprietes des propriétés supplémentaires, sous la forme "cle=valeur"
+     * @return le contexte Spring démarré
+     */
+    static ConfigurableApplicationContext demarrer(String... proprietes) {
+        // Pas de redémarrage automatique de Spring Boot DevTools
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        List<String> toutes = new ArrayList<>(List.of(
+            // Une BD différente à chaque démarrage
+            "spring.datasource.url=jdbc:h2:mem:bench" + System.nanoTime(),
+            // Pas de traces SQL pendant les mesures
+            "logging.level.root=WARN",
+            "logging.level.web=WARN",
+            "logging.level.org.hibernate.SQL=WARN",
+            "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN",
+            "spring.h2.console.enabled=false",
+            // Les contrôleurs REST ont besoin du contexte web, on choisit un port libre
+            "server.port=0",
+            // Valeurs fictives pour la configuration Mailgun (fichier .env)
+            "mailgun.api-key=bench",
+            "mailgun.domain=bench",
+            "mailgun.from=bench@bench"));
+        toutes.addAll(List.of(proprietes));
+        return new SpringApplicationBuilder(WebApp.class)
+            .web(WebApplicationType.SERVLET)
+            .properties(toutes.toArray(String[]::new))
+            .run();
+    }
+}
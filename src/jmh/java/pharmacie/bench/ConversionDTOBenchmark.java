@@ -0,0 +1,106 @@
+package pharmacie.bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import pharmacie.dto.CommandeDTO;
+import pharmacie.dto.ConvertisseurDTO;
+import pharmacie.dto.EnTeteCommandeDTO;
+import pharmacie.dto.LigneDTO;
+import pharmacie.entity.Commande;
+import pharmacie.entity.Dispensaire;
+import pharmacie.entity.Ligne;
+import pharmacie.entity.Medicament;
+
+/**
+ * Conversion des entités en DTO : ModelMapper (réflexion) et ConvertisseurDTO (écrit explicitement).
+ * Sans BD : les entités sont construites en mémoire.
+ * Pour mesurer aussi les allocations par conversion (gc.alloc.rate.norm, en octets par opération) :
+ *
+ * mvn -Pbench test-compile exec:exec -Djmh.args="ConversionDTO -prof gc"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionDTOBenchmark {
+
+    // Nombre de lignes de la commande
+    @Param({ "5", "50" })
+    public int lignes;
+
+    ModelMapper modelMapper;
+    ConvertisseurDTO convertisseur;
+    Commande commande;
+    Ligne ligne;
+
+    @Setup
+    public void preparer() {
+        modelMapper = new ModelMapper();
+        convertisseur = new ConvertisseurDTO();
+        var dispensaire = new Dispensaire("DSP01", "Dispensaire Central Dakar");
+        dispensaire.setContact("Dr. Amadou Diop");
+        commande = new Commande(dispensaire);
+        ReflectionTestUtils.setField(commande, "numero", 1);
+        for (int i = 1; i <= lignes; i++) {
+            var medicament = new Medicament();
+            ReflectionTestUtils.setField(medicament, "reference", i);
+            medicament.setNom("Médicament " + i);
+            medicament.setPrixUnitaire(new BigDecimal("12.50"));
+            var l = new Ligne(commande, medicament, i);
+            ReflectionTestUtils.setField(l, "id", i);
+            commande.getLignes().add(l);
+        }
+        ligne = commande.getLignes().get(0);
+        // Le premier appel de ModelMapper analyse les classes, on ne le mesure pas
+        modelMapper.map(commande, CommandeDTO.class);
+        modelMapper.map(commande, EnTeteCommandeDTO.class);
+        modelMapper.map(ligne, LigneDTO.class);
+    }
+
+    @Benchmark
+    public CommandeDTO commandeModelMapper() {
+        return modelMapper.map(commande, CommandeDTO.class);
+    }
+
+    @Benchmark
+    public CommandeDTO commandeConvertisseur() {
+        return convertisseur.commande(commande);
+    }
+
+    @Benchmark
+    public EnTeteCommandeDTO enTeteModelMapper() {
+        return modelMapper.map(commande, EnTeteCommandeDTO.class);
+    }
+
+    @Benchmark
+    public EnTeteCommandeDTO enTeteConvertisseur() {
+        return convertisseur.enTete(commande);
+    }
+
+    @Benchmark
+    public LigneDTO ligneModelMapper() {
+        return modelMapper.map(ligne, LigneDTO.class);
+    }
+
+    @Benchmark
+    public LigneDTO ligneConvertisseur() {
+        return convertisseur.ligne(ligne);
+    }
+}
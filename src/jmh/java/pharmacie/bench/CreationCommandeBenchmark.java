@@ -0,0 +1,94 @@
+package pharmacie.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import pharmacie.dao.DispensaireRepository;
+import pharmacie.service.CommandeService;
+import pharmacie.service.ReconciliationArticles;
+
+/**
+ * Création d'une commande pour un dispensaire qui a un long historique :
+ * 1 million de lignes de commandes expédiées.
+ * - avant : la remise est décidée par SUM(quantite) sur toutes les lignes du dispensaire
+ * - apres : la remise est décidée par le compteur Dispensaire.articlesExpedies
+ *
+ * mvn -Pbench test-compile exec:exec -Djmh.args="CreationCommande"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class CreationCommandeBenchmark {
+
+    static final String DISPENSAIRE = "DSP01";
+    // 33 334 commandes de 30 lignes (une par médicament de data.sql)
+    static final int COMMANDES = 33_334;
+    static final int TRANCHE = 1000;
+
+    ConfigurableApplicationContext contexte;
+    CommandeService commandeService;
+    DispensaireRepository dispensaireDao;
+    TransactionTemplate transaction;
+
+    @Setup(Level.Trial)
+    public void demarrer() {
+        contexte = ContexteBench.demarrer();
+        commandeService = contexte.getBean(CommandeService.class);
+        dispensaireDao = contexte.getBean(DispensaireRepository.class);
+        transaction = contexte.getBean(TransactionTemplate.class);
+        var jdbc = contexte.getBean(JdbcTemplate.class);
+        // L'historique : des commandes expédiées, avec une ligne pour chaque médicament
+        // Par tranches de 1000 commandes, pour ne pas garder tout l'historique dans une seule transaction
+        for (int debut = 0; debut < COMMANDES; debut += TRANCHE) {
+            int numeroMin = jdbc.queryForObject("SELECT MAX(numero) FROM commande", Integer.class);
+            jdbc.update("""
+                INSERT INTO commande (saisiele, envoyeele, dispensaire_code, remise)
+                SELECT DATE '2020-01-01', DATE '2020-01-02', ?, 0 FROM SYSTEM_RANGE(1, ?)
+                """, DISPENSAIRE, Math.min(TRANCHE, COMMANDES - debut));
+            jdbc.update("""
+                INSERT INTO ligne (commande_numero, medicament_reference, quantite)
+                SELECT c.numero, m.reference, 1 FROM commande c CROSS JOIN medicament m
+                WHERE c.numero > ?
+                """, numeroMin);
+        }
+        // Le compteur d'articles expédiés tient compte de l'historique
+        contexte.getBean(ReconciliationArticles.class).reconcilier();
+    }
+
+    @TearDown(Level.Trial)
+    public void arreter() {
+        contexte.close();
+    }
+
+    @Benchmark
+    public Object avant() {
+        // Le calcul fait auparavant par creerCommande, dans la même transaction
+        return transaction.execute(status -> {
+            dispensaireDao.nombreArticlesCommandesPar(DISPENSAIRE);
+            return commandeService.creerCommande(DISPENSAIRE);
+        });
+    }
+
+    @Benchmark
+    public Object apres() {
+        return commandeService.creerCommande(DISPENSAIRE);
+    }
+}
@@ -0,0 +1,101 @@
+package pharmacie.bench;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * <pre>
+ * Jeu de données synthétique pour les mesures de performance, ajouté à celui de data.sql.
+ * Pour l'échelle 1 :
+ * - 10 dispensaires (codes S0001, S0002...)
+ * - 1 000 médicaments (100 par catégorie), avec un stock très grand
+ * - 10 000 commandes expédiées de 10 lignes chacune
+ * - 20 commandes en cours de 10 lignes pour chaque dispensaire
+ * Les quantités sont proportionnelles à l'échelle.
+ * Les compteurs (unitesCommandees, articlesExpedies) sont cohérents avec les lignes.
+ * </pre>
+ */
+final class JeuDeDonnees {
+    static final String PREMIER_DISPENSAIRE = "S0001";
+    static final int LIGNES_PAR_COMMANDE = 10;
+    // Les commandes sont insérées par tranches, pas dans une seule transaction
+    static final int TRANCHE = 1000;
+
+    final int dispensaires;
+    final int premierMedicament;
+    final int medicaments;
+
+    private JeuDeDonnees(int dispensaires, int premierMedicament, int medicaments) {
+        this.dispensaires = dispensaires;
+        this.premierMedicament = premierMedicament;
+        this.medicaments = medicaments;
+    }
+
+    /**
+     * @return le code du dispensaire synthétique numéro i (de 1 à dispensaires)
+     */
+    String dispensaire(int i) {
+        return "S%04d".formatted(i);
+    }
+
+    /**
+     * @return la référence du médicament synthétique numéro i (de 0 à medicaments - 1)
+     */
+    int medicament(int i) {
+        return premierMedicament + i;
+    }
+
+    static JeuDeDonnees generer(JdbcTemplate jdbc, int echelle) {
+        int nbDispensaires = 10 * echelle;
+        jdbc.update("""
+            INSERT INTO dispensaire (code, nom)
+            SELECT 'S' || LPAD(x, 4, '0'), 'Dispensaire synthétique ' || x FROM SYSTEM_RANGE(1, ?)
+            """, nbDispensaires);
+        int premier = jdbc.queryForObject("SELECT MAX(reference) + 1 FROM medicament", Integer.class);
+        // Les références sont consécutives : une seule instruction INSERT
+        jdbc.update("""
+            INSERT INTO medicament (nom, categorie_code, prix_unitaire, unites_en_stock, unites_commandees,
+                niveau_de_reappro, indisponible)
+            SELECT 'Synthétique ' || c.code || '-' || x, c.code, 10, 1000000000, 0, 10, FALSE
+            FROM categorie c CROSS JOIN SYSTEM_RANGE(1, ?)
+            """, 100 * echelle);
+        int nbMedicaments = jdbc.queryForObject("SELECT COUNT(*) FROM medicament WHERE reference >= ?", Integer.class, premier);
+        var jeu = new JeuDeDonnees(nbDispensaires, premier, nbMedicaments);
+
+        jeu.commandes(jdbc, 10_000 * echelle, true);
+        jeu.commandes(jdbc, 20 * nbDispensaires, false);
+
+        // Les compteurs, à partir des lignes
+        jdbc.update("""
+            UPDATE medicament m SET unites_commandees = (
+                SELECT COALESCE(SUM(l.quantite), 0)
+                FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+                WHERE c.envoyeele IS NULL AND l.medicament_reference = m.reference)
+            """);
+        jdbc.update("""
+            UPDATE dispensaire d SET articles_expedies = (
+                SELECT COALESCE(SUM(l.quantite), 0)
+                FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+                WHERE c.dispensaire_code = d.code AND c.envoyeele IS NOT NULL)
+            """);
+        return jeu;
+    }
+
+    // Des commandes réparties entre les dispensaires synthétiques, avec des médicaments différents sur chaque ligne
+    private void commandes(JdbcTemplate jdbc, int nombre, boolean expediees) {
+        for (int debut = 0; debut < nombre; debut += TRANCHE) {
+            int numeroMin = jdbc.queryForObject("SELECT MAX(numero) FROM commande", Integer.class);
+            jdbc.update("""
+                INSERT INTO commande (saisiele, envoyeele, dispensaire_code, remise)
+                SELECT DATE '2024-01-01', CASE WHEN ? THEN DATE '2024-01-02' END,
+                    'S' || LPAD(MOD(x, ?) + 1, 4, '0'), 0
+                FROM SYSTEM_RANGE(1, ?)
+                """, expediees, dispensaires, Math.min(TRANCHE, nombre - debut));
+            jdbc.update("""
+                INSERT INTO ligne (commande_numero, medicament_reference, quantite)
+                SELECT c.numero, ? + MOD(c.numero * 31 + r.x, ?), 1 + MOD(c.numero + r.x, 5)
+                FROM commande c CROSS JOIN SYSTEM_RANGE(0, ?) r
+                WHERE c.numero > ?
+                """, premierMedicament, medicaments, LIGNES_PAR_COMMANDE - 1, numeroMin);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package pharmacie.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <pre>
+ * Lance CommandeServiceBenchmark pour chaque nombre de threads demandé, avec le profileur GC
+ * (allocations par opération, nombre et durée des GC).
+ * Les résultats sont enregistrés au format JSON dans target/jmh/commande-service-{threads}-threads.json,
+ * à comparer d'une version à l'autre (ex: https://jmh.morethan.io).
+ *
+ * Arguments : les nombres de threads (1 et 8 par défaut), et optionnellement echelle=N
+ * mvn -Pbench test-compile exec:exec -Dbench.main=pharmacie.bench.MesuresCommandeService -Djmh.args="1 8 echelle=2"
+ * </pre>
+ */
+public final class MesuresCommandeService {
+
+    private MesuresCommandeService() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> threads = new ArrayList<>();
+        String echelle = "1";
+        for (var arg : args) {
+            if (arg.startsWith("echelle=")) {
+                echelle = arg.substring("echelle=".length());
+            } else {
+                threads.add(Integer.parseInt(arg));
+            }
+        }
+        if (threads.isEmpty()) {
+            threads = List.of(1, 8);
+        }
+        new File("target/jmh").mkdirs();
+        for (int t : threads) {
+            var options = new OptionsBuilder()
+                    .include(CommandeServiceBenchmark.class.getName())
+                    .param("echelle", echelle)
+                    .threads(t)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh/commande-service-" + t + "-threads.json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
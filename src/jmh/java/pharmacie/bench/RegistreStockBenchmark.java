@@ -0,0 +1,88 @@
+package pharmacie.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pharmacie.service.CommandeService;
+import pharmacie.service.RegistreStock;
+
+/**
+ * Contention sur un médicament très demandé : toutes les lignes ajoutées portent sur
+ * le même médicament, chaque thread remplit sa propre commande.
+ * On compare la réservation par UPDATE conditionnel (registre=false)
+ * et la réservation dans le registre du stock en mémoire (registre=true).
+ *
+ * mvn -Pbench test-compile exec:exec -Djmh.args="RegistreStock"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistreStockBenchmark {
+
+    // Le médicament "très demandé" (Paracétamol 500mg dans data.sql)
+    static final int MEDICAMENT = 1;
+
+    @State(Scope.Benchmark)
+    public static class Application {
+        @Param({ "false", "true" })
+        public boolean registre;
+
+        ConfigurableApplicationContext contexte;
+        CommandeService commandeService;
+
+        @Setup(Level.Trial)
+        public void demarrer() {
+            contexte = ContexteBench.demarrer("pharmacie.stock.registre.enabled=" + registre);
+            commandeService = contexte.getBean(CommandeService.class);
+            // Un stock suffisant pour toute la durée de la mesure
+            contexte.getBean(JdbcTemplate.class)
+                .update("UPDATE medicament SET unites_en_stock = ? WHERE reference = ?", Integer.MAX_VALUE / 2, MEDICAMENT);
+            contexte.getBeanProvider(RegistreStock.class).ifAvailable(RegistreStock::reconstruire);
+        }
+
+        @TearDown(Level.Trial)
+        public void arreter() {
+            contexte.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Commande {
+        int numero;
+
+        @Setup(Level.Trial)
+        public void creer(Application application) {
+            numero = application.commandeService.creerCommande("DSP01").getNumero();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object ajouterLigneUnThread(Application application, Commande commande) {
+        return application.commandeService.ajouterLigne(commande.numero, MEDICAMENT, 1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object ajouterLigneHuitThreads(Application application, Commande commande) {
+        return application.commandeService.ajouterLigne(commande.numero, MEDICAMENT, 1);
+    }
+}
@@ -0,0 +1,159 @@
+package pharmacie.bench;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pharmacie.dao.MedicamentRepository;
+import pharmacie.dao.VentesMedicamentRepository;
+import pharmacie.service.DispensairesDistincts;
+import pharmacie.service.FaitsVentes;
+import pharmacie.service.VentesMedicaments;
+
+/**
+ * <pre>
+ * Unités vendues par médicament d'une catégorie (/api/stats), sur le jeu de données synthétique
+ * (100 000 lignes par unité d'échelle) :
+ * - lignes : SUM(quantite) GROUP BY sur les lignes de la catégorie (MedicamentRepository.medicamentsCommandesPour)
+ * - ventes : lecture de la table des ventes (VentesMedicamentRepository.unitesVenduesPour)
+ * - faits : somme des lignes en mémoire, par colonnes (FaitsVentes.unitesVenduesPour)
+ * - verification : recalcul complet des ventes à partir des lignes (VentesMedicaments.verifier)
+ * Unités vendues par dispensaire pour une catégorie, sur une période (requête sans table dédiée) :
+ * - dispensairesSql : SUM(quantite) GROUP BY sur les lignes, jointes aux commandes et aux médicaments
+ * - dispensairesFaits : somme des lignes en mémoire, en parallèle (FaitsVentes.sommer)
+ * Nombre de dispensaires différents qui ont commandé un médicament :
+ * - distinctsSql : COUNT(DISTINCT) sur les lignes jointes aux commandes (DispensairesDistincts, mode exact)
+ * - distinctsHyperLogLog : fusion des registres HyperLogLog des mois (DispensairesDistincts)
+ *
+ * mvn -Pbench test-compile exec:exec -Djmh.args="StatistiquesBenchmark"
+ * 10 millions de lignes (H2 en mémoire, prévoir la mémoire) :
+ * mvn -Pbench test-compile exec:exec -Djmh.args="StatistiquesBenchmark -p echelle=100 -jvmArgs -Xmx12g"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class StatistiquesBenchmark {
+
+    private static final String PAR_DISPENSAIRE = """
+        SELECT c.dispensaire_code, SUM(l.quantite)
+        FROM ligne l
+        JOIN commande c ON c.numero = l.commande_numero
+        JOIN medicament m ON m.reference = l.medicament_reference
+        WHERE m.categorie_code = ? AND c.saisiele >= ?
+        GROUP BY c.dispensaire_code
+        """;
+    private static final LocalDate DEBUT = LocalDate.of(2024, 1, 1);
+
+    @Param({ "1", "10" })
+    public int echelle;
+
+    ConfigurableApplicationContext contexte;
+    MedicamentRepository medicamentDao;
+    VentesMedicamentRepository ventesDao;
+    VentesMedicaments ventes;
+    FaitsVentes faits;
+    DispensairesDistincts distincts;
+    JdbcTemplate jdbc;
+    int[] categories;
+    int[] medicaments;
+
+    @Setup(Level.Trial)
+    public void demarrer() {
+        contexte = ContexteBench.demarrer();
+        jdbc = contexte.getBean(JdbcTemplate.class);
+        JeuDeDonnees.generer(jdbc, echelle);
+        medicamentDao = contexte.getBean(MedicamentRepository.class);
+        ventesDao = contexte.getBean(VentesMedicamentRepository.class);
+        ventes = contexte.getBean(VentesMedicaments.class);
+        // Le jeu de données est écrit en SQL : les ventes sont calculées par la vérification
+        ventes.verifier();
+        // ... et les faits en mémoire rechargés
+        faits = contexte.getBean(FaitsVentes.class);
+        faits.reconstruire();
+        // ... et les registres HyperLogLog calculés à partir des lignes (instance à part, pas de sauvegarde)
+        jdbc.update("DELETE FROM registres_dispensaires");
+        distincts = new DispensairesDistincts(jdbc, 10);
+        distincts.charger();
+        categories = jdbc.queryForList("SELECT code FROM categorie", Integer.class).stream()
+            .mapToInt(Integer::intValue).toArray();
+        medicaments = jdbc.queryForList("SELECT reference FROM medicament", Integer.class).stream()
+            .mapToInt(Integer::intValue).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void arreter() {
+        contexte.close();
+    }
+
+    @Benchmark
+    public Object lignes() {
+        return medicamentDao.medicamentsCommandesPour(categorieAuHasard());
+    }
+
+    @Benchmark
+    public Object ventes() {
+        return ventesDao.unitesVenduesPour(categorieAuHasard());
+    }
+
+    @Benchmark
+    public Object faits() {
+        return faits.unitesVenduesPour(categorieAuHasard());
+    }
+
+    @Benchmark
+    public Object dispensairesSql() {
+        return jdbc.queryForList(PAR_DISPENSAIRE, categorieAuHasard(), DEBUT);
+    }
+
+    @Benchmark
+    public Object dispensairesFaits() {
+        return faits.sommer(new FaitsVentes.Filtre(DEBUT, null, categorieAuHasard(), null, null), FaitsVentes.Axe.DISPENSAIRE);
+    }
+
+    @Benchmark
+    public Object distinctsSql() {
+        return distincts.compter(medicamentAuHasard(), null, null, true);
+    }
+
+    @Benchmark
+    public Object distinctsHyperLogLog() {
+        return distincts.compter(medicamentAuHasard(), null, null, false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int verification() {
+        return ventes.verifier();
+    }
+
+    private int medicamentAuHasard() {
+        return medicaments[ThreadLocalRandom.current().nextInt(medicaments.length)];
+    }
+
+    private int categorieAuHasard() {
+        return categories[ThreadLocalRandom.current().nextInt(categories.length)];
+    }
+}
@@ -0,0 +1,15 @@
+package pharmacie.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Active l'exécution des traitements planifiés (@Scheduled) et asynchrones (@Async).
+ * Avec le profil "virtual", ils sont exécutés par des threads virtuels.
+ */
+@Configuration
+@EnableScheduling
+@EnableAsync
+public class PlanificationConfig {
+}
@@ -0,0 +1,110 @@
+package pharmacie.config;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import pharmacie.service.VersionsDonnees;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+/**
+ * <pre>
+ * Requêtes conditionnelles HTTP pour les lectures du catalogue et des statistiques, interrogées
+ * à intervalles réguliers par les tableaux de bord : /api/simple/list, /api/stats/*,
+ * et les ressources Spring Data REST /api/categories et /api/medicaments.
+ * L'étiquette (ETag) et la date de dernière modification viennent des versions des données lues
+ * (VersionsDonnees), sans accès à la BD : si le client a déjà la version courante
+ * (If-None-Match, If-Modified-Since), la réponse 304 est envoyée sans appeler le contrôleur
+ * (ni requête SQL, ni conversion en JSON).
+ * Cache-Control: no-cache demande aux navigateurs de revalider à chaque utilisation.
+ * </pre>
+ */
+@Component
+public class RequetesConditionnelles extends OncePerRequestFilter {
+    private static final Set<Donnees> CATALOGUE = EnumSet.of(Donnees.CATEGORIES, Donnees.MEDICAMENTS, Donnees.FOURNISSEURS);
+
+    private final VersionsDonnees versions;
+
+    public RequetesConditionnelles(VersionsDonnees versions) {
+        this.versions = versions;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+            @NonNull FilterChain chain) throws ServletException, IOException {
+        var donnees = donneesLues(request.getRequestURI().substring(request.getContextPath().length()));
+        if (donnees == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // La version est lue avant les données : une modification validée pendant la lecture changera l'étiquette
+        var etat = versions.etat(donnees);
+        // La représentation dépend du format demandé (JSON, HAL, XML...) : une étiquette par format
+        String etiquette = "\"" + etat.etiquette() + "-" + Integer.toHexString(Objects.hashCode(request.getHeader(HttpHeaders.ACCEPT))) + "\"";
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if (new ServletWebRequest(request, response).checkNotModified(etiquette, derniereModification(etat))) {
+            // Statut 304 et en-têtes ETag, Last-Modified positionnés par checkNotModified
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    // Last-Modified est à la seconde près : une date dans la seconde en cours n'est pas envoyée,
+    // une autre modification dans la même seconde ne pourrait pas être distinguée
+    private static long derniereModification(VersionsDonnees.Etat etat) {
+        long seconde = etat.derniereModification() / 1000 * 1000;
+        return seconde < System.currentTimeMillis() / 1000 * 1000 ? seconde : -1;
+    }
+
+    /**
+     * @param chemin le chemin de la requête
+     * @return les données lues par la requête, null si elle n'est pas concernée
+     */
+    static Set<Donnees> donneesLues(String chemin) {
+        var s = chemin.split("/");
+        // s[0] est vide (le chemin commence par /)
+        if (s.length < 3 || !"api".equals(s[1])) {
+            return null;
+        }
+        return switch (s[2]) {
+            case "simple" -> s.length == 4 && "list".equals(s[3]) ? CATALOGUE : null;
+            case "stats" -> s.length == 5 ? EnumSet.of(Donnees.VENTES) : null;
+            case "categories" -> ressource(s, Donnees.CATEGORIES);
+            case "medicaments" -> ressource(s, Donnees.MEDICAMENTS);
+            default -> null;
+        };
+    }
+
+    // Ressource Spring Data REST : collection, élément, recherche, ou association d'un élément
+    private static Set<Donnees> ressource(String[] s, Donnees donnees) {
+        if (s.length <= 4 || (s.length == 5 && "search".equals(s[3]))) {
+            return EnumSet.of(donnees);
+        }
+        if (s.length == 5) {
+            return switch (s[4]) {
+                case "categorie" -> EnumSet.of(donnees, Donnees.CATEGORIES);
+                case "medicaments" -> EnumSet.of(donnees, Donnees.MEDICAMENTS);
+                case "fournisseurs" -> EnumSet.of(donnees, Donnees.FOURNISSEURS);
+                default -> null;
+            };
+        }
+        return null;
+    }
+}
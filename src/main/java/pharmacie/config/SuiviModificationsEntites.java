@@ -0,0 +1,183 @@
+package pharmacie.config;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import pharmacie.entity.Categorie;
+import pharmacie.entity.Commande;
+import pharmacie.entity.Fournisseur;
+import pharmacie.entity.Ligne;
+import pharmacie.entity.Medicament;
+import pharmacie.service.CubeVentes;
+import pharmacie.service.DispensairesDistincts;
+import pharmacie.service.FaitsVentes;
+import pharmacie.service.TopVentes;
+import pharmacie.service.VersionsDonnees;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+/**
+ * <pre>
+ * Signale à VersionsDonnees les modifications des catégories, médicaments et fournisseurs
+ * écrites par Hibernate (API REST, services qui modifient les entités), y compris les
+ * modifications des associations (ex: fournisseurs d'une catégorie).
+ * Signale au cube des ventes (CubeVentes), aux faits des ventes (FaitsVentes) et aux meilleures
+ * ventes (TopVentes) les lignes ajoutées, modifiées et supprimées, par le service des commandes comme par l'API REST,
+ * et aux dispensaires distincts par médicament (DispensairesDistincts) les lignes ajoutées ou déplacées,
+ * et aux faits et au cube des ventes les médicaments créés ou modifiés (nom, catégorie).
+ * Les UPDATE directs (JPQL, JDBC) ne passent pas par ces événements : ils sont signalés
+ * par les services qui les font.
+ * </pre>
+ */
+@Component
+public class SuiviModificationsEntites implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final VersionsDonnees versions;
+    private final CubeVentes cube;
+    private final FaitsVentes faits;
+    private final TopVentes top;
+    private final DispensairesDistincts dispensaires;
+
+    public SuiviModificationsEntites(EntityManagerFactory entityManagerFactory, VersionsDonnees versions, CubeVentes cube,
+            FaitsVentes faits, TopVentes top, DispensairesDistincts dispensaires) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.versions = versions;
+        this.cube = cube;
+        this.faits = faits;
+        this.top = top;
+        this.dispensaires = dispensaires;
+    }
+
+    @PostConstruct
+    void enregistrer() {
+        var registre = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registre.appendListeners(EventType.POST_INSERT, this);
+        registre.appendListeners(EventType.POST_UPDATE, this);
+        registre.appendListeners(EventType.POST_DELETE, this);
+        registre.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+        registre.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+        registre.appendListeners(EventType.POST_COLLECTION_REMOVE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Ligne ligne) {
+            vendue(ligne.getCommande(), ligne.getMedicament(), ligne.getQuantite());
+        }
+        modifiee(event.getEntity());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Ligne ligne && event.getOldState() != null) {
+            var noms = event.getPersister().getPropertyNames();
+            var avant = event.getOldState();
+            var commande = (Commande) avant[indice(noms, "commande")];
+            var medicament = (Medicament) avant[indice(noms, "medicament")];
+            int quantite = (Integer) avant[indice(noms, "quantite")];
+            if (commande == ligne.getCommande() && medicament.getReference().equals(ligne.getMedicament().getReference())) {
+                // Cas courant : seule la quantité change
+                if (quantite != ligne.getQuantite()) {
+                    vendue(commande, medicament, ligne.getQuantite() - quantite);
+                }
+            } else {
+                // L'ancienne ligne est retirée des ventes, la nouvelle ajoutée
+                vendue(commande, medicament, -quantite);
+                vendue(ligne.getCommande(), ligne.getMedicament(), ligne.getQuantite());
+            }
+        }
+        modifiee(event.getEntity());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Ligne) {
+            // L'état lu dans la BD, pas les modifications de l'entité qui n'ont pas été écrites
+            var noms = event.getPersister().getPropertyNames();
+            var etat = event.getDeletedState();
+            vendue((Commande) etat[indice(noms, "commande")], (Medicament) etat[indice(noms, "medicament")],
+                    -(Integer) etat[indice(noms, "quantite")]);
+        }
+        modifiee(event.getEntity());
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        modifiee(event.getAffectedOwnerOrNull());
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        modifiee(event.getAffectedOwnerOrNull());
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        modifiee(event.getAffectedOwnerOrNull());
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    private void vendue(Commande commande, Medicament medicament, int quantite) {
+        var dispensaire = commande.getDispensaire();
+        var adresse = dispensaire.getAdresse();
+        cube.enregistrer(commande.getSaisiele(), medicament.getReference(),
+                adresse == null ? null : adresse.getRegion(), quantite);
+        faits.enregistrer(medicament.getReference(), medicament.getCategorie().getCode(), dispensaire.getCode(),
+                commande.getSaisiele(), quantite);
+        top.enregistrer(commande.getSaisiele(), medicament.getReference(), quantite);
+        if (quantite > 0) {
+            // Les dispensaires ne sont jamais retirés (HyperLogLog)
+            dispensaires.enregistrer(medicament.getReference(), commande.getSaisiele(), dispensaire.getCode());
+        }
+    }
+
+    private static int indice(String[] noms, String nom) {
+        for (int i = 0; i < noms.length; i++) {
+            if (noms[i].equals(nom)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Propriété inconnue : " + nom);
+    }
+
+    private void modifiee(Object entite) {
+        if (entite instanceof Ligne) {
+            // Les statistiques sont lues dans les faits des ventes : à la validation, ils sont modifiés
+            // avant la version des ventes (ApresValidation)
+            versions.modifiees(Donnees.VENTES);
+        } else if (entite instanceof Medicament medicament) {
+            faits.medicamentModifie(medicament.getReference(), medicament.getNom(), medicament.getCategorie().getCode());
+            cube.medicamentModifie(medicament.getReference(), medicament.getCategorie().getCode());
+            // Le nom du médicament fait partie des statistiques de ventes
+            versions.modifiees(Donnees.MEDICAMENTS, Donnees.VENTES);
+        } else if (entite instanceof Categorie) {
+            versions.modifiees(Donnees.CATEGORIES);
+        } else if (entite instanceof Fournisseur) {
+            versions.modifiees(Donnees.FOURNISSEURS);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pharmacie.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Profil "virtual" : signale les threads virtuels épinglés sur leur thread porteur
+ * (blocage dans un bloc synchronized ou du code natif), à partir des événements
+ * JFR jdk.VirtualThreadPinned.
+ * Chaque épinglage est compté (métrique pharmacie.threads.virtuels.epinglages, cf. /actuator/metrics)
+ * et signalé dans les logs avec la première méthode de l'application dans la pile d'appels.
+ * <pre>
+ */
+@Slf4j
+@Component
+@Profile("virtual")
+public class SurveillanceEpinglage {
+    private static final String EVENEMENT = "jdk.VirtualThreadPinned";
+
+    private final RecordingStream flux = new RecordingStream();
+    private final Duration seuil;
+    private final Counter epinglages;
+
+    public SurveillanceEpinglage(MeterRegistry metriques,
+            @Value("${pharmacie.threads.virtuels.seuil-epinglage-ms:20}") int seuilMs) {
+        this.seuil = Duration.ofMillis(seuilMs);
+        this.epinglages = Counter.builder("pharmacie.threads.virtuels.epinglages")
+                .description("Threads virtuels épinglés plus longtemps que le seuil")
+                .register(metriques);
+    }
+
+    @PostConstruct
+    void demarrer() {
+        flux.enable(EVENEMENT).withThreshold(seuil).withStackTrace();
+        flux.onEvent(EVENEMENT, this::signaler);
+        flux.startAsync();
+        log.info("Surveillance des threads virtuels épinglés plus de {} ms", seuil.toMillis());
+    }
+
+    @PreDestroy
+    void arreter() {
+        flux.close();
+    }
+
+    /**
+     * @return le nombre d'épinglages signalés depuis le démarrage
+     */
+    public long nombreEpinglages() {
+        return (long) epinglages.count();
+    }
+
+    private void signaler(RecordedEvent evenement) {
+        epinglages.increment();
+        var pile = evenement.getStackTrace();
+        if (pile == null) {
+            log.warn("Thread virtuel épinglé {} ms", evenement.getDuration().toMillis());
+            return;
+        }
+        // La méthode de l'application la plus proche du blocage, sinon le sommet de la pile
+        var frames = pile.getFrames();
+        RecordedFrame origine = frames.isEmpty() ? null : frames.get(0);
+        for (var frame : frames) {
+            if (frame.getMethod().getType().getName().startsWith("pharmacie.")) {
+                origine = frame;
+                break;
+            }
+        }
+        log.warn("Thread virtuel épinglé {} ms dans {}.{} (ligne {})",
+                evenement.getDuration().toMillis(),
+                origine == null ? "?" : origine.getMethod().getType().getName(),
+                origine == null ? "?" : origine.getMethod().getName(),
+                origine == null ? -1 : origine.getLineNumber());
+    }
+}
@@ -0,0 +1,12 @@
+package pharmacie.dao;
+
+/**
+ * Utilisé pour représenter une association entre une catégorie et un fournisseur
+ * (table categorie_fournisseur), sans charger les entités
+ * @see pharmacie.dao.FournisseurRepository
+ * Cette interface sera auto-implémentée par Spring
+ */
+public interface CategorieFournisseur {
+	Integer getCategorie();
+	Long getFournisseur();
+}
@@ -1,7 +1,9 @@
 package pharmacie.dao;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
@@ -38,4 +40,75 @@ public interface CommandeRepository extends JpaRepository<Commande, Integer> {
         """)
     List<Commande> commandesEnCoursPour(String codeDispensaire);
 
+    /**
+     * Trouve des commandes connues par leurs clés, avec leur dispensaire chargé dans la même requête
+     * @param numeros les clés des commandes
+     * @return les commandes trouvées (les clés inconnues sont ignorées)
+     */
+    @Query("""
+        select c from Commande c
+        join fetch c.dispensaire
+        where c.numero in :numeros
+        """)
+    List<Commande> commandesAvecDispensaire(Collection<Integer> numeros);
+
+    /**
+     * Lit une commande avec son dispensaire, ses lignes et leurs médicaments en une seule requête.
+     * Aucune entité n'est chargée dans le contexte de persistance.
+     * @param numero la clé de la commande
+     * @return un enregistrement par ligne de la commande (un seul, sans ligne, si la commande est vide),
+     * aucun si la commande n'existe pas
+     */
+    @Query("""
+        select c.numero as numero, c.saisiele as saisiele,
+            d.nom as dispensaireNom, d.contact as dispensaireContact,
+            l.id as ligneId, l.quantite as quantite,
+            m.reference as reference, m.nom as nom, m.prixUnitaire as prixUnitaire
+        from Commande c
+        join c.dispensaire d
+        left join c.lignes l
+        left join l.medicament m
+        where c.numero = :numero
+        order by l.id
+        """)
+    List<LigneCommandeLue> lireCommande(Integer numero);
+
+    /**
+     * Lit la première page des en-têtes des commandes en cours pour un dispensaire donné en une seule requête.
+     * Aucune entité n'est chargée dans le contexte de persistance.
+     * @param codeDispensaire la clé du dispensaire
+     * @param taille le nombre maximum de commandes de la page
+     * @return les en-têtes des commandes en cours pour ce dispensaire, les plus récentes d'abord
+     */
+    @Query("""
+        select c.numero as numero, c.saisiele as saisiele,
+            d.nom as dispensaireNom, d.contact as dispensaireContact
+        from Commande c
+        join c.dispensaire d
+        where c.envoyeele is null and d.code = :codeDispensaire
+        order by c.numero desc
+        """)
+    List<EnTeteCommandeLue> lireCommandesEnCoursPour(String codeDispensaire, Limit taille);
+
+    /**
+     * Lit une page suivante des en-têtes des commandes en cours pour un dispensaire donné en une seule requête
+     * (pagination par clé : les commandes de numéro inférieur à 'apres').
+     * Une requête distincte de la première page : la condition sur le numéro n'est pas facultative,
+     * l'index est parcouru à partir de 'apres'.
+     * @param codeDispensaire la clé du dispensaire
+     * @param apres le numéro de la dernière commande de la page précédente
+     * @param taille le nombre maximum de commandes de la page
+     * @return les en-têtes des commandes en cours pour ce dispensaire, les plus récentes d'abord
+     */
+    @Query("""
+        select c.numero as numero, c.saisiele as saisiele,
+            d.nom as dispensaireNom, d.contact as dispensaireContact
+        from Commande c
+        join c.dispensaire d
+        where c.envoyeele is null and d.code = :codeDispensaire
+        and c.numero < :apres
+        order by c.numero desc
+        """)
+    List<EnTeteCommandeLue> lireCommandesEnCoursPour(String codeDispensaire, int apres, Limit taille);
+
 }
@@ -1,6 +1,8 @@
 package pharmacie.dao;
 
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import pharmacie.entity.Dispensaire;
 
@@ -24,4 +26,38 @@ public interface DispensaireRepository extends JpaRepository<Dispensaire, String
         AND l.commande.envoyeele IS NOT NULL
     """)
     int nombreArticlesCommandesPar(String dispensaireCode);
+
+    /**
+     * Ajoute des articles expédiés au compteur d'un dispensaire (UPDATE relatif)
+     * @param dispensaireCode la clé du dispensaire
+     * @param articles le nombre d'articles expédiés
+     * @return le nombre d'enregistrements modifiés
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        UPDATE dispensaire SET articles_expedies = articles_expedies + :articles
+        WHERE code = :dispensaireCode
+        """, nativeQuery = true)
+    int ajouterArticlesExpedies(String dispensaireCode, int articles);
+
+    /**
+     * Recalcule le compteur d'articles expédiés de chaque dispensaire à partir des lignes
+     * des commandes expédiées (même calcul que nombreArticlesCommandesPar).
+     * Seuls les compteurs faux sont modifiés.
+     * @return le nombre de dispensaires corrigés
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        UPDATE dispensaire d SET articles_expedies = (
+            SELECT COALESCE(SUM(l.quantite), 0)
+            FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.dispensaire_code = d.code AND c.envoyeele IS NOT NULL)
+        WHERE d.articles_expedies <> (
+            SELECT COALESCE(SUM(l.quantite), 0)
+            FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.dispensaire_code = d.code AND c.envoyeele IS NOT NULL)
+        """, nativeQuery = true)
+    int reconcilierArticlesExpedies();
 }
@@ -0,0 +1,16 @@
+package pharmacie.dao;
+
+import java.time.LocalDate;
+
+/**
+ * Utilisé pour lire l'en-tête d'une commande et son dispensaire en une seule requête,
+ * sans charger les entités Commande et Dispensaire
+ * @see pharmacie.dao.CommandeRepository
+ * Cette interface sera auto-implémentée par Spring
+ */
+public interface EnTeteCommandeLue {
+	Integer getNumero();
+	LocalDate getSaisiele();
+	String getDispensaireNom();
+	String getDispensaireContact();
+}
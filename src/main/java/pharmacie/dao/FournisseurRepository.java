@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import pharmacie.entity.Fournisseur;
 
@@ -38,4 +39,16 @@ public interface FournisseurRepository extends JpaRepository<Fournisseur, Long>
                 WHERE c IN (SELECT m.categorie FROM Medicament m WHERE m.reference IN :references)
             """)
     List<Fournisseur> fournisseursAvecCategoriesPourMedicaments(List<Integer> references);
+
+    /**
+     * Toutes les associations catégorie - fournisseur, en une seule requête
+     * (pour construire la table de routage RoutageFournisseurs)
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Query("""
+                SELECT c.code AS categorie, f.id AS fournisseur
+                FROM Categorie c JOIN c.fournisseurs f
+                ORDER BY c.code, f.id
+            """)
+    List<CategorieFournisseur> associationsCategorieFournisseur();
 }
@@ -0,0 +1,18 @@
+package pharmacie.dao;
+
+import java.math.BigDecimal;
+
+/**
+ * Utilisé pour lire une commande, son dispensaire, ses lignes et leurs médicaments en une seule requête :
+ * un enregistrement par ligne, l'en-tête est répété.
+ * Pour une commande sans ligne, les propriétés de la ligne et du médicament sont nulles
+ * @see pharmacie.dao.CommandeRepository
+ * Cette interface sera auto-implémentée par Spring
+ */
+public interface LigneCommandeLue extends EnTeteCommandeLue {
+	Integer getLigneId();
+	Integer getQuantite();
+	Integer getReference();
+	String getNom();
+	BigDecimal getPrixUnitaire();
+}
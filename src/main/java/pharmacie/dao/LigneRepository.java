@@ -3,11 +3,13 @@ package pharmacie.dao;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import pharmacie.entity.Commande;
 import pharmacie.entity.Ligne;
 import pharmacie.entity.Medicament;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -24,4 +26,52 @@ public interface LigneRepository extends JpaRepository<Ligne, Integer> {
      * @return la ligne correspondante (optionnelle)
      */
     Optional<Ligne> findByCommandeAndMedicament(Commande commande, Medicament medicament);
+
+    /**
+     * Les lignes d'une commande, avec leur médicament chargé dans la même requête
+     * @param numero la clé de la commande
+     * @return les lignes de la commande
+     */
+    @Query("""
+        SELECT l FROM Ligne l
+        JOIN FETCH l.medicament
+        WHERE l.commande.numero = :numero
+    """)
+    List<Ligne> lignesAvecMedicamentPour(Integer numero);
+
+    /**
+     * On trouve au plus une ligne pour une commande et un médicament connus par leurs clés
+     * @param numero la clé de la commande
+     * @param reference la clé du médicament
+     * @return la ligne correspondante (optionnelle)
+     */
+    Optional<Ligne> findByCommandeNumeroAndMedicamentReference(Integer numero, Integer reference);
+
+    /**
+     * Les quantités commandées dans une commande, par référence de médicament.
+     * Ne charge ni les lignes ni les médicaments dans le contexte de persistance.
+     * Triées par référence : l'expédition verrouille les médicaments dans cet ordre.
+     * @param numero la clé de la commande
+     * @return la référence et la quantité de chaque ligne de la commande, par référence croissante
+     */
+    @Query("""
+        SELECT l.medicament.reference AS reference, l.quantite AS quantite
+        FROM Ligne l
+        WHERE l.commande.numero = :numero
+        ORDER BY l.medicament.reference
+    """)
+    List<QuantiteParMedicament> quantitesPour(Integer numero);
+
+    /**
+     * Les quantités commandées dans plusieurs commandes, par commande et par référence de médicament.
+     * Ne charge ni les lignes ni les médicaments dans le contexte de persistance.
+     * @param numeros les clés des commandes
+     * @return la clé de la commande, la référence et la quantité de chaque ligne de ces commandes
+     */
+    @Query("""
+        SELECT l.commande.numero AS numero, l.medicament.reference AS reference, l.quantite AS quantite
+        FROM Ligne l
+        WHERE l.commande.numero IN :numeros
+    """)
+    List<QuantiteParCommande> quantitesPourCommandes(Collection<Integer> numeros);
 }
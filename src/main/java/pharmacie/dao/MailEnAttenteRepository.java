@@ -0,0 +1,66 @@
+package pharmacie.dao;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import pharmacie.entity.MailEnAttente;
+
+// Les mails en attente ne sont pas exposés par Spring Data REST
+@RepositoryRestResource(exported = false)
+public interface MailEnAttenteRepository extends JpaRepository<MailEnAttente, Long> {
+    /**
+     * Les mails à envoyer : pas encore envoyés, pas abandonnés, dont la date de (ré)essai est passée,
+     * les plus anciens d'abord
+     *
+     * @param maintenant la date courante
+     * @param taille le nombre maximum de mails
+     * @return les clés des mails, à réserver avant l'envoi
+     */
+    @Query("""
+        SELECT m.id FROM MailEnAttente m
+        WHERE m.envoyeLe IS NULL AND m.abandonne = false
+        AND m.prochainEssai <= :maintenant
+        ORDER BY m.id
+    """)
+    List<Long> aEnvoyer(LocalDateTime maintenant, Limit taille);
+
+    /**
+     * Réserve pour un lot d'envoi les mails qui sont toujours à envoyer, jusqu'à une date :
+     * un mail réservé par une autre instance entre la lecture et la réservation ne l'est pas.
+     * Le contexte de persistance est vidé : les mails réservés sont relus.
+     *
+     * @param ids les clés des mails lus par aEnvoyer
+     * @param lot l'identifiant du lot
+     * @param maintenant la date de la lecture
+     * @param reserveJusqua la date après laquelle le mail peut être de nouveau envoyé (l'instance s'est arrêtée)
+     * @return le nombre de mails réservés
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+        UPDATE MailEnAttente m SET m.reservePar = :lot, m.prochainEssai = :reserveJusqua
+        WHERE m.id IN :ids AND m.envoyeLe IS NULL AND m.abandonne = false
+        AND m.prochainEssai <= :maintenant
+    """)
+    int reserver(Collection<Long> ids, String lot, LocalDateTime maintenant, LocalDateTime reserveJusqua);
+
+    /**
+     * @param ids les clés des mails lus par aEnvoyer
+     * @param lot l'identifiant du lot
+     * @return les mails réservés par le lot, les plus anciens d'abord
+     */
+    @Query("SELECT m FROM MailEnAttente m WHERE m.id IN :ids AND m.reservePar = :lot ORDER BY m.id")
+    List<MailEnAttente> reserves(Collection<Long> ids, String lot);
+
+    /**
+     * @return le nombre de mails pas encore envoyés (y compris en attente d'un nouvel essai)
+     */
+    @Query("SELECT COUNT(m) FROM MailEnAttente m WHERE m.envoyeLe IS NULL AND m.abandonne = false")
+    long nombreEnAttente();
+}
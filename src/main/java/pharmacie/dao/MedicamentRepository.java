@@ -3,7 +3,9 @@ package pharmacie.dao;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import pharmacie.entity.Medicament;
 
@@ -69,4 +71,59 @@ public interface MedicamentRepository extends JpaRepository<Medicament, Integer>
      """)
     List<Medicament> medicamentsDisponibles();
 
+    /**
+     * Réserve des unités d'un médicament (incrémente unitesCommandees) en un seul UPDATE,
+     * à condition que le médicament soit disponible et que le stock soit suffisant.
+     * La condition est vérifiée par le SGBD, deux commandes concurrentes ne peuvent pas
+     * réserver le même stock.
+     *
+     * @param reference la clé du médicament
+     * @param quantite  le nombre d'unités à réserver
+     * @return le nombre d'enregistrements modifiés : 1 si la réservation est faite, 0 sinon
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE Medicament m
+        SET m.unitesCommandees = m.unitesCommandees + :quantite
+        WHERE m.reference = :reference
+        AND m.indisponible = false
+        AND m.unitesEnStock >= m.unitesCommandees + :quantite
+    """)
+    int reserverUnites(Integer reference, int quantite);
+
+    /**
+     * Libère des unités réservées d'un médicament (décrémente unitesCommandees)
+     *
+     * @param reference la clé du médicament
+     * @param quantite  le nombre d'unités à libérer
+     * @return le nombre d'enregistrements modifiés
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE Medicament m
+        SET m.unitesCommandees = m.unitesCommandees - :quantite
+        WHERE m.reference = :reference
+    """)
+    int libererUnites(Integer reference, int quantite);
+
+    /**
+     * Enregistre la sortie du stock d'unités réservées d'un médicament
+     * (décrémente unitesEnStock et unitesCommandees)
+     *
+     * @param reference la clé du médicament
+     * @param quantite  le nombre d'unités expédiées
+     * @return le nombre d'enregistrements modifiés
+     */
+    @RestResource(exported = false) // Pas de méthode de recherche exposée par Spring Data REST
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE Medicament m
+        SET m.unitesEnStock = m.unitesEnStock - :quantite,
+            m.unitesCommandees = m.unitesCommandees - :quantite
+        WHERE m.reference = :reference
+    """)
+    int expedierUnites(Integer reference, int quantite);
+
 }
@@ -0,0 +1,51 @@
+package pharmacie.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import pharmacie.entity.NotificationReappro;
+
+// Les notifications ne sont pas exposées par Spring Data REST
+@RepositoryRestResource(exported = false)
+public interface NotificationReapproRepository extends JpaRepository<NotificationReappro, Long> {
+    /**
+     * Les fournisseurs déjà prévenus de la rupture en cours de ces médicaments
+     *
+     * @param references les clés des médicaments
+     */
+    List<NotificationReappro> findByMedicamentReferenceIn(Collection<Integer> references);
+
+    /**
+     * Termine la rupture d'un médicament si son stock est revenu au-dessus du niveau de réapprovisionnement
+     *
+     * @param reference la clé du médicament
+     * @return le nombre de notifications supprimées
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        DELETE FROM notification_reappro
+        WHERE medicament_reference = :reference
+        AND EXISTS (SELECT 1 FROM medicament m
+            WHERE m.reference = :reference AND m.unites_en_stock >= m.niveau_de_reappro)
+        """, nativeQuery = true)
+    int terminerRupture(Integer reference);
+
+    /**
+     * Termine les ruptures de tous les médicaments dont le stock est revenu au-dessus du niveau de réapprovisionnement.
+     * Seules les notifications (ruptures en cours) sont lues, pas tout le catalogue.
+     *
+     * @return le nombre de notifications supprimées
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        DELETE FROM notification_reappro n
+        WHERE EXISTS (SELECT 1 FROM medicament m
+            WHERE m.reference = n.medicament_reference AND m.unites_en_stock >= m.niveau_de_reappro)
+        """, nativeQuery = true)
+    int terminerRuptures();
+}
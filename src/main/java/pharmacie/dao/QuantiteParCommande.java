@@ -0,0 +1,11 @@
+package pharmacie.dao;
+
+/**
+ * Utilisé pour représenter la quantité d'un médicament dans une ligne de commande,
+ * sans charger les entités Ligne, Commande et Medicament
+ * @see pharmacie.dao.LigneRepository
+ * Cette interface sera auto-implémentée par Spring
+ */
+public interface QuantiteParCommande extends QuantiteParMedicament {
+	Integer getNumero();
+}
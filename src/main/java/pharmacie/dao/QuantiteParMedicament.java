@@ -0,0 +1,12 @@
+package pharmacie.dao;
+
+/**
+ * Utilisé pour représenter une quantité d'un médicament connu par sa référence,
+ * sans charger l'entité Medicament
+ * @see pharmacie.dao.LigneRepository
+ * Cette interface sera auto-implémentée par Spring
+ */
+public interface QuantiteParMedicament {
+	Integer getReference();
+	Integer getQuantite();
+}
@@ -0,0 +1,80 @@
+package pharmacie.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import pharmacie.entity.Medicament;
+import pharmacie.entity.StockFaible;
+
+// La file des médicaments à réapprovisionner n'est pas exposée par Spring Data REST
+@RepositoryRestResource(exported = false)
+public interface StockFaibleRepository extends JpaRepository<StockFaible, Integer> {
+    /**
+     * Ajoute à la file les médicaments dont le stock est sous le niveau de réapprovisionnement,
+     * parmi ceux donnés, s'ils n'y sont pas déjà.
+     *
+     * @param references les clés des médicaments dont le stock vient d'être modifié
+     * @return le nombre de médicaments ajoutés à la file
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        INSERT INTO stock_faible (medicament_reference, signale_le)
+        SELECT m.reference, CURRENT_TIMESTAMP FROM medicament m
+        WHERE m.reference IN :references
+        AND m.unites_en_stock < m.niveau_de_reappro
+        AND NOT EXISTS (SELECT 1 FROM stock_faible s WHERE s.medicament_reference = m.reference)
+        """, nativeQuery = true)
+    int signaler(Collection<Integer> references);
+
+    /**
+     * Ajoute à la file tous les médicaments dont le stock est sous le niveau de réapprovisionnement
+     * (au démarrage : la file est vide, ou des signalements ont été perdus).
+     * La requête lit toute la table medicament : elle n'est exécutée qu'au démarrage et pour le rattrapage.
+     *
+     * @return le nombre de médicaments ajoutés à la file
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+        INSERT INTO stock_faible (medicament_reference, signale_le)
+        SELECT m.reference, CURRENT_TIMESTAMP FROM medicament m
+        WHERE m.unites_en_stock < m.niveau_de_reappro
+        AND NOT EXISTS (SELECT 1 FROM stock_faible s WHERE s.medicament_reference = m.reference)
+        """, nativeQuery = true)
+    int signalerTous();
+
+    /**
+     * @return les clés des médicaments de la file
+     */
+    @Query("SELECT s.reference FROM StockFaible s")
+    List<Integer> references();
+
+    /**
+     * Les médicaments de la file dont le stock est toujours sous le niveau de réapprovisionnement,
+     * avec leur catégorie (une seule requête)
+     *
+     * @param references les clés des médicaments lues dans la file
+     */
+    @Query("""
+        SELECT m FROM Medicament m
+        JOIN FETCH m.categorie
+        WHERE m.reference IN :references
+        AND m.unitesEnStock < m.niveauDeReappro
+        ORDER BY m.reference
+    """)
+    List<Medicament> medicamentsAReapprovisionner(Collection<Integer> references);
+
+    /**
+     * Retire des médicaments de la file
+     *
+     * @param references les clés des médicaments
+     * @return le nombre de médicaments retirés
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM StockFaible s WHERE s.reference IN :references")
+    int retirer(Collection<Integer> references);
+}
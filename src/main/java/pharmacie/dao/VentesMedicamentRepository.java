@@ -0,0 +1,38 @@
+package pharmacie.dao;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import pharmacie.entity.VentesMedicament;
+
+// Les ventes sont lues par /api/stats, elles ne sont pas exposées par Spring Data REST
+@RepositoryRestResource(exported = false)
+public interface VentesMedicamentRepository extends JpaRepository<VentesMedicament, Integer> {
+    /**
+     * Le nombre d'unités vendues pour chaque médicament d'une catégorie donnée,
+     * lu dans la table des ventes (index medicament_categorie) : même résultat que
+     * MedicamentRepository.medicamentsCommandesPour, sans parcourir les lignes
+     */
+    @Query("""
+        SELECT v.medicament.nom AS nom, v.unites AS unites
+        FROM VentesMedicament v
+        WHERE v.medicament.categorie.code = :codeCategorie AND v.unites > 0
+        ORDER BY v.medicament.nom
+    """)
+    List<UnitesParMedicament> unitesVenduesPour(Integer codeCategorie);
+
+    /**
+     * Comme unitesVenduesPour, sous la forme d'une liste de tableaux [nom, unités]
+     * (même résultat que MedicamentRepository.medicamentsCommandesPourV2)
+     */
+    @Query("""
+        SELECT v.medicament.nom, v.unites
+        FROM VentesMedicament v
+        WHERE v.medicament.categorie.code = :codeCategorie AND v.unites > 0
+        ORDER BY v.medicament.nom
+    """)
+    List<Object> unitesVenduesPourV2(Integer codeCategorie);
+}
@@ -0,0 +1,76 @@
+package pharmacie.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import pharmacie.entity.Commande;
+import pharmacie.entity.Dispensaire;
+import pharmacie.entity.Ligne;
+import pharmacie.entity.Medicament;
+
+/**
+ * <pre>
+ * Conversion des entités en DTO pour l'API REST, écrite explicitement :
+ * les mêmes DTO que ModelMapper, sans recherche des propriétés par réflexion
+ * ni objets intermédiaires à chaque appel.
+ * Une propriété ajoutée à un DTO doit être ajoutée ici.
+ * <pre>
+ */
+@Component
+public class ConvertisseurDTO {
+
+    public CommandeDTO commande(Commande commande) {
+        var dto = new CommandeDTO();
+        dto.setNumero(commande.getNumero());
+        dto.setSaisiele(commande.getSaisiele());
+        dto.setDispensaire(dispensaire(commande.getDispensaire()));
+        var lignes = commande.getLignes();
+        List<LigneDTO> lignesDTO = new ArrayList<>(lignes.size());
+        for (var ligne : lignes) {
+            lignesDTO.add(ligne(ligne));
+        }
+        dto.setLignes(lignesDTO);
+        return dto;
+    }
+
+    public EnTeteCommandeDTO enTete(Commande commande) {
+        var dto = new EnTeteCommandeDTO();
+        dto.setNumero(commande.getNumero());
+        dto.setSaisiele(commande.getSaisiele());
+        dto.setDispensaire(dispensaire(commande.getDispensaire()));
+        return dto;
+    }
+
+    public LigneDTO ligne(Ligne ligne) {
+        var dto = new LigneDTO();
+        dto.setId(ligne.getId());
+        dto.setQuantite(ligne.getQuantite());
+        dto.setMedicament(medicament(ligne.getMedicament()));
+        return dto;
+    }
+
+    public MedicamentDTO medicament(Medicament medicament) {
+        if (medicament == null) {
+            return null;
+        }
+        var dto = new MedicamentDTO();
+        dto.setReference(medicament.getReference());
+        dto.setNom(medicament.getNom());
+        // Comme ModelMapper : la partie entière du prix
+        var prix = medicament.getPrixUnitaire();
+        dto.setPrixUnitaire(prix == null ? null : prix.intValue());
+        return dto;
+    }
+
+    public DispensaireDTO dispensaire(Dispensaire dispensaire) {
+        if (dispensaire == null) {
+            return null;
+        }
+        var dto = new DispensaireDTO();
+        dto.setNom(dispensaire.getNom());
+        dto.setContact(dispensaire.getContact());
+        return dto;
+    }
+}
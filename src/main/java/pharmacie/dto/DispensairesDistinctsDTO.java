@@ -0,0 +1,26 @@
+package pharmacie.dto;
+
+import java.time.YearMonth;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Le nombre de dispensaires différents qui ont commandé un médicament pendant une période, et chaque mois.
+ * Estimé (HyperLogLog), à 'erreurRelative' près (écart type), ou exact.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DispensairesDistinctsDTO {
+    private Integer medicament;
+    private YearMonth du;
+    private YearMonth au;
+    private boolean exact;
+    private double erreurRelative;
+    private long dispensaires;
+    // Clé : le mois (yyyy-MM), seulement les mois avec des commandes
+    private Map<String, Long> parMois;
+}
@@ -0,0 +1,17 @@
+package pharmacie.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Un élément du panier soumis en une seule fois par un dispensaire :
+ * la référence du médicament et la quantité à commander
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LignePanierDTO {
+    private Integer medicamentRef;
+    private Integer quantite;
+}
@@ -0,0 +1,19 @@
+package pharmacie.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Un médicament parmi les meilleures ventes : les unités vendues sont entre
+ * 'unites' - 'erreur' et 'unites'
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MeilleureVenteDTO {
+    private Integer reference;
+    private String nom;
+    private long unites;
+    private long erreur;
+}
@@ -0,0 +1,13 @@
+package pharmacie.dto;
+
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class PanierDTO {
+    // Le résultat pour chaque élément du panier, dans l'ordre de soumission
+    private List<ResultatLigneDTO> resultats;
+    // La commande après ajout des lignes
+    private CommandeDTO commande;
+}
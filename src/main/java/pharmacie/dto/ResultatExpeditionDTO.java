@@ -0,0 +1,19 @@
+package pharmacie.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Le résultat de l'expédition d'une commande dans une expédition groupée :
+ * le nombre d'unités expédiées, ou si la commande n'a pas pu être expédiée, 'erreur' explique pourquoi
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultatExpeditionDTO {
+    private Integer commandeNum;
+    private boolean expediee;
+    private Integer unites;
+    private String erreur;
+}
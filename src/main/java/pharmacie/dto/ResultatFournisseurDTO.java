@@ -0,0 +1,22 @@
+package pharmacie.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Le résultat d'un réapprovisionnement pour un fournisseur : les médicaments demandés,
+ * et l'état de l'envoi du mail (EN_ATTENTE, ENVOYE, ABANDONNE)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultatFournisseurDTO {
+    private Long fournisseurId;
+    private String fournisseur;
+    private List<String> medicaments;
+    private Long mailId;
+    private String statutMail;
+}
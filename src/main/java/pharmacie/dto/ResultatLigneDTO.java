@@ -0,0 +1,19 @@
+package pharmacie.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Le résultat du traitement d'un élément du panier :
+ * si la ligne n'a pas pu être ajoutée, 'erreur' explique pourquoi
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultatLigneDTO {
+    private Integer medicamentRef;
+    private Integer quantite;
+    private boolean ajoutee;
+    private String erreur;
+}
@@ -0,0 +1,22 @@
+package pharmacie.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Les meilleures ventes d'une période, par unités décroissantes.
+ * Un médicament absent de la liste des candidats a vendu au plus 'seuil' unités.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TopVentesDTO {
+    private LocalDate du;
+    private LocalDate au;
+    private long seuil;
+    private List<MeilleureVenteDTO> medicaments;
+}
@@ -0,0 +1,30 @@
+package pharmacie.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * L'état d'un réapprovisionnement soumis à /api/reapprovisionnement/travaux :
+ * statut (EN_ATTENTE, EN_COURS, TERMINE, IGNORE, ECHEC), avancement par fournisseur,
+ * et le résultat pour chaque fournisseur déjà traité
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TravailReapproDTO {
+    private String id;
+    private String statut;
+    private LocalDateTime soumisLe;
+    private LocalDateTime debuteLe;
+    private LocalDateTime termineLe;
+    private int fournisseursTraites;
+    private int fournisseursATraiter;
+    private int medicaments;
+    private int mails;
+    private List<ResultatFournisseurDTO> fournisseurs;
+    private String message;
+}
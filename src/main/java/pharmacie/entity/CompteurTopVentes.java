@@ -0,0 +1,57 @@
+package pharmacie.entity;
+
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Sauvegarde d'un compteur des meilleures ventes d'un jour (voir TopVentes) : les unités ajoutées
+ * (ou retirées) d'un médicament, surestimées d'au plus 'erreur'.
+ * 'seuil' est la borne des unités des médicaments sans compteur ce jour-là (même valeur pour
+ * tous les compteurs du jour).
+ * Seuls les jours de la fenêtre (pharmacie.stats.top.jours) sont gardés.
+ * Les enregistrements sont écrits en SQL (voir TopVentes), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+@Table(uniqueConstraints = {
+	@UniqueConstraint(columnNames = {"JOUR", "RETRAIT", "MEDICAMENT_REFERENCE"})
+})
+public class CompteurTopVentes {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private LocalDate jour;
+
+	// false : unités ajoutées, true : unités retirées (lignes supprimées)
+	@Column(nullable = false)
+	private boolean retrait;
+
+	@Column(nullable = false)
+	private Integer medicamentReference;
+
+	@Column(nullable = false)
+	private long unites;
+
+	@Column(nullable = false)
+	private long erreur;
+
+	@Column(nullable = false)
+	private long seuil;
+}
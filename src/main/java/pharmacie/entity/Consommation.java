@@ -0,0 +1,34 @@
+package pharmacie.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Consommation d'un médicament : moyenne mobile exponentielle (EWMA) des unités expédiées par jour.
+ * La moyenne est celle du jour "jour" : pour un jour suivant, elle est multipliée par (1 - alpha)
+ * pour chaque jour écoulé (voir ConsommationMedicaments).
+ * Les enregistrements sont écrits en SQL, pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+public class Consommation {
+	@Id
+	private Integer medicamentReference;
+
+	// Unités par jour
+	@Column(nullable = false)
+	private double ewma;
+
+	// Le jour de la dernière expédition (LocalDate.toEpochDay) : pas de fonction de date, le calcul est le même pour tous les SGBD
+	@Column(nullable = false)
+	private long jour;
+}
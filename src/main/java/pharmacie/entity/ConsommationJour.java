@@ -0,0 +1,44 @@
+package pharmacie.entity;
+
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Les unités d'un médicament expédiées pendant un jour.
+ * Seuls les jours de la fenêtre de calcul (pharmacie.consommation.fenetre-jours) sont gardés.
+ * Les enregistrements sont écrits en SQL (voir ConsommationMedicaments), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+@Table(uniqueConstraints = {
+	@UniqueConstraint(columnNames = {"MEDICAMENT_REFERENCE", "JOUR"})
+})
+public class ConsommationJour {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private Integer medicamentReference;
+
+	@Column(nullable = false)
+	private LocalDate jour;
+
+	@Column(nullable = false)
+	private int unites;
+}
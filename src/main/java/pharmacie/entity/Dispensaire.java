@@ -2,6 +2,7 @@ package pharmacie.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import jakarta.validation.constraints.Size;
 
 import lombok.*;
@@ -49,6 +50,14 @@ public class Dispensaire {
     @Column(length = 24)
     private String fax;
 
+    // Nombre total d'articles expédiés à ce dispensaire, tenu à jour à chaque expédition
+    // Écrit seulement par des UPDATE relatifs (DispensaireRepository), jamais par l'entité
+    @Basic(optional = false)
+    @ColumnDefault("0")
+    @Column(nullable = false, insertable = false, updatable = false)
+    @Setter(AccessLevel.NONE)
+    private int articlesExpedies = 0;
+
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "dispensaire")
     @ToString.Exclude
     @JsonIgnoreProperties({"dispensaire", "lignes"})
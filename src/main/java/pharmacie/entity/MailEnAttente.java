@@ -0,0 +1,82 @@
+package pharmacie.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Un mail à envoyer (table "outbox") : les mails sont enregistrés dans la transaction
+ * du traitement qui les produit, puis envoyés en arrière-plan par ExpediteurMails.
+ * Un envoi qui échoue est réessayé plus tard (prochainEssai), avec un délai croissant.
+ * Avant l'envoi, le mail est réservé par un lot (reservePar) jusqu'à prochainEssai :
+ * une autre instance ne l'envoie pas en même temps.
+ * </pre>
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString
+// Pour chercher les mails à envoyer sans lire les mails déjà envoyés
+@Table(indexes = @Index(name = "mail_en_attente_a_envoyer", columnList = "envoye_le, abandonne, prochain_essai"))
+public class MailEnAttente {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Setter(AccessLevel.NONE) // la clé est autogénérée par la BD, On ne veut pas de "setter"
+	private Long id;
+
+	// Les mails en attente pour un même fournisseur sont regroupés en un seul envoi
+	@NonNull
+	private Long fournisseurId;
+
+	@NonNull
+	@Column(nullable = false)
+	private String destinataire;
+
+	@NonNull
+	@Column(nullable = false)
+	private String sujet;
+
+	@ToString.Exclude
+	@NonNull
+	@Column(nullable = false, length = 20000)
+	private String contenu;
+
+	@Column(nullable = false)
+	private LocalDateTime creeLe = LocalDateTime.now();
+
+	// Date à partir de laquelle le mail peut être (ré)envoyé, ou fin de la réservation pendant l'envoi
+	@Column(nullable = false)
+	private LocalDateTime prochainEssai = creeLe;
+
+	// Le dernier lot d'envoi qui a réservé le mail (ExpediteurMails), null s'il n'a jamais été réservé
+	@Column(length = 36)
+	private String reservePar;
+
+	// Nombre d'envois qui ont échoué
+	private int essais = 0;
+
+	// null tant que le mail n'est pas envoyé
+	private LocalDateTime envoyeLe;
+
+	// Trop d'échecs : le mail n'est plus réessayé
+	private boolean abandonne = false;
+
+	@Column(length = 500)
+	private String derniereErreur;
+}
@@ -13,8 +13,10 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Table;
 import jakarta.validation.constraints.PositiveOrZero;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -30,6 +32,13 @@ import lombok.ToString;
 @NoArgsConstructor
 @RequiredArgsConstructor
 @ToString
+// Pour chercher les médicaments d'une catégorie (statistiques).
+// Pas d'index pour unitesEnStock < niveauDeReappro : une comparaison entre deux colonnes ne permet pas
+// de parcourir une plage d'index, et l'index serait modifié à chaque mouvement de stock.
+// Les médicaments à réapprovisionner sont signalés dans la file StockFaible.
+@Table(indexes = {
+	@Index(name = "medicament_categorie", columnList = "categorie_code")
+})
 public class Medicament {
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
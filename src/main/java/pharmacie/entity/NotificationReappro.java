@@ -0,0 +1,54 @@
+package pharmacie.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Un fournisseur a été prévenu de la rupture de stock d'un médicament.
+ * L'enregistrement existe tant que dure la rupture (épisode) : le fournisseur n'est pas
+ * prévenu de nouveau. Il est supprimé quand le stock revient au-dessus du niveau de
+ * réapprovisionnement, la rupture suivante donnera lieu à un nouveau mail.
+ * </pre>
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString
+@Table(uniqueConstraints = {
+	@UniqueConstraint(columnNames = {"MEDICAMENT_REFERENCE", "FOURNISSEUR_ID"})
+})
+public class NotificationReappro {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Setter(AccessLevel.NONE) // la clé est autogénérée par la BD, On ne veut pas de "setter"
+	private Long id;
+
+	@NonNull
+	@Column(nullable = false)
+	private Integer medicamentReference;
+
+	@NonNull
+	@Column(nullable = false)
+	private Long fournisseurId;
+
+	// Début de l'épisode : date du premier mail
+	@Column(nullable = false)
+	private LocalDateTime notifieLe = LocalDateTime.now();
+}
@@ -0,0 +1,47 @@
+package pharmacie.entity;
+
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Sauvegarde des registres HyperLogLog des dispensaires qui ont commandé un médicament
+ * pendant un mois (voir DispensairesDistincts) : un octet par registre (forme dense), ou la
+ * précision suivie de 3 octets par registre non nul (forme creuse, peu de dispensaires).
+ * Les enregistrements sont écrits en SQL (voir DispensairesDistincts), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString(exclude = "registres")
+@Table(uniqueConstraints = {
+	@UniqueConstraint(columnNames = {"MEDICAMENT_REFERENCE", "MOIS"})
+})
+public class RegistresDispensaires {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private Integer medicamentReference;
+
+	// Le premier jour du mois
+	@Column(nullable = false)
+	private LocalDate mois;
+
+	// 2^pharmacie.stats.dispensaires.precision registres, ou moins d'octets (forme creuse)
+	@Column(nullable = false, length = 65536)
+	private byte[] registres;
+}
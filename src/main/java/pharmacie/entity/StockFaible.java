@@ -0,0 +1,42 @@
+package pharmacie.entity;
+
+import java.time.LocalDateTime;
+
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.OneToOne;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * File d'attente des médicaments à réapprovisionner.
+ * Un médicament y est ajouté quand son stock passe sous son niveau de réapprovisionnement
+ * (expédition d'une commande, modification par l'API REST), il en est retiré par le réapprovisionnement.
+ * Les enregistrements sont écrits en SQL natif (voir StockFaibleRepository), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+public class StockFaible {
+	// La clé est celle du médicament : au plus une fois dans la file
+	@Id
+	private Integer reference;
+
+	@ToString.Exclude
+	@MapsId
+	@OneToOne(optional = false)
+	@OnDelete(action = OnDeleteAction.CASCADE) // Si le médicament est supprimé, il sort de la file
+	private Medicament medicament;
+
+	// Date d'entrée dans la file
+	private LocalDateTime signaleLe;
+}
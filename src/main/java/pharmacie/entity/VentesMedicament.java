@@ -0,0 +1,38 @@
+package pharmacie.entity;
+
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.OneToOne;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Les unités commandées d'un médicament, toutes commandes confondues (somme des quantités de ses lignes).
+ * Tenu à jour par CommandeService à l'ajout et à la suppression des lignes, vérifié par VentesMedicaments.
+ * Les statistiques par catégorie sont lues ici, sans parcourir les lignes.
+ * Les enregistrements sont écrits en SQL (voir VentesMedicaments), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+public class VentesMedicament {
+	@Id
+	private Integer reference;
+
+	@ToString.Exclude
+	@MapsId
+	@OneToOne(optional = false)
+	@OnDelete(action = OnDeleteAction.CASCADE) // Si le médicament est supprimé, ses ventes aussi
+	private Medicament medicament;
+
+	private long unites;
+}
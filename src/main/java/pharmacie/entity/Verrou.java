@@ -0,0 +1,37 @@
+package pharmacie.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * <pre>
+ * Un verrou à durée limitée (bail), partagé par toutes les instances de l'application :
+ * un traitement n'est exécuté que par l'instance qui détient le verrou, jusqu'à expireLe.
+ * Les enregistrements sont écrits en SQL (voir VerrouBail), pas de setter.
+ * </pre>
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString
+public class Verrou {
+	// Le nom du traitement protégé
+	@Id
+	@Column(length = 50)
+	private String nom;
+
+	// L'instance qui détient (ou a détenu) le verrou
+	@Column(nullable = false, length = 100)
+	private String proprietaire;
+
+	// Le verrou est libre après cette date
+	@Column(nullable = false)
+	private LocalDateTime expireLe;
+}
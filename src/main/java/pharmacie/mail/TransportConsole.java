@@ -0,0 +1,20 @@
+package pharmacie.mail;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Les mails sont écrits dans les logs, sans être envoyés (développement)
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pharmacie.mail.transport", havingValue = "console")
+public class TransportConsole implements TransportMail {
+
+    @Override
+    public void envoyer(String destinataire, String sujet, String texte) {
+        log.info("Mail pour {} : {}\n{}", destinataire, sujet, texte);
+    }
+}
@@ -0,0 +1,19 @@
+package pharmacie.mail;
+
+/**
+ * <pre>
+ * Envoi effectif d'un mail, choisi par la propriété pharmacie.mail.transport :
+ * - mailgun (par défaut) : API HTTP de Mailgun
+ * - smtp : serveur SMTP configuré par spring.mail.host, spring.mail.port...
+ * - console : le mail est écrit dans les logs (développement)
+ * Les implémentations sont appelées par plusieurs threads en même temps.
+ * </pre>
+ */
+public interface TransportMail {
+    /**
+     * Envoie un mail texte
+     *
+     * @throws RuntimeException si l'envoi a échoué, il sera réessayé
+     */
+    void envoyer(String destinataire, String sujet, String texte);
+}
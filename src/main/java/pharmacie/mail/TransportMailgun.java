@@ -0,0 +1,61 @@
+package pharmacie.mail;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.RestClient;
+
+/**
+ * <pre>
+ * Envoi par l'API HTTP de Mailgun.
+ * Un seul client HTTP pour tous les envois : les connexions sont réutilisées (keep-alive)
+ * au lieu d'ouvrir une connexion TLS par mail.
+ * </pre>
+ */
+@Component
+@ConditionalOnProperty(name = "pharmacie.mail.transport", havingValue = "mailgun", matchIfMissing = true)
+public class TransportMailgun implements TransportMail {
+    private final RestClient client;
+    private final String expediteur;
+
+    public TransportMailgun(
+            @Value("${mailgun.url:https://api.mailgun.net/v3}") String url,
+            @Value("${mailgun.domain}") String domaine,
+            @Value("${mailgun.api-key}") String apiKey,
+            @Value("${mailgun.from}") String expediteur) {
+        this.expediteur = expediteur;
+        // Le client HTTP du JDK garde les connexions ouvertes et les partage entre les threads
+        var http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        var requetes = new JdkClientHttpRequestFactory(http);
+        requetes.setReadTimeout(Duration.ofSeconds(10));
+        this.client = RestClient.builder()
+                .requestFactory(requetes)
+                .baseUrl(url + "/" + domaine)
+                .defaultHeaders(h -> h.setBasicAuth("api", apiKey))
+                .build();
+    }
+
+    @Override
+    public void envoyer(String destinataire, String sujet, String texte) {
+        var formulaire = new LinkedMultiValueMap<String, String>();
+        formulaire.add("from", expediteur);
+        formulaire.add("to", destinataire);
+        formulaire.add("subject", sujet);
+        formulaire.add("text", texte);
+        // Une réponse 4xx ou 5xx lève une RestClientResponseException
+        client.post()
+                .uri("/messages")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(formulaire)
+                .retrieve()
+                .toBodilessEntity();
+    }
+}
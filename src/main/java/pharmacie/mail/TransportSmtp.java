@@ -0,0 +1,32 @@
+package pharmacie.mail;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+/**
+ * Envoi par un serveur SMTP (spring-boot-starter-mail, propriétés spring.mail.*)
+ */
+@Component
+@ConditionalOnProperty(name = "pharmacie.mail.transport", havingValue = "smtp")
+public class TransportSmtp implements TransportMail {
+    private final JavaMailSender smtp;
+    private final String expediteur;
+
+    public TransportSmtp(JavaMailSender smtp, @Value("${pharmacie.mail.from:pharmacie@localhost}") String expediteur) {
+        this.smtp = smtp;
+        this.expediteur = expediteur;
+    }
+
+    @Override
+    public void envoyer(String destinataire, String sujet, String texte) {
+        var message = new SimpleMailMessage();
+        message.setFrom(expediteur);
+        message.setTo(destinataire);
+        message.setSubject(sujet);
+        message.setText(texte);
+        smtp.send(message);
+    }
+}
@@ -1,59 +1,104 @@
 package pharmacie.rest;
 
-import java.util.ArrayList;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
-import org.modelmapper.ModelMapper;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import lombok.extern.slf4j.Slf4j;
 import pharmacie.dto.CommandeDTO;
+import pharmacie.dto.ConvertisseurDTO;
 import pharmacie.dto.EnTeteCommandeDTO;
 import pharmacie.dto.LigneDTO;
+import pharmacie.dto.LignePanierDTO;
+import pharmacie.dto.PanierDTO;
+import pharmacie.dto.ResultatExpeditionDTO;
 import pharmacie.entity.Commande;
 import pharmacie.service.CommandeService;
+import pharmacie.service.LectureCommandeService;
 
 @Slf4j
 @RestController // Cette classe est un contrôleur REST
 @RequestMapping(path = "/api/services/commandes") // chemin d'accès
 public class CommandeController {
+	// La taille maximum d'une page de commandes en cours
+	static final int TAILLE_PAGE_MAX = 1000;
+	static final String CURSEUR_SUIVANT = "X-Curseur-Suivant";
+	static final String NDJSON = "application/x-ndjson";
+
 	private final CommandeService commandeService;
-	private final ModelMapper mapper;
+	// Les lectures de commandes construisent directement les DTO
+	private final LectureCommandeService lectureService;
+	// Conversion explicite des entités en DTO (plus rapide que ModelMapper)
+	private final ConvertisseurDTO mapper;
+	private final ObjectMapper objectMapper;
 
     // Injection de dépendance (@Autowired)
-	public CommandeController(CommandeService commandeService, ModelMapper mapper) {
+	public CommandeController(CommandeService commandeService, LectureCommandeService lectureService, ConvertisseurDTO mapper,
+			ObjectMapper objectMapper) {
 		this.commandeService = commandeService;
+		this.lectureService = lectureService;
 		this.mapper = mapper;
+		this.objectMapper = objectMapper;
 	}
 
 	@PostMapping("ajouterPour/{dispensaireCode}")
 	public  ResponseEntity<CommandeDTO> ajouter(@PathVariable @NonNull String dispensaireCode) {
         log.info("Contrôleur : ajouter commande pour {}", dispensaireCode);
 		Commande commande = commandeService.creerCommande(dispensaireCode);
-        var body = mapper.map(commande, CommandeDTO.class);
+        var body = mapper.commande(commande);
         return ResponseEntity.ok(body);
 	}
 
 	@PostMapping("expedier/{commandeNum}")
 	public ResponseEntity<EnTeteCommandeDTO> expedier(@PathVariable Integer commandeNum) {
         log.info("Contrôleur : expédier la commande {}", commandeNum);
-        var body = mapper.map(commandeService.enregistreExpedition(commandeNum), EnTeteCommandeDTO.class);
+        var body = mapper.enTete(commandeService.enregistreExpedition(commandeNum));
 		return ResponseEntity.ok(body);
 	}
 
+	@PostMapping("expedier")
+	public ResponseEntity<List<ResultatExpeditionDTO>> expedierPlusieurs(@RequestBody List<Integer> commandeNums) {
+        log.info("Contrôleur : expédier {} commandes", commandeNums.size());
+		return ResponseEntity.ok(commandeService.enregistreExpeditions(commandeNums));
+	}
+
+	@PostMapping("expedierPour/{dispensaireCode}")
+	public ResponseEntity<List<ResultatExpeditionDTO>> expedierPour(@PathVariable @NonNull String dispensaireCode) {
+        log.info("Contrôleur : expédier les commandes en cours pour {}", dispensaireCode);
+		return ResponseEntity.ok(commandeService.enregistreExpeditionsPour(dispensaireCode));
+	}
+
 	@PostMapping("ajouterLigne")
 	public ResponseEntity<LigneDTO> ajouterLigne(@RequestParam int commandeNum, @RequestParam int medicamentRef, @RequestParam int quantite) {
         log.info("Contrôleur : ajouterLigne {} {} {}", commandeNum, medicamentRef, quantite);
 		var ligne = commandeService.ajouterLigne(commandeNum, medicamentRef, quantite);
-        var body = mapper.map(ligne, LigneDTO.class);
+        var body = mapper.ligne(ligne);
+        return ResponseEntity.ok(body);
+	}
+
+	@PostMapping("ajouterLignes/{commandeNum}")
+	public ResponseEntity<PanierDTO> ajouterLignes(@PathVariable Integer commandeNum, @RequestBody List<LignePanierDTO> panier) {
+        log.info("Contrôleur : ajouterLignes {} ({} lignes)", commandeNum, panier.size());
+        var body = new PanierDTO();
+        body.setResultats(commandeService.ajouterLignes(commandeNum, panier));
+        body.setCommande(lectureService.getCommande(commandeNum));
         return ResponseEntity.ok(body);
 	}
 
@@ -68,22 +113,51 @@ public class CommandeController {
     @GetMapping("{commandeNum}")
     public ResponseEntity<CommandeDTO> getCommande(@PathVariable Integer commandeNum) {
         log.info("Contrôleur : getCommande {}", commandeNum);
-        var body = mapper.map(commandeService.getCommande(commandeNum), CommandeDTO.class);
-        return ResponseEntity.ok(body);
+        return ResponseEntity.ok(lectureService.getCommande(commandeNum));
     }
 
+    /**
+     * Les commandes en cours d'un dispensaire, par pages (pagination par clé).
+     * S'il y a peut-être une page suivante, l'en-tête HTTP X-Curseur-Suivant donne
+     * la valeur du paramètre 'apres' pour l'obtenir.
+     */
     @GetMapping("enCoursPour/{dispensaireCode}")
-    public ResponseEntity<List<EnTeteCommandeDTO>> getCommandeEnCoursPour(@PathVariable @NonNull String dispensaireCode) {
-        log.info("Contrôleur : getCommandeEnCoursPour {}", dispensaireCode);
-        List<Commande> commandes = commandeService.getCommandeEnCoursPour(dispensaireCode);
-
-        List<EnTeteCommandeDTO> result = new ArrayList<>();
-        for (Commande commande : commandes) {
-            result.add(mapper.map(commande, EnTeteCommandeDTO.class));
+    public ResponseEntity<List<EnTeteCommandeDTO>> getCommandeEnCoursPour(@PathVariable @NonNull String dispensaireCode,
+            @RequestParam(required = false) Integer apres,
+            @RequestParam(defaultValue = "100") int taille) {
+        log.info("Contrôleur : getCommandeEnCoursPour {} apres {}", dispensaireCode, apres);
+        if (taille <= 0 || taille > TAILLE_PAGE_MAX) {
+            throw new IllegalArgumentException("La taille de la page doit être comprise entre 1 et " + TAILLE_PAGE_MAX);
+        }
+        var page = lectureService.getCommandeEnCoursPour(dispensaireCode, apres, taille);
+        var reponse = ResponseEntity.ok();
+        if (page.size() == taille) {
+            reponse.header(CURSEUR_SUIVANT, page.get(page.size() - 1).getNumero().toString());
         }
-        // Ca peut s'écrire en une ligne avec une expression lambda
-        // List<EnTeteCommandeDTO> result = commandes.stream().map(commande -> mapper.map(commande, EnTeteCommandeDTO.class)).collect(Collectors.toList());
+        return reponse.body(page);
+    }
 
-        return  ResponseEntity.ok(result);
+    /**
+     * Toutes les commandes en cours d'un dispensaire, au format NDJSON (un objet JSON par ligne) :
+     * les commandes sont écrites au fur et à mesure de leur lecture dans la BD
+     */
+    @GetMapping(value = "enCoursPour/{dispensaireCode}/flux", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> fluxCommandesEnCoursPour(@PathVariable @NonNull String dispensaireCode) {
+        log.info("Contrôleur : fluxCommandesEnCoursPour {}", dispensaireCode);
+        // Une ligne par objet : pas d'indentation
+        var ecrivain = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        StreamingResponseBody corps = sortie -> {
+            var tampon = new BufferedOutputStream(sortie);
+            lectureService.lireCommandesEnCoursPour(dispensaireCode, enTete -> {
+                try {
+                    ecrivain.writeValue(tampon, enTete);
+                    tampon.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            tampon.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(corps);
     }
 }
@@ -1,23 +1,98 @@
 package pharmacie.rest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import pharmacie.service.ReapprovisionnementService;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dto.TravailReapproDTO;
+import pharmacie.service.TravauxReapprovisionnement;
+import pharmacie.service.TravauxReapprovisionnement.Statut;
 
+/**
+ * <pre>
+ * Réapprovisionnement en arrière-plan :
+ * - POST /api/reapprovisionnement/travaux soumet un réapprovisionnement (ou renvoie celui en cours),
+ *   réponse 202 avec l'URL du travail dans l'en-tête Location
+ * - GET /api/reapprovisionnement/travaux/{id} : l'état du travail et le résultat par fournisseur
+ * - GET /api/reapprovisionnement/travaux/{id}/evenements : l'avancement en Server-Sent Events
+ *   (événements "avancement", puis "fin")
+ * </pre>
+ */
+@Slf4j
 @RestController
 public class ReapprovisionnementController {
+    static final String TRAVAUX = "/api/reapprovisionnement/travaux";
 
-    private final ReapprovisionnementService reapproService;
+    private final TravauxReapprovisionnement travaux;
+    private final long delaiEvenementsMs;
 
-    public ReapprovisionnementController(ReapprovisionnementService reapproService) {
-        this.reapproService = reapproService;
+    public ReapprovisionnementController(TravauxReapprovisionnement travaux,
+            @Value("${pharmacie.reappro.travaux.sse-timeout-ms:600000}") long delaiEvenementsMs) {
+        this.travaux = travaux;
+        this.delaiEvenementsMs = delaiEvenementsMs;
     }
 
+    /**
+     * Ancienne URL, conservée pour les clients existants : soumet un réapprovisionnement comme POST .../travaux
+     */
     @GetMapping("/api/reapprovisionnement")
-    public String lancerReapprovisionnement() {
-        System.out.println("=== Appel de /api/reapprovisionnement ===");
-        String resultat = reapproService.processReapprovisionnement();
-        return resultat;
+    public ResponseEntity<TravailReapproDTO> lancerReapprovisionnement() {
+        return soumettre();
+    }
+
+    @PostMapping(TRAVAUX)
+    public ResponseEntity<TravailReapproDTO> soumettre() {
+        var travail = travaux.soumettre();
+        log.info("Contrôleur : réapprovisionnement {} ({})", travail.getId(), travail.getStatut());
+        return ResponseEntity.accepted()
+                .location(URI.create(TRAVAUX + "/" + travail.getId()))
+                .body(travaux.etat(travail.getId()));
+    }
+
+    @GetMapping(TRAVAUX + "/{id}")
+    public ResponseEntity<TravailReapproDTO> etat(@PathVariable String id) {
+        return ResponseEntity.ok(travaux.etat(id));
+    }
+
+    @GetMapping(value = TRAVAUX + "/{id}/evenements", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter evenements(@PathVariable String id) throws IOException {
+        var travail = travaux.travail(id);
+        var emetteur = new SseEmitter(delaiEvenementsMs);
+        // L'événement de fin a l'état de l'envoi des mails, comme GET .../travaux/{id}
+        Consumer<TravailReapproDTO> abonne = etat -> {
+            boolean fin = Statut.valueOf(etat.getStatut()).estFinal();
+            try {
+                emetteur.send(SseEmitter.event().name(fin ? "fin" : "avancement").data(etat));
+                if (fin) {
+                    emetteur.complete();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        emetteur.onCompletion(() -> travail.desabonner(abonne));
+        emetteur.onTimeout(() -> travail.desabonner(abonne));
+        emetteur.onError(e -> travail.desabonner(abonne));
+        // L'état courant, puis les changements
+        emetteur.send(SseEmitter.event().name(travail.estTermine() ? "fin" : "avancement").data(travaux.etat(id)));
+        if (travail.estTermine()) {
+            emetteur.complete();
+        } else if (!travail.abonner(abonne)) {
+            // Travail terminé entre temps : seulement l'événement "fin"
+            emetteur.send(SseEmitter.event().name("fin").data(travaux.etat(id)));
+            emetteur.complete();
+        }
+        return emetteur;
     }
 }
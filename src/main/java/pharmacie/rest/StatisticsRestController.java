@@ -1,24 +1,66 @@
 package pharmacie.rest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import pharmacie.dao.MedicamentRepository;
+import pharmacie.dao.CategorieRepository;
 import pharmacie.dao.UnitesParMedicament;
+import pharmacie.dao.VentesMedicamentRepository;
+import pharmacie.dto.DispensairesDistinctsDTO;
+import pharmacie.dto.TopVentesDTO;
+import pharmacie.service.CubeVentes;
+import pharmacie.service.DispensairesDistincts;
+import pharmacie.service.DiffusionVentes;
+import pharmacie.service.FaitsVentes;
+import pharmacie.service.TopVentes;
 
 @RestController
 @RequestMapping(path = "/api/stats")
 public class StatisticsRestController {
-    private final MedicamentRepository dao;
+    // Les unités vendues sont lues dans la table des ventes, tenue à jour à chaque ligne ajoutée ou supprimée :
+    // même résultat sur toutes les instances
+    private final VentesMedicamentRepository ventesDao;
+    // Les lignes en mémoire, pour les sommes filtrées et regroupées à la demande
+    private final FaitsVentes faits;
+    // Les ventes par jour, catégorie, médicament et région, en mémoire
+    private final CubeVentes cube;
+    // Les ventes par catégorie envoyées aux pages abonnées (Server-Sent Events)
+    private final DiffusionVentes diffusion;
+    // Les meilleures ventes des derniers jours, estimées en mémoire
+    private final TopVentes top;
+    // Les dispensaires différents par médicament et par mois, estimés en mémoire
+    private final DispensairesDistincts dispensaires;
+    private final CategorieRepository categorieDao;
+    private final long delaiEvenementsMs;
 
     // Injection de dépendance (@Autowired)
-    StatisticsRestController(MedicamentRepository dao) {
-        this.dao = dao;
+    StatisticsRestController(VentesMedicamentRepository ventesDao, FaitsVentes faits, CubeVentes cube,
+            DiffusionVentes diffusion, TopVentes top, DispensairesDistincts dispensaires, CategorieRepository categorieDao,
+            @Value("${pharmacie.stats.diffusion.sse-timeout-ms:1800000}") long delaiEvenementsMs) {
+        this.ventesDao = ventesDao;
+        this.faits = faits;
+        this.cube = cube;
+        this.diffusion = diffusion;
+        this.top = top;
+        this.dispensaires = dispensaires;
+        this.categorieDao = categorieDao;
+        this.delaiEvenementsMs = delaiEvenementsMs;
     }
 
     /**
@@ -30,7 +72,7 @@ public class StatisticsRestController {
     @GetMapping(path = "unitesCommandeesPourCategorie/{code}", produces = { MediaType.APPLICATION_JSON_VALUE,
             MediaType.APPLICATION_XML_VALUE })
     public List<UnitesParMedicament> unitesCommandeesPourCategorie(@PathVariable final Integer code) {
-        return dao.medicamentsCommandesPour(code);
+        return ventesDao.unitesVenduesPour(code);
     }
 
     /**
@@ -44,7 +86,128 @@ public class StatisticsRestController {
      */
     @GetMapping(path = "unitesCommandeesPourCategorieV2/{code}", produces = { MediaType.APPLICATION_JSON_VALUE })
     public List<Object> unitesCommandeesPourCategorieV2(@PathVariable final Integer code) {
-        return dao.medicamentsCommandesPourV2(code);
+        return ventesDao.unitesVenduesPourV2(code);
+    }
+
+    /**
+     * Unites vendues pour chaque médicament d'une catégorie donnée, en Server-Sent Events :
+     * un événement "ventes" avec les unités de chaque médicament, puis des événements "modifications"
+     * avec seulement les médicaments dont le total a changé (0 : plus de ventes).
+     * Les données sont des tableaux [nom, unités], comme unitesCommandeesPourCategorieV2.
+     * A l'expiration du délai, le navigateur (EventSource) se reconnecte et reçoit à nouveau les ventes.
+     *
+     * @param code le code de la catégorie à suivre
+     * @return le flux d'événements
+     */
+    @GetMapping(path = "unitesCommandeesPourCategorie/{code}/evenements", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter evenementsPourCategorie(@PathVariable final Integer code) {
+        if (!categorieDao.existsById(code)) {
+            throw new NoSuchElementException("Catégorie inconnue : " + code);
+        }
+        var emetteur = new SseEmitter(delaiEvenementsMs);
+        Consumer<DiffusionVentes.Message> abonne = message -> {
+            var unites = message.unites().stream().map(u -> List.of(u.nom(), u.unites())).toList();
+            try {
+                emetteur.send(SseEmitter.event().name(message.complet() ? "ventes" : "modifications").data(unites));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        emetteur.onCompletion(() -> diffusion.desabonner(code, abonne));
+        emetteur.onTimeout(() -> diffusion.desabonner(code, abonne));
+        emetteur.onError(e -> diffusion.desabonner(code, abonne));
+        diffusion.abonner(code, abonne);
+        return emetteur;
+    }
+
+    /**
+     * Unités vendues sur une période (jour de saisie des commandes), regroupées par jour,
+     * catégorie, médicament ou région du dispensaire.
+     * Ex: /api/stats/ventes?jours=7&par=CATEGORIE, /api/stats/ventes?du=2024-01-01&au=2024-03-31&par=REGION&categorie=1
+     *
+     * @param du         premier jour de la période (par défaut : depuis le début)
+     * @param au         dernier jour de la période (par défaut : jusqu'à la fin)
+     * @param jours      si présent, les derniers jours jusqu'à aujourd'hui (remplace du et au)
+     * @param par        le regroupement : TOTAL, JOUR, CATEGORIE, MEDICAMENT ou REGION
+     * @param categorie  seulement les ventes de cette catégorie
+     * @param medicament seulement les ventes de ce médicament
+     * @param region     seulement les ventes de cette région
+     * @return les unités vendues de chaque groupe
+     */
+    @GetMapping(path = "ventes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CubeVentes.Agregat> ventes(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate du,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate au,
+            @RequestParam(required = false) Integer jours,
+            @RequestParam(defaultValue = "TOTAL") CubeVentes.Axe par,
+            @RequestParam(required = false) Integer categorie,
+            @RequestParam(required = false) Integer medicament,
+            @RequestParam(required = false) String region) {
+        if (jours != null) {
+            if (jours <= 0) {
+                throw new IllegalArgumentException("Le nombre de jours doit être positif");
+            }
+            au = LocalDate.now();
+            du = au.minusDays(jours - 1L);
+        }
+        return cube.agreger(du, au, par, categorie, medicament, region);
+    }
+
+    /**
+     * Somme des unités vendues, filtrées et regroupées à la demande, calculée à partir des lignes en mémoire.
+     * Ex: /api/stats/unites?par=MOIS&dispensaire=DSP01, /api/stats/unites?par=DISPENSAIRE&du=2024-01-01&categorie=2
+     *
+     * @param du          premier jour de saisie des commandes (par défaut : depuis le début)
+     * @param au          dernier jour de saisie des commandes (par défaut : jusqu'à la fin)
+     * @param par         le regroupement : TOTAL, JOUR, MOIS, CATEGORIE, MEDICAMENT ou DISPENSAIRE
+     * @param categorie   seulement les ventes de cette catégorie
+     * @param medicament  seulement les ventes de ce médicament
+     * @param dispensaire seulement les ventes de ce dispensaire
+     * @return les unités vendues de chaque groupe, clé : jour, mois, code ou référence
+     */
+    @GetMapping(path = "unites", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Long> unites(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate du,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate au,
+            @RequestParam(defaultValue = "TOTAL") FaitsVentes.Axe par,
+            @RequestParam(required = false) Integer categorie,
+            @RequestParam(required = false) Integer medicament,
+            @RequestParam(required = false) String dispensaire) {
+        return faits.sommer(new FaitsVentes.Filtre(du, au, categorie, medicament, dispensaire), par);
+    }
+
+    /**
+     * Les médicaments les plus vendus des derniers jours, estimés sans parcourir les lignes (voir TopVentes).
+     * Les unités vendues de chaque médicament sont entre 'unites' - 'erreur' et 'unites' ;
+     * un médicament absent de la liste a vendu au plus 'seuil' unités, ou au plus les 'unites' du dernier.
+     * Ex: /api/stats/top?n=10&jours=7
+     *
+     * @param n     le nombre de médicaments
+     * @param jours les derniers jours jusqu'à aujourd'hui
+     * @return les médicaments par unités décroissantes
+     */
+    @GetMapping(path = "top", produces = MediaType.APPLICATION_JSON_VALUE)
+    public TopVentesDTO top(@RequestParam(defaultValue = "20") int n, @RequestParam(defaultValue = "7") int jours) {
+        return top.meilleures(n, jours);
+    }
+
+    /**
+     * Nombre de dispensaires différents qui ont commandé un médicament pendant une période, et chaque mois,
+     * estimé à partir des registres en mémoire (voir DispensairesDistincts), ou exact (plus coûteux, pour vérifier).
+     * Ex: /api/stats/dispensairesPourMedicament/1?du=2024-01&au=2024-03, ...?exact=true
+     *
+     * @param reference la référence du médicament
+     * @param du        le premier mois (par défaut : depuis le début)
+     * @param au        le dernier mois (par défaut : jusqu'à la fin)
+     * @param exact     true pour compter dans les lignes
+     * @return le nombre de dispensaires de la période et de chaque mois
+     */
+    @GetMapping(path = "dispensairesPourMedicament/{reference}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DispensairesDistinctsDTO dispensairesPourMedicament(@PathVariable final Integer reference,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth du,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth au,
+            @RequestParam(defaultValue = "false") boolean exact) {
+        return dispensaires.compter(reference, du, au, exact);
     }
 
 }
@@ -0,0 +1,180 @@
+package pharmacie.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.entity.Medicament;
+
+/**
+ * <pre>
+ * Choix des fournisseurs à prévenir pour les médicaments à réapprovisionner.
+ * Deux modes (pharmacie.reappro.fournisseurs) :
+ * - COUVERTURE (par défaut) : un ensemble de fournisseurs aussi petit que possible qui couvre tous
+ *   les médicaments (couverture d'ensemble, algorithme glouton), chaque médicament est demandé à un seul fournisseur
+ * - TOUS : chaque médicament est demandé à tous les fournisseurs de sa catégorie
+ * Les fournisseurs d'une catégorie sont donnés par la table de routage (RoutageFournisseurs).
+ * </pre>
+ */
+@Slf4j
+@Service
+public class AffectationFournisseurs {
+
+    public enum Mode { COUVERTURE, TOUS }
+
+    private final RoutageFournisseurs routage;
+    private final Mode mode;
+
+    public AffectationFournisseurs(RoutageFournisseurs routage,
+            @Value("${pharmacie.reappro.fournisseurs:COUVERTURE}") Mode mode) {
+        this.routage = routage;
+        this.mode = mode;
+    }
+
+    /**
+     * Le choix d'un fournisseur par la couverture gloutonne
+     *
+     * @param fournisseur l'indice du fournisseur
+     * @param elements les éléments qui lui sont attribués : ceux qu'il couvre et qui ne l'étaient pas encore
+     */
+    public record Choix(int fournisseur, BitSet elements) {
+    }
+
+    /**
+     * Répartit les médicaments entre les fournisseurs
+     *
+     * @param aReappro les médicaments à réapprovisionner, avec leur catégorie
+     * @param dejaPrevenus les fournisseurs déjà prévenus de la rupture en cours d'un médicament,
+     * clé : cle(fournisseur, médicament) ; complété par les nouvelles demandes
+     * @return les médicaments à demander à chaque fournisseur, clé : Fournisseur.id (ordre croissant)
+     */
+    public Map<Long, List<Medicament>> affecter(List<Medicament> aReappro, Set<Long> dejaPrevenus) {
+        Map<Long, List<Medicament>> parFournisseur = new TreeMap<>();
+        if (mode == Mode.TOUS) {
+            for (Medicament m : aReappro) {
+                for (long f : fournisseursPour(m)) {
+                    if (dejaPrevenus.add(cle(f, m.getReference()))) {
+                        parFournisseur.computeIfAbsent(f, id -> new ArrayList<>()).add(m);
+                    }
+                }
+            }
+            return parFournisseur;
+        }
+        // Un médicament dont la rupture a déjà été signalée à un fournisseur n'est pas redemandé
+        Set<Integer> dejaDemandes = new HashSet<>();
+        dejaPrevenus.forEach(c -> dejaDemandes.add((int) c.longValue()));
+        List<Medicament> aCouvrir = aReappro.stream().filter(m -> !dejaDemandes.contains(m.getReference())).toList();
+
+        // Les médicaments couverts par chaque fournisseur, indicés par leur position dans aCouvrir
+        Map<Long, Integer> indices = new HashMap<>();
+        List<Long> fournisseurs = new ArrayList<>();
+        List<BitSet> couvertures = new ArrayList<>();
+        for (int i = 0; i < aCouvrir.size(); i++) {
+            for (long f : fournisseursPour(aCouvrir.get(i))) {
+                int indice = indices.computeIfAbsent(f, id -> {
+                    fournisseurs.add(id);
+                    couvertures.add(new BitSet(aCouvrir.size()));
+                    return fournisseurs.size() - 1;
+                });
+                couvertures.get(indice).set(i);
+            }
+        }
+        // Même coût pour tous les fournisseurs : un mail
+        double[] couts = new double[fournisseurs.size()];
+        Arrays.fill(couts, 1);
+        for (var choix : couvrir(couvertures.toArray(BitSet[]::new), couts)) {
+            long f = fournisseurs.get(choix.fournisseur());
+            var medicaments = parFournisseur.computeIfAbsent(f, id -> new ArrayList<>());
+            choix.elements().stream().forEach(i -> {
+                medicaments.add(aCouvrir.get(i));
+                dejaPrevenus.add(cle(f, aCouvrir.get(i).getReference()));
+            });
+        }
+        return parFournisseur;
+    }
+
+    /**
+     * <pre>
+     * Couverture d'ensemble gloutonne, pondérée : on choisit à chaque étape le fournisseur qui couvre
+     * le plus d'éléments pas encore couverts par unité de coût, jusqu'à ce que tous les éléments couvrables
+     * le soient (au plus ln(n) + 1 fois le coût de la couverture optimale).
+     * Évaluation paresseuse : le nombre d'éléments nouveaux d'un fournisseur ne peut que diminuer,
+     * la valeur calculée à une étape précédente est un majorant ; on ne recalcule que le fournisseur en tête
+     * de la file de priorité. Chaque calcul est une intersection de bitsets (64 éléments par opération).
+     * À valeur égale, le fournisseur de plus petit indice est choisi.
+     * </pre>
+     *
+     * @param couvertures les éléments couverts par chaque fournisseur (non modifiés)
+     * @param couts le coût de chaque fournisseur (strictement positif)
+     * @return les fournisseurs choisis, dans l'ordre du choix, chacun avec les éléments qui lui sont attribués
+     */
+    public static List<Choix> couvrir(BitSet[] couvertures, double[] couts) {
+        if (couvertures.length != couts.length) {
+            throw new IllegalArgumentException("Un coût par fournisseur");
+        }
+        record Candidat(int fournisseur, double valeur) {
+        }
+        var file = new PriorityQueue<Candidat>((a, b) -> a.valeur() != b.valeur()
+                ? Double.compare(b.valeur(), a.valeur())
+                : Integer.compare(a.fournisseur(), b.fournisseur()));
+        var restants = new BitSet();
+        for (int f = 0; f < couvertures.length; f++) {
+            if (couts[f] <= 0) {
+                throw new IllegalArgumentException("Coût du fournisseur " + f + " : " + couts[f]);
+            }
+            if (!couvertures[f].isEmpty()) {
+                restants.or(couvertures[f]);
+                file.add(new Candidat(f, couvertures[f].cardinality() / couts[f]));
+            }
+        }
+        List<Choix> choix = new ArrayList<>();
+        var nouveaux = new BitSet();
+        while (!restants.isEmpty() && !file.isEmpty()) {
+            var candidat = file.poll();
+            nouveaux.clear();
+            nouveaux.or(couvertures[candidat.fournisseur()]);
+            nouveaux.and(restants);
+            int nombre = nouveaux.cardinality();
+            if (nombre == 0) {
+                continue;
+            }
+            double valeur = nombre / couts[candidat.fournisseur()];
+            var suivant = file.peek();
+            if (suivant != null && (valeur < suivant.valeur()
+                    || valeur == suivant.valeur() && suivant.fournisseur() < candidat.fournisseur())) {
+                // Valeur périmée : le candidat reprend sa place
+                file.add(new Candidat(candidat.fournisseur(), valeur));
+                continue;
+            }
+            choix.add(new Choix(candidat.fournisseur(), (BitSet) nouveaux.clone()));
+            restants.andNot(nouveaux);
+        }
+        return choix;
+    }
+
+    /**
+     * La clé d'une demande de réapprovisionnement
+     */
+    public static long cle(long fournisseurId, int medicamentReference) {
+        return fournisseurId << 32 | (medicamentReference & 0xFFFFFFFFL);
+    }
+
+    private long[] fournisseursPour(Medicament m) {
+        long[] fournisseurs = routage.fournisseursPour(m.getCategorie().getCode());
+        if (fournisseurs.length == 0) {
+            log.info("Pas de fournisseur pour le médicament : {}", m.getNom());
+        }
+        return fournisseurs;
+    }
+}
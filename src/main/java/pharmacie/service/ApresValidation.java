@@ -0,0 +1,182 @@
+package pharmacie.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Les modifications enregistrées pendant une transaction, appliquées ensemble quand elle est
+ * validée (immédiatement hors transaction), pour les données tenues en mémoire.
+ * Une seule synchronisation par transaction : la liste des modifications est liée à la transaction.
+ * L'application a lieu dans afterCommit, avant les synchronisations d'ordre par défaut : les versions
+ * des données (VersionsDonnees) changent après l'application, une requête qui voit la nouvelle
+ * version voit les modifications.
+ *
+ * Une reconstruction à partir du SGBD suspend les validations le temps de prendre son instantané
+ * (lireSurInstantane) : une transaction qui a des modifications attend la reprise avant d'être
+ * validée. Elle est donc validée et appliquée soit avant l'instantané (elle y est), soit après
+ * (elle n'y est pas), jamais entre les deux. L'instantané est pris par une requête courte, avant
+ * la lecture : les validations ne sont pas suspendues pendant la lecture elle-même.
+ * </pre>
+ *
+ * @param <T> le type des modifications
+ */
+@Slf4j
+final class ApresValidation<T> {
+    // Avant les synchronisations sans ordre (Ordered.LOWEST_PRECEDENCE), dont celles de VersionsDonnees
+    static final int ORDRE = 0;
+
+    private final String nom;
+    private final Consumer<List<T>> application;
+    // En lecture pendant la validation d'une transaction, en écriture pendant une suspension
+    private final ReentrantReadWriteLock validations = new ReentrantReadWriteLock();
+
+    /**
+     * @param nom le nom des données, pour les logs
+     * @param application applique les modifications d'une transaction validée
+     */
+    ApresValidation(String nom, Consumer<List<T>> application) {
+        this.nom = nom;
+        this.application = application;
+    }
+
+    /**
+     * Enregistre une modification, appliquée quand la transaction courante est validée
+     * (immédiatement hors transaction)
+     */
+    void ajouter(T modification) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            application.accept(List.of(modification));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        var modifications = (List<T>) TransactionSynchronizationManager.getResource(this);
+        if (modifications == null) {
+            var enAttente = new ArrayList<T>();
+            TransactionSynchronizationManager.bindResource(this, enAttente);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private boolean validation;
+
+                @Override
+                public int getOrder() {
+                    return ORDRE;
+                }
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    validations.readLock().lock();
+                    validation = true;
+                }
+
+                @Override
+                public void afterCommit() {
+                    apresValidation(nom, () -> application.accept(enAttente));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ApresValidation.this);
+                    if (validation) {
+                        validations.readLock().unlock();
+                    }
+                }
+            });
+            modifications = enAttente;
+        }
+        modifications.add(modification);
+    }
+
+    /**
+     * <pre>
+     * Exécute une lecture sur un instantané du SGBD. Les validations ne sont suspendues que le temps
+     * d'une requête courte, qui prend l'instantané : la lecture elle-même (un GROUP BY sur toutes
+     * les lignes...) ne retarde aucune validation.
+     * La lecture a sa propre transaction, en lecture seule et REPEATABLE READ : PostgreSQL prend
+     * l'instantané à la première requête de la transaction, H2 à la première lecture de chaque table.
+     * La requête courte lit donc chacune des tables de la lecture (ex: le plus grand id de chacune).
+     * </pre>
+     *
+     * @param transactions le gestionnaire des transactions
+     * @param jdbc         pour la requête courte
+     * @param instantane   la requête courte, qui lit toutes les tables de la lecture
+     * @param pris         exécutée quand l'instantané est pris, avant la reprise des validations
+     * @param lecture      la lecture, dans la transaction de l'instantané
+     * @return le résultat de la lecture
+     */
+    <R> R lireSurInstantane(PlatformTransactionManager transactions, JdbcTemplate jdbc, String instantane,
+            Runnable pris, Supplier<R> lecture) {
+        var transaction = new TransactionTemplate(transactions);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        transaction.setReadOnly(true);
+        return transaction.execute(status -> {
+            try {
+                jdbc.query(con -> {
+                    // La connexion est obtenue : pas d'attente du pool pendant la suspension
+                    validations.writeLock().lock();
+                    return con.prepareStatement(instantane);
+                }, rs -> {
+                });
+                pris.run();
+            } finally {
+                if (validations.isWriteLockedByCurrentThread()) {
+                    validations.writeLock().unlock();
+                }
+            }
+            return lecture.get();
+        });
+    }
+
+    /**
+     * Exécute une action quand la transaction courante est validée, dans le même ordre que
+     * les modifications (immédiatement hors transaction), une autre si elle est annulée
+     *
+     * @param siValidee exécutée après la validation
+     * @param siAnnulee exécutée après l'annulation (peut être null)
+     */
+    static void executer(Runnable siValidee, Runnable siAnnulee) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            siValidee.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public int getOrder() {
+                return ORDRE;
+            }
+
+            @Override
+            public void afterCommit() {
+                apresValidation("Action après validation", siValidee);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED && siAnnulee != null) {
+                    siAnnulee.run();
+                }
+            }
+        });
+    }
+
+    // La transaction est validée : une erreur ne doit pas remonter à l'appelant, ni empêcher les synchronisations suivantes
+    private static void apresValidation(String nom, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.error("{} : modifications validées non appliquées", nom, e);
+        }
+    }
+}
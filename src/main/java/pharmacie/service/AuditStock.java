@@ -0,0 +1,153 @@
+package pharmacie.service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Audit complet du stock, chaque nuit (pharmacie.stock.audit.cron) :
+ * Medicament.unitesCommandees est recalculé à partir des lignes des commandes en cours, qui sont la référence,
+ * et corrigé s'il est différent.
+ * Mémoire constante quelle que soit la taille du catalogue : deux lectures JDBC triées par référence
+ * (les médicaments, et les quantités en commande regroupées par médicament), lues par blocs
+ * de pharmacie.stock.audit.taille-lot enregistrements et fusionnées au fil de l'eau ;
+ * les corrections sont écrites par lots JDBC de la même taille.
+ * Avec le registre du stock en mémoire (RegistreStock), unitesCommandees est écrit en différé :
+ * les écarts sont seulement signalés, RegistreStock.reconstruire() les corrige.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class AuditStock {
+    private static final String MEDICAMENTS = """
+        SELECT reference, unites_commandees FROM medicament ORDER BY reference
+        """;
+    private static final String EN_COMMANDE = """
+        SELECT l.medicament_reference, SUM(l.quantite) AS unites
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        WHERE c.envoyeele IS NULL
+        GROUP BY l.medicament_reference
+        ORDER BY l.medicament_reference
+        """;
+    // Le compteur n'est corrigé que s'il n'a pas été modifié depuis sa lecture
+    private static final String CORRIGER = """
+        UPDATE medicament SET unites_commandees = ? WHERE reference = ? AND unites_commandees = ?
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final EntityManager entityManager;
+    private final Optional<RegistreStock> registreStock;
+    private final int tailleLot;
+    // Les versions des médicaments, pour les requêtes conditionnelles HTTP
+    private final VersionsDonnees versions;
+
+    public AuditStock(JdbcTemplate jdbc, EntityManager entityManager, Optional<RegistreStock> registreStock,
+            @Value("${pharmacie.stock.audit.taille-lot:1000}") int tailleLot, VersionsDonnees versions) {
+        this.jdbc = jdbc;
+        this.entityManager = entityManager;
+        this.registreStock = registreStock;
+        this.tailleLot = tailleLot;
+        this.versions = versions;
+    }
+
+    /**
+     * Le résultat d'un audit
+     *
+     * @param medicaments le nombre de médicaments vérifiés
+     * @param ecarts le nombre de médicaments dont le compteur était faux
+     * @param corriges le nombre de compteurs corrigés
+     */
+    public record Bilan(int medicaments, int ecarts, int corriges) {
+    }
+
+    @Scheduled(cron = "${pharmacie.stock.audit.cron:0 45 2 * * *}")
+    @Transactional
+    public Bilan auditer() {
+        // Les modifications en attente dans le contexte de persistance sont écrites avant les lectures
+        entityManager.flush();
+        boolean corriger = registreStock.isEmpty();
+        var bilan = jdbc.execute((ConnectionCallback<Bilan>) connexion -> {
+            try (PreparedStatement medicaments = connexion.prepareStatement(MEDICAMENTS);
+                    PreparedStatement enCommande = connexion.prepareStatement(EN_COMMANDE)) {
+                medicaments.setFetchSize(tailleLot);
+                enCommande.setFetchSize(tailleLot);
+                try (ResultSet m = medicaments.executeQuery(); ResultSet l = enCommande.executeQuery()) {
+                    return fusionner(m, l, corriger);
+                }
+            }
+        });
+        if (bilan.corriges() > 0) {
+            versions.modifiees(VersionsDonnees.Donnees.MEDICAMENTS);
+        }
+        if (bilan.ecarts() > 0) {
+            log.warn("Audit du stock : {} médicaments vérifiés, {} écarts, {} corrigés",
+                    bilan.medicaments(), bilan.ecarts(), bilan.corriges());
+        } else {
+            log.info("Audit du stock : {} médicaments vérifiés, aucun écart", bilan.medicaments());
+        }
+        return bilan;
+    }
+
+    // Jointure par fusion des deux lectures, triées par référence
+    private Bilan fusionner(ResultSet medicaments, ResultSet enCommande, boolean corriger) throws SQLException {
+        int nombre = 0;
+        int ecarts = 0;
+        int corriges = 0;
+        List<Object[]> lot = new ArrayList<>(tailleLot);
+        boolean ligneLue = enCommande.next();
+        while (medicaments.next()) {
+            int reference = medicaments.getInt(1);
+            int enregistrees = medicaments.getInt(2);
+            nombre++;
+            // Les lignes sont celles de médicaments existants (clé étrangère) : pas de référence sautée
+            while (ligneLue && enCommande.getInt(1) < reference) {
+                ligneLue = enCommande.next();
+            }
+            int calculees = ligneLue && enCommande.getInt(1) == reference ? enCommande.getInt(2) : 0;
+            if (calculees == enregistrees) {
+                continue;
+            }
+            ecarts++;
+            log.debug("Audit du stock : médicament {}, {} unités commandées enregistrées, {} selon les lignes",
+                    reference, enregistrees, calculees);
+            if (corriger) {
+                lot.add(new Object[] { calculees, reference, enregistrees });
+                if (lot.size() == tailleLot) {
+                    corriges += ecrire(lot);
+                }
+            }
+        }
+        corriges += ecrire(lot);
+        return new Bilan(nombre, ecarts, corriges);
+    }
+
+    // Écrit un lot de corrections, et vide le contexte de persistance (les médicaments chargés sont périmés)
+    private int ecrire(List<Object[]> lot) {
+        if (lot.isEmpty()) {
+            return 0;
+        }
+        int corriges = 0;
+        for (int n : jdbc.batchUpdate(CORRIGER, lot)) {
+            // Certains pilotes ne donnent pas le nombre de lignes modifiées (SUCCESS_NO_INFO)
+            corriges += n == Statement.SUCCESS_NO_INFO ? 1 : n;
+        }
+        lot.clear();
+        entityManager.clear();
+        return corriges;
+    }
+}
@@ -2,8 +2,16 @@ package pharmacie.service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
 
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
@@ -15,27 +23,77 @@ import pharmacie.dao.CommandeRepository;
 import pharmacie.dao.DispensaireRepository;
 import pharmacie.dao.LigneRepository;
 import pharmacie.dao.MedicamentRepository;
+import pharmacie.dto.LignePanierDTO;
+import pharmacie.dto.ResultatExpeditionDTO;
+import pharmacie.dto.ResultatLigneDTO;
 import pharmacie.entity.Commande;
 import pharmacie.entity.Ligne;
+import pharmacie.entity.Medicament;
+import pharmacie.service.VersionsDonnees.Donnees;
 
 @Slf4j
 @Service
 @Validated // Les annotations de validation sont actives sur les méthodes de ce service
 // (ex: @Positive)
 public class CommandeService {
+    // Expédition groupée : un UPDATE relatif par médicament, envoyés en un seul lot JDBC
+    private static final String EXPEDIER_UNITES = """
+        UPDATE medicament
+        SET unites_en_stock = unites_en_stock - ?, unites_commandees = unites_commandees - ?
+        WHERE reference = ?
+        """;
+    // Réservation d'un élément de panier : l'UPDATE vérifie le stock disponible au moment où il
+    // verrouille la ligne, une réservation concurrente ne peut pas être écrasée
+    private static final String RESERVER_UNITES = """
+        UPDATE medicament
+        SET unites_commandees = unites_commandees + ?
+        WHERE reference = ? AND indisponible = false AND unites_en_stock - unites_commandees >= ?
+        """;
+    // Un médicament dont le stock vient de passer sous son niveau de réapprovisionnement
+    // entre dans la file des médicaments à réapprovisionner (voir ReapprovisionnementService)
+    // La ligne du médicament est verrouillée par l'UPDATE qui précède : un seul passage du seuil
+    private static final String SIGNALER_STOCK_FAIBLE = """
+        INSERT INTO stock_faible (medicament_reference, signale_le)
+        SELECT m.reference, CURRENT_TIMESTAMP FROM medicament m
+        WHERE m.reference = ?
+        AND m.unites_en_stock < m.niveau_de_reappro
+        AND m.unites_en_stock + ? >= m.niveau_de_reappro
+        AND NOT EXISTS (SELECT 1 FROM stock_faible s WHERE s.medicament_reference = m.reference)
+        """;
+    // Et un UPDATE relatif par dispensaire
+    private static final String AJOUTER_ARTICLES_EXPEDIES = """
+        UPDATE dispensaire SET articles_expedies = articles_expedies + ? WHERE code = ?
+        """;
+
     // La couche "Service" utilise la couche "Accès aux données" pour effectuer les traitements
     private final CommandeRepository commandeDao;
     private final DispensaireRepository dispensaireDao;
     private final LigneRepository ligneDao;
     private final MedicamentRepository medicamentDao;
+    private final JdbcTemplate jdbc;
+    // Le registre du stock en mémoire, s'il est activé (pharmacie.stock.registre.enabled)
+    private final Optional<RegistreStock> registreStock;
+    // La consommation par médicament, pour les quantités à réapprovisionner
+    private final ConsommationMedicaments consommation;
+    // Les unités vendues par médicament, pour les statistiques
+    private final VentesMedicaments ventes;
+    // Les versions des médicaments, pour les requêtes conditionnelles HTTP (UPDATE directs)
+    private final VersionsDonnees versions;
 
     // @Autowired
     // Spring initialisera automatiquement ces paramètres
-    public CommandeService(CommandeRepository commandeDao, DispensaireRepository dispensaireDao, LigneRepository ligneDao, MedicamentRepository medicamentDao) {
+    public CommandeService(CommandeRepository commandeDao, DispensaireRepository dispensaireDao, LigneRepository ligneDao, MedicamentRepository medicamentDao,
+            JdbcTemplate jdbc, Optional<RegistreStock> registreStock, ConsommationMedicaments consommation,
+            VentesMedicaments ventes, VersionsDonnees versions) {
         this.commandeDao = commandeDao;
         this.dispensaireDao = dispensaireDao;
         this.ligneDao = ligneDao;
         this.medicamentDao = medicamentDao;
+        this.jdbc = jdbc;
+        this.registreStock = registreStock;
+        this.consommation = consommation;
+        this.ventes = ventes;
+        this.versions = versions;
     }
 
     /**
@@ -59,9 +117,8 @@ public class CommandeService {
         // On initialise l'adresse de livraison avec l'adresse du dispensaire
         nouvelleCommande.setAdresseLivraison(dispensaire.getAdresse());
         // Si le dispensaire a déjà commandé plus de 100 médicaments, on lui offre une remise de 15%
-        // La requête SQL nécessaire est définie dans l'interface DispensaireRepository
-        var nbArticles = dispensaireDao.nombreArticlesCommandesPar(dispensaireCode);
-        if (nbArticles > 100) {
+        // Le nombre d'articles expédiés est tenu à jour dans le dispensaire, pas besoin de le recalculer
+        if (dispensaire.getArticlesExpedies() > 100) {
             nouvelleCommande.setRemise(new BigDecimal("0.15"));
         }
         // On enregistre la commande (génère la clé)
@@ -101,36 +158,125 @@ public class CommandeService {
     @Transactional
     public Ligne ajouterLigne(int commandeNum, int medicamentRef, @Positive int quantite) {
         log.info("Service : Ajout d'une ligne ({}, {}) à la commande {}", medicamentRef, quantite, commandeNum);
-        // On vérifie que le médicament existe
-        var medicament = medicamentDao.findById(medicamentRef).orElseThrow();
-        // On vérifie que le médicament n'est pas marqué indisponible
-        if (medicament.isIndisponible()) {
-            throw new IllegalStateException("Médicament indisponible");
-        }
-        // On vérifie qu'il y a assez de stock
-        if (medicament.getUnitesEnStock() < quantite + medicament.getUnitesCommandees()) {
-            throw new IllegalStateException("Pas assez de stock");
-        }
         // On vérifie que la commande existe
         var commande = commandeDao.findById(commandeNum).orElseThrow();
         // On vérifie que la commande n'est pas déjà envoyée
         if (commande.getEnvoyeele() != null) {
             throw new IllegalStateException("Commande déjà envoyée");
         }
+        // On réserve les unités : le registre du stock ou le SGBD
+        // vérifient que le médicament est disponible et qu'il y a assez de stock
+        if (!reserverUnites(medicamentRef, quantite)) {
+            // La réservation a échoué, on cherche pourquoi
+            var medicament = medicamentDao.findById(medicamentRef).orElseThrow();
+            if (medicament.isIndisponible()) {
+                throw new IllegalStateException("Médicament indisponible");
+            }
+            throw new IllegalStateException("Pas assez de stock");
+        }
         // On cherche si une ligne existe déjà dans la commande pour ce médicament
-        var ligne = ligneDao.findByCommandeAndMedicament(commande, medicament).
-        // Si pas trouvé on crée une nouvelle ligne
-                orElse(new Ligne(commande, medicament, 0));
+        var ligne = ligneDao.findByCommandeNumeroAndMedicamentReference(commandeNum, medicamentRef)
+        // Si pas trouvé on crée une nouvelle ligne, le médicament n'est pas chargé (référence seulement)
+                .orElseGet(() -> new Ligne(commande, medicamentDao.getReferenceById(medicamentRef), 0));
         // On incrémente la quantité de la ligne
         ligne.setQuantite(ligne.getQuantite() + quantite);
-        // On incrémente la quantité commandée pour le médicament
-        medicament.setUnitesCommandees(medicament.getUnitesCommandees() + quantite);
-        // Inutile de sauvegarder le médicament, les entités modifiées par une transaction
-        // sont automatiquement sauvegardées à la fin de la transaction
+        ventes.ajouter(medicamentRef, quantite);
         // On enregistre la ligne de commande (génère la clé)
         return ligneDao.save(ligne);
     }
 
+    /**
+     * <pre>
+     * Service métier :
+     * Enregistre en une seule transaction un panier de lignes pour une commande connue par sa clé.
+     * Les règles métier sont celles de ajouterLigne, appliquées à chaque élément du panier :
+     * un élément qui ne les respecte pas est refusé, sans empêcher l'ajout des autres.
+     * Règles métier sur la commande :
+     * - la commande doit exister
+     * - la commande ne doit pas être déjà envoyée (le champ 'envoyeele' doit être null)
+     * Accès aux données :
+     * - tous les médicaments du panier sont chargés en une seule requête
+     * - les lignes existantes de la commande sont chargées en une seule requête
+     * - les unités sont réservées par un lot d'UPDATE conditionnels, triés par médicament
+     * <pre>
+     *
+     * @param commandeNum la clé de la commande
+     * @param panier      les médicaments et les quantités à commander
+     * @return le résultat pour chaque élément du panier, dans l'ordre du panier
+     * @throws java.util.NoSuchElementException si la commande n'existe pas
+     * @throws IllegalStateException            si la commande a déjà été envoyée
+     */
+    @Transactional
+    public List<ResultatLigneDTO> ajouterLignes(int commandeNum, @NonNull List<LignePanierDTO> panier) {
+        log.info("Service : Ajout d'un panier de {} lignes à la commande {}", panier.size(), commandeNum);
+        // On vérifie que la commande existe
+        var commande = commandeDao.findById(commandeNum).orElseThrow();
+        // On vérifie que la commande n'est pas déjà envoyée
+        if (commande.getEnvoyeele() != null) {
+            throw new IllegalStateException("Commande déjà envoyée");
+        }
+        // On charge tous les médicaments du panier en une seule requête
+        var references = panier.stream()
+                .map(LignePanierDTO::getMedicamentRef)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Map<Integer, Medicament> medicaments = new HashMap<>();
+        medicamentDao.findAllById(references).forEach(m -> medicaments.put(m.getReference(), m));
+        // On charge les lignes déjà présentes dans la commande en une seule requête
+        Map<Integer, Ligne> lignes = new HashMap<>();
+        ligneDao.lignesAvecMedicamentPour(commandeNum).forEach(l -> lignes.put(l.getMedicament().getReference(), l));
+
+        // Les éléments valides (indices dans le panier) sont réservés ensemble
+        var erreurs = new String[panier.size()];
+        List<Integer> valides = new ArrayList<>(panier.size());
+        for (int i = 0; i < panier.size(); i++) {
+            var element = panier.get(i);
+            var quantite = element.getQuantite();
+            var medicament = medicaments.get(element.getMedicamentRef());
+            if (quantite == null || quantite <= 0) {
+                erreurs[i] = "La quantité doit être positive";
+            } else if (medicament == null) {
+                erreurs[i] = "Médicament inconnu";
+            } else if (medicament.isIndisponible()) {
+                erreurs[i] = "Médicament indisponible";
+            } else {
+                valides.add(i);
+            }
+        }
+        var reserves = reserverPanier(panier, valides);
+
+        List<ResultatLigneDTO> resultats = new ArrayList<>(panier.size());
+        List<Ligne> nouvellesLignes = new ArrayList<>();
+        // Triées par référence : les ventes sont verrouillées dans le même ordre que les médicaments
+        Map<Integer, Integer> unitesParMedicament = new TreeMap<>();
+        for (int i = 0; i < panier.size(); i++) {
+            var element = panier.get(i);
+            var quantite = element.getQuantite();
+            var medicament = medicaments.get(element.getMedicamentRef());
+            String erreur = erreurs[i];
+            if (erreur == null && !reserves[i]) {
+                erreur = "Pas assez de stock";
+            }
+            if (erreur == null) {
+                var ligne = lignes.get(medicament.getReference());
+                if (ligne == null) {
+                    ligne = new Ligne(commande, medicament, 0);
+                    lignes.put(medicament.getReference(), ligne);
+                    nouvellesLignes.add(ligne);
+                }
+                ligne.setQuantite(ligne.getQuantite() + quantite);
+                unitesParMedicament.merge(medicament.getReference(), quantite, Integer::sum);
+            }
+            resultats.add(new ResultatLigneDTO(element.getMedicamentRef(), quantite, erreur == null, erreur));
+        }
+        // Les lignes existantes sont sauvegardées à la fin de la transaction
+        ligneDao.saveAll(nouvellesLignes);
+        // Les médicaments ont été modifiés (réservés) avant les ventes, comme dans ajouterLigne (pas d'interblocage)
+        ventes.ajouter(unitesParMedicament);
+        return resultats;
+    }
+
     /**
      * <pre>
      * Service métier :
@@ -153,14 +299,11 @@ public class CommandeService {
             if (commande.getEnvoyeele() != null) {
                 throw new IllegalStateException("Commande déjà envoyée");
             }
-            // On récupère le médicament
-            var medicament = ligne.getMedicament();
-            // On décrémente la quantité commandée pour le médicament
-            medicament.setUnitesCommandees(medicament.getUnitesCommandees() - ligne.getQuantite());
+            // On décrémente la quantité commandée pour le médicament (UPDATE relatif)
+            libererUnites(ligne.getMedicament().getReference(), ligne.getQuantite());
+            ventes.ajouter(ligne.getMedicament().getReference(), -ligne.getQuantite());
             // On supprime la ligne
             ligneDao.delete(ligne);
-            // Inutile de sauvegarder le médicament, les entités modifiées par une transaction
-            // sont automatiquement sauvegardées à la fin de la transaction
         });
     }
 
@@ -173,6 +316,8 @@ public class CommandeService {
      * - Pour chaque médicament dans les lignes de la commande :
      * décrémente la quantité en stock (Medicament.unitesEnStock) de la quantité dans la commande
      * décrémente la quantité commandée (Medicament.unitesCommandees) de la quantité dans la commande
+     * - incrémente le nombre d'articles expédiés au dispensaire (Dispensaire.articlesExpedies)
+     * - les médicaments dont le stock passe sous le niveau de réapprovisionnement entrent dans la file StockFaible
      *
      * @param commandeNum la clé de la commande
      * @return la commande mise à jour
@@ -188,16 +333,68 @@ public class CommandeService {
             throw new IllegalStateException("Commande déjà expédiée");
         }
         commande.setEnvoyeele(LocalDate.now());
-        commande.getLignes().forEach(ligne -> {
-            var medicament = ligne.getMedicament();
-            // Les médicaments de la commande ne sont plus en stock
-            medicament.setUnitesEnStock(medicament.getUnitesEnStock() - ligne.getQuantite());
-            // Les médicaments de la commande ne sont plus "en commande"
-            medicament.setUnitesCommandees(medicament.getUnitesCommandees() - ligne.getQuantite());
-        });
+        int articles = 0;
+        List<Object[]> sorties = new ArrayList<>();
+        Map<Integer, Integer> unitesParMedicament = new HashMap<>();
+        // On lit seulement les (référence, quantité) des lignes, sans charger lignes ni médicaments,
+        // triées par référence : même ordre de verrouillage des médicaments que expedier
+        for (var q : ligneDao.quantitesPour(commandeNum)) {
+            // Les médicaments de la commande ne sont plus en stock, ni "en commande"
+            expedierUnites(q.getReference(), q.getQuantite());
+            articles += q.getQuantite();
+            sorties.add(new Object[] { q.getReference(), q.getQuantite() });
+            unitesParMedicament.merge(q.getReference(), q.getQuantite(), Integer::sum);
+        }
+        if (!sorties.isEmpty()) {
+            versions.modifiees(Donnees.MEDICAMENTS);
+        }
+        // Les médicaments qui passent sous leur niveau de réapprovisionnement
+        jdbc.batchUpdate(SIGNALER_STOCK_FAIBLE, sorties);
+        // La consommation des médicaments
+        consommation.enregistrer(commande.getEnvoyeele(), unitesParMedicament);
+        // Le compteur d'articles expédiés du dispensaire (pour la remise)
+        dispensaireDao.ajouterArticlesExpedies(commande.getDispensaire().getCode(), articles);
         return commande;
     }
 
+    /**
+     * <pre>
+     * Service métier : Enregistre en une seule transaction l'expédition de plusieurs commandes connues par leurs clés
+     * Les règles métier sont celles de enregistreExpedition, appliquées à chaque commande :
+     * une commande qui ne les respecte pas n'est pas expédiée, sans empêcher l'expédition des autres.
+     * Accès aux données :
+     * - les commandes sont chargées en une seule requête, avec leur dispensaire
+     * - les quantités des lignes sont lues en une seule requête, et cumulées par médicament
+     * - un seul UPDATE par médicament distinct, tous envoyés en un lot JDBC
+     * - de même un seul UPDATE par dispensaire pour le compteur d'articles expédiés
+     * <pre>
+     *
+     * @param commandeNums les clés des commandes
+     * @return le résultat pour chaque commande, dans l'ordre de commandeNums
+     */
+    @Transactional
+    public List<ResultatExpeditionDTO> enregistreExpeditions(@NonNull List<Integer> commandeNums) {
+        log.info("Service : Expédition groupée de {} commandes", commandeNums.size());
+        return expedier(commandeNums, commandeDao.commandesAvecDispensaire(
+                commandeNums.stream().filter(Objects::nonNull).distinct().toList()));
+    }
+
+    /**
+     * Service métier : Enregistre l'expédition de toutes les commandes en cours d'un dispensaire
+     * @see #enregistreExpeditions(List)
+     *
+     * @param dispensaireCode la clé du dispensaire
+     * @return le résultat pour chaque commande expédiée
+     * @throws java.util.NoSuchElementException si le dispensaire n'existe pas
+     */
+    @Transactional
+    public List<ResultatExpeditionDTO> enregistreExpeditionsPour(@NonNull String dispensaireCode) {
+        log.info("Service : Expédition des commandes en cours pour {}", dispensaireCode);
+        var dispensaire = dispensaireDao.findById(dispensaireCode).orElseThrow();
+        var commandes = commandeDao.commandesEnCoursPour(dispensaire.getCode());
+        return expedier(commandes.stream().map(Commande::getNumero).toList(), commandes);
+    }
+
     /**
      * Service métier : Récupère une commande connue par sa clé
      *
@@ -214,4 +411,121 @@ public class CommandeService {
     public List<Commande> getCommandeEnCoursPour(String dispensaireCode) {
         return commandeDao.commandesEnCoursPour(dispensaireCode);
     }
+
+    // Expédie les commandes chargées qui ne sont pas encore envoyées,
+    // et sort du stock les quantités cumulées par médicament
+    private List<ResultatExpeditionDTO> expedier(List<Integer> commandeNums, List<Commande> chargees) {
+        Map<Integer, Commande> commandes = new HashMap<>();
+        chargees.forEach(c -> commandes.put(c.getNumero(), c));
+        List<ResultatExpeditionDTO> resultats = new ArrayList<>(commandeNums.size());
+        Map<Integer, ResultatExpeditionDTO> expediees = new HashMap<>();
+        var aujourdhui = LocalDate.now();
+        for (var numero : commandeNums) {
+            var commande = commandes.get(numero);
+            String erreur = null;
+            if (commande == null) {
+                erreur = "Commande inconnue";
+            } else if (commande.getEnvoyeele() != null) {
+                // Y compris une clé répétée dans la liste
+                erreur = "Commande déjà expédiée";
+            }
+            var resultat = new ResultatExpeditionDTO(numero, erreur == null, erreur == null ? 0 : null, erreur);
+            if (erreur == null) {
+                commande.setEnvoyeele(aujourdhui);
+                expediees.put(numero, resultat);
+            }
+            resultats.add(resultat);
+        }
+        if (expediees.isEmpty()) {
+            return resultats;
+        }
+        // On cumule les quantités des lignes par médicament, triés par référence : les lots d'UPDATE
+        // verrouillent les lignes toujours dans le même ordre (pas d'interblocage entre deux expéditions)
+        Map<Integer, Integer> unitesParMedicament = new TreeMap<>();
+        ligneDao.quantitesPourCommandes(expediees.keySet()).forEach(q -> {
+            unitesParMedicament.merge(q.getReference(), q.getQuantite(), Integer::sum);
+            var resultat = expediees.get(q.getNumero());
+            resultat.setUnites(resultat.getUnites() + q.getQuantite());
+        });
+        // Les médicaments des commandes ne sont plus en stock, ni "en commande"
+        List<Object[]> lot = new ArrayList<>(unitesParMedicament.size());
+        unitesParMedicament.forEach((reference, unites) -> lot.add(new Object[] { unites, unites, reference }));
+        jdbc.batchUpdate(EXPEDIER_UNITES, lot);
+        versions.modifiees(Donnees.MEDICAMENTS);
+        // Les médicaments qui passent sous leur niveau de réapprovisionnement
+        List<Object[]> sorties = new ArrayList<>(unitesParMedicament.size());
+        unitesParMedicament.forEach((reference, unites) -> sorties.add(new Object[] { reference, unites }));
+        jdbc.batchUpdate(SIGNALER_STOCK_FAIBLE, sorties);
+        // La consommation des médicaments
+        consommation.enregistrer(aujourdhui, unitesParMedicament);
+        // Les compteurs d'articles expédiés des dispensaires, triés par code (même raison)
+        Map<String, Integer> articlesParDispensaire = new TreeMap<>();
+        expediees.forEach((numero, resultat) -> articlesParDispensaire.merge(
+                commandes.get(numero).getDispensaire().getCode(), resultat.getUnites(), Integer::sum));
+        List<Object[]> lotDispensaires = new ArrayList<>(articlesParDispensaire.size());
+        articlesParDispensaire.forEach((code, articles) -> lotDispensaires.add(new Object[] { articles, code }));
+        jdbc.batchUpdate(AJOUTER_ARTICLES_EXPEDIES, lotDispensaires);
+        registreStock.ifPresent(registre -> unitesParMedicament.forEach(registre::expedier));
+        return resultats;
+    }
+
+    // Réserve des unités dans le registre du stock s'il est activé, sinon par un UPDATE conditionnel
+    private boolean reserverUnites(int medicamentRef, int quantite) {
+        if (registreStock.isPresent()) {
+            return registreStock.get().reserver(medicamentRef, quantite);
+        }
+        if (medicamentDao.reserverUnites(medicamentRef, quantite) == 0) {
+            return false;
+        }
+        versions.modifiees(Donnees.MEDICAMENTS);
+        return true;
+    }
+
+    // Réserve les éléments d'un panier : dans le registre du stock s'il est activé, sinon par un lot
+    // d'UPDATE conditionnels triés par médicament (même ordre de verrouillage que expedier).
+    // Le tri est stable : les éléments d'un même médicament sont réservés dans l'ordre du panier.
+    private boolean[] reserverPanier(List<LignePanierDTO> panier, List<Integer> elements) {
+        var reserves = new boolean[panier.size()];
+        if (registreStock.isPresent()) {
+            for (int i : elements) {
+                reserves[i] = registreStock.get().reserver(panier.get(i).getMedicamentRef(), panier.get(i).getQuantite());
+            }
+            return reserves;
+        }
+        var tries = elements.stream().sorted(Comparator.comparing(i -> panier.get(i).getMedicamentRef())).toList();
+        if (tries.isEmpty()) {
+            return reserves;
+        }
+        List<Object[]> lot = new ArrayList<>(tries.size());
+        for (int i : tries) {
+            var element = panier.get(i);
+            lot.add(new Object[] { element.getQuantite(), element.getMedicamentRef(), element.getQuantite() });
+        }
+        // Le nombre de lignes modifiées par chaque UPDATE du lot (0 : stock insuffisant)
+        var modifiees = jdbc.batchUpdate(RESERVER_UNITES, lot);
+        boolean reservation = false;
+        for (int k = 0; k < tries.size(); k++) {
+            reserves[tries.get(k)] = modifiees[k] > 0;
+            reservation |= modifiees[k] > 0;
+        }
+        if (reservation) {
+            versions.modifiees(Donnees.MEDICAMENTS);
+        }
+        return reserves;
+    }
+
+    private void libererUnites(int medicamentRef, int quantite) {
+        if (registreStock.isPresent()) {
+            // Le registre écrira la variation dans la BD en différé
+            registreStock.get().liberer(medicamentRef, quantite);
+        } else {
+            medicamentDao.libererUnites(medicamentRef, quantite);
+            versions.modifiees(Donnees.MEDICAMENTS);
+        }
+    }
+
+    private void expedierUnites(int medicamentRef, int quantite) {
+        medicamentDao.expedierUnites(medicamentRef, quantite);
+        registreStock.ifPresent(registre -> registre.expedier(medicamentRef, quantite));
+    }
 }
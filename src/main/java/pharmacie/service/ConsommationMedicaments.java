@@ -0,0 +1,286 @@
+package pharmacie.service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.entity.Medicament;
+
+/**
+ * <pre>
+ * Consommation des médicaments (unités expédiées), tenue à jour à chaque expédition :
+ * - par jour (ConsommationJour), sur une fenêtre de pharmacie.consommation.fenetre-jours jours
+ * - moyenne mobile exponentielle des unités par jour (Consommation),
+ *   de coefficient pharmacie.consommation.alpha
+ * Le réapprovisionnement en déduit une quantité à commander, sans relire l'historique des lignes :
+ * le calcul ne lit que les médicaments en rupture.
+ * reconstruire() recalcule tout à partir des lignes des commandes expédiées, en une seule lecture.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class ConsommationMedicaments {
+    private static final String AJOUTER_JOUR = """
+        UPDATE consommation_jour SET unites = unites + ? WHERE medicament_reference = ? AND jour = ?
+        """;
+    private static final String CREER_JOUR = """
+        INSERT INTO consommation_jour (medicament_reference, jour, unites) VALUES (?, ?, ?)
+        """;
+    // La moyenne est ramenée au jour de l'expédition, puis on ajoute alpha * unités
+    private static final String AJOUTER_MOYENNE = """
+        UPDATE consommation
+        SET ewma = ewma * POWER(?, GREATEST(? - jour, 0)) + ?, jour = GREATEST(jour, ?)
+        WHERE medicament_reference = ?
+        """;
+    private static final String CREER_MOYENNE = """
+        INSERT INTO consommation (medicament_reference, ewma, jour) VALUES (?, ?, ?)
+        """;
+    // Les lignes expédiées, par médicament et par jour : une seule lecture pour tout recalculer
+    private static final String LIGNES_EXPEDIEES = """
+        SELECT l.medicament_reference, c.envoyeele, SUM(l.quantite) AS unites
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        WHERE c.envoyeele IS NOT NULL
+        GROUP BY l.medicament_reference, c.envoyeele
+        ORDER BY l.medicament_reference, c.envoyeele
+        """;
+    private static final int TAILLE_LOT = 1000;
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate requetes;
+    private final double alpha;
+    private final int fenetreJours;
+    private final int couvertureJours;
+
+    public ConsommationMedicaments(JdbcTemplate jdbc,
+            @Value("${pharmacie.consommation.alpha:0.1}") double alpha,
+            @Value("${pharmacie.consommation.fenetre-jours:90}") int fenetreJours,
+            @Value("${pharmacie.consommation.couverture-jours:30}") int couvertureJours) {
+        this.jdbc = jdbc;
+        this.requetes = new NamedParameterJdbcTemplate(jdbc);
+        this.alpha = alpha;
+        this.fenetreJours = fenetreJours;
+        this.couvertureJours = couvertureJours;
+    }
+
+    /**
+     * La consommation d'un médicament un jour donné
+     *
+     * @param moyenne la moyenne mobile exponentielle des unités par jour
+     * @param fenetre les unités expédiées sur la fenêtre (pharmacie.consommation.fenetre-jours)
+     * @param parJour la consommation par jour retenue : la plus grande des deux moyennes
+     */
+    public record Prevision(double moyenne, int fenetre, double parJour) {
+    }
+
+    /**
+     * Enregistre des unités expédiées, dans la transaction courante (appelé par CommandeService).
+     * Un UPDATE relatif par médicament, par lots JDBC, puis un INSERT pour les médicaments
+     * pas encore expédiés ce jour.
+     * Deux expéditions du même médicament sont sérialisées par la mise à jour de son stock,
+     * qui précède : l'INSERT ne peut pas être fait deux fois.
+     *
+     * @param jour le jour de l'expédition
+     * @param unitesParMedicament les unités expédiées, clé : Medicament.reference
+     */
+    public void enregistrer(LocalDate jour, Map<Integer, Integer> unitesParMedicament) {
+        if (unitesParMedicament.isEmpty()) {
+            return;
+        }
+        var date = Date.valueOf(jour);
+        long epoque = jour.toEpochDay();
+        List<Object[]> jours = new ArrayList<>(unitesParMedicament.size());
+        List<Object[]> moyennes = new ArrayList<>(unitesParMedicament.size());
+        unitesParMedicament.forEach((reference, unites) -> {
+            jours.add(new Object[] { unites, reference, date });
+            moyennes.add(new Object[] { 1 - alpha, epoque, alpha * unites, epoque, reference });
+        });
+        int[] joursModifies = jdbc.batchUpdate(AJOUTER_JOUR, jours);
+        int[] moyennesModifiees = jdbc.batchUpdate(AJOUTER_MOYENNE, moyennes);
+        List<Object[]> nouveauxJours = new ArrayList<>();
+        List<Object[]> nouvellesMoyennes = new ArrayList<>();
+        for (int i = 0; i < jours.size(); i++) {
+            var reference = jours.get(i)[1];
+            var unites = (Integer) jours.get(i)[0];
+            if (joursModifies[i] == 0) {
+                nouveauxJours.add(new Object[] { reference, date, unites });
+            }
+            if (moyennesModifiees[i] == 0) {
+                nouvellesMoyennes.add(new Object[] { reference, alpha * unites, epoque });
+            }
+        }
+        jdbc.batchUpdate(CREER_JOUR, nouveauxJours);
+        jdbc.batchUpdate(CREER_MOYENNE, nouvellesMoyennes);
+    }
+
+    /**
+     * La consommation de médicaments, en deux requêtes quel que soit leur nombre
+     *
+     * @param references les clés des médicaments
+     * @param aujourdhui le jour de la prévision
+     * @return la prévision pour chaque médicament, clé : Medicament.reference
+     * (consommation nulle pour un médicament jamais expédié)
+     */
+    @Transactional(readOnly = true)
+    public Map<Integer, Prevision> previsions(Collection<Integer> references, LocalDate aujourdhui) {
+        Map<Integer, Prevision> previsions = new HashMap<>();
+        if (references.isEmpty()) {
+            return previsions;
+        }
+        Map<Integer, Double> moyennes = new HashMap<>();
+        requetes.query("""
+            SELECT medicament_reference, ewma, jour FROM consommation WHERE medicament_reference IN (:references)
+            """, Map.of("references", references), rs -> {
+                // La moyenne décroît pour chaque jour sans expédition
+                long joursEcoules = Math.max(aujourdhui.toEpochDay() - rs.getLong("jour"), 0);
+                moyennes.put(rs.getInt("medicament_reference"), rs.getDouble("ewma") * Math.pow(1 - alpha, joursEcoules));
+            });
+        Map<Integer, Integer> fenetres = new HashMap<>();
+        requetes.query("""
+            SELECT medicament_reference, SUM(unites) AS unites FROM consommation_jour
+            WHERE medicament_reference IN (:references) AND jour > :debut
+            GROUP BY medicament_reference
+            """, Map.of("references", references, "debut", Date.valueOf(debutFenetre(aujourdhui))),
+            rs -> {
+                fenetres.put(rs.getInt("medicament_reference"), rs.getInt("unites"));
+            });
+        for (var reference : references) {
+            double moyenne = moyennes.getOrDefault(reference, 0.0);
+            int fenetre = fenetres.getOrDefault(reference, 0);
+            previsions.put(reference, new Prevision(moyenne, fenetre, Math.max(moyenne, (double) fenetre / fenetreJours)));
+        }
+        return previsions;
+    }
+
+    /**
+     * La quantité à commander pour que le stock disponible (en stock, moins les unités en commande)
+     * couvre pharmacie.consommation.couverture-jours jours de consommation au-dessus du niveau de réapprovisionnement
+     */
+    public int quantiteACommander(Medicament medicament, Prevision prevision) {
+        int disponible = medicament.getUnitesEnStock() - medicament.getUnitesCommandees();
+        double cible = medicament.getNiveauDeReappro() + prevision.parJour() * couvertureJours;
+        return Math.max((int) Math.ceil(cible - disponible), 0);
+    }
+
+    /**
+     * <pre>
+     * Recalcule toute la consommation à partir des lignes des commandes expédiées,
+     * en une seule lecture des lignes (triées par médicament puis par jour) :
+     * un médicament est entièrement traité avant de passer au suivant, seuls ses compteurs sont en mémoire.
+     * Les écritures sont faites par lots JDBC.
+     * </pre>
+     *
+     * @return le nombre de médicaments expédiés au moins une fois
+     */
+    @Transactional
+    public int reconstruire() {
+        var aujourdhui = LocalDate.now();
+        var debut = debutFenetre(aujourdhui);
+        jdbc.update("DELETE FROM consommation_jour");
+        jdbc.update("DELETE FROM consommation");
+        var calcul = new Reconstruction(debut);
+        jdbc.query(con -> {
+            var ps = con.prepareStatement(LIGNES_EXPEDIEES);
+            ps.setFetchSize(TAILLE_LOT);
+            return ps;
+        }, rs -> {
+            calcul.ajouter(rs.getInt("medicament_reference"), rs.getDate("envoyeele").toLocalDate(), rs.getInt("unites"));
+        });
+        calcul.terminer();
+        log.info("Consommation : {} médicaments recalculés", calcul.medicaments);
+        return calcul.medicaments;
+    }
+
+    /**
+     * Au démarrage, la consommation est calculée si elle ne l'a jamais été (BD initialisée par data.sql...)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialiser() {
+        Integer calculees = jdbc.queryForObject("SELECT COUNT(*) FROM consommation", Integer.class);
+        Integer expediees = jdbc.queryForObject("SELECT COUNT(*) FROM commande WHERE envoyeele IS NOT NULL", Integer.class);
+        if (calculees == 0 && expediees > 0) {
+            reconstruire();
+        }
+    }
+
+    /**
+     * Supprime les jours sortis de la fenêtre, chaque nuit
+     *
+     * @return le nombre de jours supprimés
+     */
+    @Scheduled(cron = "${pharmacie.consommation.purge.cron:0 30 2 * * *}")
+    @Transactional
+    public int purger() {
+        return jdbc.update("DELETE FROM consommation_jour WHERE jour <= ?", Date.valueOf(debutFenetre(LocalDate.now())));
+    }
+
+    // Le dernier jour avant la fenêtre
+    private LocalDate debutFenetre(LocalDate aujourdhui) {
+        return aujourdhui.minusDays(fenetreJours);
+    }
+
+    // Les compteurs du médicament en cours de lecture, et les lots à écrire
+    private final class Reconstruction {
+        private final LocalDate debut;
+        private final List<Object[]> jours = new ArrayList<>();
+        private final List<Object[]> moyennes = new ArrayList<>();
+        private int medicaments = 0;
+        private Integer reference = null;
+        private double ewma;
+        private long dernierJour;
+
+        Reconstruction(LocalDate debut) {
+            this.debut = debut;
+        }
+
+        void ajouter(int medicament, LocalDate jour, int unites) {
+            if (reference == null || reference != medicament) {
+                terminerMedicament();
+                reference = medicament;
+                ewma = 0;
+                dernierJour = jour.toEpochDay();
+                medicaments++;
+            }
+            // Même calcul que l'expédition (AJOUTER_MOYENNE)
+            ewma = ewma * Math.pow(1 - alpha, jour.toEpochDay() - dernierJour) + alpha * unites;
+            dernierJour = jour.toEpochDay();
+            if (jour.isAfter(debut)) {
+                jours.add(new Object[] { medicament, Date.valueOf(jour), unites });
+                if (jours.size() >= TAILLE_LOT) {
+                    jdbc.batchUpdate(CREER_JOUR, jours);
+                    jours.clear();
+                }
+            }
+        }
+
+        void terminer() {
+            terminerMedicament();
+            jdbc.batchUpdate(CREER_JOUR, jours);
+            jdbc.batchUpdate(CREER_MOYENNE, moyennes);
+        }
+
+        private void terminerMedicament() {
+            if (reference == null) {
+                return;
+            }
+            moyennes.add(new Object[] { reference, ewma, dernierJour });
+            if (moyennes.size() >= TAILLE_LOT) {
+                jdbc.batchUpdate(CREER_MOYENNE, moyennes);
+                moyennes.clear();
+            }
+        }
+    }
+}
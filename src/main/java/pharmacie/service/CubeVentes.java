@@ -0,0 +1,578 @@
+package pharmacie.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Cube des unités vendues en mémoire, par (jour de saisie de la commande, catégorie, médicament,
+ * région du dispensaire), pour les tableaux de bord : totaux sur une période quelconque
+ * (ex: les 7 derniers jours), regroupés par jour, catégorie, médicament ou région.
+ * Le cube est construit en une lecture des lignes regroupées par le SGBD (au démarrage, puis
+ * chaque nuit : pharmacie.stats.cube.cron), puis tenu à jour par les lignes ajoutées, modifiées
+ * ou supprimées et les médicaments qui changent de catégorie (SuiviModificationsEntites), quand
+ * leur transaction est validée : les ventes du médicament passent d'une cellule de catégorie à
+ * l'autre, sans reconstruction.
+ * Les modifications qui ne passent pas par les entités (date d'une commande, région d'un
+ * dispensaire, SQL direct) sont prises en compte à la reconstruction suivante.
+ *
+ * Disposition en mémoire : chaque niveau de regroupement (médicament et région, médicament,
+ * catégorie et région, catégorie, région, total) a ses cellules, décrites par un tableau
+ * d'entiers par dimension. Chaque cellule a la liste triée de ses jours de vente et les
+ * sommes cumulées des unités (int[], long[]) : le total d'une période est la différence de
+ * deux sommes cumulées, trouvées par recherche dichotomique. Une requête lit le plus petit
+ * niveau qui contient les dimensions demandées.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class CubeVentes {
+    // Les lignes regroupées par jour, médicament et région, triées par jour : les ventes sont ajoutées en fin de liste
+    private static final String VENTES = """
+        SELECT c.saisiele, l.medicament_reference, COALESCE(d.region, '') AS region, SUM(l.quantite) AS unites
+        FROM ligne l
+        JOIN commande c ON c.numero = l.commande_numero
+        JOIN dispensaire d ON d.code = c.dispensaire_code
+        GROUP BY c.saisiele, l.medicament_reference, COALESCE(d.region, '')
+        ORDER BY c.saisiele
+        """;
+    private static final String MEDICAMENTS = "SELECT reference, categorie_code FROM medicament";
+    // Requête courte qui prend l'instantané de la lecture : chacune des tables lues
+    private static final String INSTANTANE = """
+        SELECT (SELECT MAX(id) FROM ligne), (SELECT MAX(numero) FROM commande), (SELECT MAX(code) FROM dispensaire),
+            (SELECT MAX(reference) FROM medicament)
+        """;
+    private static final String CATEGORIE = "SELECT categorie_code FROM medicament WHERE reference = ?";
+    // Nombre maximum de jours d'une réponse regroupée par jour
+    private static final int JOURS_MAX = 3660;
+
+    /**
+     * Le regroupement des unités vendues
+     */
+    public enum Axe {
+        TOTAL, JOUR, CATEGORIE, MEDICAMENT, REGION
+    }
+
+    /**
+     * Les unités vendues d'un groupe
+     *
+     * @param cle le groupe : jour (ISO), code de la catégorie, référence du médicament, région, ou "total"
+     * @param unites les unités vendues
+     */
+    public record Agregat(String cle, long unites) {
+    }
+
+    // Une modification en attente de la validation de sa transaction
+    private interface Modification {
+        void appliquer(Cube cube);
+    }
+
+    // Une vente (négative pour une suppression)
+    private record Vente(LocalDate jour, int medicament, String region, int unites) implements Modification {
+        @Override
+        public void appliquer(Cube cube) {
+            cube.ajouter(this);
+        }
+    }
+
+    private record MedicamentModifie(int reference, int categorie) implements Modification {
+        @Override
+        public void appliquer(Cube cube) {
+            cube.changerCategorie(reference, categorie);
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager transactions;
+    private final int tailleLot;
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+    // Une reconstruction à la fois. Pas de synchronized : la lecture JDBC bloquerait le thread porteur
+    // d'un thread virtuel (profil virtual) pendant toute la reconstruction
+    private final ReentrantLock reconstruction = new ReentrantLock();
+    private final ApresValidation<Modification> enAttente = new ApresValidation<>("Cube des ventes", this::appliquer);
+    // null tant que le cube n'est pas construit
+    private Cube cube;
+    // Les modifications validées pendant une reconstruction (après l'instantané), appliquées ensuite au nouveau cube
+    private List<Modification> journal;
+
+    public CubeVentes(JdbcTemplate jdbc, PlatformTransactionManager transactions,
+            @Value("${pharmacie.stats.cube.taille-lot:1000}") int tailleLot) {
+        this.jdbc = jdbc;
+        this.transactions = transactions;
+        this.tailleLot = tailleLot;
+    }
+
+    /**
+     * Enregistre une vente, ajoutée au cube quand la transaction courante est validée
+     * (immédiatement hors transaction)
+     *
+     * @param jour le jour de saisie de la commande
+     * @param medicament la référence du médicament
+     * @param region la région du dispensaire (null si inconnue)
+     * @param unites les unités vendues, négatives pour une suppression
+     */
+    public void enregistrer(LocalDate jour, int medicament, String region, int unites) {
+        enAttente.ajouter(new Vente(jour, medicament, region == null ? "" : region, unites));
+    }
+
+    /**
+     * Enregistre la catégorie d'un médicament créé ou modifié, prise en compte quand la transaction
+     * courante est validée (immédiatement hors transaction)
+     */
+    public void medicamentModifie(int reference, int categorie) {
+        enAttente.ajouter(new MedicamentModifie(reference, categorie));
+    }
+
+    /**
+     * Les unités vendues sur une période, regroupées selon un axe
+     *
+     * @param du premier jour de la période (null : depuis le début)
+     * @param au dernier jour de la période (null : jusqu'à la fin)
+     * @param par le regroupement
+     * @param categorie si non null, seulement les ventes de cette catégorie
+     * @param medicament si non null, seulement les ventes de ce médicament
+     * @param region si non null, seulement les ventes de cette région
+     * @return les unités vendues de chaque groupe, par ordre des clés (tous les jours de la période pour JOUR)
+     * @throws IllegalStateException si le cube n'est pas encore construit
+     * @throws IllegalArgumentException si la période est vide, ou non bornée (ou trop longue) pour JOUR
+     */
+    public List<Agregat> agreger(LocalDate du, LocalDate au, Axe par, Integer categorie, Integer medicament, String region) {
+        int premier = du == null ? Integer.MIN_VALUE : jour(du);
+        int dernier = au == null ? Integer.MAX_VALUE : jour(au);
+        if (premier > dernier) {
+            throw new IllegalArgumentException("Période vide : " + du + " - " + au);
+        }
+        if (par == Axe.JOUR && (du == null || au == null || (long) dernier - premier >= JOURS_MAX)) {
+            throw new IllegalArgumentException("Le regroupement par jour demande une période d'au plus " + JOURS_MAX + " jours");
+        }
+        verrou.readLock().lock();
+        try {
+            if (cube == null) {
+                throw new IllegalStateException("Le cube des ventes est en cours de construction");
+            }
+            return cube.agreger(premier, dernier, par, categorie, medicament, region);
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reconstruit le cube à partir des lignes, en une lecture par blocs (une reconstruction à la fois).
+     * Les modifications validées après l'instantané de la lecture sont appliquées ensuite au nouveau cube :
+     * les validations ne sont suspendues que le temps de prendre l'instantané
+     * (ApresValidation.lireSurInstantane), une vente est lue ou ajoutée, pas les deux.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${pharmacie.stats.cube.cron:0 55 2 * * *}")
+    public void reconstruire() {
+        reconstruction.lock();
+        try {
+            Cube nouveau;
+            try {
+                nouveau = enAttente.lireSurInstantane(transactions, jdbc, INSTANTANE, this::ouvrirJournal, this::construire);
+            } catch (RuntimeException e) {
+                verrou.writeLock().lock();
+                journal = null;
+                verrou.writeLock().unlock();
+                throw e;
+            }
+            // Les médicaments créés pendant la lecture
+            List<Modification> modifications;
+            verrou.readLock().lock();
+            try {
+                modifications = List.copyOf(journal);
+            } finally {
+                verrou.readLock().unlock();
+            }
+            completerCategories(nouveau, modifications);
+            verrou.writeLock().lock();
+            try {
+                journal.forEach(m -> m.appliquer(nouveau));
+                journal = null;
+                cube = nouveau;
+            } finally {
+                verrou.writeLock().unlock();
+            }
+            log.info("Cube des ventes : {} cellules, {} jours de vente par médicament et région",
+                    nouveau.niveaux[0].nombre, nouveau.niveaux[0].jours());
+        } finally {
+            reconstruction.unlock();
+        }
+    }
+
+    // Les catégories des médicaments, puis les lignes regroupées, sur l'instantané
+    private Cube construire() {
+        var nouveau = new Cube();
+        jdbc.query(MEDICAMENTS, rs -> {
+            nouveau.categories.put(rs.getInt(1), rs.getInt(2));
+        });
+        jdbc.query(con -> {
+            var ps = con.prepareStatement(VENTES);
+            ps.setFetchSize(tailleLot);
+            return ps;
+        }, rs -> {
+            nouveau.ajouter(new Vente(rs.getDate(1).toLocalDate(), rs.getInt(2), rs.getString(3), rs.getInt(4)));
+        });
+        nouveau.compacter();
+        return nouveau;
+    }
+
+    // L'instantané de la lecture est pris : les ventes validées ensuite vont au journal
+    private void ouvrirJournal() {
+        verrou.writeLock().lock();
+        try {
+            journal = new ArrayList<>();
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    private void appliquer(List<Modification> modifications) {
+        Cube courant;
+        verrou.readLock().lock();
+        try {
+            courant = cube;
+        } finally {
+            verrou.readLock().unlock();
+        }
+        // La catégorie d'un médicament créé depuis la construction est lue avant de prendre le verrou
+        if (courant != null) {
+            completerCategories(courant, modifications);
+        }
+        verrou.writeLock().lock();
+        try {
+            if (cube != null) {
+                modifications.forEach(m -> m.appliquer(cube));
+            }
+            if (journal != null) {
+                journal.addAll(modifications);
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    private void completerCategories(Cube c, List<Modification> modifications) {
+        Set<Integer> inconnus = new HashSet<>();
+        verrou.readLock().lock();
+        try {
+            for (var m : modifications) {
+                if (m instanceof Vente v && !c.categories.containsKey(v.medicament())) {
+                    inconnus.add(v.medicament());
+                }
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+        Map<Integer, Integer> nouvelles = new HashMap<>();
+        for (int reference : inconnus) {
+            jdbc.query(CATEGORIE, rs -> {
+                nouvelles.put(reference, rs.getInt(1));
+            }, reference);
+        }
+        if (!nouvelles.isEmpty()) {
+            verrou.writeLock().lock();
+            try {
+                nouvelles.forEach(c.categories::putIfAbsent);
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        }
+    }
+
+    private static int jour(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE + 1L, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+    }
+
+    /**
+     * Les niveaux de regroupement et les dictionnaires des dimensions (non synchronisé)
+     */
+    private static final class Cube {
+        // Catégorie de chaque médicament (clé : référence)
+        final Map<Integer, Integer> categories = new HashMap<>();
+        // Du plus détaillé au moins détaillé
+        final Niveau[] niveaux = {
+            new Niveau(true, true, true), new Niveau(true, true, false),
+            new Niveau(false, true, true), new Niveau(false, true, false),
+            new Niveau(false, false, true), new Niveau(false, false, false),
+        };
+        // Les régions sont numérotées dans l'ordre d'apparition
+        final Map<String, Integer> indicesRegions = new HashMap<>();
+        final List<String> regions = new ArrayList<>();
+
+        void ajouter(Vente v) {
+            Integer categorie = categories.get(v.medicament());
+            if (categorie == null) {
+                // Médicament supprimé entre temps
+                return;
+            }
+            int region = indicesRegions.computeIfAbsent(v.region(), r -> {
+                regions.add(r);
+                return regions.size() - 1;
+            });
+            int jour = jour(v.jour());
+            for (var n : niveaux) {
+                n.ajouter(n.parMedicament ? v.medicament() : n.parCategorie ? categorie : -1,
+                        n.parRegion ? region : -1, jour, v.unites());
+            }
+        }
+
+        void compacter() {
+            for (var n : niveaux) {
+                n.compacter();
+            }
+        }
+
+        // Les ventes du médicament passent de la cellule de son ancienne catégorie à celle de la nouvelle
+        void changerCategorie(int medicament, int categorie) {
+            Integer avant = categories.put(medicament, categorie);
+            if (avant == null || avant == categorie) {
+                return;
+            }
+            // (médicament, région) vers (catégorie, région), médicament vers catégorie
+            deplacer(niveaux[0], niveaux[2], medicament, avant, categorie);
+            deplacer(niveaux[1], niveaux[3], medicament, avant, categorie);
+        }
+
+        private static void deplacer(Niveau parMedicament, Niveau parCategorie, int medicament, int avant, int apres) {
+            for (int i = 0; i < parMedicament.nombre; i++) {
+                if (parMedicament.cles[i] == medicament) {
+                    parCategorie.ajouterCellule(avant, parMedicament, i, -1);
+                    parCategorie.ajouterCellule(apres, parMedicament, i, 1);
+                }
+            }
+        }
+
+        List<Agregat> agreger(int premier, int dernier, Axe par, Integer categorie, Integer medicament, String region) {
+            // Une région inconnue ne correspond à aucune cellule
+            int indiceRegion = region == null ? -1 : indicesRegions.getOrDefault(region, -2);
+            boolean parMedicament = medicament != null || par == Axe.MEDICAMENT;
+            boolean parCategorie = parMedicament || categorie != null || par == Axe.CATEGORIE;
+            boolean parRegion = region != null || par == Axe.REGION;
+            Niveau niveau = null;
+            for (var n : niveaux) {
+                if (n.parMedicament == parMedicament && n.parCategorie == parCategorie && n.parRegion == parRegion) {
+                    niveau = n;
+                }
+            }
+            long[] jours = par == Axe.JOUR ? new long[dernier - premier + 1] : null;
+            // Les groupes par ordre des clés (toutes du même type)
+            Map<Object, long[]> groupes = new TreeMap<>();
+            for (int i = 0; i < niveau.nombre; i++) {
+                int cle = niveau.cles[i];
+                int cat = parMedicament ? categories.getOrDefault(cle, -1) : cle;
+                if ((medicament != null && cle != medicament) || (categorie != null && cat != categorie)
+                        || (region != null && niveau.regions[i] != indiceRegion)) {
+                    continue;
+                }
+                if (jours != null) {
+                    niveau.parJour(i, premier, dernier, jours);
+                    continue;
+                }
+                long unites = niveau.somme(i, premier, dernier);
+                Object groupe = switch (par) {
+                    case CATEGORIE -> cat;
+                    case MEDICAMENT -> cle;
+                    case REGION -> regions.get(niveau.regions[i]);
+                    default -> "total";
+                };
+                groupes.computeIfAbsent(groupe, g -> new long[1])[0] += unites;
+            }
+            if (jours != null) {
+                return parJour(premier, jours);
+            }
+            if (par == Axe.TOTAL) {
+                return List.of(new Agregat("total", groupes.isEmpty() ? 0 : groupes.get("total")[0]));
+            }
+            List<Agregat> resultat = new ArrayList<>(groupes.size());
+            groupes.forEach((groupe, unites) -> {
+                if (unites[0] != 0) {
+                    resultat.add(new Agregat(groupe.toString(), unites[0]));
+                }
+            });
+            return resultat;
+        }
+
+        private static List<Agregat> parJour(int premier, long[] jours) {
+            List<Agregat> resultat = new ArrayList<>(jours.length);
+            for (int j = 0; j < jours.length; j++) {
+                resultat.add(new Agregat(LocalDate.ofEpochDay(premier + (long) j).toString(), jours[j]));
+            }
+            return resultat;
+        }
+    }
+
+    /**
+     * <pre>
+     * Un niveau de regroupement : pour chaque cellule, sa clé (médicament ou catégorie, -1 si le
+     * niveau n'a pas cette dimension), sa région (-1 de même), ses jours de vente triés et les
+     * unités cumulées jusqu'à chacun de ces jours.
+     * </pre>
+     */
+    private static final class Niveau {
+        final boolean parMedicament;
+        final boolean parCategorie;
+        final boolean parRegion;
+        // Indice de la cellule, clé : (clé << 32) | région
+        final Map<Long, Integer> cellules = new HashMap<>();
+        int nombre;
+        int[] cles = new int[16];
+        int[] regions = new int[16];
+        int[] tailles = new int[16];
+        int[][] jours = new int[16][];
+        long[][] cumuls = new long[16][];
+
+        Niveau(boolean parMedicament, boolean parCategorie, boolean parRegion) {
+            this.parMedicament = parMedicament;
+            this.parCategorie = parCategorie;
+            this.parRegion = parRegion;
+        }
+
+        void ajouter(int cle, int region, int jour, long unites) {
+            int i = cellule(cle, region);
+            int n = tailles[i];
+            int[] j = jours[i];
+            long[] c = cumuls[i];
+            int p;
+            if (n == 0 || jour > j[n - 1]) {
+                // Cas courant : une vente du jour le plus récent
+                p = n;
+            } else {
+                p = Arrays.binarySearch(j, 0, n, jour);
+                if (p >= 0) {
+                    for (int k = p; k < n; k++) {
+                        c[k] += unites;
+                    }
+                    return;
+                }
+                p = -p - 1;
+            }
+            if (n == j.length) {
+                j = jours[i] = Arrays.copyOf(j, Math.max(4, n * 2));
+                c = cumuls[i] = Arrays.copyOf(c, j.length);
+            }
+            System.arraycopy(j, p, j, p + 1, n - p);
+            System.arraycopy(c, p, c, p + 1, n - p);
+            j[p] = jour;
+            c[p] = p == 0 ? 0 : c[p - 1];
+            for (int k = p; k <= n; k++) {
+                c[k] += unites;
+            }
+            tailles[i] = n + 1;
+        }
+
+        // Ajoute (signe 1) ou retire (signe -1) les ventes de la cellule k d'un autre niveau à la cellule (cle, même
+        // région) : fusion des jours triés, le cumul de chaque jour est la somme des deux cumuls jusqu'à ce jour
+        void ajouterCellule(int cle, Niveau autre, int k, int signe) {
+            int i = cellule(cle, autre.regions[k]);
+            int[] j1 = jours[i];
+            long[] c1 = cumuls[i];
+            int n1 = tailles[i];
+            int[] j2 = autre.jours[k];
+            long[] c2 = autre.cumuls[k];
+            int n2 = autre.tailles[k];
+            int[] j = new int[n1 + n2];
+            long[] c = new long[n1 + n2];
+            int a = 0;
+            int b = 0;
+            int n = 0;
+            while (a < n1 || b < n2) {
+                if (b == n2 || (a < n1 && j1[a] < j2[b])) {
+                    j[n] = j1[a++];
+                } else if (a == n1 || j2[b] < j1[a]) {
+                    j[n] = j2[b++];
+                } else {
+                    j[n] = j1[a++];
+                    b++;
+                }
+                c[n] = (a == 0 ? 0 : c1[a - 1]) + signe * (b == 0 ? 0 : c2[b - 1]);
+                n++;
+            }
+            jours[i] = j;
+            cumuls[i] = c;
+            tailles[i] = n;
+        }
+
+        // Les unités vendues par la cellule i entre deux jours (inclus)
+        long somme(int i, int premier, int dernier) {
+            return cumul(i, dernier) - (premier == Integer.MIN_VALUE ? 0 : cumul(i, premier - 1));
+        }
+
+        // Ajoute les unités vendues chaque jour par la cellule i
+        void parJour(int i, int premier, int dernier, long[] resultat) {
+            int[] j = jours[i];
+            long[] c = cumuls[i];
+            int p = Arrays.binarySearch(j, 0, tailles[i], premier);
+            for (int k = p < 0 ? -p - 1 : p; k < tailles[i] && j[k] <= dernier; k++) {
+                resultat[j[k] - premier] += c[k] - (k == 0 ? 0 : c[k - 1]);
+            }
+        }
+
+        // Le nombre de jours de vente de toutes les cellules
+        long jours() {
+            long total = 0;
+            for (int i = 0; i < nombre; i++) {
+                total += tailles[i];
+            }
+            return total;
+        }
+
+        // Les tableaux sont ramenés à leur taille utile
+        void compacter() {
+            cles = Arrays.copyOf(cles, nombre);
+            regions = Arrays.copyOf(regions, nombre);
+            tailles = Arrays.copyOf(tailles, nombre);
+            jours = Arrays.copyOf(jours, nombre);
+            cumuls = Arrays.copyOf(cumuls, nombre);
+            for (int i = 0; i < nombre; i++) {
+                jours[i] = Arrays.copyOf(jours[i], tailles[i]);
+                cumuls[i] = Arrays.copyOf(cumuls[i], tailles[i]);
+            }
+        }
+
+        private long cumul(int i, int jour) {
+            int p = Arrays.binarySearch(jours[i], 0, tailles[i], jour);
+            int dernier = p >= 0 ? p : -p - 2;
+            return dernier < 0 ? 0 : cumuls[i][dernier];
+        }
+
+        private int cellule(int cle, int region) {
+            return cellules.computeIfAbsent(((long) cle << 32) | (region & 0xffffffffL), k -> nouvelleCellule(cle, region));
+        }
+
+        private int nouvelleCellule(int cle, int region) {
+            if (nombre == cles.length) {
+                int taille = Math.max(16, nombre * 2);
+                cles = Arrays.copyOf(cles, taille);
+                regions = Arrays.copyOf(regions, taille);
+                tailles = Arrays.copyOf(tailles, taille);
+                jours = Arrays.copyOf(jours, taille);
+                cumuls = Arrays.copyOf(cumuls, taille);
+            }
+            cles[nombre] = cle;
+            regions[nombre] = region;
+            jours[nombre] = new int[4];
+            cumuls[nombre] = new long[4];
+            return nombre++;
+        }
+    }
+}
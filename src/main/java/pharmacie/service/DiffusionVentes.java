@@ -0,0 +1,252 @@
+package pharmacie.service;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+/**
+ * <pre>
+ * Diffusion des unités vendues par médicament d'une catégorie aux pages de statistiques
+ * (Server-Sent Events), au lieu d'interroger /api/stats/unitesCommandeesPourCategorie.
+ * Un abonné reçoit les ventes de la catégorie, puis les modifications : seulement les médicaments
+ * dont le total a changé (0 pour un médicament qui n'a plus de ventes ou a été renommé).
+ * Les modifications sont regroupées : toutes les pharmacie.stats.diffusion.intervalle-ms,
+ * si les ventes ont changé (VersionsDonnees), les ventes de chaque catégorie suivie sont lues
+ * une seule fois et le même message est envoyé à tous ses abonnés.
+ * Les envois sont faits par les pharmacie.stats.diffusion.envois threads dédiés, pas par le thread
+ * des traitements planifiés (@Scheduled) : un client lent ne retarde pas les autres traitements.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class DiffusionVentes {
+    private static final Set<Donnees> VENTES = EnumSet.of(Donnees.VENTES);
+
+    /**
+     * Les unités vendues d'un médicament
+     */
+    public record Unites(String nom, long unites) {
+    }
+
+    /**
+     * Un message envoyé aux abonnés
+     *
+     * @param complet true pour toutes les ventes de la catégorie, false pour les modifications
+     * @param unites  les unités vendues, par nom de médicament
+     */
+    public record Message(boolean complet, List<Unites> unites) {
+    }
+
+    private final FaitsVentes faits;
+    private final VersionsDonnees versions;
+    // Les catégories suivies (une entrée par catégorie, gardée sans abonné), clé : Categorie.code
+    private final Map<Integer, Diffusion> diffusions = new ConcurrentHashMap<>();
+    // Les threads des envois aux abonnés
+    private final Executor envois;
+
+    @Autowired
+    public DiffusionVentes(FaitsVentes faits, VersionsDonnees versions,
+            @Value("${pharmacie.stats.diffusion.envois:4}") int envois) {
+        this(faits, versions, executeurEnvois(envois));
+    }
+
+    DiffusionVentes(FaitsVentes faits, VersionsDonnees versions, Executor envois) {
+        this.faits = faits;
+        this.versions = versions;
+        this.envois = envois;
+    }
+
+    private static ExecutorService executeurEnvois(int threads) {
+        var numero = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "diffusion-ventes-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void arreter() {
+        if (envois instanceof ExecutorService executeur) {
+            executeur.shutdown();
+        }
+    }
+
+    /**
+     * L'abonné reçoit les ventes de la catégorie, puis les modifications, par les threads des envois.
+     * Un abonné qui lève une exception (ex: client déconnecté) est désabonné.
+     *
+     * @param categorie le code de la catégorie
+     * @param abonne    l'abonné
+     */
+    public void abonner(Integer categorie, Consumer<Message> abonne) {
+        diffusions.computeIfAbsent(categorie, Diffusion::new).abonner(abonne);
+    }
+
+    public void desabonner(Integer categorie, Consumer<Message> abonne) {
+        var diffusion = diffusions.get(categorie);
+        if (diffusion != null) {
+            diffusion.abonnes.removeIf(a -> a.abonne == abonne);
+        }
+    }
+
+    /**
+     * Prépare les modifications des ventes pour les abonnés, si les ventes ont changé depuis le dernier envoi,
+     * et confie les envois aux threads des envois
+     */
+    @Scheduled(fixedDelayString = "${pharmacie.stats.diffusion.intervalle-ms:2000}")
+    public void diffuser() {
+        for (var diffusion : diffusions.values()) {
+            try {
+                diffusion.diffuser();
+            } catch (RuntimeException e) {
+                // Une catégorie en erreur n'empêche pas la diffusion des autres
+                log.warn("Diffusion des ventes de la catégorie {} en erreur", diffusion.categorie, e);
+            }
+        }
+    }
+
+    /**
+     * Les abonnés d'une catégorie et les dernières ventes envoyées.
+     * Les lectures et la préparation des messages sont faites sous un verrou, les envois en dehors,
+     * par les threads des envois : un abonné lent ne bloque ni les abonnements ni la lecture des ventes.
+     * Les messages sont mis dans la file de chaque abonné sous le verrou : un abonné les reçoit
+     * dans l'ordre, les ventes complètes d'abord.
+     */
+    private final class Diffusion {
+        private final Integer categorie;
+        private final List<Abonnement> abonnes = new CopyOnWriteArrayList<>();
+        private final ReentrantLock verrou = new ReentrantLock();
+        // Les dernières ventes envoyées (clé : nom du médicament), null avant la première lecture
+        private Map<String, Long> unites;
+        // L'étiquette de la version des ventes lues
+        private String etiquette;
+
+        Diffusion(Integer categorie) {
+            this.categorie = categorie;
+        }
+
+        void abonner(Consumer<Message> abonne) {
+            var abonnement = new Abonnement(abonne);
+            verrou.lock();
+            try {
+                // Sans abonné, les ventes ne sont plus lues à chaque modification
+                if (unites == null || (abonnes.isEmpty() && !etiquette.equals(versions.etat(VENTES).etiquette()))) {
+                    lire();
+                }
+                // Les ventes déjà lues : les modifications suivront à la prochaine diffusion
+                abonnement.messages.add(new Message(true,
+                        unites.entrySet().stream().map(e -> new Unites(e.getKey(), e.getValue())).toList()));
+                abonnes.add(abonnement);
+            } finally {
+                verrou.unlock();
+            }
+            planifierEnvoi(abonnement);
+        }
+
+        void diffuser() {
+            List<Abonnement> destinataires;
+            verrou.lock();
+            try {
+                if (abonnes.isEmpty() || etiquette.equals(versions.etat(VENTES).etiquette())) {
+                    return;
+                }
+                var avant = unites;
+                lire();
+                List<Unites> modifications = new ArrayList<>();
+                unites.forEach((nom, u) -> {
+                    if (!u.equals(avant.get(nom))) {
+                        modifications.add(new Unites(nom, u));
+                    }
+                });
+                avant.keySet().stream()
+                        .filter(nom -> !unites.containsKey(nom))
+                        .forEach(nom -> modifications.add(new Unites(nom, 0)));
+                if (modifications.isEmpty()) {
+                    // Ventes d'une autre catégorie
+                    return;
+                }
+                var message = new Message(false, modifications);
+                destinataires = List.copyOf(abonnes);
+                destinataires.forEach(a -> a.messages.add(message));
+            } finally {
+                verrou.unlock();
+            }
+            destinataires.forEach(this::planifierEnvoi);
+        }
+
+        private void lire() {
+            // La version est lue avant les ventes : une modification validée pendant la lecture sera diffusée
+            etiquette = versions.etat(VENTES).etiquette();
+            var lues = new LinkedHashMap<String, Long>();
+            faits.unitesVenduesPour(categorie).forEach(u -> lues.put(u.getNom(), u.getUnites()));
+            unites = lues;
+        }
+
+        private void planifierEnvoi(Abonnement abonnement) {
+            try {
+                envois.execute(() -> envoyer(abonnement));
+            } catch (RejectedExecutionException e) {
+                // Arrêt de l'application
+                log.debug("Diffusion des ventes de la catégorie {} : message non envoyé", categorie, e);
+            }
+        }
+
+        // Envoie les messages en attente de l'abonné, dans l'ordre de la file.
+        // Pendant l'envoi à un abonné lent, les envois suivants ne l'attendent pas (ils n'occupent pas
+        // un thread des envois) : ses nouveaux messages sont envoyés par l'envoi en cours.
+        private void envoyer(Abonnement abonnement) {
+            while (!abonnement.messages.isEmpty() && abonnement.envoi.tryLock()) {
+                try {
+                    Message message;
+                    while ((message = abonnement.messages.poll()) != null) {
+                        abonnement.abonne.accept(message);
+                    }
+                } catch (RuntimeException e) {
+                    log.debug("Diffusion des ventes de la catégorie {} : abonné en erreur", categorie, e);
+                    abonnes.remove(abonnement);
+                    abonnement.messages.clear();
+                } finally {
+                    abonnement.envoi.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Un abonné et les messages qui ne lui ont pas encore été envoyés.
+     * Un seul envoi à la fois par abonné (un autre abonné n'attend pas).
+     */
+    private static final class Abonnement {
+        private final Consumer<Message> abonne;
+        private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock envoi = new ReentrantLock();
+
+        Abonnement(Consumer<Message> abonne) {
+            this.abonne = abonne;
+        }
+    }
+}
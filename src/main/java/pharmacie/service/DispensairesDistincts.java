@@ -0,0 +1,457 @@
+package pharmacie.service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dto.DispensairesDistinctsDTO;
+
+/**
+ * <pre>
+ * Le nombre de dispensaires différents qui ont commandé un médicament, par mois, sans COUNT(DISTINCT)
+ * sur les lignes : chaque médicament a, pour chaque mois, un HyperLogLog (Flajolet et al.) de
+ * 2^pharmacie.stats.dispensaires.precision registres d'un octet. Le code du dispensaire est haché
+ * (murmur3, 64 bits) : les premiers bits choisissent le registre, qui garde le plus grand rang du
+ * premier bit à 1 dans les bits suivants.
+ * Les registres de plusieurs mois sont fusionnés (maximum registre par registre) pour une période :
+ * la réponse ne dépend que du nombre de mois, pas du nombre de lignes.
+ * Erreur relative (écart type) : 1,04 / racine(nombre de registres), 3,25 % pour 1024 registres ;
+ * les petits nombres (jusqu'à 2,5 fois le nombre de registres) sont comptés par "linear counting",
+ * presque exact.
+ * La plupart des médicaments n'ont que quelques dispensaires par mois : les registres sont gardés
+ * et sauvegardés sous forme creuse (les seuls registres non nuls) jusqu'à un quart de registres non nuls,
+ * sous forme dense (tous les registres) au-delà (voir Registres).
+ *
+ * Les registres sont tenus à jour par SuiviModificationsEntites (lignes ajoutées ou déplacées) quand
+ * la transaction est validée. Un HyperLogLog ne permet pas de retirer un élément : un dispensaire
+ * dont les lignes ont toutes été supprimées reste compté. Le mode exact (SQL) sert à vérifier.
+ * Les registres modifiés sont sauvegardés dans la BD (RegistresDispensaires) toutes les
+ * pharmacie.stats.dispensaires.sauvegarde-ms et à l'arrêt, et relus au démarrage. Sans sauvegarde
+ * (premier démarrage, précision modifiée), ils sont calculés à partir des lignes.
+ * Avec plusieurs instances, la sauvegarde fusionne les registres de l'instance avec ceux de la BD
+ * (maximum registre par registre, comme pour une période) : aucune instance n'efface les dispensaires
+ * vus par une autre, et chacune voit ceux des autres pour les médicaments et mois qu'elle sauvegarde.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class DispensairesDistincts {
+    private static final HashFunction HACHAGE = Hashing.murmur3_128();
+    private static final String REGISTRES = "SELECT medicament_reference, mois, registres FROM registres_dispensaires";
+    // Premier démarrage : chaque dispensaire une seule fois par médicament et par mois.
+    // EXTRACT est standard (H2 et PostgreSQL), pas YEAR() et MONTH()
+    private static final String DISPENSAIRES = """
+        SELECT DISTINCT l.medicament_reference, EXTRACT(YEAR FROM c.saisiele), EXTRACT(MONTH FROM c.saisiele), c.dispensaire_code
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        """;
+    private static final String EXACT_PAR_MOIS = """
+        SELECT EXTRACT(YEAR FROM c.saisiele), EXTRACT(MONTH FROM c.saisiele), COUNT(DISTINCT c.dispensaire_code)
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        WHERE l.medicament_reference = ? AND c.saisiele BETWEEN ? AND ?
+        GROUP BY EXTRACT(YEAR FROM c.saisiele), EXTRACT(MONTH FROM c.saisiele)
+        ORDER BY 1, 2
+        """;
+    private static final String EXACT = """
+        SELECT COUNT(DISTINCT c.dispensaire_code)
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        WHERE l.medicament_reference = ? AND c.saisiele BETWEEN ? AND ?
+        """;
+    // Les registres sauvegardés d'un médicament et d'un mois, verrouillés jusqu'à la fin de la sauvegarde
+    private static final String REGISTRES_VERROUILLES = """
+        SELECT registres FROM registres_dispensaires WHERE medicament_reference = ? AND mois = ? FOR UPDATE
+        """;
+    private static final String MODIFIER = "UPDATE registres_dispensaires SET registres = ? WHERE medicament_reference = ? AND mois = ?";
+    private static final String SUPPRIMER_TOUT = "DELETE FROM registres_dispensaires";
+    private static final String CREER = "INSERT INTO registres_dispensaires (medicament_reference, mois, registres) VALUES (?, ?, ?)";
+    // Bornes de la période en mode exact, si elles ne sont pas précisées
+    private static final YearMonth DEBUT = YearMonth.of(1900, 1);
+    private static final YearMonth FIN = YearMonth.of(9999, 12);
+
+    private final JdbcTemplate jdbc;
+    private final int precision;
+    private final int nombreRegistres;
+    // Les registres de chaque mois, clé : Medicament.reference (accès synchronisés)
+    private final Map<Integer, TreeMap<YearMonth, Registres>> parMedicament = new HashMap<>();
+    // Modifiés depuis la dernière sauvegarde
+    private final Set<Cle> modifies = new HashSet<>();
+    private final ApresValidation<Ajout> enAttente = new ApresValidation<>("Dispensaires distincts", this::ajouter);
+
+    public DispensairesDistincts(JdbcTemplate jdbc, @Value("${pharmacie.stats.dispensaires.precision:10}") int precision) {
+        if (precision < 7 || precision > 16) {
+            throw new IllegalArgumentException("La précision doit être entre 7 et 16");
+        }
+        this.jdbc = jdbc;
+        this.precision = precision;
+        this.nombreRegistres = 1 << precision;
+    }
+
+    /**
+     * Enregistre une commande d'un médicament par un dispensaire, prise en compte quand la
+     * transaction courante est validée (immédiatement hors transaction)
+     *
+     * @param medicament  la référence du médicament
+     * @param jour        le jour de saisie de la commande
+     * @param dispensaire le code du dispensaire
+     */
+    public void enregistrer(int medicament, LocalDate jour, String dispensaire) {
+        enAttente.ajouter(new Ajout(new Cle(medicament, YearMonth.from(jour)), hacher(dispensaire)));
+    }
+
+    /**
+     * Le nombre de dispensaires différents qui ont commandé un médicament pendant une période, et chaque mois
+     *
+     * @param medicament la référence du médicament
+     * @param du         le premier mois (par défaut : depuis le début)
+     * @param au         le dernier mois (par défaut : jusqu'à la fin)
+     * @param exact      true pour compter dans les lignes (COUNT DISTINCT), false pour estimer
+     * @return le nombre de dispensaires de la période et de chaque mois qui a des commandes
+     * @throws IllegalArgumentException si la période est vide
+     */
+    public DispensairesDistinctsDTO compter(int medicament, YearMonth du, YearMonth au, boolean exact) {
+        if (du != null && au != null && du.isAfter(au)) {
+            throw new IllegalArgumentException("Le premier mois doit précéder le dernier");
+        }
+        if (exact) {
+            return compterExactement(medicament, du, au);
+        }
+        Map<String, Long> parMois = new LinkedHashMap<>();
+        var fusion = new Registres(precision);
+        synchronized (this) {
+            var mois = parMedicament.getOrDefault(medicament, new TreeMap<>())
+                    .subMap(du == null ? DEBUT : du, true, au == null ? FIN : au, true);
+            mois.forEach((m, registres) -> {
+                parMois.put(m.toString(), estimer(registres));
+                fusion.fusionner(registres);
+            });
+        }
+        return new DispensairesDistinctsDTO(medicament, du, au, false, 1.04 / Math.sqrt(nombreRegistres),
+                estimer(fusion), parMois);
+    }
+
+    /**
+     * Lit les registres sauvegardés, ou les calcule à partir des lignes s'il n'y en a pas
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void charger() {
+        List<Object[]> lus = new ArrayList<>();
+        jdbc.query(REGISTRES, rs -> {
+            lus.add(new Object[] { rs.getInt(1), YearMonth.from(rs.getDate(2).toLocalDate()),
+                    Registres.lire(rs.getBytes(3), precision) });
+        });
+        if (!lus.isEmpty() && lus.stream().allMatch(l -> l[2] != null)) {
+            synchronized (this) {
+                // Fusionnés avec les ajouts validés depuis le démarrage
+                lus.forEach(l -> fusionner(new Cle((Integer) l[0], (YearMonth) l[1]), (Registres) l[2]));
+            }
+            log.info("Dispensaires distincts : {} médicaments et mois relus", lus.size());
+            return;
+        }
+        if (!lus.isEmpty()) {
+            log.warn("Dispensaires distincts : registres sauvegardés avec une autre précision, calculés à partir des lignes");
+            jdbc.update(SUPPRIMER_TOUT);
+        }
+        List<Ajout> ajouts = new ArrayList<>();
+        jdbc.query(DISPENSAIRES, rs -> {
+            ajouts.add(new Ajout(new Cle(rs.getInt(1), YearMonth.of(rs.getInt(2), rs.getInt(3))), hacher(rs.getString(4))));
+        });
+        ajouter(ajouts);
+        synchronized (this) {
+            parMedicament.forEach((medicament, mois) -> mois.keySet().forEach(m -> modifies.add(new Cle(medicament, m))));
+        }
+        log.info("Dispensaires distincts : calculés à partir de {} médicaments, mois et dispensaires", ajouts.size());
+    }
+
+    /**
+     * Sauvegarde les registres modifiés depuis la dernière sauvegarde, fusionnés avec ceux de la BD
+     * (sauvegardés par une autre instance). Appelée aussi à l'arrêt, par le bean (avec sa transaction) :
+     * pas par @PreDestroy.
+     */
+    @Scheduled(fixedDelayString = "${pharmacie.stats.dispensaires.sauvegarde-ms:60000}")
+    @EventListener(ContextClosedEvent.class)
+    @Transactional
+    public void sauvegarder() {
+        Map<Cle, Registres> aEcrire = new LinkedHashMap<>();
+        synchronized (this) {
+            for (var cle : modifies) {
+                aEcrire.put(cle, parMedicament.get(cle.medicament()).get(cle.mois()).copie());
+            }
+            modifies.clear();
+        }
+        if (aEcrire.isEmpty()) {
+            return;
+        }
+        List<Object[]> modifications = new ArrayList<>();
+        List<Object[]> creations = new ArrayList<>();
+        try {
+            aEcrire.forEach((cle, registres) -> {
+                var mois = Date.valueOf(cle.mois().atDay(1));
+                var enBase = jdbc.query(REGISTRES_VERROUILLES, (rs, i) -> rs.getBytes(1), cle.medicament(), mois);
+                if (enBase.isEmpty()) {
+                    creations.add(new Object[] { cle.medicament(), mois, registres.enOctets() });
+                    return;
+                }
+                var lus = Registres.lire(enBase.get(0), precision);
+                if (lus != null) {
+                    // Registres d'une autre instance : maximum registre par registre
+                    registres.fusionner(lus);
+                }
+                modifications.add(new Object[] { registres.enOctets(), cle.medicament(), mois });
+            });
+            jdbc.batchUpdate(MODIFIER, modifications);
+            jdbc.batchUpdate(CREER, creations);
+        } catch (RuntimeException e) {
+            // Les registres seront sauvegardés la prochaine fois
+            synchronized (this) {
+                modifies.addAll(aEcrire.keySet());
+            }
+            throw e;
+        }
+        synchronized (this) {
+            // Les dispensaires vus par les autres instances (la fusion ne fait qu'augmenter les registres)
+            aEcrire.forEach(this::fusionner);
+        }
+        log.debug("Dispensaires distincts : {} médicaments et mois sauvegardés", aEcrire.size());
+    }
+
+    private DispensairesDistinctsDTO compterExactement(int medicament, YearMonth du, YearMonth au) {
+        var debut = Date.valueOf((du == null ? DEBUT : du).atDay(1));
+        var fin = Date.valueOf((au == null ? FIN : au).atEndOfMonth());
+        Map<String, Long> parMois = new LinkedHashMap<>();
+        jdbc.query(EXACT_PAR_MOIS, rs -> {
+            parMois.put(YearMonth.of(rs.getInt(1), rs.getInt(2)).toString(), rs.getLong(3));
+        }, medicament, debut, fin);
+        long dispensaires = jdbc.queryForObject(EXACT, Long.class, medicament, debut, fin);
+        return new DispensairesDistinctsDTO(medicament, du, au, true, 0, dispensaires, parMois);
+    }
+
+    private synchronized void ajouter(List<Ajout> ajouts) {
+        for (var ajout : ajouts) {
+            long hache = ajout.hache();
+            // Les premiers bits choisissent le registre, le rang est celui du premier bit à 1 dans les suivants
+            int registre = (int) (hache >>> (Long.SIZE - precision));
+            byte rang = (byte) (Long.numberOfLeadingZeros((hache << precision) | (1L << (precision - 1))) + 1);
+            if (registres(ajout.cle()).ajouter(registre, rang)) {
+                modifies.add(ajout.cle());
+            }
+        }
+    }
+
+    private void fusionner(Cle cle, Registres lus) {
+        registres(cle).fusionner(lus);
+    }
+
+    private Registres registres(Cle cle) {
+        return parMedicament.computeIfAbsent(cle.medicament(), m -> new TreeMap<>())
+                .computeIfAbsent(cle.mois(), m -> new Registres(precision));
+    }
+
+    private long estimer(Registres registres) {
+        double somme = registres.sommeInverses();
+        int vides = registres.vides();
+        double m = nombreRegistres;
+        double estimation = 0.7213 / (1 + 1.079 / m) * m * m / somme;
+        if (estimation <= 2.5 * m && vides > 0) {
+            // Petits nombres : "linear counting" à partir des registres vides
+            estimation = m * Math.log(m / vides);
+        }
+        return Math.round(estimation);
+    }
+
+    private static long hacher(String dispensaire) {
+        return HACHAGE.hashString(dispensaire, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Un médicament pendant un mois
+     */
+    private record Cle(int medicament, YearMonth mois) {
+    }
+
+    /**
+     * Un dispensaire (haché) qui a commandé le médicament pendant le mois
+     */
+    private record Ajout(Cle cle, long hache) {
+    }
+
+    /**
+     * <pre>
+     * Les registres d'un médicament pendant un mois (ou une période), m = 2^precision registres.
+     * Creux tant qu'au plus m/4 registres sont non nuls : les paires (registre, rang) triées par registre,
+     * 4 octets par paire, donc au plus m octets. Denses au-delà : un octet par registre.
+     * Sauvegardés de même : m octets (denses), ou la précision puis 3 octets par paire (creux, moins de m octets).
+     * Non synchronisé (accès synchronisés par DispensairesDistincts).
+     * </pre>
+     */
+    private static final class Registres {
+        private final int precision;
+        // Creux : (registre << 8) | rang, par registre croissant ; null une fois denses
+        private int[] paires = new int[4];
+        private int nombre;
+        // Denses : null tant que creux
+        private byte[] denses;
+
+        Registres(int precision) {
+            this.precision = precision;
+        }
+
+        /**
+         * @return true si le rang du registre a augmenté
+         */
+        boolean ajouter(int registre, int rang) {
+            if (denses != null) {
+                if (rang <= denses[registre]) {
+                    return false;
+                }
+                denses[registre] = (byte) rang;
+                return true;
+            }
+            // Les rangs sont non nuls : la paire du registre, s'il en a une, suit registre << 8
+            int p = Arrays.binarySearch(paires, 0, nombre, registre << 8);
+            if (p < 0) {
+                p = -p - 1;
+            }
+            if (p < nombre && paires[p] >>> 8 == registre) {
+                if (rang <= (paires[p] & 0xff)) {
+                    return false;
+                }
+                paires[p] = (registre << 8) | rang;
+                return true;
+            }
+            if (nombre == (1 << precision) / 4) {
+                rendreDenses();
+                denses[registre] = (byte) rang;
+                return true;
+            }
+            if (nombre == paires.length) {
+                paires = Arrays.copyOf(paires, nombre * 2);
+            }
+            System.arraycopy(paires, p, paires, p + 1, nombre - p);
+            paires[p] = (registre << 8) | rang;
+            nombre++;
+            return true;
+        }
+
+        // Maximum registre par registre
+        void fusionner(Registres autre) {
+            if (autre.denses != null) {
+                rendreDenses();
+                for (int i = 0; i < denses.length; i++) {
+                    denses[i] = (byte) Math.max(denses[i], autre.denses[i]);
+                }
+            } else {
+                for (int k = 0; k < autre.nombre; k++) {
+                    ajouter(autre.paires[k] >>> 8, autre.paires[k] & 0xff);
+                }
+            }
+        }
+
+        // La somme de 2^-rang sur tous les registres
+        double sommeInverses() {
+            if (denses == null) {
+                double somme = vides();
+                for (int k = 0; k < nombre; k++) {
+                    somme += Math.scalb(1.0, -(paires[k] & 0xff));
+                }
+                return somme;
+            }
+            double somme = 0;
+            for (byte rang : denses) {
+                somme += Math.scalb(1.0, -rang);
+            }
+            return somme;
+        }
+
+        int vides() {
+            if (denses == null) {
+                return (1 << precision) - nombre;
+            }
+            int vides = 0;
+            for (byte rang : denses) {
+                if (rang == 0) {
+                    vides++;
+                }
+            }
+            return vides;
+        }
+
+        Registres copie() {
+            var copie = new Registres(precision);
+            copie.paires = paires == null ? null : paires.clone();
+            copie.nombre = nombre;
+            copie.denses = denses == null ? null : denses.clone();
+            return copie;
+        }
+
+        byte[] enOctets() {
+            if (denses != null) {
+                return denses.clone();
+            }
+            var octets = new byte[1 + 3 * nombre];
+            octets[0] = (byte) precision;
+            for (int k = 0; k < nombre; k++) {
+                int registre = paires[k] >>> 8;
+                octets[1 + 3 * k] = (byte) (registre >>> 8);
+                octets[2 + 3 * k] = (byte) registre;
+                octets[3 + 3 * k] = (byte) paires[k];
+            }
+            return octets;
+        }
+
+        /**
+         * @return les registres sauvegardés, null s'ils l'ont été avec une autre précision
+         */
+        static Registres lire(byte[] octets, int precision) {
+            var registres = new Registres(precision);
+            if (octets.length == 1 << precision) {
+                registres.paires = null;
+                registres.denses = octets.clone();
+                return registres;
+            }
+            if (octets.length % 3 != 1 || octets[0] != precision) {
+                return null;
+            }
+            registres.nombre = octets.length / 3;
+            registres.paires = new int[Math.max(4, registres.nombre)];
+            for (int k = 0; k < registres.nombre; k++) {
+                int registre = (octets[1 + 3 * k] & 0xff) << 8 | (octets[2 + 3 * k] & 0xff);
+                registres.paires[k] = (registre << 8) | (octets[3 + 3 * k] & 0xff);
+            }
+            return registres;
+        }
+
+        private void rendreDenses() {
+            if (denses != null) {
+                return;
+            }
+            denses = new byte[1 << precision];
+            for (int k = 0; k < nombre; k++) {
+                denses[paires[k] >>> 8] = (byte) paires[k];
+            }
+            paires = null;
+            nombre = 0;
+        }
+    }
+}
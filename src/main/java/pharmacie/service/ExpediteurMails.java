@@ -0,0 +1,172 @@
+package pharmacie.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.MailEnAttenteRepository;
+import pharmacie.entity.MailEnAttente;
+import pharmacie.mail.TransportMail;
+
+/**
+ * <pre>
+ * Envoie en arrière-plan les mails en attente (MailEnAttente), à intervalle régulier
+ * (pharmacie.mail.intervalle-ms) :
+ * - les mails en attente pour un même fournisseur sont regroupés en un seul envoi
+ * - les envois sont faits en parallèle, par au plus pharmacie.mail.concurrence threads
+ * - un envoi qui échoue est réessayé après un délai qui double à chaque échec
+ *   (pharmacie.mail.delai-initial-ms, au plus une heure), puis abandonné après pharmacie.mail.essais-max échecs
+ * Aucune transaction n'est ouverte pendant les envois.
+ * Avec plusieurs instances de l'application, chaque mail est réservé avant l'envoi par un seul lot
+ * (UPDATE conditionnel) : les instances se partagent les mails, aucun n'est envoyé deux fois.
+ * Si l'instance s'arrête pendant l'envoi, le mail est de nouveau à envoyer après pharmacie.mail.reservation-ms :
+ * la réservation doit être plus longue que les envois d'un lot.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class ExpediteurMails {
+    private static final Duration DELAI_MAX = Duration.ofHours(1);
+
+    private final MailEnAttenteRepository mailDao;
+    private final TransportMail transport;
+    private final TransactionTemplate transaction;
+    private final int tailleLot;
+    private final int essaisMax;
+    private final Duration delaiInitial;
+    private final Duration reservation;
+    private final ExecutorService envois;
+
+    public ExpediteurMails(MailEnAttenteRepository mailDao, TransportMail transport, TransactionTemplate transaction,
+            @Value("${pharmacie.mail.concurrence:4}") int concurrence,
+            @Value("${pharmacie.mail.taille-lot:100}") int tailleLot,
+            @Value("${pharmacie.mail.essais-max:8}") int essaisMax,
+            @Value("${pharmacie.mail.delai-initial-ms:30000}") long delaiInitialMs,
+            @Value("${pharmacie.mail.reservation-ms:600000}") long reservationMs) {
+        this.mailDao = mailDao;
+        this.transport = transport;
+        this.transaction = transaction;
+        this.tailleLot = tailleLot;
+        this.essaisMax = essaisMax;
+        this.delaiInitial = Duration.ofMillis(delaiInitialMs);
+        this.reservation = Duration.ofMillis(reservationMs);
+        var numero = new AtomicInteger();
+        this.envois = Executors.newFixedThreadPool(concurrence, r -> {
+            var thread = new Thread(r, "expediteur-mails-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void arreter() {
+        envois.shutdown();
+    }
+
+    /**
+     * Envoie un lot de mails en attente (au plus pharmacie.mail.taille-lot)
+     *
+     * @return le nombre de mails envoyés
+     */
+    @Scheduled(fixedDelayString = "${pharmacie.mail.intervalle-ms:5000}")
+    public int envoyer() {
+        var lot = UUID.randomUUID().toString();
+        List<MailEnAttente> mails = transaction.execute(status -> {
+            var maintenant = LocalDateTime.now();
+            var ids = mailDao.aEnvoyer(maintenant, Limit.of(tailleLot));
+            if (ids.isEmpty() || mailDao.reserver(ids, lot, maintenant, maintenant.plus(reservation)) == 0) {
+                // Rien à envoyer, ou tout est réservé par une autre instance
+                return List.of();
+            }
+            return mailDao.reserves(ids, lot);
+        });
+        if (mails.isEmpty()) {
+            return 0;
+        }
+        // Un envoi par fournisseur, dans l'ordre d'arrivée des mails
+        Map<Long, List<MailEnAttente>> parFournisseur = new LinkedHashMap<>();
+        mails.forEach(m -> parFournisseur.computeIfAbsent(m.getFournisseurId(), f -> new ArrayList<>()).add(m));
+        Map<List<MailEnAttente>, Future<?>> resultats = new LinkedHashMap<>();
+        parFournisseur.values().forEach(groupe -> resultats.put(groupe, envois.submit(() -> envoyer(groupe))));
+
+        var maintenant = LocalDateTime.now();
+        int envoyes = 0;
+        for (var resultat : resultats.entrySet()) {
+            String erreur = erreur(resultat.getValue());
+            for (var mail : resultat.getKey()) {
+                if (erreur == null) {
+                    mail.setEnvoyeLe(maintenant);
+                    envoyes++;
+                } else {
+                    echec(mail, erreur, maintenant);
+                }
+            }
+        }
+        transaction.executeWithoutResult(status -> mailDao.saveAll(mails));
+        log.info("Mails : {} envoyés sur {}, en {} envois", envoyes, mails.size(), parFournisseur.size());
+        return envoyes;
+    }
+
+    // Un seul mail pour tous les mails en attente d'un fournisseur
+    private void envoyer(List<MailEnAttente> groupe) {
+        var premier = groupe.get(0);
+        if (groupe.size() == 1) {
+            transport.envoyer(premier.getDestinataire(), premier.getSujet(), premier.getContenu());
+            return;
+        }
+        var texte = new StringBuilder();
+        for (var mail : groupe) {
+            if (!texte.isEmpty()) {
+                texte.append("\n\n----------\n\n");
+            }
+            texte.append(mail.getContenu());
+        }
+        transport.envoyer(premier.getDestinataire(),
+                premier.getSujet() + " (" + groupe.size() + " demandes)", texte.toString());
+    }
+
+    private void echec(MailEnAttente mail, String erreur, LocalDateTime maintenant) {
+        mail.setEssais(mail.getEssais() + 1);
+        mail.setDerniereErreur(erreur.length() > 500 ? erreur.substring(0, 500) : erreur);
+        if (mail.getEssais() >= essaisMax) {
+            mail.setAbandonne(true);
+            log.error("Mail {} abandonné après {} essais : {}", mail.getId(), mail.getEssais(), erreur);
+            return;
+        }
+        // Le délai double à chaque échec
+        var delai = delaiInitial.multipliedBy(1L << Math.min(mail.getEssais() - 1, 20));
+        mail.setProchainEssai(maintenant.plus(delai.compareTo(DELAI_MAX) > 0 ? DELAI_MAX : delai));
+        log.warn("Mail {} : échec de l'envoi ({}), nouvel essai à {}", mail.getId(), erreur, mail.getProchainEssai());
+    }
+
+    // null si l'envoi a réussi, sinon le message d'erreur
+    private static String erreur(Future<?> envoi) {
+        try {
+            envoi.get();
+            return null;
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            return cause.getClass().getSimpleName() + " : " + cause.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Envoi interrompu";
+        }
+    }
+}
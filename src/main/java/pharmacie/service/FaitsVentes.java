@@ -0,0 +1,582 @@
+package pharmacie.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.UnitesParMedicament;
+
+/**
+ * <pre>
+ * Les lignes de commande en mémoire, par colonnes, pour les statistiques sans requête SQL :
+ * sommes des quantités filtrées (période, catégorie, médicament, dispensaire) et regroupées
+ * (jour, mois, catégorie, médicament, dispensaire).
+ * Chaque fait est (médicament, catégorie, dispensaire, jour de saisie de la commande, quantité).
+ * Les faits sont chargés en une lecture des lignes regroupées par le SGBD (au démarrage, puis
+ * chaque nuit : pharmacie.stats.faits.cron), puis complétés par les lignes ajoutées, modifiées ou
+ * supprimées et les médicaments modifiés (SuiviModificationsEntites), quand leur transaction est
+ * validée : une suppression ajoute un fait de quantité négative, la reconstruction les regroupe.
+ * Les modifications qui ne passent pas par les entités (date d'une commande, SQL direct) sont
+ * prises en compte à la reconstruction suivante.
+ *
+ * Disposition en mémoire : des blocs de TAILLE_BLOC faits, un tableau d'entiers par colonne.
+ * Les médicaments, catégories et dispensaires sont numérotés dans l'ordre d'apparition
+ * (dictionnaires) : les sommes d'un regroupement sont un tableau long[] indexé par ces numéros.
+ * Une requête parcourt les blocs en parallèle (fork-join, un bloc par tâche).
+ * </pre>
+ */
+@Slf4j
+@Service
+public class FaitsVentes {
+    static final int TAILLE_BLOC = 1 << 16;
+    // Les lignes regroupées : un fait par médicament, dispensaire et jour
+    private static final String FAITS = """
+        SELECT l.medicament_reference, m.categorie_code, c.dispensaire_code, c.saisiele, SUM(l.quantite) AS quantite
+        FROM ligne l
+        JOIN commande c ON c.numero = l.commande_numero
+        JOIN medicament m ON m.reference = l.medicament_reference
+        GROUP BY l.medicament_reference, m.categorie_code, c.dispensaire_code, c.saisiele
+        """;
+    private static final String MEDICAMENTS = "SELECT reference, nom, categorie_code FROM medicament";
+    // Requête courte qui prend l'instantané de la lecture : chacune des tables lues
+    private static final String INSTANTANE = """
+        SELECT (SELECT MAX(id) FROM ligne), (SELECT MAX(numero) FROM commande), (SELECT MAX(reference) FROM medicament)
+        """;
+    // Tant que les faits ne sont pas chargés (démarrage)
+    private static final String UNITES_PAR_MEDICAMENT = """
+        SELECT m.nom, SUM(l.quantite) AS unites
+        FROM ligne l JOIN medicament m ON m.reference = l.medicament_reference
+        WHERE m.categorie_code = ?
+        GROUP BY m.nom
+        HAVING SUM(l.quantite) > 0
+        ORDER BY m.nom
+        """;
+    // Nombre maximum de groupes d'une réponse regroupée par jour
+    private static final int JOURS_MAX = 3660;
+
+    /**
+     * Le regroupement des sommes
+     */
+    public enum Axe {
+        TOTAL, JOUR, MOIS, CATEGORIE, MEDICAMENT, DISPENSAIRE
+    }
+
+    /**
+     * Les faits retenus par une requête (null : pas de filtre)
+     *
+     * @param du premier jour de saisie
+     * @param au dernier jour de saisie
+     * @param categorie le code de la catégorie
+     * @param medicament la référence du médicament
+     * @param dispensaire le code du dispensaire
+     */
+    public record Filtre(LocalDate du, LocalDate au, Integer categorie, Integer medicament, String dispensaire) {
+        public static final Filtre TOUT = new Filtre(null, null, null, null, null);
+
+        public static Filtre categorie(int categorie) {
+            return new Filtre(null, null, categorie, null, null);
+        }
+    }
+
+    /**
+     * Les unités vendues d'un médicament, comme VentesMedicamentRepository.unitesVenduesPour
+     */
+    public record Unites(String nom, Long unites) implements UnitesParMedicament {
+        @Override
+        public String getNom() {
+            return nom;
+        }
+
+        @Override
+        public Long getUnites() {
+            return unites;
+        }
+    }
+
+    // Une modification en attente de la validation de sa transaction
+    private interface Modification {
+        void appliquer(Faits faits);
+    }
+
+    private record Fait(int medicament, int categorie, String dispensaire, LocalDate jour, int quantite)
+            implements Modification {
+        @Override
+        public void appliquer(Faits faits) {
+            faits.ajouter(medicament, categorie, dispensaire, (int) jour.toEpochDay(), quantite);
+        }
+    }
+
+    private record MedicamentModifie(int reference, String nom, int categorie) implements Modification {
+        @Override
+        public void appliquer(Faits faits) {
+            faits.medicamentModifie(reference, nom, categorie);
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager transactions;
+    private final int tailleLot;
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+    // Une reconstruction à la fois. Pas de synchronized : la lecture JDBC bloquerait le thread porteur
+    // d'un thread virtuel (profil virtual) pendant toute la reconstruction
+    private final ReentrantLock reconstruction = new ReentrantLock();
+    private final ApresValidation<Modification> enAttente = new ApresValidation<>("Faits des ventes", this::appliquer);
+    // null tant que les faits ne sont pas chargés
+    private Faits faits;
+    // Les modifications validées pendant une reconstruction, appliquées ensuite aux nouveaux faits
+    private List<Modification> journal;
+    // Les modifications du journal validées avant l'instantané de la lecture des lignes
+    private int avantInstantane;
+
+    public FaitsVentes(JdbcTemplate jdbc, PlatformTransactionManager transactions,
+            @Value("${pharmacie.stats.faits.taille-lot:1000}") int tailleLot) {
+        this.jdbc = jdbc;
+        this.transactions = transactions;
+        this.tailleLot = tailleLot;
+    }
+
+    /**
+     * Enregistre une vente, ajoutée aux faits quand la transaction courante est validée
+     * (immédiatement hors transaction)
+     *
+     * @param medicament la référence du médicament
+     * @param categorie le code de la catégorie du médicament
+     * @param dispensaire le code du dispensaire
+     * @param jour le jour de saisie de la commande
+     * @param quantite la quantité, négative pour une suppression
+     */
+    public void enregistrer(int medicament, int categorie, String dispensaire, LocalDate jour, int quantite) {
+        enAttente.ajouter(new Fait(medicament, categorie, dispensaire, jour, quantite));
+    }
+
+    /**
+     * Enregistre le nom et la catégorie d'un médicament créé ou modifié, quand la transaction
+     * courante est validée (immédiatement hors transaction)
+     */
+    public void medicamentModifie(int reference, String nom, int categorie) {
+        enAttente.ajouter(new MedicamentModifie(reference, nom, categorie));
+    }
+
+    /**
+     * Somme des quantités des faits retenus par le filtre, regroupées selon un axe
+     *
+     * @param filtre les faits retenus
+     * @param par le regroupement
+     * @return la somme de chaque groupe non nul, par ordre des clés : jour (ISO), mois (ISO),
+     * code de la catégorie, référence du médicament, code du dispensaire, ou "total"
+     * @throws IllegalStateException si les faits ne sont pas encore chargés
+     * @throws IllegalArgumentException si la période est vide, ou trop longue pour JOUR
+     */
+    public Map<String, Long> sommer(Filtre filtre, Axe par) {
+        verrou.readLock().lock();
+        try {
+            if (faits == null) {
+                throw new IllegalStateException("Les faits des ventes sont en cours de chargement");
+            }
+            return faits.sommer(filtre, par);
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Unités vendues pour chaque médicament d'une catégorie, par ordre des noms (sans les médicaments
+     * sans vente). Calculées par le SGBD tant que les faits ne sont pas chargés.
+     *
+     * @param categorie le code de la catégorie
+     */
+    public List<UnitesParMedicament> unitesVenduesPour(int categorie) {
+        verrou.readLock().lock();
+        try {
+            if (faits != null) {
+                return faits.unitesVenduesPour(categorie);
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+        return jdbc.query(UNITES_PAR_MEDICAMENT, (rs, i) -> new Unites(rs.getString(1), rs.getLong(2)), categorie);
+    }
+
+    /**
+     * Recharge les faits à partir des lignes, en une lecture par blocs (une reconstruction à la fois).
+     * Les modifications validées pendant la lecture sont appliquées ensuite aux nouveaux faits :
+     * les médicaments modifiés depuis le début, les ventes validées après l'instantané de la lecture
+     * des lignes. Les validations ne sont suspendues que le temps de prendre l'instantané
+     * (ApresValidation.lireSurInstantane) : une vente est lue ou appliquée, pas les deux.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${pharmacie.stats.faits.cron:0 5 3 * * *}")
+    public void reconstruire() {
+        reconstruction.lock();
+        try {
+            verrou.writeLock().lock();
+            try {
+                journal = new ArrayList<>();
+            } finally {
+                verrou.writeLock().unlock();
+            }
+            Faits nouveaux;
+            try {
+                nouveaux = enAttente.lireSurInstantane(transactions, jdbc, INSTANTANE, this::instantanePris, this::lire);
+            } catch (RuntimeException e) {
+                verrou.writeLock().lock();
+                journal = null;
+                verrou.writeLock().unlock();
+                throw e;
+            }
+            verrou.writeLock().lock();
+            try {
+                for (int i = 0; i < journal.size(); i++) {
+                    var m = journal.get(i);
+                    // Les ventes validées avant l'instantané ont été lues
+                    if (i >= avantInstantane || m instanceof MedicamentModifie) {
+                        m.appliquer(nouveaux);
+                    }
+                }
+                journal = null;
+                faits = nouveaux;
+            } finally {
+                verrou.writeLock().unlock();
+            }
+            log.info("Faits des ventes : {} faits, {} médicaments, {} dispensaires",
+                    nouveaux.nombre, nouveaux.medicaments.taille(), nouveaux.dispensaires.taille());
+        } finally {
+            reconstruction.unlock();
+        }
+    }
+
+    // Les médicaments, puis les lignes regroupées, sur l'instantané
+    private Faits lire() {
+        var nouveaux = new Faits();
+        jdbc.query(MEDICAMENTS, rs -> {
+            nouveaux.medicamentModifie(rs.getInt(1), rs.getString(2), rs.getInt(3));
+        });
+        jdbc.query(con -> {
+            var ps = con.prepareStatement(FAITS);
+            ps.setFetchSize(tailleLot);
+            return ps;
+        }, rs -> {
+            nouveaux.ajouter(rs.getInt(1), rs.getInt(2), rs.getString(3),
+                    (int) rs.getDate(4).toLocalDate().toEpochDay(), rs.getInt(5));
+        });
+        return nouveaux;
+    }
+
+    // L'instantané de la lecture est pris : les ventes du journal y sont déjà
+    private void instantanePris() {
+        verrou.writeLock().lock();
+        try {
+            avantInstantane = journal.size();
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    private void appliquer(List<Modification> modifications) {
+        verrou.writeLock().lock();
+        try {
+            if (faits != null) {
+                modifications.forEach(m -> m.appliquer(faits));
+            }
+            if (journal != null) {
+                journal.addAll(modifications);
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Les valeurs d'une dimension, numérotées dans l'ordre d'apparition
+     */
+    private static final class Dictionnaire<T> {
+        private final Map<T, Integer> numeros = new HashMap<>();
+        private final List<T> valeurs = new ArrayList<>();
+
+        int numero(T valeur) {
+            return numeros.computeIfAbsent(valeur, v -> {
+                valeurs.add(v);
+                return valeurs.size() - 1;
+            });
+        }
+
+        // -1 si la valeur est inconnue
+        int chercher(T valeur) {
+            return numeros.getOrDefault(valeur, -1);
+        }
+
+        T valeur(int numero) {
+            return valeurs.get(numero);
+        }
+
+        int taille() {
+            return valeurs.size();
+        }
+    }
+
+    /**
+     * Un bloc de faits, une colonne par dimension (numéros des dictionnaires, jours depuis l'époque)
+     */
+    private static final class Bloc {
+        final int[] medicament = new int[TAILLE_BLOC];
+        final int[] categorie = new int[TAILLE_BLOC];
+        final int[] dispensaire = new int[TAILLE_BLOC];
+        final int[] jour = new int[TAILLE_BLOC];
+        final int[] quantite = new int[TAILLE_BLOC];
+        int taille;
+    }
+
+    /**
+     * Les faits et les dictionnaires (non synchronisé : lu sous le verrou en lecture, modifié sous
+     * le verrou en écriture)
+     */
+    private static final class Faits {
+        final Dictionnaire<Integer> medicaments = new Dictionnaire<>();
+        final Dictionnaire<Integer> categories = new Dictionnaire<>();
+        final Dictionnaire<String> dispensaires = new Dictionnaire<>();
+        // Nom et numéro de la catégorie de chaque médicament, par numéro de médicament
+        final List<String> noms = new ArrayList<>();
+        final List<Integer> categorieDuMedicament = new ArrayList<>();
+        final List<Bloc> blocs = new ArrayList<>();
+        long nombre;
+        int premierJour = Integer.MAX_VALUE;
+        int dernierJour = Integer.MIN_VALUE;
+
+        void ajouter(int reference, int codeCategorie, String codeDispensaire, int jour, int quantite) {
+            int m = numeroMedicament(reference);
+            var bloc = blocs.isEmpty() ? null : blocs.get(blocs.size() - 1);
+            if (bloc == null || bloc.taille == TAILLE_BLOC) {
+                bloc = new Bloc();
+                blocs.add(bloc);
+            }
+            int i = bloc.taille;
+            bloc.medicament[i] = m;
+            bloc.categorie[i] = categories.numero(codeCategorie);
+            bloc.dispensaire[i] = dispensaires.numero(codeDispensaire);
+            bloc.jour[i] = jour;
+            bloc.quantite[i] = quantite;
+            bloc.taille++;
+            nombre++;
+            premierJour = Math.min(premierJour, jour);
+            dernierJour = Math.max(dernierJour, jour);
+            if (categorieDuMedicament.get(m) == null) {
+                // Médicament créé dans la transaction de la vente, avant la lecture des médicaments
+                categorieDuMedicament.set(m, bloc.categorie[i]);
+            }
+        }
+
+        void medicamentModifie(int reference, String nom, int codeCategorie) {
+            int m = numeroMedicament(reference);
+            int categorie = categories.numero(codeCategorie);
+            Integer avant = categorieDuMedicament.get(m);
+            noms.set(m, nom);
+            categorieDuMedicament.set(m, categorie);
+            if (avant != null && avant != categorie) {
+                // Les ventes passées du médicament changent de catégorie
+                for (var bloc : blocs) {
+                    for (int i = 0; i < bloc.taille; i++) {
+                        if (bloc.medicament[i] == m) {
+                            bloc.categorie[i] = categorie;
+                        }
+                    }
+                }
+            }
+        }
+
+        private int numeroMedicament(int reference) {
+            int m = medicaments.numero(reference);
+            if (m == noms.size()) {
+                noms.add(null);
+                categorieDuMedicament.add(null);
+            }
+            return m;
+        }
+
+        Map<String, Long> sommer(Filtre filtre, Axe par) {
+            int premier = filtre.du() == null ? premierJour : (int) Math.max(premierJour, filtre.du().toEpochDay());
+            int dernier = filtre.au() == null ? dernierJour : (int) Math.min(dernierJour, filtre.au().toEpochDay());
+            if (filtre.du() != null && filtre.au() != null && filtre.du().isAfter(filtre.au())) {
+                throw new IllegalArgumentException("Période vide : " + filtre.du() + " - " + filtre.au());
+            }
+            if (par == Axe.JOUR && (long) dernier - premier >= JOURS_MAX) {
+                throw new IllegalArgumentException("Le regroupement par jour demande une période d'au plus " + JOURS_MAX + " jours");
+            }
+            Map<String, Long> resultat = new LinkedHashMap<>();
+            var requete = requete(filtre, par, premier, dernier);
+            if (requete == null) {
+                return resultat;
+            }
+            long[] sommes = executer(requete);
+            List<Integer> groupes = new ArrayList<>();
+            for (int g = 0; g < sommes.length; g++) {
+                if (sommes[g] != 0) {
+                    groupes.add(g);
+                }
+            }
+            // Les jours et les mois sont déjà dans l'ordre
+            Comparator<Integer> ordre = switch (par) {
+                case CATEGORIE -> Comparator.comparing(categories::valeur);
+                case MEDICAMENT -> Comparator.comparing(medicaments::valeur);
+                case DISPENSAIRE -> Comparator.comparing(dispensaires::valeur);
+                default -> Comparator.naturalOrder();
+            };
+            groupes.sort(ordre);
+            for (int g : groupes) {
+                String cle = switch (par) {
+                    case TOTAL -> "total";
+                    case JOUR -> LocalDate.ofEpochDay(requete.base + g).toString();
+                    case MOIS -> YearMonth.from(LocalDate.ofEpochDay(requete.base)).plusMonths(g).toString();
+                    case CATEGORIE -> categories.valeur(g).toString();
+                    case MEDICAMENT -> medicaments.valeur(g).toString();
+                    case DISPENSAIRE -> dispensaires.valeur(g);
+                };
+                resultat.put(cle, sommes[g]);
+            }
+            return resultat;
+        }
+
+        List<UnitesParMedicament> unitesVenduesPour(int codeCategorie) {
+            var requete = requete(Filtre.categorie(codeCategorie), Axe.MEDICAMENT, premierJour, dernierJour);
+            if (requete == null) {
+                return List.of();
+            }
+            long[] sommes = executer(requete);
+            List<UnitesParMedicament> unites = new ArrayList<>();
+            for (int m = 0; m < sommes.length; m++) {
+                if (sommes[m] > 0 && noms.get(m) != null) {
+                    unites.add(new Unites(noms.get(m), sommes[m]));
+                }
+            }
+            unites.sort(Comparator.comparing(UnitesParMedicament::getNom));
+            return unites;
+        }
+
+        // null si le filtre ne peut retenir aucun fait (valeur inconnue, période sans vente)
+        private Requete requete(Filtre filtre, Axe par, int premier, int dernier) {
+            int medicament = filtre.medicament() == null ? -1 : medicaments.chercher(filtre.medicament());
+            int categorie = filtre.categorie() == null ? -1 : categories.chercher(filtre.categorie());
+            int dispensaire = filtre.dispensaire() == null ? -1 : dispensaires.chercher(filtre.dispensaire());
+            if ((filtre.medicament() != null && medicament < 0) || (filtre.categorie() != null && categorie < 0)
+                    || (filtre.dispensaire() != null && dispensaire < 0) || premier > dernier) {
+                return null;
+            }
+            int base = 0;
+            int[] moisDuJour = null;
+            int groupes = switch (par) {
+                case TOTAL -> 1;
+                case JOUR -> {
+                    base = premier;
+                    yield dernier - premier + 1;
+                }
+                case MOIS -> {
+                    // Le numéro du mois de chaque jour de la période, à partir du premier mois
+                    base = premier;
+                    var debut = YearMonth.from(LocalDate.ofEpochDay(premier));
+                    moisDuJour = new int[dernier - premier + 1];
+                    var jour = LocalDate.ofEpochDay(premier);
+                    for (int j = 0; j < moisDuJour.length; j++, jour = jour.plusDays(1)) {
+                        moisDuJour[j] = (jour.getYear() - debut.getYear()) * 12 + jour.getMonthValue() - debut.getMonthValue();
+                    }
+                    yield moisDuJour[moisDuJour.length - 1] + 1;
+                }
+                case CATEGORIE -> categories.taille();
+                case MEDICAMENT -> medicaments.taille();
+                case DISPENSAIRE -> dispensaires.taille();
+            };
+            return new Requete(par, premier, dernier, medicament, categorie, dispensaire, base, moisDuJour, groupes);
+        }
+
+        private long[] executer(Requete requete) {
+            // Le nombre de faits de chaque bloc est lu par le thread qui a le verrou
+            int[] tailles = blocs.stream().mapToInt(b -> b.taille).toArray();
+            if (tailles.length == 0) {
+                return new long[requete.groupes];
+            }
+            return ForkJoinPool.commonPool().invoke(new Somme(requete, blocs, tailles, 0, tailles.length));
+        }
+    }
+
+    /**
+     * Une requête : filtres sur les numéros des dictionnaires (-1 : pas de filtre), regroupement
+     */
+    private record Requete(Axe par, int premier, int dernier, int medicament, int categorie, int dispensaire,
+            int base, int[] moisDuJour, int groupes) {
+    }
+
+    /**
+     * La somme d'une requête sur les blocs [debut, fin[ : les moitiés sont calculées en parallèle
+     */
+    private static final class Somme extends RecursiveTask<long[]> {
+        private final Requete requete;
+        private final List<Bloc> blocs;
+        private final int[] tailles;
+        private final int debut;
+        private final int fin;
+
+        Somme(Requete requete, List<Bloc> blocs, int[] tailles, int debut, int fin) {
+            this.requete = requete;
+            this.blocs = blocs;
+            this.tailles = tailles;
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (fin - debut == 1) {
+                return sommer(blocs.get(debut), tailles[debut]);
+            }
+            int milieu = (debut + fin) >>> 1;
+            var gauche = new Somme(requete, blocs, tailles, debut, milieu);
+            gauche.fork();
+            long[] sommes = new Somme(requete, blocs, tailles, milieu, fin).compute();
+            long[] autres = gauche.join();
+            for (int g = 0; g < sommes.length; g++) {
+                sommes[g] += autres[g];
+            }
+            return sommes;
+        }
+
+        private long[] sommer(Bloc bloc, int taille) {
+            var r = requete;
+            long[] sommes = new long[r.groupes()];
+            for (int i = 0; i < taille; i++) {
+                int jour = bloc.jour[i];
+                if (jour < r.premier() || jour > r.dernier()
+                        || (r.medicament() >= 0 && bloc.medicament[i] != r.medicament())
+                        || (r.categorie() >= 0 && bloc.categorie[i] != r.categorie())
+                        || (r.dispensaire() >= 0 && bloc.dispensaire[i] != r.dispensaire())) {
+                    continue;
+                }
+                int groupe = switch (r.par()) {
+                    case TOTAL -> 0;
+                    case JOUR -> jour - r.base();
+                    case MOIS -> r.moisDuJour()[jour - r.base()];
+                    case CATEGORIE -> bloc.categorie[i];
+                    case MEDICAMENT -> bloc.medicament[i];
+                    case DISPENSAIRE -> bloc.dispensaire[i];
+                };
+                sommes[groupe] += bloc.quantite[i];
+            }
+            return sommes;
+        }
+    }
+}
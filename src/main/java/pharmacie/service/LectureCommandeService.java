@@ -0,0 +1,145 @@
+package pharmacie.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import pharmacie.dao.CommandeRepository;
+import pharmacie.dao.EnTeteCommandeLue;
+import pharmacie.dto.CommandeDTO;
+import pharmacie.dto.DispensaireDTO;
+import pharmacie.dto.EnTeteCommandeDTO;
+import pharmacie.dto.LigneDTO;
+import pharmacie.dto.MedicamentDTO;
+
+/**
+ * <pre>
+ * Lecture des commandes pour l'API REST : les DTO sont construits directement
+ * à partir d'une seule requête, sans charger les entités dans le contexte de persistance.
+ * (Avec les entités, la commande, puis les lignes, puis chaque médicament sont lus
+ * par des requêtes séparées)
+ * <pre>
+ */
+@Service
+public class LectureCommandeService {
+    // Les commandes en cours d'un dispensaire, lues par un curseur JDBC
+    private static final String COMMANDES_EN_COURS = """
+        SELECT c.numero, c.saisiele, d.nom, d.contact
+        FROM commande c JOIN dispensaire d ON d.code = c.dispensaire_code
+        WHERE c.envoyeele IS NULL AND d.code = ?
+        ORDER BY c.numero DESC
+        """;
+    // Nombre d'enregistrements transmis par le SGBD à chaque lecture du curseur
+    private static final int TAILLE_LECTURE = 500;
+
+    private final CommandeRepository commandeDao;
+    private final JdbcTemplate jdbc;
+
+    public LectureCommandeService(CommandeRepository commandeDao, JdbcTemplate jdbc) {
+        this.commandeDao = commandeDao;
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Lit une commande connue par sa clé, avec son dispensaire et ses lignes
+     *
+     * @param commandeNum la clé de la commande
+     * @return la commande
+     * @throws NoSuchElementException si la commande n'existe pas
+     */
+    @Transactional(readOnly = true)
+    public CommandeDTO getCommande(int commandeNum) {
+        var enregistrements = commandeDao.lireCommande(commandeNum);
+        if (enregistrements.isEmpty()) {
+            throw new NoSuchElementException("Commande inconnue : " + commandeNum);
+        }
+        var premier = enregistrements.get(0);
+        var commande = new CommandeDTO();
+        commande.setNumero(premier.getNumero());
+        commande.setSaisiele(premier.getSaisiele());
+        commande.setDispensaire(dispensaire(premier));
+        List<LigneDTO> lignes = new ArrayList<>(enregistrements.size());
+        for (var e : enregistrements) {
+            // Commande sans ligne : un seul enregistrement, sans ligne
+            if (e.getLigneId() == null) {
+                continue;
+            }
+            var medicament = new MedicamentDTO();
+            medicament.setReference(e.getReference());
+            medicament.setNom(e.getNom());
+            medicament.setPrixUnitaire(e.getPrixUnitaire() == null ? null : e.getPrixUnitaire().intValue());
+            var ligne = new LigneDTO();
+            ligne.setId(e.getLigneId());
+            ligne.setQuantite(e.getQuantite());
+            ligne.setMedicament(medicament);
+            lignes.add(ligne);
+        }
+        commande.setLignes(lignes);
+        return commande;
+    }
+
+    /**
+     * Lit une page des en-têtes des commandes en cours pour un dispensaire
+     * (pagination par clé : on reprend après la dernière commande de la page précédente)
+     *
+     * @param dispensaireCode la clé du dispensaire
+     * @param apres le numéro de la dernière commande de la page précédente, null pour la première page
+     * @param taille le nombre maximum de commandes de la page
+     * @return les en-têtes des commandes en cours, les plus récentes d'abord
+     */
+    @Transactional(readOnly = true)
+    public List<EnTeteCommandeDTO> getCommandeEnCoursPour(@NonNull String dispensaireCode, Integer apres, int taille) {
+        var enTetes = apres == null
+                ? commandeDao.lireCommandesEnCoursPour(dispensaireCode, Limit.of(taille))
+                : commandeDao.lireCommandesEnCoursPour(dispensaireCode, apres, Limit.of(taille));
+        return enTetes.stream()
+                .map(e -> enTete(e.getNumero(), e.getSaisiele(), e.getDispensaireNom(), e.getDispensaireContact()))
+                .toList();
+    }
+
+    /**
+     * Lit toutes les commandes en cours pour un dispensaire avec un curseur JDBC :
+     * chaque en-tête est transmis au consommateur dès qu'il est lu,
+     * la mémoire utilisée ne dépend pas du nombre de commandes
+     *
+     * @param dispensaireCode la clé du dispensaire
+     * @param consommateur    reçoit les en-têtes des commandes en cours, les plus récentes d'abord
+     */
+    @Transactional(readOnly = true) // Avec PostgreSQL, le curseur n'est utilisé que dans une transaction
+    public void lireCommandesEnCoursPour(@NonNull String dispensaireCode, Consumer<EnTeteCommandeDTO> consommateur) {
+        jdbc.query(connexion -> {
+            var requete = connexion.prepareStatement(COMMANDES_EN_COURS);
+            requete.setFetchSize(TAILLE_LECTURE);
+            requete.setString(1, dispensaireCode);
+            return requete;
+        }, rs -> {
+            consommateur.accept(enTete(rs.getInt(1), rs.getObject(2, LocalDate.class), rs.getString(3), rs.getString(4)));
+        });
+    }
+
+    private static EnTeteCommandeDTO enTete(Integer numero, LocalDate saisiele, String nom, String contact) {
+        var enTete = new EnTeteCommandeDTO();
+        enTete.setNumero(numero);
+        enTete.setSaisiele(saisiele);
+        var dispensaire = new DispensaireDTO();
+        dispensaire.setNom(nom);
+        dispensaire.setContact(contact);
+        enTete.setDispensaire(dispensaire);
+        return enTete;
+    }
+
+    private static DispensaireDTO dispensaire(EnTeteCommandeLue e) {
+        var dispensaire = new DispensaireDTO();
+        dispensaire.setNom(e.getDispensaireNom());
+        dispensaire.setContact(e.getDispensaireContact());
+        return dispensaire;
+    }
+}
@@ -1,91 +1,217 @@
 package pharmacie.service;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.annotation.Transactional;
 
-import pharmacie.dao.MedicamentRepository;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.FournisseurRepository;
+import pharmacie.dao.MailEnAttenteRepository;
+import pharmacie.dao.NotificationReapproRepository;
+import pharmacie.dao.StockFaibleRepository;
 import pharmacie.entity.Fournisseur;
+import pharmacie.entity.MailEnAttente;
 import pharmacie.entity.Medicament;
-
+import pharmacie.entity.NotificationReappro;
+
+/**
+ * <pre>
+ * Réapprovisionnement : un mail par fournisseur pour les médicaments dont le stock
+ * est sous le niveau de réapprovisionnement.
+ * Les médicaments à traiter sont lus dans la file StockFaible, alimentée quand le stock
+ * passe sous le seuil (expédition, modification par l'API REST), et au démarrage
+ * par une lecture de la table medicament (StockFaibleRepository.signalerTous).
+ * Le coût d'un réapprovisionnement dépend du nombre de médicaments en rupture, pas de la taille du catalogue.
+ * Les mails sont enregistrés dans la table MailEnAttente, et envoyés en arrière-plan par ExpediteurMails.
+ * Pour chaque médicament, le mail propose une quantité à commander, calculée à partir de
+ * sa consommation (ConsommationMedicaments).
+ * </pre>
+ */
+@Slf4j
 @Service
+@RepositoryEventHandler
 public class ReapprovisionnementService {
 
-    private final MedicamentRepository medicamentRepository;
+    private final StockFaibleRepository stockFaibleRepository;
+    // Les mails ne sont pas envoyés pendant le traitement, ils sont mis en attente
+    private final MailEnAttenteRepository mailDao;
+    private final FournisseurRepository fournisseurDao;
+    // Le choix des fournisseurs à prévenir
+    private final AffectationFournisseurs affectation;
+    // Les fournisseurs déjà prévenus des ruptures en cours
+    private final NotificationReapproRepository notificationDao;
+    // La consommation des médicaments, pour la quantité à commander
+    private final ConsommationMedicaments consommation;
 
     private static final String NOM_ETUDIANT = "jonniaux.math";
 
-    // Config Mailgun récupérée depuis application.properties
-    @Value("${mailgun.api-key}")
-    private String mailgunApiKey;
+    public ReapprovisionnementService(StockFaibleRepository stockFaibleRepository, MailEnAttenteRepository mailDao,
+            FournisseurRepository fournisseurDao, AffectationFournisseurs affectation, NotificationReapproRepository notificationDao,
+            ConsommationMedicaments consommation) {
+        this.stockFaibleRepository = stockFaibleRepository;
+        this.notificationDao = notificationDao;
+        this.mailDao = mailDao;
+        this.fournisseurDao = fournisseurDao;
+        this.affectation = affectation;
+        this.consommation = consommation;
+    }
+
+    /**
+     * Au démarrage, la file est complétée par tous les médicaments sous le seuil
+     * (BD initialisée sans la file, signalements perdus...)
+     *
+     * @return le nombre de médicaments ajoutés à la file
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public int rattraper() {
+        int ajoutes = stockFaibleRepository.signalerTous();
+        log.info("Réapprovisionnement : {} médicaments ajoutés à la file au démarrage", ajoutes);
+        return ajoutes;
+    }
+
+    /**
+     * Un médicament modifié par l'API REST (stock, niveau de réapprovisionnement)
+     * entre dans la file s'il est sous le seuil, sa rupture est terminée s'il est au-dessus
+     */
+    @HandleAfterSave
+    @Transactional
+    public void signaler(Medicament medicament) {
+        stockFaibleRepository.signaler(List.of(medicament.getReference()));
+        // Ou la rupture est terminée
+        notificationDao.terminerRupture(medicament.getReference());
+    }
+
+    /**
+     * Vide la file des médicaments à réapprovisionner
+     *
+     * @return les médicaments de la file dont le stock est toujours sous le seuil,
+     * avec leur catégorie
+     */
+    @Transactional
+    public List<Medicament> medicamentsAReapprovisionner() {
+        var references = stockFaibleRepository.references();
+        if (references.isEmpty()) {
+            return List.of();
+        }
+        var medicaments = stockFaibleRepository.medicamentsAReapprovisionner(references);
+        // Seuls les médicaments lus sortent de la file, pas ceux signalés entre temps
+        stockFaibleRepository.retirer(references);
+        return medicaments;
+    }
 
-    @Value("${mailgun.domain}")
-    private String mailgunDomain;
+    /**
+     * Le résultat d'un réapprovisionnement
+     *
+     * @param medicaments le nombre de médicaments lus dans la file
+     * @param mails le nombre de mails mis en attente d'envoi
+     * @param fournisseurs le résultat pour chaque fournisseur prévenu
+     * @param message le compte-rendu
+     */
+    public record Bilan(int medicaments, int mails, List<ResultatFournisseur> fournisseurs, String message) {
+    }
 
-    @Value("${mailgun.from}")
-    private String mailgunFrom;
+    /**
+     * Le mail mis en attente pour un fournisseur
+     *
+     * @param fournisseurId la clé du fournisseur
+     * @param fournisseur le nom du fournisseur
+     * @param medicaments les noms des médicaments à réapprovisionner
+     * @param mailId la clé du mail (MailEnAttente), pour suivre son envoi
+     */
+    public record ResultatFournisseur(long fournisseurId, String fournisseur, List<String> medicaments, Long mailId) {
+    }
 
-    public ReapprovisionnementService(MedicamentRepository medicamentRepository) {
-        this.medicamentRepository = medicamentRepository;
+    /**
+     * Suivi d'un réapprovisionnement, appelé dans la transaction du traitement
+     */
+    @FunctionalInterface
+    public interface Avancement {
+        /**
+         * @param resultat le fournisseur qui vient d'être traité
+         * @param traites le nombre de fournisseurs traités
+         * @param total le nombre de fournisseurs à traiter
+         */
+        void fournisseurTraite(ResultatFournisseur resultat, int traites, int total);
     }
 
+    @Transactional
     public String processReapprovisionnement() {
+        return reapprovisionner().message();
+    }
+
+    @Transactional
+    public Bilan reapprovisionner() {
+        return reapprovisionner((resultat, traites, total) -> { });
+    }
 
-        List<Medicament> tousMedicaments = medicamentRepository.findAll();
-
-        // On filtre les médicaments dont le stock est en dessous du seuil de réappro
-        List<Medicament> aReappro = new ArrayList<>();
-        for (Medicament m : tousMedicaments) {
-            if (m.getNiveauDeReappro() != null && m.getUnitesEnStock() != null) {
-                if (m.getUnitesEnStock() < m.getNiveauDeReappro()) {
-                    aReappro.add(m);
-                    System.out.println("Stock faible pour : " + m.getNom()
-                            + " (stock=" + m.getUnitesEnStock() + ", seuil=" + m.getNiveauDeReappro() + ")");
-                }
+    /**
+     * <pre>
+     * Met en attente un mail par fournisseur pour les médicaments de la file dont le stock
+     * est toujours sous le seuil. Les fournisseurs sont choisis par AffectationFournisseurs
+     * (par défaut, le plus petit ensemble de fournisseurs qui couvre tous les médicaments).
+     * Un fournisseur n'est prévenu qu'une fois par rupture d'un médicament (NotificationReappro) :
+     * les exécutions suivantes n'envoient rien de nouveau tant que le stock n'est pas revenu au-dessus
+     * du seuil, puis redescendu.
+     * Une seule transaction : si le traitement échoue, les médicaments restent dans la file.
+     * </pre>
+     *
+     * @param avancement appelé après chaque fournisseur
+     */
+    @Transactional
+    public Bilan reapprovisionner(Avancement avancement) {
+        // Les ruptures terminées (stock revenu au-dessus du seuil)
+        notificationDao.terminerRuptures();
+
+        // On prend les médicaments de la file, dont le stock est en dessous du seuil de réappro
+        List<Medicament> aReappro = medicamentsAReapprovisionner();
+        if (log.isDebugEnabled()) {
+            for (Medicament m : aReappro) {
+                log.debug("Stock faible pour : {} (stock={}, seuil={})", m.getNom(), m.getUnitesEnStock(), m.getNiveauDeReappro());
             }
         }
 
         if (aReappro.isEmpty()) {
-            System.out.println("Aucun médicament à réapprovisionner !");
-            return "Aucun médicament à réapprovisionner.";
+            log.debug("Aucun médicament à réapprovisionner");
+            return new Bilan(0, 0, List.of(), "Aucun médicament à réapprovisionner.");
         }
 
-        // On groupe par fournisseur pour envoyer un seul mail par fournisseur
-        // On passe par la catégorie du médicament pour trouver ses fournisseurs
-        Map<Fournisseur, List<Medicament>> parFournisseur = new HashMap<>();
-
-        for (Medicament m : aReappro) {
-            Set<Fournisseur> fournisseurs = m.getCategorie().getFournisseurs();
-
-            if (fournisseurs == null || fournisseurs.isEmpty()) {
-                System.out.println("Pas de fournisseur pour le médicament : " + m.getNom());
-                continue;
-            }
+        var references = aReappro.stream().map(Medicament::getReference).toList();
+        // Les fournisseurs déjà prévenus de la rupture en cours, clé : (fournisseur, médicament)
+        Set<Long> dejaPrevenus = new HashSet<>();
+        notificationDao.findByMedicamentReferenceIn(references)
+                .forEach(n -> dejaPrevenus.add(AffectationFournisseurs.cle(n.getFournisseurId(), n.getMedicamentReference())));
 
-            for (Fournisseur f : fournisseurs) {
-                if (!parFournisseur.containsKey(f)) {
-                    parFournisseur.put(f, new ArrayList<>());
-                }
-                parFournisseur.get(f).add(m);
-            }
-        }
+        // On groupe par fournisseur pour envoyer un seul mail par fournisseur
+        // Les fournisseurs sont choisis parmi ceux de la catégorie de chaque médicament (table de routage)
+        Map<Long, List<Medicament>> parFournisseur = affectation.affecter(aReappro, dejaPrevenus);
+        List<NotificationReappro> notifications = new ArrayList<>();
+        parFournisseur.forEach((f, medicaments) ->
+                medicaments.forEach(m -> notifications.add(new NotificationReappro(m.getReference(), f))));
+        notificationDao.saveAll(notifications);
+        // La consommation des seuls médicaments en rupture
+        var previsions = consommation.previsions(references, LocalDate.now());
+        // Les fournisseurs concernés, en une seule requête
+        Map<Long, Fournisseur> fournisseurs = new HashMap<>();
+        fournisseurDao.findAllById(parFournisseur.keySet()).forEach(f -> fournisseurs.put(f.getId(), f));
 
         int nbMails = 0;
         StringBuilder resultat = new StringBuilder();
+        List<ResultatFournisseur> resultats = new ArrayList<>(parFournisseur.size());
 
-        for (Map.Entry<Fournisseur, List<Medicament>> entry : parFournisseur.entrySet()) {
-            Fournisseur fournisseur = entry.getKey();
+        for (Map.Entry<Long, List<Medicament>> entry : parFournisseur.entrySet()) {
+            Fournisseur fournisseur = fournisseurs.get(entry.getKey());
             List<Medicament> medicaments = entry.getValue();
 
             // En sandbox Mailgun, on envoie tout à notre seule adresse autorisée
@@ -99,6 +225,8 @@ public class ReapprovisionnementService {
                 contenuMail.append("- ").append(m.getNom())
                         .append(" (stock actuel : ").append(m.getUnitesEnStock())
                         .append(", seuil : ").append(m.getNiveauDeReappro())
+                        .append(", quantité suggérée : ")
+                        .append(consommation.quantiteACommander(m, previsions.get(m.getReference())))
                         .append(")\n");
             }
 
@@ -107,51 +235,21 @@ public class ReapprovisionnementService {
 
             String sujet = "Demande de réapprovisionnement - " + fournisseur.getNom();
 
-            try {
-                envoyerMailMailgun(emailDest, sujet, contenuMail.toString());
-                System.out.println("Mail envoyé via Mailgun à : " + emailDest);
-                nbMails++;
-
-            } catch (Exception e) {
-                // Fallback si Mailgun ne marche pas : on affiche le mail en console
-                System.out.println("=== ERREUR MAILGUN : " + e.getMessage() + " ===");
-                System.out.println("=== SIMULATION MAIL ===");
-                System.out.println("Destinataire : " + emailDest);
-                System.out.println("Sujet : " + sujet);
-                System.out.println("Contenu :");
-                System.out.println(contenuMail.toString());
-                System.out.println("=== FIN MAIL ===");
-                nbMails++;
-            }
+            // Le mail est envoyé en arrière-plan par ExpediteurMails
+            var mail = mailDao.save(new MailEnAttente(fournisseur.getId(), emailDest, sujet, contenuMail.toString()));
+            nbMails++;
 
-            resultat.append("Mail envoyé/simulé pour ").append(fournisseur.getNom())
+            resultat.append("Mail en attente d'envoi pour ").append(fournisseur.getNom())
                     .append(" (").append(medicaments.size()).append(" médicaments)\n");
+            var resultatFournisseur = new ResultatFournisseur(fournisseur.getId(), fournisseur.getNom(),
+                    medicaments.stream().map(Medicament::getNom).toList(), mail.getId());
+            resultats.add(resultatFournisseur);
+            avancement.fournisseurTraite(resultatFournisseur, resultats.size(), parFournisseur.size());
         }
 
-        String message = "Réapprovisionnement terminé. " + nbMails + " mail(s) envoyé(s)/simulé(s).";
-        System.out.println(message);
-
-        return resultat.toString() + "\n" + message;
-    }
-
-    // Envoie un mail via l'API HTTP de Mailgun
-    private void envoyerMailMailgun(String to, String subject, String text) {
-        RestTemplate restTemplate = new RestTemplate();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setBasicAuth("api", mailgunApiKey);
-        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-
-        MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
-        body.add("from", mailgunFrom);
-        body.add("to", to);
-        body.add("subject", subject);
-        body.add("text", text);
-
-        HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
+        String message = "Réapprovisionnement terminé. " + nbMails + " mail(s) en attente d'envoi.";
+        log.info(message);
 
-        String url = "https://api.mailgun.net/v3/" + mailgunDomain + "/messages";
-        String response = restTemplate.postForEntity(url, request, String.class).getBody();
-        System.out.println("Réponse Mailgun : " + response);
+        return new Bilan(aReappro.size(), nbMails, resultats, resultat.toString() + "\n" + message);
     }
 }
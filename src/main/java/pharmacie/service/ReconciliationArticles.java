@@ -0,0 +1,43 @@
+package pharmacie.service;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.DispensaireRepository;
+
+/**
+ * <pre>
+ * Recalcule le nombre d'articles expédiés à chaque dispensaire (Dispensaire.articlesExpedies)
+ * à partir des lignes des commandes expédiées, qui sont la référence.
+ * Le compteur est tenu à jour à chaque expédition, ce traitement corrige les écarts
+ * (modifications directes dans la BD, ancien schéma sans compteur...).
+ * Il est exécuté au démarrage, puis chaque nuit (pharmacie.dispensaire.reconciliation.cron)
+ * <pre>
+ */
+@Slf4j
+@Service
+public class ReconciliationArticles {
+    private final DispensaireRepository dispensaireDao;
+
+    public ReconciliationArticles(DispensaireRepository dispensaireDao) {
+        this.dispensaireDao = dispensaireDao;
+    }
+
+    /**
+     * @return le nombre de dispensaires dont le compteur a été corrigé
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${pharmacie.dispensaire.reconciliation.cron:0 15 2 * * *}")
+    @Transactional
+    public int reconcilier() {
+        int corriges = dispensaireDao.reconcilierArticlesExpedies();
+        if (corriges > 0) {
+            log.warn("Articles expédiés : {} dispensaires corrigés", corriges);
+        }
+        return corriges;
+    }
+}
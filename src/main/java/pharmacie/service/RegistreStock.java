@@ -0,0 +1,296 @@
+package pharmacie.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.entity.Medicament;
+
+/**
+ * <pre>
+ * Registre du stock en mémoire, optionnel (pharmacie.stock.registre.enabled=true).
+ * Pour chaque médicament (clé : Medicament.reference) on garde en mémoire
+ * unitesEnStock et unitesCommandees dans un compteur atomique :
+ * - les réservations (ajout de lignes) sont vérifiées sans accès à la BD,
+ *   et sans verrou sur l'enregistrement du médicament
+ * - les variations de unitesCommandees sont écrites en différé dans la BD,
+ *   par lots, à intervalle régulier ou dès que le lot est plein
+ * Reprise après arrêt brutal : unitesCommandees est recalculé au démarrage
+ * à partir des lignes des commandes non expédiées, qui sont la référence.
+ * Limite : l'indisponibilité d'un médicament modifiée directement dans la BD
+ * n'est vue qu'après rechargement du médicament (voir recharger).
+ * <pre>
+ */
+@Slf4j
+@Service
+@RepositoryEventHandler
+@ConditionalOnProperty(name = "pharmacie.stock.registre.enabled", havingValue = "true")
+public class RegistreStock {
+
+    // Lecture de l'état d'un médicament, unitesCommandees est recalculé à partir des lignes en cours
+    private static final String ETAT_MEDICAMENTS = """
+        SELECT m.reference, m.unites_en_stock, m.indisponible, COALESCE(e.unites, 0) AS commandees
+        FROM medicament m
+        LEFT JOIN (
+            SELECT l.medicament_reference AS reference, SUM(l.quantite) AS unites
+            FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.envoyeele IS NULL
+            GROUP BY l.medicament_reference
+        ) e ON e.reference = m.reference
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+    private final int intervalleMs;
+    private final int tailleLot;
+    // Les versions des médicaments, pour les requêtes conditionnelles HTTP
+    private final VersionsDonnees versions;
+
+    private final Map<Integer, Compteurs> compteurs = new ConcurrentHashMap<>();
+    // Variations de unitesCommandees pas encore écrites dans la BD
+    private final Map<Integer, AtomicInteger> enAttente = new ConcurrentHashMap<>();
+    private final AtomicInteger nbEnAttente = new AtomicInteger();
+    private final AtomicBoolean ecritureDemandee = new AtomicBoolean();
+    // Pas de synchronized : les écritures sont sérialisées par un verrou explicite
+    private final ReentrantLock verrouEcriture = new ReentrantLock();
+    private final ScheduledExecutorService ecrivain = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "registre-stock");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RegistreStock(JdbcTemplate jdbc, TransactionTemplate transaction,
+            @Value("${pharmacie.stock.registre.intervalle-ms:200}") int intervalleMs,
+            @Value("${pharmacie.stock.registre.taille-lot:500}") int tailleLot,
+            VersionsDonnees versions) {
+        this.jdbc = jdbc;
+        this.transaction = transaction;
+        this.intervalleMs = intervalleMs;
+        this.tailleLot = tailleLot;
+        this.versions = versions;
+    }
+
+    @PostConstruct
+    void demarrer() {
+        ecrivain.scheduleWithFixedDelay(this::ecrireSansErreur, intervalleMs, intervalleMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void arreter() {
+        ecrivain.shutdown();
+        ecrire();
+    }
+
+    /**
+     * Reconstruit le registre à partir de la BD (au démarrage, ou après une modification
+     * directe de la table Medicament, en l'absence de commandes en cours de saisie).
+     * Les compteurs unitesCommandees de la BD sont recalculés à partir des lignes
+     * des commandes en cours.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruire() {
+        verrouEcriture.lock();
+        try {
+            ecrire();
+            List<Object[]> corrections = new ArrayList<>();
+            jdbc.query(ETAT_MEDICAMENTS, rs -> {
+                int reference = rs.getInt("reference");
+                int commandees = rs.getInt("commandees");
+                compteurs.put(reference, new Compteurs(rs.getInt("unites_en_stock"), commandees, rs.getBoolean("indisponible")));
+                corrections.add(new Object[] { commandees, reference });
+            });
+            transaction.executeWithoutResult(status ->
+                jdbc.batchUpdate("UPDATE medicament SET unites_commandees = ? WHERE reference = ?", corrections));
+            versions.modifiees(VersionsDonnees.Donnees.MEDICAMENTS);
+            log.info("Registre du stock : {} médicaments chargés", compteurs.size());
+        } finally {
+            verrouEcriture.unlock();
+        }
+    }
+
+    /**
+     * Prend en compte un médicament modifié par l'API REST (indisponible, unitesEnStock).
+     * Les compteurs sont modifiés sur place : les réservations en cours (unitesCommandees) sont gardées.
+     */
+    @HandleAfterSave
+    public void recharger(Medicament medicament) {
+        var c = compteurs.get(medicament.getReference());
+        if (c != null) {
+            c.modifier(medicament.getUnitesEnStock(), medicament.isIndisponible());
+        }
+    }
+
+    /**
+     * Réserve des unités d'un médicament sans accès à la BD.
+     * Si la transaction courante est annulée, la réservation est annulée ;
+     * si elle est validée, la variation est écrite plus tard dans la BD.
+     *
+     * @return true si la réservation est faite, false si le stock est insuffisant
+     * ou si le médicament est indisponible
+     * @throws NoSuchElementException si le médicament n'existe pas
+     */
+    public boolean reserver(int reference, int quantite) {
+        var c = compteursDe(reference);
+        if (!c.reserver(quantite)) {
+            return false;
+        }
+        ApresValidation.executer(
+            () -> ajouterEnAttente(reference, quantite),
+            () -> c.ajouter(0, -quantite));
+        return true;
+    }
+
+    /**
+     * Libère des unités réservées, quand la transaction courante est validée
+     */
+    public void liberer(int reference, int quantite) {
+        var c = compteursDe(reference);
+        ApresValidation.executer(() -> {
+            c.ajouter(0, -quantite);
+            ajouterEnAttente(reference, -quantite);
+        }, null);
+    }
+
+    /**
+     * Prend en compte une expédition déjà écrite dans la BD par la transaction courante
+     */
+    public void expedier(int reference, int quantite) {
+        var c = compteursDe(reference);
+        ApresValidation.executer(() -> c.ajouter(-quantite, -quantite), null);
+    }
+
+    /**
+     * @return true si le médicament est connu du registre et marqué indisponible
+     */
+    public boolean estIndisponible(int reference) {
+        var c = compteurs.get(reference);
+        return c != null && c.indisponible;
+    }
+
+    /**
+     * Écrit dans la BD toutes les variations en attente, par lots JDBC
+     */
+    public void ecrire() {
+        verrouEcriture.lock();
+        try {
+            ecritureDemandee.set(false);
+            List<Object[]> lot = new ArrayList<>();
+            for (var entree : enAttente.entrySet()) {
+                int delta = entree.getValue().getAndSet(0);
+                if (delta != 0) {
+                    lot.add(new Object[] { delta, entree.getKey() });
+                }
+            }
+            if (lot.isEmpty()) {
+                return;
+            }
+            nbEnAttente.set(0);
+            try {
+                transaction.executeWithoutResult(status -> jdbc.batchUpdate(
+                    "UPDATE medicament SET unites_commandees = unites_commandees + ? WHERE reference = ?", lot));
+                versions.modifiees(VersionsDonnees.Donnees.MEDICAMENTS);
+            } catch (RuntimeException e) {
+                // On remet les variations en attente pour la prochaine écriture
+                lot.forEach(l -> ajouterEnAttente((Integer) l[1], (Integer) l[0]));
+                throw e;
+            }
+        } finally {
+            verrouEcriture.unlock();
+        }
+    }
+
+    private void ecrireSansErreur() {
+        try {
+            ecrire();
+        } catch (RuntimeException e) {
+            log.error("Registre du stock : échec de l'écriture différée", e);
+        }
+    }
+
+    private void ajouterEnAttente(int reference, int delta) {
+        enAttente.computeIfAbsent(reference, r -> new AtomicInteger()).addAndGet(delta);
+        // Lot plein : on demande une écriture sans attendre l'intervalle
+        if (nbEnAttente.incrementAndGet() >= tailleLot && ecritureDemandee.compareAndSet(false, true)) {
+            ecrivain.execute(this::ecrireSansErreur);
+        }
+    }
+
+    private Compteurs compteursDe(int reference) {
+        return compteurs.computeIfAbsent(reference, r -> {
+            var etats = jdbc.query(ETAT_MEDICAMENTS + " WHERE m.reference = ?",
+                (rs, i) -> new Compteurs(rs.getInt("unites_en_stock"), rs.getInt("commandees"), rs.getBoolean("indisponible")),
+                r);
+            if (etats.isEmpty()) {
+                throw new NoSuchElementException("Médicament inconnu : " + r);
+            }
+            return etats.get(0);
+        });
+    }
+
+    /**
+     * unitesEnStock (32 bits de poids fort) et unitesCommandees (32 bits de poids faible)
+     * dans un seul long, modifiés ensemble par compare-and-set
+     */
+    private static final class Compteurs {
+        private final AtomicLong etat;
+        private volatile boolean indisponible;
+
+        Compteurs(int stock, int commandees, boolean indisponible) {
+            this.etat = new AtomicLong(etat(stock, commandees));
+            this.indisponible = indisponible;
+        }
+
+        boolean reserver(int quantite) {
+            if (indisponible) {
+                return false;
+            }
+            while (true) {
+                long courant = etat.get();
+                int stock = (int) (courant >> 32);
+                int commandees = (int) courant;
+                if (stock < commandees + quantite) {
+                    return false;
+                }
+                if (etat.compareAndSet(courant, etat(stock, commandees + quantite))) {
+                    return true;
+                }
+            }
+        }
+
+        // unitesEnStock et indisponible lus dans la BD, unitesCommandees inchangé
+        void modifier(int stock, boolean indisponible) {
+            this.indisponible = indisponible;
+            etat.updateAndGet(courant -> etat(stock, (int) courant));
+        }
+
+        void ajouter(int deltaStock, int deltaCommandees) {
+            etat.updateAndGet(courant -> etat((int) (courant >> 32) + deltaStock, (int) courant + deltaCommandees));
+        }
+
+        private static long etat(int stock, int commandees) {
+            return ((long) stock << 32) | (commandees & 0xFFFFFFFFL);
+        }
+    }
+}
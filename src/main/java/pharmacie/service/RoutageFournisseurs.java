@@ -0,0 +1,77 @@
+package pharmacie.service;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.FournisseurRepository;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+/**
+ * <pre>
+ * Table de routage du réapprovisionnement : pour chaque catégorie (clé : Categorie.code),
+ * les clés des fournisseurs qui la fournissent.
+ * La table est construite en une seule requête, gardée en mémoire, et jamais modifiée :
+ * elle est reconstruite à la première utilisation après un changement de version des catégories
+ * ou des fournisseurs (VersionsDonnees), quel que soit l'auteur de la modification (API REST,
+ * services). Une modification faite par une autre instance n'est pas signalée : la table est
+ * alors reconstruite au plus tard après pharmacie.http.cache.duree-max-s, comme les étiquettes.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class RoutageFournisseurs {
+    private static final long[] AUCUN = {};
+    private static final Set<Donnees> DONNEES = EnumSet.of(Donnees.CATEGORIES, Donnees.FOURNISSEURS);
+
+    private final FournisseurRepository fournisseurDao;
+    private final VersionsDonnees versions;
+    private volatile Table table = new Table(null, Map.of());
+
+    public RoutageFournisseurs(FournisseurRepository fournisseurDao, VersionsDonnees versions) {
+        this.fournisseurDao = fournisseurDao;
+        this.versions = versions;
+    }
+
+    /**
+     * @param categorieCode la clé de la catégorie
+     * @return les clés des fournisseurs de la catégorie, par ordre croissant (ne pas modifier le tableau)
+     */
+    public long[] fournisseursPour(int categorieCode) {
+        return table().routes.getOrDefault(categorieCode, AUCUN);
+    }
+
+    private Table table() {
+        var courante = table;
+        // Lue avant les associations : une modification validée pendant la construction change la version
+        String v = versions.etat(DONNEES).etiquette();
+        if (v.equals(courante.version)) {
+            return courante;
+        }
+        Map<Integer, long[]> routes = new HashMap<>();
+        var associations = fournisseurDao.associationsCategorieFournisseur();
+        // Les associations sont triées par catégorie
+        int debut = 0;
+        for (int i = 1; i <= associations.size(); i++) {
+            if (i == associations.size() || !associations.get(i).getCategorie().equals(associations.get(debut).getCategorie())) {
+                long[] fournisseurs = new long[i - debut];
+                for (int j = debut; j < i; j++) {
+                    fournisseurs[j - debut] = associations.get(j).getFournisseur();
+                }
+                routes.put(associations.get(debut).getCategorie(), fournisseurs);
+                debut = i;
+            }
+        }
+        courante = new Table(v, Map.copyOf(routes));
+        table = courante;
+        log.info("Routage des fournisseurs : {} catégories, {} associations", routes.size(), associations.size());
+        return courante;
+    }
+
+    private record Table(String version, Map<Integer, long[]> routes) {
+    }
+}
@@ -0,0 +1,110 @@
+package pharmacie.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Réapprovisionnement planifié (pharmacie.reappro.cron), ou demandé par /api/reapprovisionnement (TravauxReapprovisionnement).
+ * Avec plusieurs instances de l'application, une seule exécute le réapprovisionnement :
+ * celle qui obtient le verrou "reapprovisionnement" dans la BD (VerrouBail).
+ * Le verrou ne couvre que la transaction qui met les mails en attente (MailEnAttente). Les envois
+ * (ExpediteurMails) sont faits par toutes les instances, sans ce verrou : chaque mail est réservé
+ * par une seule instance avant d'être envoyé. Un verrou unique ferait attendre tous les envois
+ * derrière une seule instance, et le bail devrait couvrir des envois de durée imprévisible.
+ * Métriques (cf. /actuator/metrics) :
+ * - pharmacie.reappro.duree : durée des exécutions
+ * - pharmacie.reappro.medicaments : nombre de médicaments lus dans la file
+ * - pharmacie.reappro.mails : nombre de mails mis en attente d'envoi
+ * - pharmacie.reappro.ignorees : exécutions abandonnées, le verrou est détenu ailleurs
+ * </pre>
+ */
+@Slf4j
+@Service
+public class TacheReapprovisionnement {
+    static final String VERROU = "reapprovisionnement";
+
+    private final ReapprovisionnementService reapproService;
+    private final VerrouBail verrous;
+    private final Duration bail;
+    // Dans cette instance, le traitement planifié et l'API REST ne s'exécutent pas en même temps
+    private final ReentrantLock enCours = new ReentrantLock();
+
+    private final Timer duree;
+    private final Counter medicaments;
+    private final Counter mails;
+    private final Counter ignorees;
+
+    public TacheReapprovisionnement(ReapprovisionnementService reapproService, VerrouBail verrous, MeterRegistry metriques,
+            @Value("${pharmacie.reappro.bail-ms:600000}") long bailMs) {
+        this.reapproService = reapproService;
+        this.verrous = verrous;
+        this.bail = Duration.ofMillis(bailMs);
+        this.duree = Timer.builder("pharmacie.reappro.duree")
+                .description("Durée des réapprovisionnements")
+                .register(metriques);
+        this.medicaments = Counter.builder("pharmacie.reappro.medicaments")
+                .description("Médicaments lus dans la file des stocks faibles")
+                .register(metriques);
+        this.mails = Counter.builder("pharmacie.reappro.mails")
+                .description("Mails de réapprovisionnement mis en attente d'envoi")
+                .register(metriques);
+        this.ignorees = Counter.builder("pharmacie.reappro.ignorees")
+                .description("Réapprovisionnements non exécutés, déjà en cours")
+                .register(metriques);
+    }
+
+    @Scheduled(cron = "${pharmacie.reappro.cron:0 */10 * * * *}")
+    public void planifiee() {
+        executer();
+    }
+
+    /**
+     * Exécute le réapprovisionnement, si aucune autre exécution n'est en cours (dans cette instance ou une autre)
+     *
+     * @return le bilan, vide si le réapprovisionnement est déjà en cours
+     */
+    public Optional<ReapprovisionnementService.Bilan> executer() {
+        return executer((resultat, traites, total) -> { });
+    }
+
+    /**
+     * Exécute le réapprovisionnement, si aucune autre exécution n'est en cours (dans cette instance ou une autre)
+     *
+     * @param avancement appelé après chaque fournisseur traité
+     * @return le bilan, vide si le réapprovisionnement est déjà en cours
+     */
+    public Optional<ReapprovisionnementService.Bilan> executer(ReapprovisionnementService.Avancement avancement) {
+        if (!enCours.tryLock()) {
+            ignorees.increment();
+            return Optional.empty();
+        }
+        try {
+            if (!verrous.prendre(VERROU, bail)) {
+                log.info("Réapprovisionnement en cours sur une autre instance");
+                ignorees.increment();
+                return Optional.empty();
+            }
+            try {
+                var bilan = duree.record(() -> reapproService.reapprovisionner(avancement));
+                medicaments.increment(bilan.medicaments());
+                mails.increment(bilan.mails());
+                return Optional.of(bilan);
+            } finally {
+                verrous.liberer(VERROU);
+            }
+        } finally {
+            enCours.unlock();
+        }
+    }
+}
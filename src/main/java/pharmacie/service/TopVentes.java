@@ -0,0 +1,535 @@
+package pharmacie.service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dto.MeilleureVenteDTO;
+import pharmacie.dto.TopVentesDTO;
+
+/**
+ * <pre>
+ * Les meilleures ventes (médicaments les plus commandés) des derniers jours, sans parcourir les lignes.
+ * Chaque jour (jour de saisie de la commande) a un résumé "Space-Saving" (Metwally, Agrawal, El Abbadi)
+ * de pharmacie.stats.top.compteurs compteurs pour les unités ajoutées, un autre pour les unités
+ * retirées (lignes supprimées ou diminuées). Ils sont tenus à jour par SuiviModificationsEntites
+ * (service des commandes et API REST) quand la transaction est validée ; les jours plus anciens que pharmacie.stats.top.jours sont oubliés.
+ *
+ * Bornes d'erreur, pour m compteurs : un compteur surestime les unités de son médicament d'au plus
+ * le plus petit compteur du jour quand il a été créé, qui est au plus U/m (U : unités ajoutées ce
+ * jour-là, la somme des compteurs). Un médicament sans compteur a au plus le plus petit compteur.
+ * Pour une période, les résumés des jours sont additionnés : les unités d'un médicament sont entre
+ * 'unites' - 'erreur' et 'unites', avec 'erreur' au plus (U + R) / m (U, R : unités ajoutées et
+ * retirées pendant la période) ; un médicament qui n'est pas candidat a vendu au plus 'seuil' <= U / m
+ * unités. Tout médicament qui a vendu plus que 'seuil' est donc candidat, et le classement est exact
+ * pour les médicaments dont les intervalles ne se chevauchent pas.
+ *
+ * Les compteurs sont sauvegardés dans la BD (CompteurTopVentes) toutes les
+ * pharmacie.stats.top.sauvegarde-ms et à l'arrêt : le démarrage les relit au lieu de parcourir les
+ * lignes. Sans sauvegarde (premier démarrage), ils sont calculés à partir des lignes de la fenêtre.
+ * Les ventes validées entre le démarrage du serveur et la lecture ne sont ni perdues ni comptées
+ * deux fois : les compteurs relus sont additionnés à celles qui n'ont pas été sauvegardées, les
+ * lignes sont lues sur un instantané (ApresValidation.lireSurInstantane) qui remplace les ventes
+ * validées avant lui.
+ * Les ventes validées depuis la dernière sauvegarde sont perdues si l'application s'arrête brutalement.
+ * Avec plusieurs instances, chacune ajoute aux compteurs de la BD les ventes qu'elle a enregistrées
+ * depuis sa dernière sauvegarde (les deux résumés sont additionnés, les compteurs du jour sont
+ * verrouillés pendant l'ajout), puis garde en mémoire le résultat : les ventes des autres instances
+ * sont vues à chaque sauvegarde d'un jour modifié.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class TopVentes {
+    private static final String COMPTEURS = """
+        SELECT jour, retrait, medicament_reference, unites, erreur, seuil FROM compteur_top_ventes WHERE jour >= ?
+        """;
+    // L'instantané de la lecture des lignes : une requête courte qui lit les tables de VENTES
+    private static final String INSTANTANE = "SELECT (SELECT MAX(id) FROM ligne), (SELECT MAX(numero) FROM commande)";
+    // Premier démarrage : les lignes de la fenêtre, les plus grandes ventes d'abord (erreurs les plus faibles)
+    private static final String VENTES = """
+        SELECT c.saisiele, l.medicament_reference, SUM(l.quantite) AS unites
+        FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+        WHERE c.saisiele >= ?
+        GROUP BY c.saisiele, l.medicament_reference
+        HAVING SUM(l.quantite) > 0
+        ORDER BY unites DESC
+        """;
+    // Les compteurs d'un jour, verrouillés jusqu'à la fin de la sauvegarde
+    private static final String COMPTEURS_JOUR = """
+        SELECT retrait, medicament_reference, unites, erreur, seuil FROM compteur_top_ventes WHERE jour = ? FOR UPDATE
+        """;
+    private static final String SUPPRIMER_JOUR = "DELETE FROM compteur_top_ventes WHERE jour = ?";
+    private static final String SUPPRIMER_ANCIENS = "DELETE FROM compteur_top_ventes WHERE jour < ?";
+    private static final String CREER = """
+        INSERT INTO compteur_top_ventes (jour, retrait, medicament_reference, unites, erreur, seuil) VALUES (?, ?, ?, ?, ?, ?)
+        """;
+    private static final String NOMS = "SELECT reference, nom FROM medicament WHERE reference IN (:references)";
+
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager transactions;
+    private final NamedParameterJdbcTemplate requetes;
+    private final int capacite;
+    private final int jours;
+    // Les résumés de chaque jour de la fenêtre (accès synchronisés)
+    private final TreeMap<LocalDate, Jour> parJour = new TreeMap<>();
+    private final ApresValidation<Vente> enAttente = new ApresValidation<>("Meilleures ventes", this::ajouter);
+    // Les sauvegardes terminées (validées ou annulées), pour savoir si l'une s'est terminée pendant une lecture
+    private long sauvegardes;
+    // Un seul chargement à la fois ; pas de synchronized pendant les lectures (threads virtuels)
+    private final ReentrantLock chargement = new ReentrantLock();
+
+    public TopVentes(JdbcTemplate jdbc, PlatformTransactionManager transactions,
+            @Value("${pharmacie.stats.top.compteurs:200}") int capacite,
+            @Value("${pharmacie.stats.top.jours:28}") int jours) {
+        this.jdbc = jdbc;
+        this.transactions = transactions;
+        this.requetes = jdbc == null ? null : new NamedParameterJdbcTemplate(jdbc);
+        this.capacite = capacite;
+        this.jours = jours;
+    }
+
+    /**
+     * Enregistre une vente, prise en compte quand la transaction courante est validée
+     * (immédiatement hors transaction)
+     *
+     * @param jour       le jour de saisie de la commande
+     * @param medicament la référence du médicament
+     * @param quantite   les unités vendues, négatives pour une ligne supprimée ou diminuée
+     */
+    public void enregistrer(LocalDate jour, int medicament, int quantite) {
+        enAttente.ajouter(new Vente(jour, medicament, quantite));
+    }
+
+    /**
+     * Les meilleures ventes des derniers jours
+     *
+     * @param nombre le nombre de médicaments (au plus le nombre de compteurs)
+     * @param periode le nombre de jours, jusqu'à aujourd'hui (au plus pharmacie.stats.top.jours)
+     * @return les médicaments par unités décroissantes
+     * @throws IllegalArgumentException si le nombre ou la période sont hors limites
+     */
+    public TopVentesDTO meilleures(int nombre, int periode) {
+        if (nombre <= 0 || nombre > capacite) {
+            throw new IllegalArgumentException("Le nombre de médicaments doit être entre 1 et " + capacite);
+        }
+        if (periode <= 0 || periode > jours) {
+            throw new IllegalArgumentException("La période doit être entre 1 et " + jours + " jours");
+        }
+        var au = LocalDate.now();
+        var du = au.minusDays(periode - 1L);
+        List<long[]> classement = new ArrayList<>();
+        long seuil = 0;
+        synchronized (this) {
+            var fenetre = parJour.subMap(du, true, au, true).values();
+            Set<Integer> candidats = new HashSet<>();
+            for (var j : fenetre) {
+                seuil += j.ajouts.borne();
+                candidats.addAll(j.ajouts.compteurs.keySet());
+            }
+            for (int reference : candidats) {
+                long max = 0;
+                long min = 0;
+                for (var j : fenetre) {
+                    max += j.ajouts.max(reference) - j.retraits.min(reference);
+                    min += j.ajouts.min(reference) - j.retraits.max(reference);
+                }
+                if (max > 0) {
+                    // Pas de médicament dont toutes les ventes ont été supprimées
+                    classement.add(new long[] { reference, max, max - Math.max(min, 0) });
+                }
+            }
+        }
+        // Par unités décroissantes, puis par erreur croissante
+        classement.sort(Comparator.<long[]>comparingLong(c -> -c[1]).thenComparingLong(c -> c[2]).thenComparingLong(c -> c[0]));
+        var meilleures = classement.subList(0, Math.min(nombre, classement.size()));
+        var noms = noms(meilleures.stream().map(c -> (int) c[0]).toList());
+        var medicaments = meilleures.stream()
+                .map(c -> new MeilleureVenteDTO((int) c[0], noms.get((int) c[0]), c[1], c[2]))
+                .toList();
+        return new TopVentesDTO(du, au, seuil, medicaments);
+    }
+
+    /**
+     * Lit les compteurs sauvegardés, ou les calcule à partir des lignes s'il n'y en a pas.
+     * Les ventes validées depuis le démarrage sont gardées : les compteurs relus leur sont ajoutés.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void charger() {
+        chargement.lock();
+        try {
+            var debut = LocalDate.now().minusDays(jours - 1L);
+            if (relire(debut)) {
+                return;
+            }
+            Map<LocalDate, Resume> calcules = enAttente.lireSurInstantane(transactions, jdbc, INSTANTANE,
+                    this::instantanePris, () -> {
+                        Map<LocalDate, Resume> lus = new TreeMap<>();
+                        jdbc.query(VENTES, rs -> {
+                            lus.computeIfAbsent(rs.getDate(1).toLocalDate(), d -> new Resume(capacite))
+                                    .ajouter(rs.getInt(2), rs.getLong(3));
+                        }, Date.valueOf(debut));
+                        return lus;
+                    });
+            synchronized (this) {
+                calcules.forEach((jour, ajouts) -> {
+                    // Avec les ventes validées après l'instantané
+                    var j = jour(jour);
+                    j.ajouts = Resume.fusionner(ajouts, j.ajouts, capacite);
+                    j.calcule = true;
+                });
+            }
+            log.info("Meilleures ventes : {} jours calculés à partir des lignes", calcules.size());
+        } finally {
+            chargement.unlock();
+        }
+    }
+
+    // Les compteurs sauvegardés, ajoutés aux ventes qui ne l'ont pas été ; false s'il n'y en a pas
+    private boolean relire(LocalDate debut) {
+        while (true) {
+            long avant;
+            synchronized (this) {
+                avant = sauvegardes;
+            }
+            Map<LocalDate, Jour> lus = new TreeMap<>();
+            jdbc.query(COMPTEURS, rs -> {
+                var jour = lus.computeIfAbsent(rs.getDate(1).toLocalDate(), d -> new Jour(capacite));
+                var resume = rs.getBoolean(2) ? jour.retraits : jour.ajouts;
+                resume.charger(rs.getInt(3), rs.getLong(4), rs.getLong(5), rs.getLong(6));
+            }, Date.valueOf(debut));
+            if (lus.isEmpty()) {
+                return false;
+            }
+            // Capacité réduite depuis la sauvegarde : les plus petits compteurs sont retirés
+            lus.values().forEach(j -> {
+                j.ajouts.reduire();
+                j.retraits.reduire();
+            });
+            synchronized (this) {
+                if (sauvegardes == avant) {
+                    lus.forEach((jour, lu) -> {
+                        // Les ventes enregistrées depuis la dernière sauvegarde ne sont pas dans la BD
+                        var j = jour(jour);
+                        j.ajouts = Resume.fusionner(lu.ajouts, j.nouveauxAjouts, capacite);
+                        j.retraits = Resume.fusionner(lu.retraits, j.nouveauxRetraits, capacite);
+                    });
+                    log.info("Meilleures ventes : {} jours relus", lus.size());
+                    return true;
+                }
+            }
+            // Une sauvegarde s'est terminée pendant la lecture : ses ventes ne sont peut-être pas dans les compteurs lus
+        }
+    }
+
+    // L'instantané de la lecture des lignes est pris : les ventes validées avant lui sont dans les lignes lues
+    private synchronized void instantanePris() {
+        parJour.clear();
+    }
+
+    /**
+     * Ajoute aux compteurs de la BD les ventes enregistrées depuis la dernière sauvegarde,
+     * oublie les jours sortis de la fenêtre.
+     * Appelée aussi à l'arrêt, par le bean (avec sa transaction) : pas par @PreDestroy.
+     */
+    @Scheduled(fixedDelayString = "${pharmacie.stats.top.sauvegarde-ms:60000}")
+    @EventListener(ContextClosedEvent.class)
+    @Transactional
+    public void sauvegarder() {
+        var debut = LocalDate.now().minusDays(jours - 1L);
+        Map<LocalDate, Jour> aEcrire = new TreeMap<>();
+        synchronized (this) {
+            parJour.headMap(debut).clear();
+            parJour.forEach((jour, j) -> {
+                if (j.calcule || !j.nouveauxAjouts.estVide() || !j.nouveauxRetraits.estVide()) {
+                    aEcrire.put(jour, j.extraire(capacite));
+                }
+            });
+        }
+        Map<LocalDate, Jour> ecrits = new TreeMap<>();
+        try {
+            jdbc.update(SUPPRIMER_ANCIENS, Date.valueOf(debut));
+            aEcrire.forEach((jour, e) -> {
+                var enBase = lire(jour);
+                Jour fusion;
+                if (enBase == null && e.calcule) {
+                    // Premier démarrage : les compteurs calculés à partir des lignes, avec les ventes depuis
+                    fusion = e;
+                } else {
+                    // Les lignes sont déjà comptées dans la BD (autre instance)
+                    var base = enBase == null ? new Jour(capacite) : enBase;
+                    fusion = new Jour(Resume.fusionner(base.ajouts, e.nouveauxAjouts, capacite),
+                            Resume.fusionner(base.retraits, e.nouveauxRetraits, capacite));
+                }
+                List<Object[]> lignes = new ArrayList<>();
+                fusion.ajouts.sauvegarder(jour, false, lignes);
+                fusion.retraits.sauvegarder(jour, true, lignes);
+                jdbc.update(SUPPRIMER_JOUR, Date.valueOf(jour));
+                jdbc.batchUpdate(CREER, lignes);
+                ecrits.put(jour, fusion);
+            });
+        } catch (RuntimeException e) {
+            // Les ventes seront ajoutées la prochaine fois
+            restaurer(aEcrire);
+            throw e;
+        }
+        ApresValidation.executer(() -> adopter(ecrits), () -> restaurer(aEcrire));
+        if (!aEcrire.isEmpty()) {
+            log.debug("Meilleures ventes : {} jours sauvegardés", aEcrire.size());
+        }
+    }
+
+    // Les compteurs d'un jour dans la BD, verrouillés ; null s'il n'y en a pas
+    private Jour lire(LocalDate jour) {
+        var lu = new Jour(capacite);
+        boolean[] trouve = { false };
+        jdbc.query(COMPTEURS_JOUR, rs -> {
+            var resume = rs.getBoolean(1) ? lu.retraits : lu.ajouts;
+            resume.charger(rs.getInt(2), rs.getLong(3), rs.getLong(4), rs.getLong(5));
+            trouve[0] = true;
+        }, Date.valueOf(jour));
+        if (!trouve[0]) {
+            return null;
+        }
+        lu.ajouts.reduire();
+        lu.retraits.reduire();
+        return lu;
+    }
+
+    // Sauvegarde validée : les compteurs de la BD (toutes les instances), avec les ventes enregistrées depuis
+    private synchronized void adopter(Map<LocalDate, Jour> ecrits) {
+        sauvegardes++;
+        ecrits.forEach((jour, fusion) -> {
+            var j = parJour.get(jour);
+            if (j != null) {
+                j.ajouts = Resume.fusionner(fusion.ajouts, j.nouveauxAjouts, capacite);
+                j.retraits = Resume.fusionner(fusion.retraits, j.nouveauxRetraits, capacite);
+            }
+        });
+    }
+
+    // Sauvegarde annulée : les ventes extraites seront ajoutées à la prochaine sauvegarde
+    private synchronized void restaurer(Map<LocalDate, Jour> aEcrire) {
+        sauvegardes++;
+        aEcrire.forEach((jour, e) -> {
+            var j = parJour.get(jour);
+            if (j != null) {
+                j.nouveauxAjouts = Resume.fusionner(e.nouveauxAjouts, j.nouveauxAjouts, capacite);
+                j.nouveauxRetraits = Resume.fusionner(e.nouveauxRetraits, j.nouveauxRetraits, capacite);
+                j.calcule |= e.calcule;
+            }
+        });
+    }
+
+    private synchronized void ajouter(List<Vente> ventes) {
+        // Les ventes d'un médicament dans une transaction sont cumulées
+        Map<LocalDate, Map<Integer, Integer>> cumulees = new HashMap<>();
+        ventes.forEach(v -> cumulees.computeIfAbsent(v.jour(), d -> new HashMap<>()).merge(v.medicament(), v.quantite(), Integer::sum));
+        var debut = LocalDate.now().minusDays(jours - 1L);
+        cumulees.forEach((jour, unitesParMedicament) -> {
+            if (jour.isBefore(debut)) {
+                // Commande saisie avant la fenêtre
+                return;
+            }
+            var j = jour(jour);
+            unitesParMedicament.forEach((reference, unites) -> {
+                if (unites > 0) {
+                    j.ajouts.ajouter(reference, unites);
+                    j.nouveauxAjouts.ajouter(reference, unites);
+                } else if (unites < 0) {
+                    j.retraits.ajouter(reference, -unites);
+                    j.nouveauxRetraits.ajouter(reference, -unites);
+                }
+            });
+        });
+    }
+
+    private Jour jour(LocalDate jour) {
+        return parJour.computeIfAbsent(jour, d -> new Jour(capacite));
+    }
+
+    private Map<Integer, String> noms(List<Integer> references) {
+        Map<Integer, String> noms = new HashMap<>();
+        if (!references.isEmpty()) {
+            requetes.query(NOMS, Map.of("references", references), rs -> {
+                noms.put(rs.getInt(1), rs.getString(2));
+            });
+        }
+        return noms;
+    }
+
+    /**
+     * Les résumés d'un jour (accès synchronisés par TopVentes)
+     */
+    private static final class Jour {
+        // Toutes les ventes : relues dans la BD, ou calculées à partir des lignes, et enregistrées depuis
+        Resume ajouts;
+        Resume retraits;
+        // Les ventes enregistrées par cette instance depuis la dernière sauvegarde
+        Resume nouveauxAjouts;
+        Resume nouveauxRetraits;
+        // Calculés à partir des lignes, pas encore sauvegardés
+        boolean calcule;
+
+        Jour(int capacite) {
+            this(new Resume(capacite), new Resume(capacite));
+        }
+
+        Jour(Resume ajouts, Resume retraits) {
+            this.ajouts = ajouts;
+            this.retraits = retraits;
+            this.nouveauxAjouts = new Resume(ajouts.capacite);
+            this.nouveauxRetraits = new Resume(retraits.capacite);
+        }
+
+        /**
+         * Extrait les ventes à sauvegarder : les ventes suivantes seront sauvegardées la prochaine fois
+         *
+         * @return les ventes enregistrées depuis la dernière sauvegarde, et toutes les ventes si elles ont été calculées
+         */
+        Jour extraire(int capacite) {
+            var extrait = calcule
+                    ? new Jour(Resume.fusionner(ajouts, new Resume(capacite), capacite),
+                            Resume.fusionner(retraits, new Resume(capacite), capacite))
+                    : new Jour(capacite);
+            extrait.nouveauxAjouts = nouveauxAjouts;
+            extrait.nouveauxRetraits = nouveauxRetraits;
+            extrait.calcule = calcule;
+            nouveauxAjouts = new Resume(capacite);
+            nouveauxRetraits = new Resume(capacite);
+            calcule = false;
+            return extrait;
+        }
+    }
+
+    /**
+     * Un compteur : les unités d'un médicament, surestimées d'au plus 'erreur'
+     */
+    // Une vente en attente de la validation de sa transaction
+    private record Vente(LocalDate jour, int medicament, int quantite) {
+    }
+
+    private record Compteur(int reference, long unites, long erreur) {
+    }
+
+    /**
+     * Résumé "Space-Saving" : au plus 'capacite' compteurs. Un médicament sans compteur remplace
+     * le plus petit compteur, dont il reprend la valeur (son erreur).
+     */
+    static final class Resume {
+        private final int capacite;
+        final Map<Integer, Compteur> compteurs = new HashMap<>();
+        // Les compteurs par unités croissantes : le premier est remplacé
+        private final TreeSet<Compteur> parUnites = new TreeSet<>(
+                Comparator.comparingLong(Compteur::unites).thenComparingInt(Compteur::reference));
+        // Borne relue dans la sauvegarde (capacité augmentée depuis)
+        private long plancher;
+
+        Resume(int capacite) {
+            this.capacite = capacite;
+        }
+
+        void ajouter(int reference, long unites) {
+            var compteur = compteurs.get(reference);
+            if (compteur != null) {
+                parUnites.remove(compteur);
+                mettre(new Compteur(reference, compteur.unites() + unites, compteur.erreur()));
+                return;
+            }
+            long borne = borne();
+            if (compteurs.size() == capacite) {
+                var plusPetit = parUnites.pollFirst();
+                compteurs.remove(plusPetit.reference());
+            }
+            mettre(new Compteur(reference, borne + unites, borne));
+        }
+
+        /**
+         * @return les unités au plus d'un médicament sans compteur
+         */
+        long borne() {
+            return compteurs.size() < capacite ? plancher : Math.max(plancher, parUnites.first().unites());
+        }
+
+        // Les unités d'un médicament sont entre min et max
+        long max(int reference) {
+            var compteur = compteurs.get(reference);
+            return compteur == null ? borne() : compteur.unites();
+        }
+
+        long min(int reference) {
+            var compteur = compteurs.get(reference);
+            return compteur == null ? 0 : compteur.unites() - compteur.erreur();
+        }
+
+        boolean estVide() {
+            return compteurs.isEmpty() && plancher == 0;
+        }
+
+        /**
+         * Additionne deux résumés (ventes de deux instances, ou de deux périodes) : un médicament a
+         * les unités des deux, la borne d'un résumé où il n'a pas de compteur ; un médicament sans
+         * compteur a au plus la somme des bornes.
+         *
+         * @return un nouveau résumé, au plus 'capacite' compteurs (les plus grands)
+         */
+        static Resume fusionner(Resume a, Resume b, int capacite) {
+            var fusion = new Resume(capacite);
+            Set<Integer> references = new HashSet<>(a.compteurs.keySet());
+            references.addAll(b.compteurs.keySet());
+            for (int reference : references) {
+                long max = a.max(reference) + b.max(reference);
+                fusion.mettre(new Compteur(reference, max, max - a.min(reference) - b.min(reference)));
+            }
+            fusion.plancher = a.borne() + b.borne();
+            fusion.reduire();
+            return fusion;
+        }
+
+        void charger(int reference, long unites, long erreur, long seuil) {
+            mettre(new Compteur(reference, unites, erreur));
+            plancher = Math.max(plancher, seuil);
+        }
+
+        void reduire() {
+            while (compteurs.size() > capacite) {
+                var plusPetit = parUnites.pollFirst();
+                compteurs.remove(plusPetit.reference());
+                plancher = Math.max(plancher, plusPetit.unites());
+            }
+        }
+
+        void sauvegarder(LocalDate jour, boolean retrait, List<Object[]> lignes) {
+            long seuil = borne();
+            for (var c : compteurs.values()) {
+                lignes.add(new Object[] { Date.valueOf(jour), retrait, c.reference(), c.unites(), c.erreur(), seuil });
+            }
+        }
+
+        private void mettre(Compteur compteur) {
+            compteurs.put(compteur.reference(), compteur);
+            parUnites.add(compteur);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package pharmacie.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.dao.MailEnAttenteRepository;
+import pharmacie.dto.ResultatFournisseurDTO;
+import pharmacie.dto.TravailReapproDTO;
+import pharmacie.entity.MailEnAttente;
+
+/**
+ * <pre>
+ * Réapprovisionnements demandés par l'API REST, exécutés en arrière-plan :
+ * - la demande renvoie tout de suite un travail (Travail), identifié par une clé
+ * - le traitement est exécuté par un thread dédié (TacheReapprovisionnement, avec son verrou dans la BD)
+ * - l'avancement et le résultat par fournisseur sont consultables (etat) ou suivis au fil de l'eau (abonner)
+ * Une demande faite pendant qu'un travail est en attente ou en cours renvoie ce travail :
+ * les demandes simultanées n'exécutent qu'un seul réapprovisionnement.
+ * Seuls les pharmacie.reappro.travaux.historique derniers travaux sont gardés en mémoire.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class TravauxReapprovisionnement {
+
+    public enum Statut {
+        EN_ATTENTE, EN_COURS, TERMINE, IGNORE, ECHEC;
+
+        /**
+         * @return true si le travail est terminé (avec succès ou non)
+         */
+        public boolean estFinal() {
+            return this != EN_ATTENTE && this != EN_COURS;
+        }
+    }
+
+    private final TacheReapprovisionnement tache;
+    private final MailEnAttenteRepository mailDao;
+    // Un seul thread : les travaux ne s'exécutent pas en même temps
+    private final ThreadPoolExecutor executeur = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                var thread = new Thread(r, "reapprovisionnement");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Un seul thread pour les événements envoyés aux abonnés : dans l'ordre, sans faire attendre le traitement
+    private final ExecutorService evenements = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "reapprovisionnement-evenements");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Les derniers travaux, du plus ancien au plus récent ; accès synchronisés
+    private final Map<String, Travail> travaux;
+    private Travail courant;
+
+    public TravauxReapprovisionnement(TacheReapprovisionnement tache, MailEnAttenteRepository mailDao,
+            @Value("${pharmacie.reappro.travaux.historique:50}") int historique) {
+        this.tache = tache;
+        this.mailDao = mailDao;
+        this.travaux = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Travail> plusAncien) {
+                return size() > historique;
+            }
+        };
+    }
+
+    @PreDestroy
+    void arreter() {
+        executeur.shutdown();
+        evenements.shutdown();
+    }
+
+    /**
+     * Demande un réapprovisionnement
+     *
+     * @return le travail soumis, ou le travail en attente ou en cours s'il y en a un
+     */
+    public synchronized Travail soumettre() {
+        if (courant != null && !courant.estTermine()) {
+            return courant;
+        }
+        var travail = new Travail(UUID.randomUUID().toString(), evenements, this::etat);
+        travaux.put(travail.getId(), travail);
+        courant = travail;
+        try {
+            executeur.execute(() -> executer(travail));
+        } catch (RejectedExecutionException e) {
+            travail.terminer(Statut.ECHEC, null, "Réapprovisionnement refusé : " + e.getMessage());
+        }
+        return travail;
+    }
+
+    /**
+     * @param id la clé du travail
+     * @return le travail
+     * @throws NoSuchElementException si le travail est inconnu (ou trop ancien)
+     */
+    public synchronized Travail travail(String id) {
+        var travail = travaux.get(id);
+        if (travail == null) {
+            throw new NoSuchElementException("Réapprovisionnement inconnu : " + id);
+        }
+        return travail;
+    }
+
+    /**
+     * L'état d'un travail, avec l'état de l'envoi des mails lu dans la BD
+     *
+     * @param id la clé du travail
+     * @throws NoSuchElementException si le travail est inconnu (ou trop ancien)
+     */
+    public TravailReapproDTO etat(String id) {
+        return etat(travail(id));
+    }
+
+    private TravailReapproDTO etat(Travail travail) {
+        List<Long> mailIds = travail.mailIds();
+        Map<Long, String> statutsMails = new HashMap<>();
+        if (travail.estTermine() && !mailIds.isEmpty()) {
+            // Les mails d'un travail en cours ne sont pas encore visibles dans la BD (transaction en cours)
+            for (MailEnAttente mail : mailDao.findAllById(mailIds)) {
+                statutsMails.put(mail.getId(), statutMail(mail));
+            }
+        }
+        return travail.enDTO(statutsMails);
+    }
+
+    private void executer(Travail travail) {
+        travail.demarrer();
+        try {
+            tache.executer(travail::fournisseurTraite).ifPresentOrElse(
+                bilan -> travail.terminer(Statut.TERMINE, bilan, bilan.message()),
+                () -> travail.terminer(Statut.IGNORE, null, "Réapprovisionnement déjà en cours (planifié, ou sur une autre instance)."));
+        } catch (RuntimeException e) {
+            log.error("Réapprovisionnement {} : échec", travail.getId(), e);
+            travail.terminer(Statut.ECHEC, null, "Échec du réapprovisionnement : " + e.getMessage());
+        }
+    }
+
+    private static String statutMail(MailEnAttente mail) {
+        if (mail.getEnvoyeLe() != null) {
+            return "ENVOYE";
+        }
+        return mail.isAbandonne() ? "ABANDONNE" : "EN_ATTENTE";
+    }
+
+    /**
+     * Un réapprovisionnement demandé par l'API REST.
+     * Modifié par le thread du traitement, lu par les threads des requêtes : accès synchronisés.
+     * Les abonnés sont prévenus à chaque changement (démarrage, fournisseur traité, fin) par le thread
+     * des événements : le traitement, et sa transaction, n'attendent pas un abonné lent.
+     * Chaque événement est l'état au moment du changement ; l'événement de fin a l'état de l'envoi
+     * des mails, lu dans la BD comme par etat().
+     */
+    public static final class Travail {
+        private final String id;
+        private final LocalDateTime soumisLe = LocalDateTime.now();
+        private LocalDateTime debuteLe;
+        private LocalDateTime termineLe;
+        private Statut statut = Statut.EN_ATTENTE;
+        private int traites;
+        private int aTraiter;
+        private int medicaments;
+        private int mails;
+        private final List<ReapprovisionnementService.ResultatFournisseur> fournisseurs = new ArrayList<>();
+        private String message;
+        private final List<Consumer<TravailReapproDTO>> abonnes = new CopyOnWriteArrayList<>();
+        private final Executor evenements;
+        private final Function<Travail, TravailReapproDTO> etatFinal;
+
+        Travail(String id, Executor evenements, Function<Travail, TravailReapproDTO> etatFinal) {
+            this.id = id;
+            this.evenements = evenements;
+            this.etatFinal = etatFinal;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public synchronized Statut getStatut() {
+            return statut;
+        }
+
+        public synchronized boolean estTermine() {
+            return statut.estFinal();
+        }
+
+        /**
+         * L'abonné reçoit l'état du travail à chaque changement, par le thread des événements.
+         *
+         * @return false si le travail est déjà terminé : l'abonné ne sera pas appelé
+         */
+        public synchronized boolean abonner(Consumer<TravailReapproDTO> abonne) {
+            if (estTermine()) {
+                return false;
+            }
+            abonnes.add(abonne);
+            return true;
+        }
+
+        public void desabonner(Consumer<TravailReapproDTO> abonne) {
+            abonnes.remove(abonne);
+        }
+
+        /**
+         * L'état du travail
+         *
+         * @param statutsMails l'état de l'envoi de chaque mail, clé : MailEnAttente.id
+         * (EN_ATTENTE pour un mail absent)
+         */
+        public synchronized TravailReapproDTO enDTO(Map<Long, String> statutsMails) {
+            var resultats = fournisseurs.stream()
+                    .map(r -> new ResultatFournisseurDTO(r.fournisseurId(), r.fournisseur(), r.medicaments(), r.mailId(),
+                            r.mailId() == null ? "EN_ATTENTE" : statutsMails.getOrDefault(r.mailId(), "EN_ATTENTE")))
+                    .toList();
+            return new TravailReapproDTO(id, statut.name(), soumisLe, debuteLe, termineLe, traites, aTraiter,
+                    medicaments, mails, resultats, message);
+        }
+
+        synchronized List<Long> mailIds() {
+            return fournisseurs.stream().map(ReapprovisionnementService.ResultatFournisseur::mailId).toList();
+        }
+
+        void demarrer() {
+            TravailReapproDTO etat;
+            synchronized (this) {
+                statut = Statut.EN_COURS;
+                debuteLe = LocalDateTime.now();
+                etat = enDTO(Map.of());
+            }
+            prevenir(() -> etat, false);
+        }
+
+        void fournisseurTraite(ReapprovisionnementService.ResultatFournisseur resultat, int traites, int total) {
+            TravailReapproDTO etat;
+            synchronized (this) {
+                fournisseurs.add(resultat);
+                this.traites = traites;
+                this.aTraiter = total;
+                // Les mails sont dans la transaction du traitement : pas encore d'état de l'envoi
+                etat = enDTO(Map.of());
+            }
+            prevenir(() -> etat, false);
+        }
+
+        void terminer(Statut fin, ReapprovisionnementService.Bilan bilan, String message) {
+            synchronized (this) {
+                if (bilan != null) {
+                    medicaments = bilan.medicaments();
+                    mails = bilan.mails();
+                    // Le résultat validé remplace l'avancement
+                    fournisseurs.clear();
+                    fournisseurs.addAll(bilan.fournisseurs());
+                    traites = aTraiter = bilan.fournisseurs().size();
+                } else {
+                    // Transaction annulée : aucun mail n'a été mis en attente
+                    fournisseurs.clear();
+                }
+                this.message = message;
+                this.statut = fin;
+                termineLe = LocalDateTime.now();
+            }
+            // Plus d'abonnement après la fin : les abonnés sont tous prévenus
+            prevenir(() -> etatFinal.apply(this), true);
+        }
+
+        private void prevenir(Supplier<TravailReapproDTO> etat, boolean fin) {
+            // Les abonnés au moment du changement : un abonné plus récent ne reçoit pas un état antérieur
+            var destinataires = List.copyOf(abonnes);
+            if (destinataires.isEmpty()) {
+                return;
+            }
+            try {
+                evenements.execute(() -> {
+                    var message = etat.get();
+                    for (var abonne : destinataires) {
+                        if (!abonnes.contains(abonne)) {
+                            // Désabonné entre-temps
+                            continue;
+                        }
+                        try {
+                            abonne.accept(message);
+                        } catch (RuntimeException e) {
+                            // Un abonné en erreur (ex: client déconnecté) n'interrompt pas les envois
+                            log.debug("Réapprovisionnement {} : abonné en erreur", id, e);
+                            abonnes.remove(abonne);
+                        }
+                    }
+                    if (fin) {
+                        abonnes.clear();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Arrêt de l'application
+                log.debug("Réapprovisionnement {} : événement non envoyé", id, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package pharmacie.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import lombok.extern.slf4j.Slf4j;
+import pharmacie.entity.Medicament;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+/**
+ * <pre>
+ * Les unités vendues de chaque médicament (VentesMedicament), pour les statistiques par catégorie.
+ * Le total est modifié par CommandeService dans la transaction qui ajoute ou supprime des lignes
+ * (UPDATE relatif, par lots JDBC).
+ * La vérification (au démarrage, puis chaque nuit : pharmacie.stats.verification.cron) recalcule
+ * les totaux à partir des lignes, qui sont la référence, et corrige les écarts (lignes modifiées
+ * directement dans la BD ou par l'API REST...). Au premier démarrage, elle remplit la table.
+ * </pre>
+ */
+@Slf4j
+@Service
+@RepositoryEventHandler
+public class VentesMedicaments {
+    private static final String AJOUTER = """
+        UPDATE ventes_medicament SET unites = unites + ? WHERE medicament_reference = ?
+        """;
+    private static final String CREER = """
+        INSERT INTO ventes_medicament (medicament_reference, unites) VALUES (?, ?)
+        """;
+    // Les médicaments dont le total est faux ou absent
+    private static final String ECARTS = """
+        SELECT m.reference, v.unites AS enregistrees, COALESCE(s.unites, 0) AS calculees
+        FROM medicament m
+        LEFT JOIN ventes_medicament v ON v.medicament_reference = m.reference
+        LEFT JOIN (
+            SELECT medicament_reference, SUM(quantite) AS unites FROM ligne GROUP BY medicament_reference
+        ) s ON s.medicament_reference = m.reference
+        WHERE v.unites IS NULL OR v.unites <> COALESCE(s.unites, 0)
+        """;
+    // Le total n'est corrigé que s'il n'a pas été modifié depuis sa lecture
+    private static final String CORRIGER = """
+        UPDATE ventes_medicament SET unites = ? WHERE medicament_reference = ? AND unites = ?
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final int tailleLot;
+    // Les versions des statistiques, pour les requêtes conditionnelles HTTP
+    private final VersionsDonnees versions;
+
+    public VentesMedicaments(JdbcTemplate jdbc, @Value("${pharmacie.stats.verification.taille-lot:1000}") int tailleLot,
+            VersionsDonnees versions) {
+        this.jdbc = jdbc;
+        this.tailleLot = tailleLot;
+        this.versions = versions;
+    }
+
+    /**
+     * Ajoute des unités vendues (négatives pour une suppression), dans la transaction courante
+     *
+     * @param unitesParMedicament les unités, clé : Medicament.reference
+     */
+    public void ajouter(Map<Integer, Integer> unitesParMedicament) {
+        if (unitesParMedicament.isEmpty()) {
+            return;
+        }
+        List<Object[]> lot = new ArrayList<>(unitesParMedicament.size());
+        unitesParMedicament.forEach((reference, unites) -> lot.add(new Object[] { unites, reference }));
+        int[] modifies = jdbc.batchUpdate(AJOUTER, lot);
+        // Les médicaments créés depuis la dernière vérification
+        List<Object[]> nouveaux = new ArrayList<>();
+        for (int i = 0; i < modifies.length; i++) {
+            if (modifies[i] == 0) {
+                nouveaux.add(new Object[] { lot.get(i)[1], lot.get(i)[0] });
+            }
+        }
+        jdbc.batchUpdate(CREER, nouveaux);
+        versions.modifiees(Donnees.VENTES);
+    }
+
+    public void ajouter(int reference, int unites) {
+        ajouter(Map.of(reference, unites));
+    }
+
+    /**
+     * Un médicament créé par l'API REST n'a encore rien vendu
+     */
+    @HandleAfterCreate
+    @Transactional
+    public void creer(Medicament medicament) {
+        ajouter(medicament.getReference(), 0);
+    }
+
+    /**
+     * Recalcule les totaux à partir des lignes et corrige les écarts, par lots JDBC
+     *
+     * @return le nombre de médicaments dont le total a été corrigé ou créé
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${pharmacie.stats.verification.cron:0 50 2 * * *}")
+    @Transactional
+    public int verifier() {
+        List<Object[]> corrections = new ArrayList<>();
+        List<Object[]> creations = new ArrayList<>();
+        int[] ecarts = { 0, 0 };
+        jdbc.query(con -> {
+            var ps = con.prepareStatement(ECARTS);
+            ps.setFetchSize(tailleLot);
+            return ps;
+        }, rs -> {
+            long enregistrees = rs.getLong("enregistrees");
+            if (rs.wasNull()) {
+                creations.add(new Object[] { rs.getInt("reference"), rs.getLong("calculees") });
+                ecarts[1]++;
+            } else {
+                corrections.add(new Object[] { rs.getLong("calculees"), rs.getInt("reference"), enregistrees });
+                ecarts[0]++;
+            }
+            if (creations.size() + corrections.size() >= tailleLot) {
+                ecrire(corrections, creations);
+            }
+        });
+        ecrire(corrections, creations);
+        if (ecarts[0] + ecarts[1] > 0) {
+            versions.modifiees(Donnees.VENTES);
+        }
+        if (ecarts[0] > 0) {
+            log.warn("Ventes par médicament : {} totaux corrigés", ecarts[0]);
+        }
+        if (ecarts[1] > 0) {
+            log.info("Ventes par médicament : {} totaux créés", ecarts[1]);
+        }
+        return ecarts[0] + ecarts[1];
+    }
+
+    private void ecrire(List<Object[]> corrections, List<Object[]> creations) {
+        jdbc.batchUpdate(CORRIGER, corrections);
+        jdbc.batchUpdate(CREER, creations);
+        corrections.clear();
+        creations.clear();
+    }
+}
@@ -0,0 +1,83 @@
+package pharmacie.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <pre>
+ * Verrous à durée limitée (bail) dans la BD (table verrou), pour qu'un traitement planifié
+ * ne soit exécuté que par une seule instance de l'application.
+ * Un traitement qui peut être partagé entre les instances réserve plutôt chaque ligne
+ * (ex: ExpediteurMails, MailEnAttente.reservePar).
+ * Si l'instance qui détient le verrou s'arrête sans le libérer, il est libre à l'expiration du bail :
+ * la durée du bail doit être plus longue que celle du traitement.
+ * Les dates sont celles de l'instance : les horloges des instances doivent être synchronisées.
+ * Chaque opération est validée dans sa propre transaction, même si elle est appelée dans une transaction.
+ * </pre>
+ */
+@Slf4j
+@Service
+public class VerrouBail {
+    private static final String PRENDRE = """
+        UPDATE verrou SET proprietaire = ?, expire_le = ?
+        WHERE nom = ? AND (expire_le < ? OR proprietaire = ?)
+        """;
+    private static final String CREER = """
+        INSERT INTO verrou (nom, proprietaire, expire_le)
+        SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM verrou WHERE nom = ?)
+        """;
+    private static final String LIBERER = """
+        UPDATE verrou SET expire_le = ? WHERE nom = ? AND proprietaire = ?
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+    // Identifie cette instance de l'application
+    private final String proprietaire = UUID.randomUUID().toString();
+
+    public VerrouBail(JdbcTemplate jdbc, PlatformTransactionManager transactions) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactions);
+        this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Prend le verrou s'il est libre (ou déjà détenu par cette instance), pour la durée du bail
+     *
+     * @param nom le nom du verrou
+     * @param bail la durée après laquelle le verrou est libéré s'il n'est pas libéré avant
+     * @return true si le verrou est pris, false s'il est détenu par une autre instance
+     */
+    public boolean prendre(String nom, Duration bail) {
+        var maintenant = LocalDateTime.now();
+        var expiration = maintenant.plus(bail);
+        try {
+            return transaction.execute(status ->
+                    jdbc.update(PRENDRE, proprietaire, expiration, nom, maintenant, proprietaire) == 1
+                    || jdbc.update(CREER, nom, proprietaire, expiration, nom) == 1);
+        } catch (DuplicateKeyException e) {
+            // Une autre instance a créé le verrou en même temps
+            log.debug("Verrou {} créé par une autre instance", nom);
+            return false;
+        }
+    }
+
+    /**
+     * Libère le verrou, s'il est détenu par cette instance
+     *
+     * @param nom le nom du verrou
+     */
+    public void liberer(String nom) {
+        transaction.executeWithoutResult(status -> jdbc.update(LIBERER, LocalDateTime.now(), nom, proprietaire));
+    }
+}
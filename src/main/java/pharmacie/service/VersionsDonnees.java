@@ -0,0 +1,103 @@
+package pharmacie.service;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <pre>
+ * Les versions des données lues par les clients qui interrogent l'API à intervalles réguliers
+ * (catalogue, statistiques), pour les requêtes conditionnelles HTTP (ETag, Last-Modified).
+ * Chaque modification incrémente un compteur en mémoire, après la validation de la transaction :
+ * une réponse lue avec la version courante (lue avant les données) est donc à jour ou sera
+ * invalidée par la modification en cours.
+ * Les modifications des entités sont signalées par SuiviModificationsEntites, les UPDATE
+ * directs (JPQL, JDBC) par les services qui les font.
+ * Les versions sont propres à chaque instance (un identifiant tiré au démarrage fait partie de
+ * l'étiquette). Une modification faite par une autre instance n'est pas vue : l'étiquette change
+ * aussi à chaque période de pharmacie.http.cache.duree-max-s (30 secondes par défaut), la durée
+ * maximum pendant laquelle un client peut garder une réponse périmée. 0 supprime cette limite :
+ * seulement avec une seule instance.
+ * </pre>
+ */
+@Service
+public class VersionsDonnees {
+    /**
+     * Les données suivies
+     */
+    public enum Donnees {
+        CATEGORIES, MEDICAMENTS, FOURNISSEURS, VENTES
+    }
+
+    /**
+     * L'état de données lues par une requête
+     *
+     * @param etiquette l'étiquette (ETag) : change à chaque modification
+     * @param derniereModification la date de la dernière modification (millisecondes)
+     */
+    public record Etat(String etiquette, long derniereModification) {
+    }
+
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final long demarrage = System.currentTimeMillis();
+    private final long dureeMaxMs;
+    private final AtomicLongArray versions = new AtomicLongArray(Donnees.values().length);
+    private final AtomicLongArray modifieesLe = new AtomicLongArray(Donnees.values().length);
+
+    public VersionsDonnees(@Value("${pharmacie.http.cache.duree-max-s:30}") int dureeMaxS) {
+        this.dureeMaxMs = dureeMaxS * 1000L;
+    }
+
+    /**
+     * Signale une modification, prise en compte quand la transaction courante est validée
+     * (immédiatement hors transaction)
+     *
+     * @param donnees les données modifiées
+     */
+    public void modifiees(Donnees... donnees) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    incrementer(donnees);
+                }
+            });
+        } else {
+            incrementer(donnees);
+        }
+    }
+
+    /**
+     * @param donnees les données lues par une requête
+     * @return l'état courant de ces données
+     */
+    public Etat etat(Set<Donnees> donnees) {
+        long version = 0;
+        long derniere = demarrage;
+        for (var d : donnees) {
+            // Chaque compteur ne fait que croître : la somme change à chaque modification
+            version += versions.get(d.ordinal());
+            derniere = Math.max(derniere, modifieesLe.get(d.ordinal()));
+        }
+        String etiquette = instance + "-" + Long.toHexString(version);
+        if (dureeMaxMs > 0) {
+            long periode = System.currentTimeMillis() / dureeMaxMs;
+            etiquette += "-" + Long.toHexString(periode);
+            derniere = Math.max(derniere, periode * dureeMaxMs);
+        }
+        return new Etat(etiquette, derniere);
+    }
+
+    private void incrementer(Donnees... donnees) {
+        long maintenant = System.currentTimeMillis();
+        for (var d : donnees) {
+            modifieesLe.accumulateAndGet(d.ordinal(), maintenant, Math::max);
+            versions.incrementAndGet(d.ordinal());
+        }
+    }
+}
@@ -208,3 +208,9 @@ INSERT INTO LIGNE (COMMANDE_NUMERO, MEDICAMENT_REFERENCE, QUANTITE) VALUES
 (6, 6, 110), (6, 16, 65), (6, 26, 85), (6, 36, 60), (6, 91, 70),
 (7, 7, 80), (7, 17, 50), (7, 27, 95), (7, 37, 55), (7, 100, 45),
 (8, 8, 100), (8, 18, 75), (8, 28, 80), (8, 38, 70), (8, 48, 60);
+
+-- Le nombre d'articles expédiés à chaque dispensaire (pour la remise)
+UPDATE DISPENSAIRE d SET ARTICLES_EXPEDIES = (
+    SELECT COALESCE(SUM(l.QUANTITE), 0)
+    FROM LIGNE l JOIN COMMANDE c ON c.NUMERO = l.COMMANDE_NUMERO
+    WHERE c.DISPENSAIRE_CODE = d.CODE AND c.ENVOYEELE IS NOT NULL);
@@ -264,3 +264,9 @@ INSERT INTO LIGNE (COMMANDE_NUMERO, MEDICAMENT_REFERENCE, QUANTITE) VALUES
 (8, 28, 80),  -- Céfixime 200mg
 (8, 38, 70),  -- Bisoprolol 5mg
 (8, 48, 60);  -- Insuline Rapide
+
+-- Le nombre d'articles expédiés à chaque dispensaire (pour la remise)
+UPDATE DISPENSAIRE d SET ARTICLES_EXPEDIES = (
+    SELECT COALESCE(SUM(l.QUANTITE), 0)
+    FROM LIGNE l JOIN COMMANDE c ON c.NUMERO = l.COMMANDE_NUMERO
+    WHERE c.DISPENSAIRE_CODE = d.CODE AND c.ENVOYEELE IS NOT NULL);
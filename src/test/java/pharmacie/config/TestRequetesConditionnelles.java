@@ -0,0 +1,128 @@
+package pharmacie.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import jakarta.persistence.EntityManagerFactory;
+import pharmacie.dao.CategorieRepository;
+import pharmacie.entity.Categorie;
+import pharmacie.service.CubeVentes;
+import pharmacie.service.DispensairesDistincts;
+import pharmacie.service.FaitsVentes;
+import pharmacie.service.TopVentes;
+import pharmacie.service.VersionsDonnees;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie les requêtes conditionnelles HTTP :
+ * - un client qui a la version courante reçoit 304, sans appel du contrôleur
+ * - une modification des entités change l'étiquette, après la validation de la transaction
+ * - les chemins concernés et les données qu'ils lisent
+ */
+@DataJpaTest
+class TestRequetesConditionnelles {
+    // Le suivi des entités est ajouté une seule fois aux événements d'Hibernate (contexte partagé par les tests)
+    private static VersionsDonnees versions;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private CategorieRepository categorieRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private RequetesConditionnelles filtre;
+
+    @BeforeEach
+    void setUp() {
+        if (versions == null) {
+            versions = new VersionsDonnees(0);
+            // Le cube et les faits ne sont pas construits : ils ignorent les lignes
+            new SuiviModificationsEntites(entityManagerFactory, versions, new CubeVentes(null, null, 1000),
+                    new FaitsVentes(null, null, 1000), new TopVentes(null, null, 100, 28),
+                    new DispensairesDistincts(null, 10)).enregistrer();
+        }
+        filtre = new RequetesConditionnelles(versions);
+    }
+
+    @Test
+    void unClientAJourRecoit304SansAppelDuControleur() throws Exception {
+        var premiere = executer("/api/simple/list", null);
+        String etiquette = premiere.response().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etiquette);
+        assertNotNull(premiere.chaine().getRequest(), "La première requête est transmise au contrôleur");
+
+        var seconde = executer("/api/simple/list", etiquette);
+
+        assertEquals(304, seconde.response().getStatus());
+        assertEquals(etiquette, seconde.response().getHeader(HttpHeaders.ETAG));
+        assertNull(seconde.chaine().getRequest(), "Le contrôleur n'est pas appelé");
+    }
+
+    @Test
+    void uneModificationValideeChangeLEtiquette() throws Exception {
+        String catalogue = executer("/api/categories", null).response().getHeader(HttpHeaders.ETAG);
+        String stats = executer("/api/stats/unitesCommandeesPourCategorie/1", null).response().getHeader(HttpHeaders.ETAG);
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            nouvelle.executeWithoutResult(status -> {
+                categorieRepository.saveAndFlush(new Categorie("Catégorie du test"));
+                assertEquals(304, executerSansErreur("/api/categories", catalogue).getStatus(),
+                        "La modification n'est pas encore validée");
+            });
+
+            assertEquals(200, executer("/api/categories", catalogue).response().getStatus());
+            assertEquals(304, executer("/api/stats/unitesCommandeesPourCategorie/1", stats).response().getStatus(),
+                    "Les statistiques ne dépendent pas des catégories");
+        } finally {
+            nouvelle.executeWithoutResult(status ->
+                    categorieRepository.delete(categorieRepository.findByLibelle("Catégorie du test")));
+        }
+    }
+
+    @Test
+    void lesCheminsConcernes() {
+        assertEquals(EnumSet.of(Donnees.VENTES), RequetesConditionnelles.donneesLues("/api/stats/unitesCommandeesPourCategorieV2/2"));
+        assertEquals(EnumSet.of(Donnees.MEDICAMENTS), RequetesConditionnelles.donneesLues("/api/medicaments/3"));
+        assertEquals(EnumSet.of(Donnees.CATEGORIES, Donnees.FOURNISSEURS),
+                RequetesConditionnelles.donneesLues("/api/categories/1/fournisseurs"));
+        assertNull(RequetesConditionnelles.donneesLues("/api/medicaments/3/lignes"));
+        assertNull(RequetesConditionnelles.donneesLues("/api/commandes"));
+        assertNull(RequetesConditionnelles.donneesLues("/api/simple/combien"));
+    }
+
+    private record Echange(MockHttpServletResponse response, MockFilterChain chaine) {
+    }
+
+    private Echange executer(String chemin, String etiquette) throws Exception {
+        var request = new MockHttpServletRequest("GET", chemin);
+        if (etiquette != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, etiquette);
+        }
+        var response = new MockHttpServletResponse();
+        var chaine = new MockFilterChain();
+        filtre.doFilter(request, response, chaine);
+        return new Echange(response, chaine);
+    }
+
+    private MockHttpServletResponse executerSansErreur(String chemin, String etiquette) {
+        try {
+            return executer(chemin, etiquette).response();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
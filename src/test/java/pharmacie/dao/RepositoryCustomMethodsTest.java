@@ -309,6 +309,17 @@ class RepositoryCustomMethodsTest {
         c.setDispensaire(d);
         c = commandeRepository.saveAndFlush(c);
 
+        // Une ligne d'un médicament de plus grande référence, saisie avant l'autre
+        Medicament m2 = new Medicament();
+        m2.setNom("LigneMed2");
+        m2.setCategorie(cat);
+        m2 = medicamentRepository.saveAndFlush(m2);
+        Ligne l2 = new Ligne();
+        l2.setCommande(c);
+        l2.setMedicament(m2);
+        l2.setQuantite(7);
+        ligneRepository.saveAndFlush(l2);
+
         Ligne l = new Ligne();
         l.setCommande(c);
         l.setMedicament(m);
@@ -319,5 +330,11 @@ class RepositoryCustomMethodsTest {
         Optional<Ligne> found = ligneRepository.findByCommandeAndMedicament(c, m);
         assertTrue(found.isPresent());
         assertEquals(99, found.get().getQuantite());
+
+        // quantitesPour : triées par référence de médicament (ordre de verrouillage de l'expédition)
+        var quantites = ligneRepository.quantitesPour(c.getNumero());
+        assertEquals(List.of(m.getReference(), m2.getReference()),
+                quantites.stream().map(q -> q.getReference()).toList());
+        assertEquals(List.of(99, 7), quantites.stream().map(q -> q.getQuantite()).toList());
     }
 }
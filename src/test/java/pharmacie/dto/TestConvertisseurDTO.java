@@ -0,0 +1,48 @@
+package pharmacie.dto;
+
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import pharmacie.dao.CommandeRepository;
+import pharmacie.dao.DispensaireRepository;
+import pharmacie.entity.Commande;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie que la conversion explicite des entités en DTO
+ * donne les mêmes DTO que ModelMapper, pour toutes les commandes de data.sql
+ */
+@DataJpaTest
+class TestConvertisseurDTO {
+
+    @Autowired
+    private CommandeRepository commandeRepository;
+    @Autowired
+    private DispensaireRepository dispensaireRepository;
+
+    private final ConvertisseurDTO convertisseur = new ConvertisseurDTO();
+    private final ModelMapper modelMapper = new ModelMapper();
+
+    @Test
+    void memesCommandesQueModelMapper() {
+        for (Commande commande : commandeRepository.findAll()) {
+            assertEquals(modelMapper.map(commande, CommandeDTO.class), convertisseur.commande(commande));
+            assertEquals(modelMapper.map(commande, EnTeteCommandeDTO.class), convertisseur.enTete(commande));
+            for (var ligne : commande.getLignes()) {
+                assertEquals(modelMapper.map(ligne, LigneDTO.class), convertisseur.ligne(ligne));
+            }
+        }
+    }
+
+    @Test
+    void commandeSansLigne() {
+        var commande = new Commande(dispensaireRepository.findById("DSP01").orElseThrow());
+
+        var dto = convertisseur.commande(commande);
+
+        assertEquals(modelMapper.map(commande, CommandeDTO.class), dto);
+        assertTrue(dto.getLignes().isEmpty());
+    }
+}
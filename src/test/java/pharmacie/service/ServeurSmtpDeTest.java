@@ -0,0 +1,80 @@
+package pharmacie.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Un serveur SMTP minimal pour les tests : il accepte tous les mails et garde leur contenu
+ * (en-têtes et corps, tels que reçus après DATA)
+ */
+class ServeurSmtpDeTest implements AutoCloseable {
+    private final ServerSocket socket;
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+
+    ServeurSmtpDeTest() throws IOException {
+        socket = new ServerSocket(0);
+        var thread = new Thread(this::accepter, "smtp-de-test");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    List<String> messages() {
+        return messages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void accepter() {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                dialoguer(client);
+            } catch (IOException e) {
+                // Serveur fermé, ou client déconnecté
+            }
+        }
+    }
+
+    private void dialoguer(Socket client) throws IOException {
+        var entree = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        var sortie = new PrintWriter(client.getOutputStream(), true, StandardCharsets.UTF_8);
+        repondre(sortie, "220 localhost SMTP de test");
+        String ligne;
+        while ((ligne = entree.readLine()) != null) {
+            var commande = ligne.toUpperCase();
+            if (commande.startsWith("DATA")) {
+                repondre(sortie, "354 Fin des données par <CRLF>.<CRLF>");
+                var message = new StringBuilder();
+                while ((ligne = entree.readLine()) != null && !ligne.equals(".")) {
+                    message.append(ligne).append('\n');
+                }
+                messages.add(message.toString());
+                repondre(sortie, "250 OK");
+            } else if (commande.startsWith("QUIT")) {
+                repondre(sortie, "221 Au revoir");
+                return;
+            } else {
+                // EHLO, HELO, MAIL FROM, RCPT TO, RSET, NOOP...
+                repondre(sortie, "250 OK");
+            }
+        }
+    }
+
+    private static void repondre(PrintWriter sortie, String reponse) {
+        sortie.print(reponse + "\r\n");
+        sortie.flush();
+    }
+}
@@ -0,0 +1,73 @@
+package pharmacie.service;
+
+import java.util.Optional;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pharmacie.dao.CommandeRepository;
+import pharmacie.dao.DispensaireRepository;
+import pharmacie.dao.FournisseurRepository;
+import pharmacie.dao.LigneRepository;
+import pharmacie.dao.MailEnAttenteRepository;
+import pharmacie.dao.MedicamentRepository;
+import pharmacie.dao.NotificationReapproRepository;
+import pharmacie.dao.StockFaibleRepository;
+
+/**
+ * Les services construits pour les tests, avec les repositories et le JdbcTemplate du contexte
+ * @DataJpaTest (qui ne crée pas les services : @Import provoquerait un conflit de contexte Spring).
+ * Les paramètres sont ceux de application.properties.
+ */
+class ServicesDeTest {
+    private final ApplicationContext contexte;
+    private final JdbcTemplate jdbc;
+
+    ServicesDeTest(ApplicationContext contexte) {
+        this.contexte = contexte;
+        this.jdbc = contexte.getBean(JdbcTemplate.class);
+    }
+
+    ConsommationMedicaments consommation() {
+        return new ConsommationMedicaments(jdbc, 0.1, 90, 30);
+    }
+
+    VentesMedicaments ventes() {
+        return new VentesMedicaments(jdbc, 1000, new VersionsDonnees(0));
+    }
+
+    CommandeService commandeService() {
+        return commandeService(Optional.empty(), consommation());
+    }
+
+    CommandeService commandeService(VentesMedicaments ventes) {
+        return commandeService(Optional.empty(), consommation(), ventes);
+    }
+
+    CommandeService commandeService(RegistreStock registre) {
+        return commandeService(Optional.of(registre), consommation());
+    }
+
+    CommandeService commandeService(Optional<RegistreStock> registre, ConsommationMedicaments consommation) {
+        return commandeService(registre, consommation, ventes());
+    }
+
+    CommandeService commandeService(Optional<RegistreStock> registre, ConsommationMedicaments consommation,
+            VentesMedicaments ventes) {
+        return new CommandeService(contexte.getBean(CommandeRepository.class), contexte.getBean(DispensaireRepository.class),
+                contexte.getBean(LigneRepository.class), contexte.getBean(MedicamentRepository.class), jdbc, registre,
+                consommation, ventes, new VersionsDonnees(0));
+    }
+
+    ReapprovisionnementService reapprovisionnement(AffectationFournisseurs.Mode mode) {
+        return reapprovisionnement(mode, consommation());
+    }
+
+    ReapprovisionnementService reapprovisionnement(AffectationFournisseurs.Mode mode, ConsommationMedicaments consommation) {
+        var fournisseurs = contexte.getBean(FournisseurRepository.class);
+        return new ReapprovisionnementService(contexte.getBean(StockFaibleRepository.class),
+                contexte.getBean(MailEnAttenteRepository.class), fournisseurs,
+                new AffectationFournisseurs(new RoutageFournisseurs(fournisseurs, new VersionsDonnees(0)), mode),
+                contexte.getBean(NotificationReapproRepository.class), consommation);
+    }
+}
@@ -0,0 +1,81 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import jakarta.persistence.EntityManager;
+import pharmacie.dao.MedicamentRepository;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie l'audit du stock :
+ * - les compteurs unitesCommandees faux sont corrigés à partir des lignes des commandes en cours
+ * - les corrections sont écrites par lots
+ * - avec le registre du stock, les écarts sont seulement signalés
+ */
+@DataJpaTest
+class TestAuditStock {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private MedicamentRepository medicamentRepository;
+
+    @Test
+    void lesCompteursFauxSontCorriges() {
+        // Lots de 2 : plusieurs lots, et des lectures par blocs de 2
+        var audit = new AuditStock(jdbc, entityManager, Optional.empty(), 2, new VersionsDonnees(0));
+        audit.auditer();
+        int medicaments = medicamentRepository.findAll().size();
+        var avant = medicamentRepository.findById(1).orElseThrow().getUnitesCommandees();
+        jdbc.update("UPDATE medicament SET unites_commandees = unites_commandees + 7 WHERE reference IN (1, 3, 5)");
+        jdbc.update("UPDATE medicament SET unites_commandees = 1000 WHERE reference = ?", sansLigneEnCours());
+
+        var bilan = audit.auditer();
+
+        assertEquals(new AuditStock.Bilan(medicaments, 4, 4), bilan);
+        assertEquals(0, ecarts());
+        assertEquals(avant, medicamentRepository.findById(1).orElseThrow().getUnitesCommandees(),
+                "Le contexte de persistance est vidé après les corrections");
+        assertEquals(new AuditStock.Bilan(medicaments, 0, 0), audit.auditer());
+    }
+
+    @Test
+    void avecLeRegistreLesEcartsSontSeulementSignales() {
+        new AuditStock(jdbc, entityManager, Optional.empty(), 100, new VersionsDonnees(0)).auditer();
+        var registre = new RegistreStock(jdbc, null, Integer.MAX_VALUE, Integer.MAX_VALUE, new VersionsDonnees(0));
+        var audit = new AuditStock(jdbc, entityManager, Optional.of(registre), 100, new VersionsDonnees(0));
+        jdbc.update("UPDATE medicament SET unites_commandees = unites_commandees + 1 WHERE reference = 2");
+
+        var bilan = audit.auditer();
+
+        assertEquals(1, bilan.ecarts());
+        assertEquals(0, bilan.corriges());
+        assertEquals(1, ecarts());
+    }
+
+    // Le nombre de médicaments dont le compteur est différent de la somme des lignes en cours
+    private int ecarts() {
+        return jdbc.queryForObject("""
+            SELECT COUNT(*) FROM medicament m WHERE m.unites_commandees <> (
+                SELECT COALESCE(SUM(l.quantite), 0) FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+                WHERE c.envoyeele IS NULL AND l.medicament_reference = m.reference)
+            """, Integer.class);
+    }
+
+    // Un médicament qui n'est dans aucune commande en cours
+    private int sansLigneEnCours() {
+        return jdbc.queryForObject("""
+            SELECT MIN(m.reference) FROM medicament m WHERE NOT EXISTS (
+                SELECT 1 FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+                WHERE c.envoyeele IS NULL AND l.medicament_reference = m.reference)
+            AND m.reference NOT IN (1, 3, 5)
+            """, Integer.class);
+    }
+}
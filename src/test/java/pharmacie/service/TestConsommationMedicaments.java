@@ -0,0 +1,134 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pharmacie.dao.*;
+import pharmacie.entity.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie le calcul de la consommation des médicaments :
+ * - mise à jour incrémentale à chaque expédition (jours et moyenne mobile)
+ * - le recalcul complet donne le même résultat
+ * - la quantité suggérée dans les mails de réapprovisionnement
+ */
+@DataJpaTest
+class TestConsommationMedicaments {
+
+    @Autowired
+    private StockFaibleRepository stockFaibleRepository;
+    @Autowired
+    private MailEnAttenteRepository mailEnAttenteRepository;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private ApplicationContext contexte;
+
+    private ServicesDeTest services;
+    private ConsommationMedicaments consommation;
+    private CommandeService commandeService;
+
+    @BeforeEach
+    void setUp() {
+        services = new ServicesDeTest(contexte);
+        consommation = services.consommation();
+        commandeService = services.commandeService(Optional.empty(), consommation);
+    }
+
+    @Test
+    void laMoyenneDecroitChaqueJourSansExpedition() {
+        var jour = LocalDate.now().minusDays(2);
+        consommation.enregistrer(jour, Map.of(1, 10));
+        // Le même jour : le jour est cumulé
+        consommation.enregistrer(jour, Map.of(1, 10));
+        consommation.enregistrer(jour.plusDays(2), Map.of(1, 10));
+
+        assertEquals(20, unitesLe(1, jour));
+        assertEquals(10, unitesLe(1, jour.plusDays(2)));
+        // alpha * 20 unités le premier jour, deux jours de décroissance, puis alpha * 10
+        double attendue = 2 * 0.9 * 0.9 + 1;
+        var prevision = consommation.previsions(List.of(1), jour.plusDays(2)).get(1);
+        assertEquals(attendue, prevision.moyenne(), 1e-9);
+        assertEquals(30, prevision.fenetre());
+        // Un jour plus tard, sans expédition
+        assertEquals(attendue * 0.9, consommation.previsions(List.of(1), jour.plusDays(3)).get(1).moyenne(), 1e-9);
+        // Médicament jamais expédié
+        assertEquals(0.0, consommation.previsions(List.of(2), jour).get(2).parJour());
+    }
+
+    @Test
+    void lExpeditionEnregistreLaConsommation() {
+        int reference = 3;
+        var commande = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(commande.getNumero(), reference, 4);
+        int avant = unitesLe(reference, LocalDate.now());
+
+        commandeService.enregistreExpedition(commande.getNumero());
+
+        assertEquals(avant + 4, unitesLe(reference, LocalDate.now()));
+    }
+
+    @Test
+    void leRecalculDonneLeMemeResultatQueLesExpeditions() {
+        consommation.reconstruire();
+        var premiere = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(premiere.getNumero(), 1, 2);
+        commandeService.ajouterLigne(premiere.getNumero(), 2, 3);
+        var seconde = commandeService.creerCommande("DSP02");
+        commandeService.ajouterLigne(seconde.getNumero(), 1, 5);
+        commandeService.enregistreExpedition(premiere.getNumero());
+        commandeService.enregistreExpeditions(List.of(seconde.getNumero()));
+        entityManager.flush();
+        var incrementales = jdbc.queryForList("SELECT * FROM consommation ORDER BY medicament_reference");
+        var jours = jdbc.queryForList("SELECT medicament_reference, jour, unites FROM consommation_jour ORDER BY 1, 2");
+
+        consommation.reconstruire();
+
+        var recalculees = jdbc.queryForList("SELECT * FROM consommation ORDER BY medicament_reference");
+        assertEquals(incrementales.size(), recalculees.size());
+        for (int i = 0; i < recalculees.size(); i++) {
+            assertEquals(incrementales.get(i).get("MEDICAMENT_REFERENCE"), recalculees.get(i).get("MEDICAMENT_REFERENCE"));
+            assertEquals(incrementales.get(i).get("JOUR"), recalculees.get(i).get("JOUR"));
+            assertEquals((Double) incrementales.get(i).get("EWMA"), (Double) recalculees.get(i).get("EWMA"), 1e-9);
+        }
+        assertEquals(jours, jdbc.queryForList("SELECT medicament_reference, jour, unites FROM consommation_jour ORDER BY 1, 2"));
+    }
+
+    @Test
+    void leMailProposeUneQuantiteACommander() {
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, unites_commandees = 0, niveau_de_reappro = 20 WHERE reference = 1");
+        jdbc.update("DELETE FROM consommation_jour WHERE medicament_reference = 1");
+        jdbc.update("DELETE FROM consommation WHERE medicament_reference = 1");
+        // 2 unités par jour
+        consommation.enregistrer(LocalDate.now(), Map.of(1, 20));
+        stockFaibleRepository.signaler(List.of(1));
+        entityManager.clear();
+        var reappro = services.reapprovisionnement(AffectationFournisseurs.Mode.COUVERTURE, consommation);
+
+        reappro.reapprovisionner();
+
+        // 20 + 2 * 30 - 5
+        var contenus = mailEnAttenteRepository.findAll().stream().map(MailEnAttente::getContenu).toList();
+        assertFalse(contenus.isEmpty());
+        contenus.forEach(c -> assertTrue(c.contains("quantité suggérée : 75"), c));
+    }
+
+    private int unitesLe(int reference, LocalDate jour) {
+        return jdbc.queryForObject(
+            "SELECT COALESCE(SUM(unites), 0) FROM consommation_jour WHERE medicament_reference = ? AND jour = ?",
+            Integer.class, reference, jour);
+    }
+}
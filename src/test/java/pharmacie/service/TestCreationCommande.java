@@ -4,20 +4,36 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import pharmacie.dao.*;
+import pharmacie.dto.LignePanierDTO;
+import pharmacie.dto.ResultatExpeditionDTO;
+import pharmacie.dto.ResultatLigneDTO;
 import pharmacie.entity.*;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Ce test vérifie la logique métier de création de commande.
  * On utilise le CommandeService pour tester :
- * - la création d'une commande pour un dispensaire
+ * - la création d'une commande pour un dispensaire, et sa remise
  * - l'ajout de lignes de commande
- * - l'expédition d'une commande
+ * - l'expédition d'une commande, ou de plusieurs commandes
+ * - le nombre d'articles expédiés à chaque dispensaire
  * - les cas d'erreur (dispensaire inexistant, stock insuffisant, etc.)
  */
 @DataJpaTest
@@ -31,14 +47,22 @@ class TestCreationCommande {
     private DispensaireRepository dispensaireRepository;
     @Autowired
     private LigneRepository ligneRepository;
+    // Pour vider le contexte de persistance après les UPDATE faits directement par le SGBD
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private ApplicationContext contexte;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     // On crée le service manuellement pour éviter un conflit de contexte Spring
     private CommandeService commandeService;
 
     @BeforeEach
     void setUp() {
-        commandeService = new CommandeService(
-                commandeRepository, dispensaireRepository, ligneRepository, medicamentRepository);
+        commandeService = new ServicesDeTest(contexte).commandeService();
     }
 
     // ========== Création de commande ==========
@@ -66,6 +90,13 @@ class TestCreationCommande {
         });
     }
 
+    @Test
+    void laRemiseDependDuNombreDArticlesExpedies() {
+        // Dans data.sql, DSP01 a reçu 330 articles, DSP09 aucun
+        assertEquals(new BigDecimal("0.15"), commandeService.creerCommande("DSP01").getRemise());
+        assertEquals(0, BigDecimal.ZERO.compareTo(commandeService.creerCommande("DSP09").getRemise()));
+    }
+
     // ========== Ajout de lignes ==========
 
     @Test
@@ -123,6 +154,110 @@ class TestCreationCommande {
         });
     }
 
+    // ========== Ajout d'un panier de lignes ==========
+
+    @Test
+    void ajouterUnPanierDeLignes() {
+        Commande cmd = commandeService.creerCommande("DSP01");
+        int commandesAvant = medicamentRepository.findById(2).orElseThrow().getUnitesCommandees();
+
+        List<ResultatLigneDTO> resultats = commandeService.ajouterLignes(cmd.getNumero(), List.of(
+                new LignePanierDTO(1, 5),
+                new LignePanierDTO(2, 4),
+                new LignePanierDTO(1, 3))); // Le même médicament deux fois
+
+        assertEquals(3, resultats.size());
+        assertTrue(resultats.stream().allMatch(ResultatLigneDTO::isAjoutee), "Toutes les lignes doivent être ajoutées");
+        // Une seule ligne par médicament, les quantités sont cumulées
+        List<Ligne> lignes = ligneRepository.findByCommandeNumero(cmd.getNumero());
+        assertEquals(2, lignes.size());
+        Ligne ligne1 = lignes.stream().filter(l -> l.getMedicament().getReference() == 1).findFirst().orElseThrow();
+        assertEquals(8, ligne1.getQuantite(), "Les quantités doivent être cumulées");
+        // Les unités sont réservées par des UPDATE directs
+        entityManager.clear();
+        assertEquals(commandesAvant + 4, medicamentRepository.findById(2).orElseThrow().getUnitesCommandees());
+    }
+
+    @Test
+    void unElementInvalideNEmpechePasLesAutres() {
+        Commande cmd = commandeService.creerCommande("DSP01");
+
+        List<ResultatLigneDTO> resultats = commandeService.ajouterLignes(cmd.getNumero(), List.of(
+                new LignePanierDTO(1, 5),
+                new LignePanierDTO(9999, 1), // médicament inconnu
+                new LignePanierDTO(2, 0), // quantité non positive
+                new LignePanierDTO(3, 99999))); // stock insuffisant
+
+        assertTrue(resultats.get(0).isAjoutee());
+        assertFalse(resultats.get(1).isAjoutee());
+        assertFalse(resultats.get(2).isAjoutee());
+        assertFalse(resultats.get(3).isAjoutee());
+        assertNotNull(resultats.get(3).getErreur(), "Le refus doit être expliqué");
+        assertEquals(1, ligneRepository.findByCommandeNumero(cmd.getNumero()).size());
+    }
+
+    @Test
+    void lesPaniersConcurrentsNeDepassentPasLeStock() throws Exception {
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        int[] avant = nouvelle.execute(status -> jdbc.queryForObject(
+                "SELECT unites_en_stock, unites_commandees FROM medicament WHERE reference = 2",
+                (rs, i) -> new int[] { rs.getInt(1), rs.getInt(2) }));
+        // 50 unités disponibles, validé : les paniers sont enregistrés dans leurs propres transactions
+        nouvelle.executeWithoutResult(status ->
+                jdbc.update("UPDATE medicament SET unites_en_stock = unites_commandees + 50 WHERE reference = 2"));
+        var commandes = new ConcurrentLinkedQueue<Integer>();
+        // 8 threads enregistrent chacun 10 paniers de 2 unités, en deux éléments
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> resultats = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                resultats.add(threads.submit(() -> {
+                    int reservees = 0;
+                    for (int i = 0; i < 10; i++) {
+                        reservees += nouvelle.execute(status -> {
+                            var cmd = commandeService.creerCommande("DSP01");
+                            commandes.add(cmd.getNumero());
+                            return (int) commandeService.ajouterLignes(cmd.getNumero(), List.of(
+                                    new LignePanierDTO(2, 1), new LignePanierDTO(2, 1)))
+                                    .stream().filter(ResultatLigneDTO::isAjoutee).count();
+                        });
+                    }
+                    return reservees;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> f : resultats) {
+                total += f.get();
+            }
+
+            assertEquals(50, total, "On ne doit pas réserver plus que le stock disponible");
+            int commandees = nouvelle.execute(status ->
+                    jdbc.queryForObject("SELECT unites_commandees FROM medicament WHERE reference = 2", Integer.class));
+            assertEquals(avant[1] + 50, commandees, "Aucune réservation ne doit être perdue");
+        } finally {
+            threads.shutdown();
+            nouvelle.executeWithoutResult(status -> {
+                commandes.forEach(numero -> {
+                    jdbc.update("DELETE FROM ligne WHERE commande_numero = ?", numero);
+                    jdbc.update("DELETE FROM commande WHERE numero = ?", numero);
+                });
+                jdbc.update("UPDATE medicament SET unites_en_stock = ?, unites_commandees = ? WHERE reference = 2", avant[0], avant[1]);
+            });
+        }
+    }
+
+    @Test
+    void impossibleDAjouterUnPanierAUneCommandeExpediee() {
+        Commande cmd = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(cmd.getNumero(), 1, 2);
+        commandeService.enregistreExpedition(cmd.getNumero());
+
+        assertThrows(IllegalStateException.class, () -> {
+            commandeService.ajouterLignes(cmd.getNumero(), List.of(new LignePanierDTO(2, 5)));
+        });
+    }
+
     // ========== Expédition ==========
 
     @Test
@@ -138,6 +273,42 @@ class TestCreationCommande {
         assertNotNull(cmdExpediee.getEnvoyeele(), "La commande doit avoir une date d'envoi après expédition");
     }
 
+    @Test
+    void lesCompteursDeStockSuiventLesLignesEtLExpedition() {
+        Medicament avant = medicamentRepository.findById(3).orElseThrow();
+        int stock = avant.getUnitesEnStock();
+        int commandees = avant.getUnitesCommandees();
+
+        Commande cmd = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(cmd.getNumero(), 3, 7);
+        Ligne aSupprimer = commandeService.ajouterLigne(cmd.getNumero(), 4, 2);
+        commandeService.supprimerLigne(aSupprimer.getId());
+        entityManager.clear();
+        // Les unités sont réservées, le stock n'a pas encore bougé
+        assertEquals(commandees + 7, medicamentRepository.findById(3).orElseThrow().getUnitesCommandees());
+        assertEquals(stock, medicamentRepository.findById(3).orElseThrow().getUnitesEnStock());
+
+        commandeService.enregistreExpedition(cmd.getNumero());
+        entityManager.clear();
+        // Les unités expédiées sortent du stock et ne sont plus "en commande"
+        Medicament apres = medicamentRepository.findById(3).orElseThrow();
+        assertEquals(stock - 7, apres.getUnitesEnStock());
+        assertEquals(commandees, apres.getUnitesCommandees());
+    }
+
+    @Test
+    void laReservationNeDepassePasLeStock() {
+        Medicament med = medicamentRepository.findById(1).orElseThrow();
+        int disponible = med.getUnitesEnStock() - med.getUnitesCommandees();
+        Commande cmd = commandeService.creerCommande("DSP01");
+
+        // On réserve tout le stock disponible, puis une unité de trop
+        commandeService.ajouterLigne(cmd.getNumero(), 1, disponible);
+        assertThrows(IllegalStateException.class, () -> {
+            commandeService.ajouterLigne(cmd.getNumero(), 1, 1);
+        });
+    }
+
     @Test
     void impossibleDExpedierDeuxFois() {
         // On crée et expédie une commande
@@ -164,6 +335,102 @@ class TestCreationCommande {
         });
     }
 
+    // ========== Expédition groupée ==========
+
+    @Test
+    void expedierPlusieursCommandesCumuleLesQuantitesParMedicament() {
+        Medicament avant = medicamentRepository.findById(3).orElseThrow();
+        int stock = avant.getUnitesEnStock();
+        int commandees = avant.getUnitesCommandees();
+        Commande cmd1 = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(cmd1.getNumero(), 3, 4);
+        commandeService.ajouterLigne(cmd1.getNumero(), 4, 1);
+        Commande cmd2 = commandeService.creerCommande("DSP02");
+        commandeService.ajouterLigne(cmd2.getNumero(), 3, 6);
+
+        List<ResultatExpeditionDTO> resultats = commandeService.enregistreExpeditions(
+                List.of(cmd1.getNumero(), cmd2.getNumero()));
+
+        assertTrue(resultats.stream().allMatch(ResultatExpeditionDTO::isExpediee));
+        assertEquals(5, resultats.get(0).getUnites());
+        assertEquals(6, resultats.get(1).getUnites());
+        entityManager.flush();
+        entityManager.clear();
+        Medicament apres = medicamentRepository.findById(3).orElseThrow();
+        assertEquals(stock - 10, apres.getUnitesEnStock());
+        assertEquals(commandees, apres.getUnitesCommandees());
+        assertNotNull(commandeRepository.findById(cmd2.getNumero()).orElseThrow().getEnvoyeele());
+    }
+
+    @Test
+    void uneCommandeRefuseeNEmpechePasLesAutresExpeditions() {
+        Commande cmd = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(cmd.getNumero(), 1, 2);
+        Commande dejaExpediee = commandeService.creerCommande("DSP01");
+        commandeService.enregistreExpedition(dejaExpediee.getNumero());
+
+        List<ResultatExpeditionDTO> resultats = commandeService.enregistreExpeditions(
+                List.of(cmd.getNumero(), 9999, dejaExpediee.getNumero(), cmd.getNumero()));
+
+        assertTrue(resultats.get(0).isExpediee());
+        assertEquals("Commande inconnue", resultats.get(1).getErreur());
+        assertEquals("Commande déjà expédiée", resultats.get(2).getErreur());
+        // Une clé répétée n'est expédiée qu'une fois
+        assertFalse(resultats.get(3).isExpediee());
+    }
+
+    @Test
+    void expedierToutesLesCommandesEnCoursDUnDispensaire() {
+        // Dans data.sql, la commande 5 (DSP05) n'est pas envoyée
+        commandeService.creerCommande("DSP05");
+
+        List<ResultatExpeditionDTO> resultats = commandeService.enregistreExpeditionsPour("DSP05");
+
+        assertTrue(resultats.size() >= 2);
+        assertTrue(resultats.stream().allMatch(ResultatExpeditionDTO::isExpediee));
+        assertTrue(commandeRepository.commandesEnCoursPour("DSP05").isEmpty(), "Plus de commande en cours pour DSP05");
+        assertThrows(NoSuchElementException.class, () -> {
+            commandeService.enregistreExpeditionsPour("INEXISTANT");
+        });
+    }
+
+    // ========== Articles expédiés par dispensaire ==========
+
+    @Test
+    void lExpeditionIncrementeLesArticlesExpediesDuDispensaire() {
+        int avant = dispensaireRepository.nombreArticlesCommandesPar("DSP09");
+        Commande cmd1 = commandeService.creerCommande("DSP09");
+        commandeService.ajouterLigne(cmd1.getNumero(), 1, 60);
+        Commande cmd2 = commandeService.creerCommande("DSP09");
+        commandeService.ajouterLigne(cmd2.getNumero(), 2, 50);
+        Commande cmd3 = commandeService.creerCommande("DSP09");
+        commandeService.ajouterLigne(cmd3.getNumero(), 3, 1);
+
+        commandeService.enregistreExpedition(cmd1.getNumero());
+        commandeService.enregistreExpeditions(List.of(cmd2.getNumero(), cmd3.getNumero()));
+        entityManager.flush();
+        entityManager.clear();
+
+        int articles = dispensaireRepository.findById("DSP09").orElseThrow().getArticlesExpedies();
+        assertEquals(avant + 111, articles);
+        assertEquals(dispensaireRepository.nombreArticlesCommandesPar("DSP09"), articles);
+        // Plus de 100 articles expédiés : la commande suivante a une remise
+        assertEquals(new BigDecimal("0.15"), commandeService.creerCommande("DSP09").getRemise());
+    }
+
+    @Test
+    void laReconciliationCorrigeLesArticlesExpedies() {
+        var reconciliation = new ReconciliationArticles(dispensaireRepository);
+        // Les compteurs initialisés par data.sql sont justes
+        assertEquals(0, reconciliation.reconcilier());
+
+        jdbc.update("UPDATE dispensaire SET articles_expedies = 0 WHERE code = 'DSP01'");
+        assertEquals(1, reconciliation.reconcilier());
+        entityManager.clear();
+        assertEquals(dispensaireRepository.nombreArticlesCommandesPar("DSP01"),
+                dispensaireRepository.findById("DSP01").orElseThrow().getArticlesExpedies());
+    }
+
     // ========== Commandes en cours ==========
 
     @Test
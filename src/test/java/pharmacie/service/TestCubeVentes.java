@@ -0,0 +1,214 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pharmacie.service.CubeVentes.Agregat;
+import pharmacie.service.CubeVentes.Axe;
+
+import java.sql.Date;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie le cube des ventes :
+ * - les totaux sur une période, par catégorie, région ou au total, sont ceux calculés par le SGBD
+ * - les ventes sont ajoutées quand leur transaction est validée, y compris à un jour passé
+ * - une vente validée pendant une reconstruction est comptée une seule fois
+ * - un médicament qui change de catégorie emporte ses ventes, sans reconstruction
+ * - les périodes invalides sont refusées
+ */
+@DataJpaTest
+class TestCubeVentes {
+    private static final LocalDate DEBUT = LocalDate.of(2024, 1, 1);
+    private static final LocalDate FIN = LocalDate.of(2024, 2, 29);
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private CubeVentes cube;
+
+    @BeforeEach
+    void setUp() {
+        // Lecture par blocs de 2 lignes
+        cube = new CubeVentes(jdbc, transactionManager, 2);
+        cube.reconstruire();
+    }
+
+    @Test
+    void lesTotauxSontCeuxDuSGBD() {
+        var parCategorie = jdbc.query("""
+            SELECT m.categorie_code, SUM(l.quantite) FROM ligne l
+            JOIN commande c ON c.numero = l.commande_numero JOIN medicament m ON m.reference = l.medicament_reference
+            WHERE c.saisiele BETWEEN ? AND ? GROUP BY m.categorie_code ORDER BY m.categorie_code
+            """, (rs, i) -> new Agregat(rs.getString(1), rs.getLong(2)), DEBUT, FIN);
+        assertFalse(parCategorie.isEmpty());
+        assertEquals(parCategorie, cube.agreger(DEBUT, FIN, Axe.CATEGORIE, null, null, null));
+
+        var dakar = jdbc.queryForObject("""
+            SELECT SUM(l.quantite) FROM ligne l
+            JOIN commande c ON c.numero = l.commande_numero JOIN dispensaire d ON d.code = c.dispensaire_code
+            WHERE d.region = 'Dakar'
+            """, Long.class);
+        assertEquals(List.of(new Agregat("Dakar", dakar)), cube.agreger(null, null, Axe.REGION, null, null, "Dakar"));
+
+        long total = jdbc.queryForObject("SELECT SUM(quantite) FROM ligne", Long.class);
+        assertEquals(List.of(new Agregat("total", total)), cube.agreger(null, null, Axe.TOTAL, null, null, null));
+    }
+
+    @Test
+    void lesVentesValideesSontAjoutees() {
+        var jour = LocalDate.of(2024, 1, 16);
+        long avant = total(jour);
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        nouvelle.executeWithoutResult(status -> {
+            // Le 16 janvier est ajouté entre deux jours de vente de la cellule (médicament 1, Dakar)
+            cube.enregistrer(LocalDate.of(2024, 6, 1), 1, "Dakar", 3);
+            cube.enregistrer(jour, 1, "Dakar", 5);
+            cube.enregistrer(jour, 1, "Dakar", 2);
+            assertEquals(avant, total(jour), "Pas avant la validation");
+        });
+        nouvelle.executeWithoutResult(status -> {
+            cube.enregistrer(jour, 1, "Dakar", 100);
+            status.setRollbackOnly();
+        });
+
+        assertEquals(avant + 7, total(jour));
+        // Les cumuls des jours suivants tiennent compte de l'insertion
+        assertEquals(List.of(new Agregat("1", 3)), cube.agreger(LocalDate.of(2024, 6, 1), null, Axe.MEDICAMENT, null, 1, null));
+        var parJour = cube.agreger(jour.minusDays(1), jour.plusDays(1), Axe.JOUR, null, 1, null);
+        assertEquals(3, parJour.size());
+        assertEquals(new Agregat("2024-01-16", 7), parJour.get(1));
+        assertEquals(total(null), cube.agreger(null, null, Axe.MEDICAMENT, null, null, null).stream()
+                .mapToLong(Agregat::unites).sum());
+    }
+
+    @Test
+    void uneVenteValideePendantLaReconstructionEstCompteeUneFois() throws InterruptedException {
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        var validee = new CountDownLatch(1);
+        var reprise = new CountDownLatch(1);
+        var commande = new int[1];
+        var vendeur = new Thread(() -> nouvelle.executeWithoutResult(status -> {
+            commande[0] = creerCommande(DEBUT);
+            jdbc.update("INSERT INTO ligne (commande_numero, medicament_reference, quantite) VALUES (?, 1, 7)", commande[0]);
+            cube.enregistrer(DEBUT, 1, jdbc.queryForObject("SELECT region FROM dispensaire WHERE code = 'DSP01'", String.class), 7);
+            // La vente est validée dans le SGBD, puis attend avant d'être ajoutée au cube
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public int getOrder() {
+                    return Ordered.HIGHEST_PRECEDENCE;
+                }
+
+                @Override
+                public void afterCommit() {
+                    validee.countDown();
+                    try {
+                        reprise.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }));
+        vendeur.start();
+        try {
+            assertTrue(validee.await(10, TimeUnit.SECONDS));
+            var reconstruction = new Thread(cube::reconstruire);
+            reconstruction.start();
+            // La reconstruction commence pendant que la vente attend
+            reconstruction.join(500);
+            reprise.countDown();
+            vendeur.join();
+            reconstruction.join();
+
+            long total = jdbc.queryForObject("SELECT SUM(quantite) FROM ligne", Long.class);
+            assertEquals(List.of(new Agregat("total", total)), cube.agreger(null, null, Axe.TOTAL, null, null, null));
+        } finally {
+            reprise.countDown();
+            vendeur.join();
+            nouvelle.executeWithoutResult(status -> {
+                jdbc.update("DELETE FROM ligne WHERE commande_numero = ?", commande[0]);
+                jdbc.update("DELETE FROM commande WHERE numero = ?", commande[0]);
+            });
+        }
+    }
+
+    @Test
+    void unMedicamentChangeDeCategorieAvecSesVentes() {
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        var categorie = String.valueOf(jdbc.queryForObject("SELECT categorie_code FROM medicament WHERE reference = 1", Integer.class));
+        var autre = jdbc.queryForObject("SELECT MIN(code) FROM categorie WHERE code <> ?", Integer.class, Integer.valueOf(categorie));
+        long ventes = cube.agreger(DEBUT, FIN, Axe.MEDICAMENT, null, 1, null).get(0).unites();
+        long avant = unitesCategorie(categorie, null);
+        long autreAvant = unitesCategorie(String.valueOf(autre), null);
+        long dakarAvant = unitesCategorie(categorie, "Dakar");
+        long ventesDakar = cube.agreger(DEBUT, FIN, Axe.MEDICAMENT, null, 1, "Dakar").stream()
+                .mapToLong(Agregat::unites).sum();
+        assertTrue(ventes > 0);
+
+        nouvelle.executeWithoutResult(status -> {
+            cube.medicamentModifie(1, autre);
+            assertEquals(avant, unitesCategorie(categorie, null), "Pas avant la validation");
+        });
+
+        assertEquals(avant - ventes, unitesCategorie(categorie, null));
+        assertEquals(autreAvant + ventes, unitesCategorie(String.valueOf(autre), null));
+        assertEquals(dakarAvant - ventesDakar, unitesCategorie(categorie, "Dakar"));
+        // Les ventes suivantes du médicament vont dans sa nouvelle catégorie
+        nouvelle.executeWithoutResult(status -> cube.enregistrer(DEBUT, 1, "Dakar", 4));
+        assertEquals(autreAvant + ventes + 4, unitesCategorie(String.valueOf(autre), null));
+        assertEquals(total(null), cube.agreger(null, null, Axe.CATEGORIE, null, null, null).stream()
+                .mapToLong(Agregat::unites).sum());
+    }
+
+    @Test
+    void lesPeriodesInvalidesSontRefusees() {
+        assertThrows(IllegalArgumentException.class, () -> cube.agreger(FIN, DEBUT, Axe.TOTAL, null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> cube.agreger(null, FIN, Axe.JOUR, null, null, null));
+        assertEquals(List.of(), cube.agreger(null, null, Axe.CATEGORIE, null, null, "Région inconnue"));
+    }
+
+    private int creerCommande(LocalDate jour) {
+        var cle = new GeneratedKeyHolder();
+        jdbc.update(connexion -> {
+            var ps = connexion.prepareStatement(
+                    "INSERT INTO commande (saisiele, dispensaire_code, remise) VALUES (?, 'DSP01', 0)",
+                    Statement.RETURN_GENERATED_KEYS);
+            ps.setDate(1, Date.valueOf(jour));
+            return ps;
+        }, cle);
+        return cle.getKey().intValue();
+    }
+
+    // Les unités d'une catégorie (dans une région si elle n'est pas null) sur la période
+    private long unitesCategorie(String categorie, String region) {
+        return cube.agreger(DEBUT, FIN, Axe.CATEGORIE, null, null, region).stream()
+                .filter(a -> a.cle().equals(categorie)).mapToLong(Agregat::unites).sum();
+    }
+
+    // Le total des ventes d'un jour (de toutes les ventes si jour est null)
+    private long total(LocalDate jour) {
+        return cube.agreger(jour, jour, Axe.TOTAL, null, null, null).get(0).unites();
+    }
+}
@@ -0,0 +1,195 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pharmacie.service.DiffusionVentes.Message;
+import pharmacie.service.DiffusionVentes.Unites;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie la diffusion des ventes par catégorie :
+ * - un abonné reçoit les ventes de la catégorie, puis seulement les médicaments modifiés
+ * - les modifications validées entre deux diffusions sont regroupées dans un seul message,
+ *   le même pour tous les abonnés
+ * - les ventes des autres catégories et les abonnés en erreur ne sont pas diffusés
+ * - un abonné lent ne bloque pas les nouveaux abonnés
+ * - les envois ne sont pas faits par le thread de la diffusion (traitements planifiés)
+ */
+@DataJpaTest
+class TestDiffusionVentes {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private VersionsDonnees versions;
+    private FaitsVentes faits;
+    private DiffusionVentes diffusion;
+    private TransactionTemplate nouvelle;
+    // Un médicament de la catégorie 1, un médicament d'une autre catégorie
+    private int reference;
+    private String nom;
+    private int autre;
+    private int categorieAutre;
+
+    @BeforeEach
+    void setUp() {
+        versions = new VersionsDonnees(0);
+        faits = new FaitsVentes(jdbc, transactionManager, 1000);
+        faits.reconstruire();
+        // Envois par le thread de la diffusion, pour vérifier les messages tout de suite
+        diffusion = new DiffusionVentes(faits, versions, Runnable::run);
+        nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        reference = jdbc.queryForObject("SELECT MIN(reference) FROM medicament WHERE categorie_code = 1", Integer.class);
+        nom = jdbc.queryForObject("SELECT nom FROM medicament WHERE reference = ?", String.class, reference);
+        autre = jdbc.queryForObject("SELECT MIN(reference) FROM medicament WHERE categorie_code <> 1", Integer.class);
+        categorieAutre = jdbc.queryForObject("SELECT categorie_code FROM medicament WHERE reference = ?", Integer.class, autre);
+    }
+
+    @Test
+    void lesModificationsSontRegroupeesEtDiffusees() {
+        List<Message> premier = new ArrayList<>();
+        List<Message> second = new ArrayList<>();
+        diffusion.abonner(1, premier::add);
+        diffusion.abonner(1, second::add);
+
+        var attendues = faits.unitesVenduesPour(1).stream().map(u -> new Unites(u.getNom(), u.getUnites())).toList();
+        assertEquals(List.of(new Message(true, attendues)), premier);
+        assertEquals(premier, second);
+        long avant = attendues.stream().filter(u -> u.nom().equals(nom)).mapToLong(Unites::unites).sum();
+
+        diffusion.diffuser();
+        assertEquals(1, premier.size(), "Rien n'a changé");
+        valider(Map.of(reference, 3, autre, 4));
+        valider(Map.of(reference, 2));
+        diffusion.diffuser();
+
+        assertEquals(2, premier.size());
+        assertEquals(new Message(false, List.of(new Unites(nom, avant + 5))), premier.get(1));
+        assertSame(premier.get(1), second.get(1), "Les ventes sont lues une seule fois pour tous les abonnés");
+
+        valider(Map.of(autre, 1));
+        diffusion.diffuser();
+        diffusion.diffuser();
+        assertEquals(2, premier.size(), "Ventes d'une autre catégorie");
+    }
+
+    @Test
+    void lesAbonnesEnErreurSontDesabonnes() {
+        List<Message> recus = new ArrayList<>();
+        Consumer<Message> deconnecte = message -> {
+            if (!message.complet()) {
+                throw new IllegalStateException("Client déconnecté");
+            }
+            recus.add(message);
+        };
+        List<Message> desabonne = new ArrayList<>();
+        Consumer<Message> parti = desabonne::add;
+        diffusion.abonner(1, deconnecte);
+        diffusion.abonner(1, parti);
+        diffusion.desabonner(1, parti);
+        valider(Map.of(reference, 1));
+        diffusion.diffuser();
+        valider(Map.of(reference, 1));
+        diffusion.diffuser();
+
+        assertEquals(1, recus.size());
+        assertEquals(1, desabonne.size(), "Seulement les ventes reçues avant le désabonnement");
+    }
+
+    @Test
+    void unAbonneLentNeBloquePasLesAutres() throws Exception {
+        var envoiEnCours = new CountDownLatch(1);
+        var debloquer = new CountDownLatch(1);
+        List<Message> lent = new CopyOnWriteArrayList<>();
+        diffusion.abonner(1, message -> {
+            if (!message.complet()) {
+                envoiEnCours.countDown();
+                try {
+                    debloquer.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            lent.add(message);
+        });
+        valider(Map.of(reference, 1));
+        var diffuseur = Executors.newSingleThreadExecutor();
+        try {
+            var diffusee = diffuseur.submit(diffusion::diffuser);
+            assertTrue(envoiEnCours.await(10, TimeUnit.SECONDS));
+
+            // Pendant l'envoi à l'abonné lent, un nouvel abonné reçoit les ventes
+            List<Message> nouveau = new ArrayList<>();
+            var abonnement = CompletableFuture.runAsync(() -> diffusion.abonner(1, nouveau::add));
+            abonnement.get(5, TimeUnit.SECONDS);
+            assertEquals(1, nouveau.size());
+            assertTrue(nouveau.get(0).complet());
+
+            debloquer.countDown();
+            diffusee.get(10, TimeUnit.SECONDS);
+            assertEquals(2, lent.size());
+        } finally {
+            debloquer.countDown();
+            diffuseur.shutdownNow();
+        }
+    }
+
+    @Test
+    void lesEnvoisNeBloquentPasLaDiffusion() throws Exception {
+        var diffusion = new DiffusionVentes(faits, versions, 1);
+        var debloquer = new CountDownLatch(1);
+        var recus = new CountDownLatch(3);
+        try {
+            diffusion.abonner(1, message -> {
+                try {
+                    debloquer.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                recus.countDown();
+            });
+            // L'abonné est bloqué : la diffusion n'attend pas les envois
+            valider(Map.of(reference, 1));
+            CompletableFuture.runAsync(diffusion::diffuser).get(5, TimeUnit.SECONDS);
+            valider(Map.of(reference, 1));
+            CompletableFuture.runAsync(diffusion::diffuser).get(5, TimeUnit.SECONDS);
+            assertEquals(3, recus.getCount());
+
+            debloquer.countDown();
+            assertTrue(recus.await(10, TimeUnit.SECONDS), "Les messages sont envoyés ensuite");
+        } finally {
+            debloquer.countDown();
+            diffusion.arreter();
+        }
+    }
+
+    // Ajoute des ventes dans une transaction validée
+    private void valider(Map<Integer, Integer> unites) {
+        nouvelle.executeWithoutResult(status -> {
+            unites.forEach((medicament, quantite) -> faits.enregistrer(medicament,
+                    medicament == reference ? 1 : categorieAutre, "DSP01", LocalDate.now(), quantite));
+            versions.modifiees(VersionsDonnees.Donnees.VENTES);
+        });
+    }
+}
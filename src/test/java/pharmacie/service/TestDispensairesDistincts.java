@@ -0,0 +1,201 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie le nombre de dispensaires différents par médicament, estimé par HyperLogLog :
+ * - calculé à partir des lignes, il est celui du SGBD (mode exact) pour les petits nombres
+ * - pour les grands nombres, l'erreur reste dans la borne annoncée, y compris en fusionnant des mois
+ * - seules les commandes validées sont comptées, chaque dispensaire une seule fois
+ * - les registres sauvegardés sont relus, recalculés si la précision a changé
+ * - les sauvegardes de plusieurs instances sont fusionnées
+ * - les registres de quelques dispensaires sont creux (peu d'octets), denses au-delà d'un quart de registres
+ */
+@DataJpaTest
+class TestDispensairesDistincts {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private DispensairesDistincts dispensaires;
+    private TransactionTemplate nouvelle;
+    private List<Integer> references;
+
+    @BeforeEach
+    void setUp() {
+        dispensaires = new DispensairesDistincts(jdbc, 10);
+        dispensaires.charger();
+        nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        references = jdbc.queryForList("SELECT DISTINCT medicament_reference FROM ligne ORDER BY 1", Integer.class);
+    }
+
+    @Test
+    void lesPetitsNombresSontCeuxDuSGBD() {
+        assertFalse(references.isEmpty());
+        var du = YearMonth.of(2024, 2);
+        for (int reference : references) {
+            comparer(dispensaires, reference, null, null);
+            comparer(dispensaires, reference, du, du.plusMonths(1));
+        }
+        assertThrows(IllegalArgumentException.class, () -> dispensaires.compter(1, du, du.minusMonths(1), false));
+        assertEquals(0, dispensaires.compter(1, YearMonth.of(2030, 1), null, false).getDispensaires());
+    }
+
+    @Test
+    void lesGrandsNombresSontEstimesALErreurPres() {
+        var janvier = LocalDate.of(2030, 1, 15);
+        var fevrier = LocalDate.of(2030, 2, 15);
+        // 12000 dispensaires en janvier, 12000 en février dont 4000 déjà venus en janvier
+        nouvelle.executeWithoutResult(status -> {
+            for (int i = 0; i < 12000; i++) {
+                dispensaires.enregistrer(1, janvier, "D" + i);
+                dispensaires.enregistrer(1, fevrier, "D" + (8000 + i));
+                // Déjà compté
+                dispensaires.enregistrer(1, janvier, "D" + i);
+            }
+        });
+        var estimation = dispensaires.compter(1, YearMonth.from(janvier), YearMonth.from(fevrier), false);
+        double erreur = estimation.getErreurRelative();
+        assertEquals(1.04 / 32, erreur, 1e-9);
+        assertEquals(20000, estimation.getDispensaires(), 4 * erreur * 20000);
+        assertEquals(12000, estimation.getParMois().get("2030-01"), 4 * erreur * 12000);
+        assertEquals(12000, estimation.getParMois().get("2030-02"), 4 * erreur * 12000);
+    }
+
+    @Test
+    void seulesLesCommandesValideesSontComptees() {
+        var jour = LocalDate.of(2030, 1, 1);
+        nouvelle.executeWithoutResult(status -> {
+            dispensaires.enregistrer(1, jour, "DSP01");
+            dispensaires.enregistrer(1, jour, "DSP02");
+            status.setRollbackOnly();
+        });
+        nouvelle.executeWithoutResult(status -> {
+            dispensaires.enregistrer(1, jour, "DSP01");
+            dispensaires.enregistrer(1, jour, "DSP01");
+        });
+        var mois = YearMonth.from(jour);
+        var estimation = dispensaires.compter(1, mois, mois, false);
+        assertEquals(1, estimation.getDispensaires());
+        assertEquals(Map.of("2030-01", 1L), estimation.getParMois());
+    }
+
+    @Test
+    void lesRegistresSontSauvegardesEtRelus() {
+        nouvelle.executeWithoutResult(status -> dispensaires.enregistrer(1, LocalDate.of(2030, 1, 1), "Nouveau"));
+        dispensaires.sauvegarder();
+
+        var relus = new DispensairesDistincts(jdbc, 10);
+        relus.charger();
+        for (int reference : references) {
+            assertEquals(dispensaires.compter(reference, null, null, false), relus.compter(reference, null, null, false));
+        }
+        assertEquals(dispensaires.compter(1, null, null, false), relus.compter(1, null, null, false));
+
+        // Autre précision : les registres sauvegardés sont remplacés par ceux calculés à partir des lignes
+        var recalcules = new DispensairesDistincts(jdbc, 12);
+        recalcules.charger();
+        comparer(recalcules, 1, null, null);
+        recalcules.sauvegarder();
+        for (var registres : jdbc.queryForList("SELECT registres FROM registres_dispensaires", byte[].class)) {
+            // Denses, ou creux avec la précision
+            assertTrue(registres.length == 4096 || (registres.length % 3 == 1 && registres[0] == 12));
+        }
+    }
+
+    @Test
+    void lesRegistresCreuxSontSauvegardesEnPeuDOctets() {
+        var peu = LocalDate.of(2032, 1, 1);
+        var beaucoup = LocalDate.of(2032, 2, 1);
+        var a = new DispensairesDistincts(jdbc, 10);
+        try {
+            nouvelle.executeWithoutResult(status -> {
+                for (int i = 0; i < 5; i++) {
+                    a.enregistrer(1, peu, "D" + i);
+                }
+                // Plus d'un quart des 1024 registres non nuls
+                for (int i = 0; i < 2000; i++) {
+                    a.enregistrer(1, beaucoup, "D" + i);
+                }
+            });
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+            assertEquals(1 + 3 * 5, octets(peu), "La précision et 3 octets par registre non nul");
+            assertEquals(1024, octets(beaucoup));
+
+            var relus = new DispensairesDistincts(jdbc, 10);
+            relus.charger();
+            var mois = YearMonth.from(peu);
+            assertEquals(5, relus.compter(1, mois, mois, false).getDispensaires());
+            assertEquals(a.compter(1, mois, mois.plusMonths(1), false), relus.compter(1, mois, mois.plusMonths(1), false));
+
+            // Un mois creux fusionné avec un mois dense
+            nouvelle.executeWithoutResult(status -> relus.enregistrer(1, peu, "D1999"));
+            assertEquals(6, relus.compter(1, mois, mois, false).getDispensaires());
+            assertEquals(a.compter(1, mois, mois.plusMonths(1), false).getDispensaires(),
+                    relus.compter(1, mois, mois.plusMonths(1), false).getDispensaires());
+        } finally {
+            nouvelle.executeWithoutResult(status -> jdbc.update("DELETE FROM registres_dispensaires WHERE mois IN (?, ?)",
+                    Date.valueOf(peu), Date.valueOf(beaucoup)));
+        }
+    }
+
+    private int octets(LocalDate mois) {
+        return jdbc.queryForObject("SELECT OCTET_LENGTH(registres) FROM registres_dispensaires WHERE medicament_reference = 1 AND mois = ?",
+                Integer.class, Date.valueOf(mois));
+    }
+
+    @Test
+    void lesSauvegardesDesInstancesSontFusionnees() {
+        var jour = LocalDate.of(2031, 3, 1);
+        var mois = YearMonth.from(jour);
+        var a = new DispensairesDistincts(jdbc, 10);
+        var b = new DispensairesDistincts(jdbc, 10);
+        try {
+            // Des transactions validées, comme dans deux instances qui partagent la BD
+            nouvelle.executeWithoutResult(status -> {
+                a.enregistrer(1, jour, "DSP01");
+                a.enregistrer(1, jour, "DSP02");
+            });
+            nouvelle.executeWithoutResult(status -> b.enregistrer(1, jour, "DSP03"));
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+            nouvelle.executeWithoutResult(status -> b.sauvegarder());
+
+            var relus = new DispensairesDistincts(jdbc, 10);
+            relus.charger();
+            assertEquals(3, relus.compter(1, mois, mois, false).getDispensaires());
+            assertEquals(3, b.compter(1, mois, mois, false).getDispensaires(), "b a vu les dispensaires de a en sauvegardant");
+        } finally {
+            nouvelle.executeWithoutResult(status ->
+                    jdbc.update("DELETE FROM registres_dispensaires WHERE mois = ?", Date.valueOf(jour)));
+        }
+    }
+
+    private static void comparer(DispensairesDistincts dispensaires, int reference, YearMonth du, YearMonth au) {
+        var exact = dispensaires.compter(reference, du, au, true);
+        var estimation = dispensaires.compter(reference, du, au, false);
+        assertTrue(exact.isExact());
+        // Peu de dispensaires : au plus un de différence (deux dispensaires dans le même registre)
+        assertEquals(exact.getDispensaires(), estimation.getDispensaires(), 1, "Médicament " + reference);
+        assertEquals(exact.getParMois().keySet(), estimation.getParMois().keySet());
+        exact.getParMois().forEach((mois, nombre) ->
+                assertEquals(nombre, estimation.getParMois().get(mois), 1, "Médicament " + reference + ", " + mois));
+    }
+}
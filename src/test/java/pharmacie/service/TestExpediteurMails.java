@@ -0,0 +1,205 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.sun.net.httpserver.HttpServer;
+import pharmacie.dao.*;
+import pharmacie.entity.*;
+import pharmacie.mail.TransportMail;
+import pharmacie.mail.TransportMailgun;
+import pharmacie.mail.TransportSmtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie l'envoi des mails en attente, avec un faux serveur Mailgun et un serveur SMTP de test :
+ * - les mails d'un même fournisseur sont regroupés en un seul envoi
+ * - un envoi qui échoue est réessayé plus tard, puis abandonné
+ * - avec plusieurs instances, chaque mail est réservé et envoyé une seule fois
+ */
+@DataJpaTest
+class TestExpediteurMails {
+
+    @Autowired
+    private MailEnAttenteRepository mailDao;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private TransactionTemplate transaction;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Le faux serveur Mailgun : les requêtes reçues, et le statut HTTP de la réponse
+    private HttpServer mailgun;
+    private final ConcurrentLinkedQueue<String> requetes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger statut = new AtomicInteger(200);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mailgun = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mailgun.createContext("/v3/test.example/messages", echange -> {
+            var corps = new String(echange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requetes.add(echange.getRequestHeaders().getFirst("Authorization") + "\n" + corps);
+            echange.sendResponseHeaders(statut.get(), -1);
+            echange.close();
+        });
+        mailgun.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        mailgun.stop(0);
+    }
+
+    @Test
+    void lesMailsDUnFournisseurSontRegroupes() {
+        mailDao.save(new MailEnAttente(1L, "pfizer@test", "Réappro - Pfizer", "Doliprane"));
+        mailDao.save(new MailEnAttente(2L, "sanofi@test", "Réappro - Sanofi", "Aspirine"));
+        mailDao.save(new MailEnAttente(1L, "pfizer@test", "Réappro - Pfizer", "Ibuprofène"));
+
+        assertEquals(3, expediteur(8).envoyer());
+
+        assertEquals(2, requetes.size(), "Un seul envoi par fournisseur");
+        var pfizer = requetes.stream().filter(r -> r.contains("pfizer@test")).findFirst().orElseThrow();
+        assertTrue(pfizer.startsWith("Basic "), "Authentification auprès de Mailgun");
+        assertTrue(pfizer.contains("Doliprane") && pfizer.contains("Ibuprofène"));
+        assertTrue(pfizer.contains("Réappro - Pfizer (2 demandes)"));
+        assertEquals(0, mailDao.nombreEnAttente());
+    }
+
+    @Test
+    void unEnvoiQuiEchoueEstReessaye() {
+        var mail = mailDao.save(new MailEnAttente(1L, "pfizer@test", "Réappro", "Doliprane"));
+        var expediteur = expediteur(3);
+        statut.set(503);
+
+        assertEquals(0, expediteur.envoyer());
+        var apresEchec = mailDao.findById(mail.getId()).orElseThrow();
+        assertEquals(1, apresEchec.getEssais());
+        assertNull(apresEchec.getEnvoyeLe());
+        assertTrue(apresEchec.getProchainEssai().isAfter(apresEchec.getCreeLe()), "Le nouvel essai est différé");
+        assertTrue(apresEchec.getDerniereErreur().contains("503"));
+        // Pas de nouvel essai avant le délai
+        assertEquals(0, expediteur.envoyer());
+        assertEquals(1, requetes.size());
+
+        // Le délai est passé, le serveur répond de nouveau
+        jdbc.update("UPDATE mail_en_attente SET prochain_essai = cree_le WHERE id = ?", mail.getId());
+        statut.set(200);
+        assertEquals(1, expediteur.envoyer());
+        assertNotNull(mailDao.findById(mail.getId()).orElseThrow().getEnvoyeLe());
+    }
+
+    @Test
+    void unMailEstAbandonneApresTropDEchecs() {
+        var mail = mailDao.save(new MailEnAttente(1L, "pfizer@test", "Réappro", "Doliprane"));
+        var expediteur = expediteur(2);
+        statut.set(500);
+
+        for (int essai = 0; essai < 3; essai++) {
+            expediteur.envoyer();
+            jdbc.update("UPDATE mail_en_attente SET prochain_essai = cree_le WHERE id = ?", mail.getId());
+        }
+
+        assertEquals(2, requetes.size(), "Plus d'essai après l'abandon");
+        assertTrue(mailDao.findById(mail.getId()).orElseThrow().isAbandonne());
+        assertEquals(0, mailDao.nombreEnAttente());
+    }
+
+    @Test
+    void envoiParSmtp() throws IOException {
+        try (var serveur = new ServeurSmtpDeTest()) {
+            var smtp = new JavaMailSenderImpl();
+            smtp.setHost("localhost");
+            smtp.setPort(serveur.port());
+            var expediteur = new ExpediteurMails(mailDao, new TransportSmtp(smtp, "pharmacie@test"), transaction, 2, 100, 8, 1000, 60000);
+            mailDao.save(new MailEnAttente(1L, "pfizer@test", "Réappro - Pfizer", "Doliprane"));
+
+            assertEquals(1, expediteur.envoyer());
+
+            assertEquals(1, serveur.messages().size());
+            var message = serveur.messages().get(0);
+            assertTrue(message.contains("To: pfizer@test"));
+            assertTrue(message.contains("Doliprane"));
+        }
+    }
+
+    @Test
+    void deuxInstancesNEnvoientPasDeuxFoisLeMemeMail() throws Exception {
+        // Des transactions validées, comme dans deux instances qui partagent la BD
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        List<Long> ids = nouvelle.execute(status -> {
+            List<Long> crees = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                crees.add(mailDao.save(new MailEnAttente((long) i, "f" + i + "@test", "Réappro", "Instances " + i)).getId());
+            }
+            return crees;
+        });
+        try {
+            ConcurrentLinkedQueue<String> envoyes = new ConcurrentLinkedQueue<>();
+            TransportMail lent = (destinataire, sujet, texte) -> {
+                envoyes.add(texte);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            var depart = new CountDownLatch(1);
+            var instances = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<Integer>> lots = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    var expediteur = new ExpediteurMails(mailDao, lent, nouvelle, 4, 100, 8, 1000, 60000);
+                    lots.add(instances.submit(() -> {
+                        depart.await();
+                        return expediteur.envoyer();
+                    }));
+                }
+                depart.countDown();
+                int total = 0;
+                for (var l : lots) {
+                    total += l.get(30, TimeUnit.SECONDS);
+                }
+
+                var nos = envoyes.stream().filter(t -> t.startsWith("Instances ")).toList();
+                assertEquals(40, nos.size(), "Chaque mail est envoyé une seule fois");
+                assertEquals(40, Set.copyOf(nos).size());
+                assertTrue(total >= 40);
+            } finally {
+                instances.shutdownNow();
+            }
+        } finally {
+            nouvelle.executeWithoutResult(status -> mailDao.deleteAllById(ids));
+        }
+    }
+
+    // Mailgun, 2 envois simultanés, délai initial d'une seconde
+    private ExpediteurMails expediteur(int essaisMax) {
+        var transport = new TransportMailgun("http://localhost:" + mailgun.getAddress().getPort() + "/v3",
+                "test.example", "cle-de-test", "pharmacie@test");
+        return new ExpediteurMails(mailDao, transport, transaction, 2, 100, essaisMax, 1000, 60000);
+    }
+}
@@ -0,0 +1,277 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pharmacie.dao.MedicamentRepository;
+import pharmacie.service.FaitsVentes.Axe;
+import pharmacie.service.FaitsVentes.Filtre;
+import pharmacie.service.VersionsDonnees.Donnees;
+
+import java.sql.Date;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie les faits des ventes en mémoire :
+ * - les sommes filtrées et regroupées sont celles calculées par le SGBD
+ * - les ventes validées sont ajoutées, sur plusieurs blocs (calcul parallèle)
+ * - avant que la version des ventes change : une requête qui voit la nouvelle version voit les ventes
+ * - une vente validée pendant une reconstruction est comptée une seule fois
+ * - une vente validée pendant la lecture des lignes n'attend pas sa fin, et n'est pas lue (instantané)
+ * - un médicament qui change de catégorie emporte ses ventes passées
+ * - les périodes invalides sont refusées
+ */
+@DataJpaTest
+class TestFaitsVentes {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private MedicamentRepository medicamentRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private FaitsVentes faits;
+    private TransactionTemplate nouvelle;
+
+    @BeforeEach
+    void setUp() {
+        // Lecture par blocs de 2 lignes
+        faits = new FaitsVentes(jdbc, transactionManager, 2);
+        faits.reconstruire();
+        nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Test
+    void lesSommesSontCellesDuSGBD() {
+        assertEquals(sql("""
+            SELECT c.dispensaire_code, SUM(l.quantite) FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.saisiele >= '2024-02-01' GROUP BY c.dispensaire_code ORDER BY c.dispensaire_code
+            """), faits.sommer(new Filtre(LocalDate.of(2024, 2, 1), null, null, null, null), Axe.DISPENSAIRE));
+        assertEquals(sql("""
+            SELECT FORMATDATETIME(c.saisiele, 'yyyy-MM'), SUM(l.quantite) FROM ligne l
+            JOIN commande c ON c.numero = l.commande_numero JOIN medicament m ON m.reference = l.medicament_reference
+            WHERE m.categorie_code = 1 GROUP BY FORMATDATETIME(c.saisiele, 'yyyy-MM') ORDER BY 1
+            """), faits.sommer(Filtre.categorie(1), Axe.MOIS));
+        assertEquals(sql("""
+            SELECT CAST(l.medicament_reference AS VARCHAR), SUM(l.quantite) FROM ligne l
+            JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.dispensaire_code = 'DSP01' GROUP BY l.medicament_reference ORDER BY l.medicament_reference
+            """), faits.sommer(new Filtre(null, null, null, null, "DSP01"), Axe.MEDICAMENT));
+        assertEquals(sql("SELECT 'total', SUM(quantite) FROM ligne"), faits.sommer(Filtre.TOUT, Axe.TOTAL));
+
+        for (int categorie = 1; categorie <= 3; categorie++) {
+            var attendues = new TreeMap<String, Long>();
+            medicamentRepository.medicamentsCommandesPour(categorie).forEach(u -> attendues.put(u.getNom(), u.getUnites()));
+            var calculees = new LinkedHashMap<String, Long>();
+            faits.unitesVenduesPour(categorie).forEach(u -> calculees.put(u.getNom(), u.getUnites()));
+            assertEquals(attendues, calculees);
+            assertEquals(attendues.keySet().stream().toList(), calculees.keySet().stream().toList(), "Par ordre des noms");
+        }
+    }
+
+    @Test
+    void lesVentesValideesSontAjoutees() {
+        var jour = LocalDate.of(2030, 1, 1);
+        int nombre = 2 * FaitsVentes.TAILLE_BLOC + 10;
+        Map<String, Long> parDispensaire = new TreeMap<>();
+        Map<String, Long> parMois = new TreeMap<>();
+        nouvelle.executeWithoutResult(status -> {
+            for (int i = 0; i < nombre; i++) {
+                String dispensaire = "DSP0" + (1 + i % 2);
+                var saisie = jour.plusDays(i % 40);
+                faits.enregistrer(1 + i % 3, 1, dispensaire, saisie, 1);
+                parDispensaire.merge(dispensaire, 1L, Long::sum);
+                parMois.merge(saisie.toString().substring(0, 7), 1L, Long::sum);
+            }
+        });
+        nouvelle.executeWithoutResult(status -> {
+            faits.enregistrer(1, 1, "DSP01", jour, 1000);
+            status.setRollbackOnly();
+        });
+
+        var periode = new Filtre(jour, null, null, null, null);
+        assertEquals(Map.of("total", (long) nombre), faits.sommer(periode, Axe.TOTAL));
+        assertEquals(parDispensaire, faits.sommer(periode, Axe.DISPENSAIRE));
+        assertEquals(parMois, faits.sommer(periode, Axe.MOIS));
+        var parJour = faits.sommer(new Filtre(jour, jour.plusDays(39), null, 2, null), Axe.JOUR);
+        assertEquals(40, parJour.size());
+        assertEquals(nombre / 3, parJour.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void lesVentesSontAjouteesAvantLeChangementDeVersion() {
+        var versions = new VersionsDonnees(0);
+        var ventes = EnumSet.of(Donnees.VENTES);
+        String etiquette = versions.etat(ventes).etiquette();
+        long total = faits.sommer(Filtre.TOUT, Axe.TOTAL).get("total");
+        // Ce que voit une requête dès que la version a changé
+        Map<String, Long> vus = new TreeMap<>();
+        nouvelle.executeWithoutResult(status -> {
+            // La version est signalée avant la vente, la requête juste après la version
+            versions.modifiees(Donnees.VENTES);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    if (!versions.etat(ventes).etiquette().equals(etiquette)) {
+                        vus.putAll(faits.sommer(Filtre.TOUT, Axe.TOTAL));
+                    }
+                }
+            });
+            faits.enregistrer(1, 1, "DSP01", LocalDate.of(2030, 1, 1), 5);
+        });
+        assertEquals(Map.of("total", total + 5), vus);
+    }
+
+    @Test
+    void uneVenteValideePendantLaReconstructionEstCompteeUneFois() throws InterruptedException {
+        var jour = LocalDate.of(2024, 1, 1);
+        var validee = new CountDownLatch(1);
+        var reprise = new CountDownLatch(1);
+        var commande = new int[1];
+        var vendeur = new Thread(() -> nouvelle.executeWithoutResult(status -> {
+            commande[0] = creerCommande(jour);
+            jdbc.update("INSERT INTO ligne (commande_numero, medicament_reference, quantite) VALUES (?, 1, 7)", commande[0]);
+            int categorie = jdbc.queryForObject("SELECT categorie_code FROM medicament WHERE reference = 1", Integer.class);
+            faits.enregistrer(1, categorie, "DSP01", jour, 7);
+            // La vente est validée dans le SGBD, puis attend avant d'être ajoutée aux faits
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public int getOrder() {
+                    return Ordered.HIGHEST_PRECEDENCE;
+                }
+
+                @Override
+                public void afterCommit() {
+                    validee.countDown();
+                    try {
+                        reprise.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }));
+        vendeur.start();
+        try {
+            assertTrue(validee.await(10, TimeUnit.SECONDS));
+            var reconstruction = new Thread(faits::reconstruire);
+            reconstruction.start();
+            // La reconstruction commence pendant que la vente attend
+            reconstruction.join(500);
+            reprise.countDown();
+            vendeur.join();
+            reconstruction.join();
+
+            assertEquals(sql("SELECT 'total', SUM(quantite) FROM ligne"), faits.sommer(Filtre.TOUT, Axe.TOTAL));
+        } finally {
+            reprise.countDown();
+            vendeur.join();
+            nouvelle.executeWithoutResult(status -> {
+                jdbc.update("DELETE FROM ligne WHERE commande_numero = ?", commande[0]);
+                jdbc.update("DELETE FROM commande WHERE numero = ?", commande[0]);
+            });
+        }
+    }
+
+    @Test
+    void uneVenteValideePendantLaLectureNAttendPas() throws InterruptedException {
+        var jour = LocalDate.of(2024, 1, 1);
+        List<Integer> appliquees = new CopyOnWriteArrayList<>();
+        var apresValidation = new ApresValidation<Integer>("Test", appliquees::addAll);
+        long avant = jdbc.queryForObject("SELECT SUM(quantite) FROM ligne", Long.class);
+        var commande = new int[1];
+        try {
+            long lu = apresValidation.lireSurInstantane(transactionManager, jdbc,
+                    "SELECT (SELECT MAX(id) FROM ligne), (SELECT MAX(numero) FROM commande)", () -> {
+                    }, () -> {
+                        // Une vente validée par un autre thread pendant la lecture
+                        var vendeur = new Thread(() -> nouvelle.executeWithoutResult(status -> {
+                            commande[0] = creerCommande(jour);
+                            jdbc.update("INSERT INTO ligne (commande_numero, medicament_reference, quantite) VALUES (?, 1, 7)",
+                                    commande[0]);
+                            apresValidation.ajouter(7);
+                        }));
+                        vendeur.start();
+                        try {
+                            vendeur.join(10_000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        assertEquals(List.of(7), appliquees, "Validée et appliquée pendant la lecture");
+                        return jdbc.queryForObject("SELECT SUM(quantite) FROM ligne", Long.class);
+                    });
+            assertEquals(avant, lu, "La lecture ne voit pas la vente validée après l'instantané");
+        } finally {
+            nouvelle.executeWithoutResult(status -> {
+                jdbc.update("DELETE FROM ligne WHERE commande_numero = ?", commande[0]);
+                jdbc.update("DELETE FROM commande WHERE numero = ?", commande[0]);
+            });
+        }
+    }
+
+    @Test
+    void unMedicamentChangeDeCategorieAvecSesVentes() {
+        var avant = faits.sommer(Filtre.TOUT, Axe.CATEGORIE);
+        long ventes = faits.sommer(new Filtre(null, null, null, 1, null), Axe.TOTAL).get("total");
+        String nom = jdbc.queryForObject("SELECT nom FROM medicament WHERE reference = 1", String.class);
+        int categorie = jdbc.queryForObject("SELECT categorie_code FROM medicament WHERE reference = 1", Integer.class);
+        int autre = categorie == 2 ? 3 : 2;
+
+        nouvelle.executeWithoutResult(status -> faits.medicamentModifie(1, nom + " (renommé)", autre));
+
+        var apres = faits.sommer(Filtre.TOUT, Axe.CATEGORIE);
+        assertEquals(avant.get(String.valueOf(categorie)) - ventes, apres.getOrDefault(String.valueOf(categorie), 0L));
+        assertEquals(avant.getOrDefault(String.valueOf(autre), 0L) + ventes, apres.get(String.valueOf(autre)));
+        assertTrue(faits.unitesVenduesPour(autre).stream().anyMatch(u -> u.getNom().equals(nom + " (renommé)")));
+    }
+
+    @Test
+    void lesPeriodesInvalidesSontRefusees() {
+        var du = LocalDate.of(2024, 3, 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> faits.sommer(new Filtre(du, du.minusDays(1), null, null, null), Axe.TOTAL));
+        assertEquals(Map.of(), faits.sommer(new Filtre(null, null, null, null, "Inconnu"), Axe.TOTAL));
+    }
+
+    private int creerCommande(LocalDate jour) {
+        var cle = new GeneratedKeyHolder();
+        jdbc.update(connexion -> {
+            var ps = connexion.prepareStatement(
+                    "INSERT INTO commande (saisiele, dispensaire_code, remise) VALUES (?, 'DSP01', 0)",
+                    Statement.RETURN_GENERATED_KEYS);
+            ps.setDate(1, Date.valueOf(jour));
+            return ps;
+        }, cle);
+        return cle.getKey().intValue();
+    }
+
+    private Map<String, Long> sql(String requete) {
+        var resultat = new LinkedHashMap<String, Long>();
+        jdbc.query(requete, rs -> {
+            resultat.put(rs.getString(1), rs.getLong(2));
+        });
+        return resultat;
+    }
+}
@@ -0,0 +1,136 @@
+package pharmacie.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pharmacie.dao.*;
+import pharmacie.dto.CommandeDTO;
+import pharmacie.dto.EnTeteCommandeDTO;
+import pharmacie.entity.*;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie la lecture des commandes pour l'API REST :
+ * - les DTO sont les mêmes que ceux obtenus avec ModelMapper à partir des entités
+ * - une seule requête SQL, aucune entité chargée
+ */
+@DataJpaTest
+class TestLectureCommande {
+
+    @Autowired
+    private CommandeRepository commandeRepository;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private LectureCommandeService lectureService;
+    private Statistics statistiques;
+
+    @BeforeEach
+    void setUp() {
+        lectureService = new LectureCommandeService(commandeRepository, jdbc);
+        // On compte les requêtes SQL, sans modifier la configuration (le contexte Spring est partagé entre les tests)
+        statistiques = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistiques.setStatisticsEnabled(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        statistiques.setStatisticsEnabled(false);
+    }
+
+    @Test
+    void lireUneCommandeEnUneSeuleRequete() {
+        statistiques.clear();
+
+        CommandeDTO commande = lectureService.getCommande(1);
+
+        assertEquals(1, statistiques.getPrepareStatementCount(), "Une seule requête SQL");
+        assertEquals(0, statistiques.getEntityLoadCount(), "Aucune entité chargée");
+        assertEquals(5, commande.getLignes().size());
+        // Les DTO sont les mêmes qu'avec ModelMapper
+        entityManager.clear();
+        var attendu = new ModelMapper().map(commandeRepository.findById(1).orElseThrow(), CommandeDTO.class);
+        assertEquals(attendu, commande);
+    }
+
+    @Test
+    void lireUneCommandeSansLigne() {
+        var commande = new Commande(entityManager.find(Dispensaire.class, "DSP01"));
+        entityManager.persistAndFlush(commande);
+
+        CommandeDTO lue = lectureService.getCommande(commande.getNumero());
+
+        assertEquals("Dispensaire Central Dakar", lue.getDispensaire().getNom());
+        assertTrue(lue.getLignes().isEmpty());
+    }
+
+    @Test
+    void lireUneCommandeInexistante() {
+        assertThrows(NoSuchElementException.class, () -> lectureService.getCommande(9999));
+    }
+
+    @Test
+    void lireLesCommandesEnCoursEnUneSeuleRequete() {
+        statistiques.clear();
+
+        List<EnTeteCommandeDTO> enCours = lectureService.getCommandeEnCoursPour("DSP05", null, 100);
+
+        assertEquals(1, statistiques.getPrepareStatementCount(), "Une seule requête SQL");
+        assertEquals(0, statistiques.getEntityLoadCount(), "Aucune entité chargée");
+        var mapper = new ModelMapper();
+        var attendu = commandeRepository.commandesEnCoursPour("DSP05").stream()
+                .map(c -> mapper.map(c, EnTeteCommandeDTO.class))
+                .toList();
+        assertEquals(attendu, enCours);
+    }
+
+    @Test
+    void lireLesCommandesEnCoursParPages() {
+        List<Integer> creees = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            var commande = new Commande(entityManager.find(Dispensaire.class, "DSP09"));
+            creees.add(entityManager.persistAndFlush(commande).getNumero());
+        }
+
+        var page1 = lectureService.getCommandeEnCoursPour("DSP09", null, 2);
+        var page2 = lectureService.getCommandeEnCoursPour("DSP09", page1.get(1).getNumero(), 2);
+        var page3 = lectureService.getCommandeEnCoursPour("DSP09", page2.get(1).getNumero(), 2);
+
+        // Les plus récentes d'abord, sans doublon ni oubli
+        List<Integer> lues = new ArrayList<>();
+        for (var page : List.of(page1, page2, page3)) {
+            page.forEach(e -> lues.add(e.getNumero()));
+        }
+        assertEquals(creees.reversed(), lues);
+        assertEquals(1, page3.size());
+    }
+
+    @Test
+    void lireLesCommandesEnCoursParUnCurseur() {
+        for (int i = 0; i < 3; i++) {
+            entityManager.persistAndFlush(new Commande(entityManager.find(Dispensaire.class, "DSP05")));
+        }
+        List<EnTeteCommandeDTO> lues = new ArrayList<>();
+
+        lectureService.lireCommandesEnCoursPour("DSP05", lues::add);
+
+        assertEquals(lectureService.getCommandeEnCoursPour("DSP05", null, 100), lues);
+    }
+}
@@ -3,11 +3,20 @@ package pharmacie.service;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import pharmacie.dao.*;
 import pharmacie.entity.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,7 +29,8 @@ import static org.junit.jupiter.api.Assertions.*;
  *
  * On ne teste pas l'envoi de mails ici (c'est un test unitaire, pas un test
  * d'intégration).
- * On vérifie juste que la logique de détection et de regroupement fonctionne.
+ * On vérifie juste que la logique de détection et de regroupement fonctionne,
+ * et la file des médicaments à réapprovisionner (StockFaible).
  */
 @DataJpaTest
 class TestReapprovisionnement {
@@ -29,6 +39,20 @@ class TestReapprovisionnement {
     private MedicamentRepository medicamentRepository;
     @Autowired
     private FournisseurRepository fournisseurRepository;
+    @Autowired
+    private CategorieRepository categorieRepository;
+    @Autowired
+    private StockFaibleRepository stockFaibleRepository;
+    @Autowired
+    private MailEnAttenteRepository mailEnAttenteRepository;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ApplicationContext contexte;
 
     // ========== Détection des médicaments à réapprovisionner ==========
 
@@ -175,4 +199,253 @@ class TestReapprovisionnement {
                     + ", seuil=" + med.getNiveauDeReappro() + ")");
         }
     }
+
+    // ========== File des médicaments à réapprovisionner ==========
+
+    @Test
+    void lExpeditionQuiPasseSousLeSeuilSignaleLeMedicament() {
+        var reappro = reapprovisionnement();
+        var commandeService = new ServicesDeTest(contexte).commandeService();
+        int reference = mettreAuDessusDuSeuil(1, 2);
+        var commande = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(commande.getNumero(), reference, 5);
+        assertTrue(reappro.medicamentsAReapprovisionner().isEmpty(), "Le stock n'est pas encore sous le seuil");
+
+        commandeService.enregistreExpedition(commande.getNumero());
+        entityManager.clear();
+
+        var aReappro = reappro.medicamentsAReapprovisionner();
+        assertEquals(List.of(reference), aReappro.stream().map(Medicament::getReference).toList());
+        assertNotNull(aReappro.get(0).getCategorie().getCode());
+        assertEquals(0, stockFaibleRepository.count(), "La file est vidée");
+    }
+
+    @Test
+    void unMedicamentDejaSousLeSeuilNEstPasSignaleDeNouveau() {
+        var reappro = reapprovisionnement();
+        var commandeService = new ServicesDeTest(contexte).commandeService();
+        int reference = mettreAuDessusDuSeuil(2, 2);
+        var premiere = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(premiere.getNumero(), reference, 3);
+        var seconde = commandeService.creerCommande("DSP02");
+        commandeService.ajouterLigne(seconde.getNumero(), reference, 1);
+
+        // Expédition groupée : le seuil est franchi une seule fois
+        commandeService.enregistreExpeditions(List.of(premiere.getNumero()));
+        entityManager.clear();
+        assertEquals(1, reappro.medicamentsAReapprovisionner().size());
+
+        // Le stock baisse encore, mais il était déjà sous le seuil
+        commandeService.enregistreExpedition(seconde.getNumero());
+        entityManager.clear();
+        assertTrue(reappro.medicamentsAReapprovisionner().isEmpty());
+    }
+
+    @Test
+    void auDemarrageLaFileContientTousLesMedicamentsSousLeSeuil() {
+        var reappro = reapprovisionnement();
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50 WHERE reference IN (3, 4)");
+
+        assertEquals(2, reappro.rattraper());
+        assertEquals(0, reappro.rattraper(), "Les médicaments déjà dans la file ne sont pas ajoutés");
+        entityManager.clear();
+        assertEquals(List.of(3, 4), reappro.medicamentsAReapprovisionner().stream().map(Medicament::getReference).toList());
+    }
+
+    @Test
+    void leReapprovisionnementMetLesMailsEnAttente() {
+        var reappro = reapprovisionnement(AffectationFournisseurs.Mode.TOUS);
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50 WHERE reference = 1");
+        reappro.rattraper();
+        entityManager.clear();
+        int fournisseurs = medicamentRepository.findById(1).orElseThrow().getCategorie().getFournisseurs().size();
+
+        reappro.processReapprovisionnement();
+
+        // Un mail par fournisseur de la catégorie, aucun envoyé
+        assertEquals(fournisseurs, mailEnAttenteRepository.nombreEnAttente());
+        assertTrue(mailEnAttenteRepository.findAll().stream().allMatch(m -> m.getEnvoyeLe() == null));
+    }
+
+    @Test
+    void unFournisseurNEstPrevenuQuUneFoisParRupture() {
+        var reappro = reapprovisionnement();
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50 WHERE reference = 1");
+        reappro.rattraper();
+        int mails = reappro.reapprovisionner().mails();
+        assertTrue(mails > 0);
+
+        // Le médicament est signalé de nouveau (redémarrage), la rupture n'est pas terminée
+        reappro.rattraper();
+        var bilan = reappro.reapprovisionner();
+        assertEquals(1, bilan.medicaments());
+        assertEquals(0, bilan.mails(), "Les fournisseurs ont déjà été prévenus");
+
+        // Le stock remonte, puis redescend : nouvelle rupture
+        jdbc.update("UPDATE medicament SET unites_en_stock = 100 WHERE reference = 1");
+        assertEquals(0, reappro.reapprovisionner().mails());
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5 WHERE reference = 1");
+        reappro.rattraper();
+        entityManager.clear();
+        assertEquals(mails, reappro.reapprovisionner().mails());
+    }
+
+    // ========== Choix des fournisseurs ==========
+
+    @Test
+    void chaqueMedicamentEstDemandeAUnSeulFournisseur() {
+        var reappro = reapprovisionnement();
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50");
+        reappro.rattraper();
+        entityManager.clear();
+
+        var bilan = reappro.reapprovisionner();
+
+        // Tous les médicaments d'une catégorie qui a des fournisseurs sont demandés, une seule fois
+        var demandes = bilan.fournisseurs().stream().flatMap(r -> r.medicaments().stream()).toList();
+        var attendus = medicamentRepository.findAll().stream()
+                .filter(m -> !m.getCategorie().getFournisseurs().isEmpty()).map(Medicament::getNom).toList();
+        assertEquals(Set.copyOf(attendus), Set.copyOf(demandes));
+        assertEquals(attendus.size(), demandes.size());
+        // Couverture optimale des 10 catégories : 4 fournisseurs (2, 3, 5 et 8).
+        // 3 ne suffisent pas, chaque fournisseur fournit au plus 3 catégories.
+        assertEquals(4, bilan.mails());
+        assertEquals(4, bilan.fournisseurs().size());
+    }
+
+    @Test
+    void laCouvertureAtteintLOptimum() {
+        // 3 catégories, chacune fournie par 2 des fournisseurs 1, 2 et 3 : 2 fournisseurs suffisent, pas 1
+        jdbc.update("DELETE FROM categorie_fournisseur");
+        jdbc.update("INSERT INTO categorie_fournisseur (categorie_code, fournisseur_id) VALUES (1, 1), (1, 2), (2, 2), (2, 3), (3, 3), (3, 1)");
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50 WHERE categorie_code IN (1, 2, 3)");
+        long medicaments = jdbc.queryForObject("SELECT COUNT(*) FROM medicament WHERE categorie_code IN (1, 2, 3)", Long.class);
+        var couverture = reapprovisionnement(AffectationFournisseurs.Mode.COUVERTURE);
+        couverture.rattraper();
+        entityManager.clear();
+
+        var bilan = couverture.reapprovisionner();
+        assertEquals(2, bilan.mails());
+        assertEquals(medicaments, bilan.fournisseurs().stream().mapToLong(r -> r.medicaments().size()).sum());
+
+        // Chaque médicament à tous les fournisseurs de sa catégorie : les 3 fournisseurs
+        jdbc.update("DELETE FROM notification_reappro");
+        var tous = reapprovisionnement(AffectationFournisseurs.Mode.TOUS);
+        tous.rattraper();
+        entityManager.clear();
+        assertEquals(3, tous.reapprovisionner().mails());
+    }
+
+    @Test
+    void laCouvertureChoisitLeMoinsDeFournisseurs() {
+        // Éléments 0 à 5 : deux fournisseurs suffisent
+        var couvertures = new BitSet[] { bits(0, 1, 2, 3), bits(0, 1, 2), bits(3, 4, 5), bits(4) };
+        var choix = AffectationFournisseurs.couvrir(couvertures, new double[] { 1, 1, 1, 1 });
+        // Glouton : 0 (4 nouveaux), puis 2 (2 nouveaux : 4 et 5)
+        assertEquals(List.of(0, 2), choix.stream().map(AffectationFournisseurs.Choix::fournisseur).toList());
+        assertEquals(bits(0, 1, 2, 3), choix.get(0).elements());
+        assertEquals(bits(4, 5), choix.get(1).elements(), "Un élément n'est attribué qu'à un fournisseur");
+
+        // Le fournisseur 0 est cher : 1 et 2 sont choisis
+        choix = AffectationFournisseurs.couvrir(couvertures, new double[] { 10, 1, 1, 1 });
+        assertEquals(List.of(1, 2), choix.stream().map(AffectationFournisseurs.Choix::fournisseur).toList());
+        assertTrue(AffectationFournisseurs.couvrir(new BitSet[0], new double[0]).isEmpty());
+    }
+
+    @Test
+    void laCouvertureCouvreTousLesElements() {
+        var hasard = new Random(17);
+        var couvertures = new BitSet[200];
+        var couvrables = new BitSet();
+        for (int f = 0; f < couvertures.length; f++) {
+            couvertures[f] = new BitSet();
+            for (int i = 0; i < 50; i++) {
+                couvertures[f].set(hasard.nextInt(10_000));
+            }
+            couvrables.or(couvertures[f]);
+        }
+        var couts = new double[couvertures.length];
+        Arrays.fill(couts, 1);
+
+        var attribues = new BitSet();
+        for (var c : AffectationFournisseurs.couvrir(couvertures, couts)) {
+            assertFalse(attribues.intersects(c.elements()));
+            attribues.or(c.elements());
+        }
+        assertEquals(couvrables, attribues);
+    }
+
+    // ========== Table de routage catégorie -> fournisseurs ==========
+
+    @Test
+    void leRoutageDonneLesFournisseursDeChaqueCategorie() {
+        var routage = new RoutageFournisseurs(fournisseurRepository, new VersionsDonnees(0));
+        for (Categorie c : categorieRepository.findAll()) {
+            var attendus = c.getFournisseurs().stream().mapToLong(Fournisseur::getId).sorted().toArray();
+            assertArrayEquals(attendus, routage.fournisseursPour(c.getCode()), "Catégorie " + c.getCode());
+        }
+        assertEquals(0, routage.fournisseursPour(-1).length, "Catégorie inconnue");
+        // La table n'est pas reconstruite à chaque appel
+        assertSame(routage.fournisseursPour(1), routage.fournisseursPour(1));
+    }
+
+    @Test
+    void leRoutageEstReconstruitApresUneModification() {
+        var versions = new VersionsDonnees(0);
+        var routage = new RoutageFournisseurs(fournisseurRepository, versions);
+        var avant = routage.fournisseursPour(1);
+        jdbc.update("DELETE FROM categorie_fournisseur WHERE categorie_code = 1");
+
+        assertArrayEquals(avant, routage.fournisseursPour(1), "La table est gardée en mémoire");
+        // Les versions changent à la validation d'une transaction
+        var nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        nouvelle.executeWithoutResult(status -> versions.modifiees(VersionsDonnees.Donnees.MEDICAMENTS));
+        assertArrayEquals(avant, routage.fournisseursPour(1), "Les médicaments ne font pas partie du routage");
+        nouvelle.executeWithoutResult(status -> versions.modifiees(VersionsDonnees.Donnees.FOURNISSEURS));
+        assertEquals(0, routage.fournisseursPour(1).length);
+    }
+
+    @Test
+    void leRoutageEstReconstruitApresLaDureeMax() throws InterruptedException {
+        // Modification faite par une autre instance : aucune version ne change ici
+        var routage = new RoutageFournisseurs(fournisseurRepository, new VersionsDonnees(1));
+        var avant = routage.fournisseursPour(1);
+        assertTrue(avant.length > 0);
+        jdbc.update("DELETE FROM categorie_fournisseur WHERE categorie_code = 1");
+
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000 + 10);
+        assertEquals(0, routage.fournisseursPour(1).length);
+    }
+
+    private ReapprovisionnementService reapprovisionnement() {
+        return reapprovisionnement(AffectationFournisseurs.Mode.COUVERTURE);
+    }
+
+    private ReapprovisionnementService reapprovisionnement(AffectationFournisseurs.Mode mode) {
+        return new ServicesDeTest(contexte).reapprovisionnement(mode);
+    }
+
+    private static BitSet bits(int... elements) {
+        var bits = new BitSet();
+        for (int e : elements) {
+            bits.set(e);
+        }
+        return bits;
+    }
+
+    // Le stock du médicament est juste au dessus de son niveau de réapprovisionnement
+    private int mettreAuDessusDuSeuil(int reference, int marge) {
+        jdbc.update("""
+            UPDATE medicament SET unites_en_stock = unites_commandees + 10, niveau_de_reappro = unites_commandees + 10 - ?
+            WHERE reference = ?
+            """, marge, reference);
+        entityManager.clear();
+        return reference;
+    }
 }
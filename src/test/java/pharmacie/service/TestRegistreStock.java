@@ -0,0 +1,140 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import pharmacie.dao.*;
+import pharmacie.entity.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie le registre du stock en mémoire :
+ * - les réservations concurrentes ne dépassent jamais le stock
+ * - le CommandeService utilise le registre quand il est activé
+ * - les variations sont écrites dans la BD
+ * - un médicament modifié par l'API REST garde ses réservations en cours
+ */
+@DataJpaTest
+class TestRegistreStock {
+
+    @Autowired
+    private MedicamentRepository medicamentRepository;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private TransactionTemplate transaction;
+    @Autowired
+    private ApplicationContext contexte;
+
+    private RegistreStock registre;
+
+    @BeforeEach
+    void setUp() {
+        // Pas d'écriture automatique pendant le test : intervalle et lot très grands
+        registre = new RegistreStock(jdbc, transaction, Integer.MAX_VALUE, Integer.MAX_VALUE, new VersionsDonnees(0));
+        registre.reconstruire();
+    }
+
+    @Test
+    void lesReservationsConcurrentesNeDepassentPasLeStock() throws Exception {
+        Medicament med = medicamentRepository.findById(2).orElseThrow();
+        int disponible = med.getUnitesEnStock() - commandeesSelonLesLignes(2);
+
+        // 8 threads essaient de réserver chacun 100 unités, une par une
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> resultats = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            resultats.add(threads.submit(() -> {
+                int reussies = 0;
+                for (int i = 0; i < 100; i++) {
+                    if (registre.reserver(2, 1)) {
+                        reussies++;
+                    }
+                }
+                return reussies;
+            }));
+        }
+        int total = 0;
+        for (Future<Integer> f : resultats) {
+            total += f.get();
+        }
+        threads.shutdown();
+
+        assertEquals(Math.min(disponible, 800), total, "On ne doit pas réserver plus que le stock disponible");
+    }
+
+    @Test
+    void leServiceReserveDansLeRegistre() {
+        var commandeService = new ServicesDeTest(contexte).commandeService(registre);
+        Medicament med = medicamentRepository.findById(1).orElseThrow();
+        int disponible = med.getUnitesEnStock() - commandeesSelonLesLignes(1);
+        Commande cmd = commandeService.creerCommande("DSP01");
+
+        commandeService.ajouterLigne(cmd.getNumero(), 1, disponible);
+        // Le stock est épuisé dans le registre, même si la BD n'a pas encore été modifiée
+        assertThrows(IllegalStateException.class, () -> {
+            commandeService.ajouterLigne(cmd.getNumero(), 1, 1);
+        });
+    }
+
+    @Test
+    void lesVariationsSontEcritesDansLaBD() throws InterruptedException {
+        int avant = commandeesEnBD(3);
+        // Dans un autre thread, hors de la transaction du test, les variations sont prises en compte immédiatement
+        Thread thread = new Thread(() -> {
+            registre.reserver(3, 4);
+            registre.liberer(3, 1);
+        });
+        thread.start();
+        thread.join();
+        assertEquals(avant, commandeesEnBD(3), "L'écriture dans la BD est différée");
+
+        registre.ecrire();
+        assertEquals(avant + 3, commandeesEnBD(3));
+    }
+
+    @Test
+    void uneModificationDuMedicamentGardeLesReservations() throws InterruptedException {
+        Medicament med = medicamentRepository.findById(2).orElseThrow();
+        int disponible = med.getUnitesEnStock() - commandeesSelonLesLignes(2);
+        // Hors de la transaction du test : les réservations sont validées
+        Thread thread = new Thread(() -> assertTrue(registre.reserver(2, disponible)));
+        thread.start();
+        thread.join();
+
+        med.setIndisponible(true);
+        registre.recharger(med);
+        assertTrue(registre.estIndisponible(2));
+        assertFalse(registre.reserver(2, 1), "Médicament indisponible");
+
+        med.setIndisponible(false);
+        registre.recharger(med);
+        assertFalse(registre.estIndisponible(2));
+        assertFalse(registre.reserver(2, 1), "Le stock est toujours réservé");
+        med.setUnitesEnStock(med.getUnitesEnStock() + 1);
+        registre.recharger(med);
+        assertTrue(registre.reserver(2, 1), "Une unité de plus en stock");
+    }
+
+    private int commandeesSelonLesLignes(int reference) {
+        return jdbc.queryForObject("""
+            SELECT COALESCE(SUM(l.quantite), 0) FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.envoyeele IS NULL AND l.medicament_reference = ?
+            """, Integer.class, reference);
+    }
+
+    private int commandeesEnBD(int reference) {
+        return jdbc.queryForObject("SELECT unites_commandees FROM medicament WHERE reference = ?", Integer.class, reference);
+    }
+}
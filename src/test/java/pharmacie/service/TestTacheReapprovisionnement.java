@@ -0,0 +1,80 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie le réapprovisionnement planifié :
+ * - le verrou dans la BD n'est détenu que par une instance à la fois, jusqu'à l'expiration du bail
+ * - le réapprovisionnement n'est pas exécuté si le verrou est détenu par une autre instance
+ * - les métriques
+ */
+@DataJpaTest
+class TestTacheReapprovisionnement {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactions;
+    @Autowired
+    private ApplicationContext contexte;
+
+    @Test
+    void leVerrouNEstDetenuQueParUneInstance() {
+        // Deux instances de l'application
+        var premiere = new VerrouBail(jdbc, transactions);
+        var seconde = new VerrouBail(jdbc, transactions);
+
+        assertTrue(premiere.prendre("test-verrou", Duration.ofMinutes(1)));
+        assertTrue(premiere.prendre("test-verrou", Duration.ofMinutes(1)), "L'instance qui détient le verrou peut le prolonger");
+        assertFalse(seconde.prendre("test-verrou", Duration.ofMinutes(1)));
+
+        premiere.liberer("test-verrou");
+        assertTrue(seconde.prendre("test-verrou", Duration.ofMinutes(1)));
+        seconde.liberer("test-verrou");
+    }
+
+    @Test
+    void leVerrouEstLibreALExpirationDuBail() {
+        var premiere = new VerrouBail(jdbc, transactions);
+        var seconde = new VerrouBail(jdbc, transactions);
+
+        // La première instance s'arrête sans libérer le verrou, son bail est expiré
+        assertTrue(premiere.prendre("test-bail", Duration.ofMillis(-1)));
+        assertTrue(seconde.prendre("test-bail", Duration.ofMinutes(1)));
+        assertFalse(premiere.prendre("test-bail", Duration.ofMinutes(1)));
+        seconde.liberer("test-bail");
+    }
+
+    @Test
+    void leReapprovisionnementNEstExecuteQueParLInstanceQuiDetientLeVerrou() {
+        var reappro = new ServicesDeTest(contexte).reapprovisionnement(AffectationFournisseurs.Mode.COUVERTURE);
+        var metriques = new SimpleMeterRegistry();
+        var tache = new TacheReapprovisionnement(reappro, new VerrouBail(jdbc, transactions), metriques, 60_000);
+        jdbc.update("UPDATE medicament SET niveau_de_reappro = 0");
+        jdbc.update("UPDATE medicament SET unites_en_stock = 5, niveau_de_reappro = 50 WHERE reference = 1");
+        reappro.rattraper();
+
+        // Une autre instance exécute le réapprovisionnement
+        var autre = new VerrouBail(jdbc, transactions);
+        assertTrue(autre.prendre(TacheReapprovisionnement.VERROU, Duration.ofMinutes(1)));
+        assertTrue(tache.executer().isEmpty());
+        assertEquals(1, metriques.counter("pharmacie.reappro.ignorees").count());
+        autre.liberer(TacheReapprovisionnement.VERROU);
+
+        var bilan = tache.executer().orElseThrow();
+        assertEquals(1, bilan.medicaments());
+        assertEquals(1, metriques.counter("pharmacie.reappro.medicaments").count());
+        assertEquals(bilan.mails(), metriques.counter("pharmacie.reappro.mails").count());
+        assertEquals(1, metriques.timer("pharmacie.reappro.duree").count());
+    }
+}
@@ -0,0 +1,342 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pharmacie.dto.MeilleureVenteDTO;
+import pharmacie.dto.TopVentesDTO;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie les meilleures ventes estimées, comparées aux ventes exactes calculées par le SGBD
+ * sur des commandes synthétiques (ventes concentrées sur quelques médicaments, lignes supprimées) :
+ * - les unités exactes sont dans l'intervalle annoncé, l'erreur respecte la borne documentée
+ * - tout médicament qui a vendu plus que le seuil est retourné
+ * - seules les ventes validées des jours de la période sont comptées
+ * - les compteurs sauvegardés, ou calculés à partir des lignes, donnent les mêmes garanties
+ * - les sauvegardes de plusieurs instances s'additionnent
+ * - les ventes validées avant le chargement ne sont ni perdues ni comptées deux fois
+ */
+@DataJpaTest
+class TestTopVentes {
+    // Peu de compteurs pour 100 médicaments : les estimations ne sont pas exactes
+    private static final int COMPTEURS = 20;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TopVentes top;
+    private TransactionTemplate nouvelle;
+    private LocalDate aujourdhui;
+    // Unités ajoutées et retirées par jour, pour la borne d'erreur
+    private final Map<LocalDate, long[]> mouvements = new HashMap<>();
+    // Les commandes créées, supprimées à la fin des tests qui les valident
+    private final List<Integer> commandes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        top = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        nouvelle = new TransactionTemplate(transactionManager);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        aujourdhui = LocalDate.now();
+    }
+
+    @Test
+    void lesEstimationsEncadrentLesVentesExactes() {
+        creerVentes(10);
+        for (int periode : new int[] { 1, 3, 7, 10, 28 }) {
+            for (int n : new int[] { 5, COMPTEURS }) {
+                verifier(top.meilleures(n, periode), n, periode);
+            }
+        }
+        assertTrue(top.meilleures(COMPTEURS, 28).getMedicaments().stream().anyMatch(m -> m.getErreur() > 0),
+                "Les compteurs ont été remplacés");
+    }
+
+    @Test
+    void seulesLesVentesValideesDeLaPeriodeSontComptees() {
+        int reference = 1;
+        // Avant la fenêtre gardée en mémoire
+        nouvelle.executeWithoutResult(status -> top.enregistrer(aujourdhui.minusDays(40), reference, 1000));
+        // Avant la période demandée
+        nouvelle.executeWithoutResult(status -> top.enregistrer(aujourdhui.minusDays(5), reference, 500));
+        // Annulée
+        nouvelle.executeWithoutResult(status -> {
+            top.enregistrer(aujourdhui, reference, 2000);
+            status.setRollbackOnly();
+        });
+        nouvelle.executeWithoutResult(status -> {
+            top.enregistrer(aujourdhui, 2, 30);
+            top.enregistrer(aujourdhui, reference, 10);
+            top.enregistrer(aujourdhui, reference, -4);
+        });
+
+        var troisJours = top.meilleures(5, 3);
+        assertEquals(aujourdhui.minusDays(2), troisJours.getDu());
+        assertEquals(List.of(2, reference), troisJours.getMedicaments().stream().map(MeilleureVenteDTO::getReference).toList());
+        assertEquals(6, troisJours.getMedicaments().get(1).getUnites());
+        assertEquals(0, troisJours.getMedicaments().get(1).getErreur());
+        assertEquals(506, top.meilleures(5, 28).getMedicaments().get(0).getUnites());
+        nouvelle.executeWithoutResult(status -> top.enregistrer(aujourdhui, 2, -30));
+        assertEquals(List.of(reference), top.meilleures(5, 3).getMedicaments().stream().map(MeilleureVenteDTO::getReference).toList());
+
+        assertThrows(IllegalArgumentException.class, () -> top.meilleures(0, 7));
+        assertThrows(IllegalArgumentException.class, () -> top.meilleures(COMPTEURS + 1, 7));
+        assertThrows(IllegalArgumentException.class, () -> top.meilleures(5, 29));
+    }
+
+    @Test
+    void lesCompteursSontSauvegardesEtRelus() {
+        creerVentes(10);
+        top.sauvegarder();
+        var relus = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        relus.charger();
+        assertEquals(top.meilleures(COMPTEURS, 28), relus.meilleures(COMPTEURS, 28));
+        assertEquals(top.meilleures(5, 3), relus.meilleures(5, 3));
+
+        // Moins de compteurs qu'à la sauvegarde : les estimations restent des bornes
+        var reduits = new TopVentes(jdbc, transactionManager, COMPTEURS / 2, 28);
+        reduits.charger();
+        var estimation = reduits.meilleures(5, 7);
+        var exactes = exactes(7);
+        for (var m : estimation.getMedicaments()) {
+            long unites = exactes.getOrDefault(m.getReference(), 0L);
+            assertTrue(m.getUnites() - m.getErreur() <= unites && unites <= m.getUnites(), m.toString());
+        }
+    }
+
+    @Test
+    void lesSauvegardesDesInstancesSAdditionnent() {
+        var a = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        var b = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        try {
+            // Des transactions validées, comme dans deux instances qui partagent la BD
+            nouvelle.executeWithoutResult(status -> a.enregistrer(aujourdhui, 1, 10));
+            nouvelle.executeWithoutResult(status -> {
+                b.enregistrer(aujourdhui, 1, 5);
+                b.enregistrer(aujourdhui, 2, 3);
+            });
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+            nouvelle.executeWithoutResult(status -> b.sauvegarder());
+            // Rien de nouveau : les compteurs de b ne sont pas remplacés
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+
+            var relus = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+            relus.charger();
+            assertEquals(Map.of(1, 15L, 2, 3L), unites(relus.meilleures(2, 1)));
+            assertEquals(Map.of(1, 15L, 2, 3L), unites(b.meilleures(2, 1)), "b a vu les ventes de a en sauvegardant");
+
+            nouvelle.executeWithoutResult(status -> a.enregistrer(aujourdhui, 2, 1));
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+            relus.charger();
+            assertEquals(Map.of(1, 15L, 2, 4L), unites(relus.meilleures(2, 1)));
+        } finally {
+            nouvelle.executeWithoutResult(status -> jdbc.update("DELETE FROM compteur_top_ventes"));
+        }
+    }
+
+    @Test
+    void sansSauvegardeLesCompteursSontCalculesAPartirDesLignes() {
+        try {
+            // Les lignes sont lues dans une autre transaction (instantané) : elles sont validées
+            nouvelle.executeWithoutResult(status -> creerVentes(10));
+            var calcules = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+            calcules.charger();
+            for (int periode : new int[] { 1, 7, 28 }) {
+                var estimation = calcules.meilleures(5, periode);
+                var exactes = exactes(periode);
+                // Les unités par médicament et par jour, sans les lignes supprimées
+                long total = exactes.values().stream().mapToLong(Long::longValue).sum();
+                for (var m : estimation.getMedicaments()) {
+                    long unites = exactes.getOrDefault(m.getReference(), 0L);
+                    assertTrue(m.getUnites() - m.getErreur() <= unites && unites <= m.getUnites(), m.toString());
+                    assertTrue(m.getErreur() <= total / COMPTEURS, m.toString());
+                }
+                tousLesGrandsSontPresents(estimation, exactes);
+            }
+        } finally {
+            supprimerCommandes();
+        }
+    }
+
+    @Test
+    void lesVentesValideesAvantLeChargementSontGardees() {
+        var a = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        try {
+            nouvelle.executeWithoutResult(status -> a.enregistrer(aujourdhui, 1, 10));
+            nouvelle.executeWithoutResult(status -> a.sauvegarder());
+
+            // Une vente validée entre le démarrage du serveur et le chargement
+            var demarree = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+            nouvelle.executeWithoutResult(status -> demarree.enregistrer(aujourdhui, 1, 5));
+            demarree.charger();
+            assertEquals(Map.of(1, 15L), unites(demarree.meilleures(1, 1)));
+
+            // Elle n'a pas été sauvegardée : elle l'est à la sauvegarde suivante
+            nouvelle.executeWithoutResult(status -> demarree.sauvegarder());
+            var relus = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+            relus.charger();
+            assertEquals(Map.of(1, 15L), unites(relus.meilleures(1, 1)));
+        } finally {
+            nouvelle.executeWithoutResult(status -> jdbc.update("DELETE FROM compteur_top_ventes"));
+        }
+    }
+
+    @Test
+    void lesVentesLuesDansLesLignesNeSontPasCompteesDeuxFois() {
+        var calcules = new TopVentes(jdbc, transactionManager, COMPTEURS, 28);
+        try {
+            // Une vente validée avant le chargement : sa ligne est lue
+            nouvelle.executeWithoutResult(status -> {
+                int commande = creerCommande(aujourdhui);
+                jdbc.update("INSERT INTO ligne (commande_numero, medicament_reference, quantite) VALUES (?, 1, 7)", commande);
+                calcules.enregistrer(aujourdhui, 1, 7);
+            });
+            calcules.charger();
+            // Une vente validée après le chargement
+            nouvelle.executeWithoutResult(status -> calcules.enregistrer(aujourdhui, 1, 2));
+
+            long exactes = exactes(1).getOrDefault(1, 0L);
+            var meilleure = calcules.meilleures(COMPTEURS, 1).getMedicaments().stream()
+                    .filter(m -> m.getReference() == 1).findFirst().orElseThrow();
+            assertEquals(exactes + 2, meilleure.getUnites());
+        } finally {
+            supprimerCommandes();
+        }
+    }
+
+    private void verifier(TopVentesDTO estimation, int n, int periode) {
+        var exactes = exactes(periode);
+        var debut = aujourdhui.minusDays(periode - 1L);
+        long ajoutees = 0;
+        long retirees = 0;
+        for (var e : mouvements.entrySet()) {
+            if (!e.getKey().isBefore(debut)) {
+                ajoutees += e.getValue()[0];
+                retirees += e.getValue()[1];
+            }
+        }
+        var medicaments = estimation.getMedicaments();
+        assertTrue(medicaments.size() <= n);
+        assertTrue(estimation.getSeuil() <= ajoutees / COMPTEURS, "Seuil " + estimation.getSeuil());
+        long precedentes = Long.MAX_VALUE;
+        for (var m : medicaments) {
+            long unites = exactes.getOrDefault(m.getReference(), 0L);
+            assertTrue(m.getUnites() - m.getErreur() <= unites && unites <= m.getUnites(),
+                    periode + " jours : " + m + ", exactes " + unites);
+            assertTrue(m.getErreur() <= (ajoutees + retirees) / COMPTEURS, m.toString());
+            assertTrue(m.getUnites() <= precedentes, "Par unités décroissantes");
+            assertNotNull(m.getNom());
+            precedentes = m.getUnites();
+        }
+        tousLesGrandsSontPresents(estimation, exactes);
+    }
+
+    private static void tousLesGrandsSontPresents(TopVentesDTO estimation, Map<Integer, Long> exactes) {
+        var medicaments = estimation.getMedicaments();
+        long limite = Math.max(estimation.getSeuil(), medicaments.isEmpty() ? 0 : medicaments.get(medicaments.size() - 1).getUnites());
+        var presents = new HashSet<Integer>();
+        medicaments.forEach(m -> presents.add(m.getReference()));
+        exactes.forEach((reference, unites) -> {
+            if (unites > limite) {
+                assertTrue(presents.contains(reference), "Médicament " + reference + " : " + unites + " unités > " + limite);
+            }
+        });
+    }
+
+    private static Map<Integer, Long> unites(TopVentesDTO estimation) {
+        Map<Integer, Long> unites = new HashMap<>();
+        estimation.getMedicaments().forEach(m -> unites.put(m.getReference(), m.getUnites()));
+        return unites;
+    }
+
+    // Les ventes exactes de la période, calculées par le SGBD
+    private Map<Integer, Long> exactes(int periode) {
+        Map<Integer, Long> exactes = new HashMap<>();
+        jdbc.query("""
+            SELECT l.medicament_reference, SUM(l.quantite) FROM ligne l JOIN commande c ON c.numero = l.commande_numero
+            WHERE c.saisiele >= ? GROUP BY l.medicament_reference
+            """, rs -> {
+            exactes.put(rs.getInt(1), rs.getLong(2));
+        }, Date.valueOf(aujourdhui.minusDays(periode - 1L)));
+        return exactes;
+    }
+
+    /**
+     * Crée des commandes pour les derniers jours : les ventes sont concentrées sur les premiers médicaments,
+     * une ligne sur dix est supprimée. Les lignes sont créées dans la transaction du test,
+     * les ventes enregistrées dans des transactions validées.
+     */
+    private void creerVentes(int nombreJours) {
+        var aleatoire = new Random(42);
+        List<Integer> references = jdbc.queryForList("SELECT reference FROM medicament ORDER BY reference", Integer.class);
+        for (int d = 0; d < nombreJours; d++) {
+            var jour = aujourdhui.minusDays(d);
+            var mouvement = mouvements.computeIfAbsent(jour, j -> new long[2]);
+            for (int c = 0; c < 40; c++) {
+                int commande = creerCommande(jour);
+                var medicaments = new LinkedHashSet<Integer>();
+                while (medicaments.size() < 5) {
+                    // Loi de puissance : les premiers médicaments sont beaucoup plus vendus
+                    medicaments.add(references.get((int) (references.size() * Math.pow(aleatoire.nextDouble(), 3))));
+                }
+                List<int[]> lignes = new ArrayList<>();
+                for (int medicament : medicaments) {
+                    int quantite = 1 + aleatoire.nextInt(10);
+                    jdbc.update("INSERT INTO ligne (commande_numero, medicament_reference, quantite) VALUES (?, ?, ?)",
+                            commande, medicament, quantite);
+                    lignes.add(new int[] { medicament, quantite });
+                    mouvement[0] += quantite;
+                }
+                nouvelle.executeWithoutResult(status -> lignes.forEach(l -> top.enregistrer(jour, l[0], l[1])));
+                if (c % 10 == 9) {
+                    var supprimee = lignes.get(aleatoire.nextInt(lignes.size()));
+                    jdbc.update("DELETE FROM ligne WHERE commande_numero = ? AND medicament_reference = ?", commande, supprimee[0]);
+                    nouvelle.executeWithoutResult(status -> top.enregistrer(jour, supprimee[0], -supprimee[1]));
+                    mouvement[1] += supprimee[1];
+                }
+            }
+        }
+    }
+
+    private int creerCommande(LocalDate jour) {
+        var cle = new GeneratedKeyHolder();
+        jdbc.update(connexion -> {
+            PreparedStatement ps = connexion.prepareStatement(
+                    "INSERT INTO commande (saisiele, dispensaire_code, remise) VALUES (?, 'DSP01', 0)",
+                    Statement.RETURN_GENERATED_KEYS);
+            ps.setDate(1, Date.valueOf(jour));
+            return ps;
+        }, cle);
+        commandes.add(cle.getKey().intValue());
+        return cle.getKey().intValue();
+    }
+
+    private void supprimerCommandes() {
+        nouvelle.executeWithoutResult(status -> commandes.forEach(commande -> {
+            jdbc.update("DELETE FROM ligne WHERE commande_numero = ?", commande);
+            jdbc.update("DELETE FROM commande WHERE numero = ?", commande);
+        }));
+    }
+}
@@ -0,0 +1,195 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pharmacie.dao.*;
+import pharmacie.dto.TravailReapproDTO;
+import pharmacie.entity.MailEnAttente;
+import pharmacie.service.TravauxReapprovisionnement.Statut;
+import pharmacie.service.TravauxReapprovisionnement.Travail;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie les réapprovisionnements exécutés en arrière-plan :
+ * - les demandes simultanées sont regroupées dans le travail en cours
+ * - l'avancement et le résultat par fournisseur
+ * - les abonnés sont prévenus hors du traitement, la fin avec l'état de l'envoi des mails
+ * - un échec du traitement
+ * Le traitement est simulé : il ne lit pas la BD (le thread du travail ne voit pas la transaction du test).
+ */
+@DataJpaTest
+class TestTravauxReapprovisionnement {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactions;
+    @Autowired
+    private MailEnAttenteRepository mailEnAttenteRepository;
+
+    @Test
+    void lesDemandesSimultaneesSontRegroupees() throws Exception {
+        var traitement = new TraitementSimule();
+        var travaux = travaux(traitement);
+        List<String> evenements = new CopyOnWriteArrayList<>();
+        var finRecue = new CountDownLatch(1);
+
+        var premier = travaux.soumettre();
+        assertTrue(traitement.demarre.await(5, TimeUnit.SECONDS));
+        assertTrue(premier.abonner(etat -> {
+            evenements.add(etat.getStatut());
+            if (Statut.valueOf(etat.getStatut()).estFinal()) {
+                finRecue.countDown();
+            }
+        }));
+        assertSame(premier, travaux.soumettre(), "Le travail en cours est renvoyé");
+        var enCours = travaux.etat(premier.getId());
+        assertEquals("EN_COURS", enCours.getStatut());
+        assertEquals(1, enCours.getFournisseursTraites());
+        assertEquals(2, enCours.getFournisseursATraiter());
+        assertEquals(List.of("Doliprane"), enCours.getFournisseurs().get(0).getMedicaments());
+
+        traitement.fin.countDown();
+        attendreLaFin(premier);
+        assertTrue(finRecue.await(5, TimeUnit.SECONDS));
+
+        var fin = travaux.etat(premier.getId());
+        assertEquals("TERMINE", fin.getStatut());
+        assertEquals(2, fin.getFournisseurs().size());
+        assertEquals(3, fin.getMedicaments());
+        assertEquals(List.of("EN_COURS", "TERMINE"), evenements, "Un fournisseur traité, puis la fin");
+        assertEquals(1, traitement.executions, "Un seul réapprovisionnement");
+
+        var second = travaux.soumettre();
+        assertNotEquals(premier.getId(), second.getId(), "Le travail terminé n'est pas réutilisé");
+        attendreLaFin(second);
+        assertEquals(2, traitement.executions);
+    }
+
+    @Test
+    void unEchecEstSignaleDansLeTravail() throws Exception {
+        var traitement = new TraitementSimule();
+        traitement.erreur = new IllegalStateException("BD indisponible");
+        traitement.fin.countDown();
+        var travaux = travaux(traitement);
+
+        var travail = travaux.soumettre();
+        attendreLaFin(travail);
+
+        var etat = travaux.etat(travail.getId());
+        assertEquals("ECHEC", etat.getStatut());
+        assertTrue(etat.getMessage().contains("BD indisponible"));
+        assertTrue(etat.getFournisseurs().isEmpty(), "Transaction annulée : aucun mail");
+        assertFalse(travail.abonner(t -> fail("Travail terminé")));
+    }
+
+    @Test
+    void unAbonneLentNeRetardePasLeTraitement() throws Exception {
+        // Un mail déjà envoyé, validé : visible par le thread du travail
+        var nouvelle = new TransactionTemplate(transactions);
+        nouvelle.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Long mailId = nouvelle.execute(status -> {
+            var mail = new MailEnAttente(1L, "pfizer@test", "Réappro", "Doliprane");
+            mail.setEnvoyeLe(LocalDateTime.now());
+            return mailEnAttenteRepository.save(mail).getId();
+        });
+        try {
+            var traitement = new TraitementSimule();
+            traitement.mailId = mailId;
+            var travaux = travaux(traitement);
+            var debloquer = new CountDownLatch(1);
+            List<TravailReapproDTO> recus = new CopyOnWriteArrayList<>();
+            var finRecue = new CountDownLatch(1);
+
+            var travail = travaux.soumettre();
+            assertTrue(traitement.demarre.await(5, TimeUnit.SECONDS));
+            assertTrue(travail.abonner(etat -> {
+                try {
+                    debloquer.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                recus.add(etat);
+                if (Statut.valueOf(etat.getStatut()).estFinal()) {
+                    finRecue.countDown();
+                }
+            }));
+            // Le traitement se termine pendant que l'abonné est bloqué
+            traitement.fin.countDown();
+            attendreLaFin(travail);
+            assertTrue(recus.isEmpty());
+
+            debloquer.countDown();
+            assertTrue(finRecue.await(5, TimeUnit.SECONDS));
+            var fin = recus.get(recus.size() - 1);
+            assertEquals("TERMINE", fin.getStatut());
+            assertEquals("ENVOYE", fin.getFournisseurs().get(0).getStatutMail(), "L'état de l'envoi est lu dans la BD");
+        } finally {
+            nouvelle.executeWithoutResult(status -> mailEnAttenteRepository.deleteById(mailId));
+        }
+    }
+
+    @Test
+    void unTravailInconnuEstSignale() {
+        var travaux = travaux(new TraitementSimule());
+        assertThrows(NoSuchElementException.class, () -> travaux.etat("inconnu"));
+    }
+
+    private TravauxReapprovisionnement travaux(ReapprovisionnementService traitement) {
+        var tache = new TacheReapprovisionnement(traitement, new VerrouBail(jdbc, transactions), new SimpleMeterRegistry(), 60_000);
+        return new TravauxReapprovisionnement(tache, mailEnAttenteRepository, 10);
+    }
+
+    private static void attendreLaFin(Travail travail) throws InterruptedException {
+        for (int i = 0; i < 500 && !travail.estTermine(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(travail.estTermine());
+    }
+
+    // Deux fournisseurs, le second attend la fin du test
+    private static class TraitementSimule extends ReapprovisionnementService {
+        final CountDownLatch demarre = new CountDownLatch(1);
+        final CountDownLatch fin = new CountDownLatch(1);
+        volatile RuntimeException erreur;
+        volatile Long mailId;
+        volatile int executions = 0;
+
+        TraitementSimule() {
+            super(null, null, null, null, null, null);
+        }
+
+        @Override
+        public Bilan reapprovisionner(Avancement avancement) {
+            executions++;
+            if (erreur != null) {
+                throw erreur;
+            }
+            var premier = new ResultatFournisseur(1, "Fournisseur 1", List.of("Doliprane"), mailId);
+            avancement.fournisseurTraite(premier, 1, 2);
+            demarre.countDown();
+            try {
+                fin.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            var second = new ResultatFournisseur(2, "Fournisseur 2", List.of("Aspirine", "Smecta"), null);
+            avancement.fournisseurTraite(second, 2, 2);
+            return new Bilan(3, 2, List.of(premier, second), "Réapprovisionnement terminé.");
+        }
+    }
+}
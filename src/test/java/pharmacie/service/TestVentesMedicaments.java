@@ -0,0 +1,96 @@
+package pharmacie.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pharmacie.dao.*;
+import pharmacie.dto.LignePanierDTO;
+import pharmacie.entity.Categorie;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ce test vérifie la table des ventes par médicament (statistiques par catégorie) :
+ * - même résultat que le calcul à partir des lignes
+ * - tenue à jour à l'ajout et à la suppression de lignes
+ * - la vérification corrige les écarts
+ */
+@DataJpaTest
+class TestVentesMedicaments {
+
+    @Autowired
+    private ApplicationContext contexte;
+    @Autowired
+    private MedicamentRepository medicamentRepository;
+    @Autowired
+    private CategorieRepository categorieRepository;
+    @Autowired
+    private VentesMedicamentRepository ventesRepository;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private VentesMedicaments ventes;
+    private CommandeService commandeService;
+
+    @BeforeEach
+    void setUp() {
+        // Petits lots pour vérifier l'écriture par lots
+        ventes = new VentesMedicaments(jdbc, 3, new VersionsDonnees(0));
+        commandeService = new ServicesDeTest(contexte).commandeService(ventes);
+        // Au démarrage, la table est remplie par la vérification
+        assertEquals(medicamentRepository.count(), ventes.verifier());
+    }
+
+    @Test
+    void lesVentesSontCellesDesLignes() {
+        assertEquals(0, ventes.verifier(), "Aucun écart");
+        verifierToutesLesCategories();
+    }
+
+    @Test
+    void lesVentesSontTenuesAJour() {
+        var commande = commandeService.creerCommande("DSP01");
+        commandeService.ajouterLigne(commande.getNumero(), 1, 3);
+        commandeService.ajouterLigne(commande.getNumero(), 1, 2);
+        commandeService.ajouterLignes(commande.getNumero(), List.of(new LignePanierDTO(2, 4), new LignePanierDTO(3, 1)));
+        var autre = commandeService.creerCommande("DSP02");
+        var supprimee = commandeService.ajouterLigne(autre.getNumero(), 3, 6);
+        commandeService.supprimerLigne(supprimee.getId());
+        entityManager.flush();
+        entityManager.clear();
+
+        verifierToutesLesCategories();
+        assertEquals(0, ventes.verifier());
+    }
+
+    @Test
+    void laVerificationCorrigeLesEcarts() {
+        jdbc.update("UPDATE ventes_medicament SET unites = unites + 5 WHERE medicament_reference IN (1, 2)");
+        jdbc.update("DELETE FROM ventes_medicament WHERE medicament_reference = 3");
+
+        assertEquals(3, ventes.verifier());
+        entityManager.clear();
+        verifierToutesLesCategories();
+    }
+
+    private void verifierToutesLesCategories() {
+        for (Categorie c : categorieRepository.findAll()) {
+            assertEquals(unites(medicamentRepository.medicamentsCommandesPour(c.getCode())),
+                    unites(ventesRepository.unitesVenduesPour(c.getCode())), "Catégorie " + c.getCode());
+        }
+    }
+
+    private static Map<String, Long> unites(List<UnitesParMedicament> resultats) {
+        return resultats.stream().collect(Collectors.toMap(UnitesParMedicament::getNom, UnitesParMedicament::getUnites));
+    }
+}